@@ -0,0 +1,72 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package bench;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import automata.*;
+import traces.Message;
+
+/**
+ * Construction of the prefix tree from the tokenized input messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xss128m" })
+public class AutomatonBenchmark extends TracesState {
+  private List<List<RegEx>> _sequences;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    _sequences = new ArrayList<List<RegEx>>(input_messages.size());
+    for (Message m : input_messages)
+      _sequences.add(RegEx.tokenize(m, 0));
+  }
+
+  @Benchmark
+  public Automaton<RegEx> addSequence() {
+    Automaton<RegEx> automaton = new Automaton<RegEx>();
+    for (List<RegEx> sequence : _sequences)
+      automaton.addSequence(sequence);
+    return automaton;
+  }
+
+  @Benchmark
+  public Automaton<RegEx> addSequencesMinimized() {
+    Automaton<RegEx> automaton = new Automaton<RegEx>();
+    automaton.addSequencesMinimized(new ArrayList<List<RegEx>>(_sequences));
+    return automaton;
+  }
+}
@@ -0,0 +1,238 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package bench;
+
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.util.*;
+import automata.*;
+import traces.Message;
+import utils.Timer;
+
+/**
+ * Access to the Language class from the benchmarks. JMH does not accept
+ * benchmarks in the default package, where Language is, and classes in the
+ * default package cannot be imported, so Language is reached with method
+ * handles. Handles in static final fields are constants for the JIT, so
+ * calling them costs about the same as calling the methods directly.
+ */
+final class LanguageAccess {
+  private static final Class<?> LANGUAGE;
+  private static final MethodHandle NEW_EMPTY;
+  private static final MethodHandle NEW_LANGUAGE;
+  private static final MethodHandle ADD_SEQUENCE;
+  private static final MethodHandle GENERALIZE_I;
+  private static final MethodHandle GENERALIZE_II;
+  private static final MethodHandle COMPILE;
+  private static final MethodHandle ACCEPTS;
+  private static final MethodHandle SET_COMPILED_MATCHER;
+  private static final MethodHandle SET_CACHE_SIZE;
+
+  static {
+    try {
+      LANGUAGE = Class.forName("Language");
+      LANGUAGE.getField("TIMER").set(null, new Timer());
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+      Constructor<?> empty = LANGUAGE.getDeclaredConstructor();
+      empty.setAccessible(true);
+      NEW_EMPTY = lookup.unreflectConstructor(empty).asType(
+          MethodType.methodType(Automaton.class));
+      NEW_LANGUAGE = lookup.unreflectConstructor(
+          LANGUAGE.getConstructor(boolean.class, Collection.class, float.class, int.class))
+          .asType(MethodType.methodType(Automaton.class, boolean.class, Collection.class,
+              float.class, int.class));
+      ADD_SEQUENCE = lookup.unreflect(LANGUAGE.getMethod("addSequence", Message.class)).asType(
+          MethodType.methodType(void.class, Automaton.class, Message.class));
+      GENERALIZE_I = lookup.unreflect(accessible("generalizeI", int.class)).asType(
+          MethodType.methodType(boolean.class, Automaton.class, int.class));
+      GENERALIZE_II = lookup.unreflect(accessible("generalizeII", float.class)).asType(
+          MethodType.methodType(boolean.class, Automaton.class, float.class));
+      COMPILE = lookup.unreflect(LANGUAGE.getMethod("compile")).asType(
+          MethodType.methodType(void.class, Automaton.class));
+      ACCEPTS = lookup.unreflect(LANGUAGE.getMethod("accepts", CharSequence.class)).asType(
+          MethodType.methodType(Collection.class, Automaton.class, CharSequence.class));
+      SET_COMPILED_MATCHER = lookup.unreflect(
+          LANGUAGE.getMethod("setCompiledMatcher", boolean.class));
+      SET_CACHE_SIZE = lookup.unreflect(LANGUAGE.getMethod("setCacheSize", int.class));
+    } catch (Exception e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private LanguageAccess() {
+  }
+
+  private static Method accessible(String name, Class<?>... parameters)
+      throws NoSuchMethodException {
+    Method method = LANGUAGE.getDeclaredMethod(name, parameters);
+    method.setAccessible(true);
+    return method;
+  }
+
+  private static RuntimeException rethrow(Throwable t) {
+    if (t instanceof RuntimeException)
+      return (RuntimeException)t;
+    if (t instanceof Error)
+      throw (Error)t;
+    return new RuntimeException(t);
+  }
+
+  /**
+   * Returns an empty language (prefix tree).
+   */
+  @SuppressWarnings("unchecked")
+  static Automaton<RegEx> newLanguage() {
+    try {
+      return (Automaton<RegEx>)NEW_EMPTY.invokeExact();
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  /**
+   * Returns the language inferred from the messages (new Language()).
+   */
+  @SuppressWarnings("unchecked")
+  static Automaton<RegEx> newLanguage(boolean is_input, Collection<List<Message>> sessions,
+      float T1, int T2) {
+    try {
+      return (Automaton<RegEx>)NEW_LANGUAGE.invokeExact(is_input, (Collection)sessions, T1, T2);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  /**
+   * Returns a prefix tree of the input messages of the sessions.
+   */
+  static Automaton<RegEx> newPrefixTree(Collection<List<Message>> sessions) {
+    Automaton<RegEx> language = newLanguage();
+    for (List<Message> session : sessions)
+      for (Message m : session)
+        if (m.isInput())
+          addSequence(language, m);
+    return language;
+  }
+
+  /**
+   * Returns a copy of the language, which can be changed without changing the
+   * original.
+   */
+  static Automaton<RegEx> copy(Automaton<RegEx> language) {
+    Automaton<RegEx> copy = newLanguage();
+    Operations.copy(language, copy);
+    return copy;
+  }
+
+  static void addSequence(Automaton<RegEx> language, Message message) {
+    try {
+      ADD_SEQUENCE.invokeExact(language, message);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  static boolean generalizeI(Automaton<RegEx> language, int T2) {
+    try {
+      return (boolean)GENERALIZE_I.invokeExact(language, T2);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  static boolean generalizeII(Automaton<RegEx> language, float T1) {
+    try {
+      return (boolean)GENERALIZE_II.invokeExact(language, T1);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  static void compile(Automaton<RegEx> language) {
+    try {
+      COMPILE.invokeExact(language);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  static Collection<Transition<RegEx>> accepts(Automaton<RegEx> language, CharSequence message) {
+    try {
+      return (Collection<Transition<RegEx>>)ACCEPTS.invokeExact(language, message);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  static void setCompiledMatcher(boolean compiled) {
+    try {
+      SET_COMPILED_MATCHER.invokeExact(compiled);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  static void setCacheSize(int size) {
+    try {
+      SET_CACHE_SIZE.invokeExact(size);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    }
+  }
+
+  /**
+   * Checks that the handles resolve and can be called, without JMH (see the
+   * bench-check target): infers a language from a few synthetic sessions and
+   * runs each of the steps measured by the benchmarks.
+   */
+  public static void main(String[] args) {
+    Collection<List<Message>> sessions = new SyntheticTraces("ftp", 42).getSessions(20);
+    Automaton<RegEx> language = newPrefixTree(sessions);
+    Operations.minimization(language);
+    generalizeI(language, 3);
+    Operations.determinization(language);
+    Operations.minimization(language);
+    generalizeII(language, 0.3f);
+
+    setCompiledMatcher(true);
+    setCacheSize(0);
+    language = newLanguage(true, sessions, 0.3f, 3);
+    compile(language);
+    for (Message m : SyntheticTraces.getInputMessages(sessions))
+      if (accepts(language, m) == null)
+        throw new IllegalStateException("message not accepted: " + m);
+    setCacheSize(4096);
+    System.out.println("[ ] benchmarks can access Language");
+  }
+}
@@ -0,0 +1,123 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import automata.*;
+import traces.Message;
+
+/**
+ * Inference of the language (the whole Language constructor), its two
+ * generalization steps, and the classification of messages by the inferred
+ * language. The generalizations change the automaton in place, so each
+ * invocation works on a copy made before it is timed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xss128m" })
+public class LanguageBenchmark extends TracesState {
+
+  @Param({ "0.3" })
+  public float T1;
+
+  @Param({ "3" })
+  public int T2;
+
+  /* Classify messages with the compiled DFA or with the regular expressions. */
+  @Param({ "true", "false" })
+  public boolean compiled;
+
+  /* Message types cached by the language (0 = no cache). */
+  @Param({ "4096", "0" })
+  public int cache;
+
+  private Automaton<RegEx> _minimized; // input of generalizeI
+  private Automaton<RegEx> _generalized_I; // input of generalizeII
+  private Automaton<RegEx> _language;
+  private Automaton<RegEx> _minimized_copy;
+  private Automaton<RegEx> _generalized_I_copy;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    _minimized = LanguageAccess.newPrefixTree(all_sessions);
+    Operations.minimization(_minimized);
+
+    _generalized_I = LanguageAccess.copy(_minimized);
+    if (LanguageAccess.generalizeI(_generalized_I, T2)) {
+      Operations.determinization(_generalized_I);
+      Operations.minimization(_generalized_I);
+    }
+
+    LanguageAccess.setCompiledMatcher(compiled);
+    LanguageAccess.setCacheSize(cache);
+    _language = LanguageAccess.newLanguage(true, all_sessions, T1, T2);
+    LanguageAccess.compile(_language);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    LanguageAccess.setCompiledMatcher(true);
+    LanguageAccess.setCacheSize(4096);
+  }
+
+  @Setup(Level.Invocation)
+  public void copyAutomata() {
+    _minimized_copy = LanguageAccess.copy(_minimized);
+    _generalized_I_copy = LanguageAccess.copy(_generalized_I);
+  }
+
+  @Benchmark
+  public Automaton<RegEx> language() {
+    return LanguageAccess.newLanguage(true, all_sessions, T1, T2);
+  }
+
+  @Benchmark
+  public boolean generalizeI() {
+    return LanguageAccess.generalizeI(_minimized_copy, T2);
+  }
+
+  @Benchmark
+  public boolean generalizeII() {
+    return LanguageAccess.generalizeII(_generalized_I_copy, T1);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void accepts(Blackhole blackhole) {
+    for (Message m : input_messages)
+      blackhole.consume(LanguageAccess.accepts(_language, m));
+  }
+}
@@ -0,0 +1,87 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import automata.*;
+
+/**
+ * Minimization of the prefix tree and determinization of the automaton after
+ * its first generalization, as done by Language. Both change the automaton in
+ * place, so each invocation works on a copy made before it is timed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xss128m" })
+public class OperationsBenchmark extends TracesState {
+
+  @Param({ "HOPCROFT", "PARALLEL", "TABLE" })
+  public String minimization;
+
+  @Param({ "3" })
+  public int T2;
+
+  private Automaton<RegEx> _prefix_tree;
+  private Automaton<RegEx> _generalized; // nondeterministic
+  private Automaton<RegEx> _prefix_tree_copy;
+  private Automaton<RegEx> _generalized_copy;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Operations.setMinimizationMode(Operations.MinimizationMode.valueOf(minimization));
+    _prefix_tree = LanguageAccess.newPrefixTree(all_sessions);
+    _generalized = LanguageAccess.copy(_prefix_tree);
+    Operations.minimization(_generalized);
+    LanguageAccess.generalizeI(_generalized, T2);
+  }
+
+  @Setup(Level.Invocation)
+  public void copyAutomata() {
+    _prefix_tree_copy = LanguageAccess.copy(_prefix_tree);
+    _generalized_copy = LanguageAccess.copy(_generalized);
+  }
+
+  @Benchmark
+  public Automaton<RegEx> minimization() {
+    Operations.minimization(_prefix_tree_copy);
+    return _prefix_tree_copy;
+  }
+
+  @Benchmark
+  public Automaton<RegEx> determinization() {
+    Operations.determinization(_generalized_copy);
+    return _generalized_copy;
+  }
+}
@@ -0,0 +1,413 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package bench;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import traces.Message;
+
+/**
+ * Generates sessions of FTP, POP and DNS-like protocols for the benchmarks.
+ * The traces are random but reproducible (fixed seed), so that different
+ * versions of the code are measured with the same input. They can also be
+ * written to a pcap file, to measure the extraction of sessions.
+ */
+public class SyntheticTraces {
+  public static final int FTP_PORT = 21, POP_PORT = 110, DNS_PORT = 53;
+  public static final int SERVER_IP = 0x0A000001; // 10.0.0.1
+
+  private static final String[] USERS = {
+      "anonymous", "ftp", "alice", "bob", "carol", "dave", "root", "admin", "guest", "test"
+  };
+  private static final String[] FILES = {
+      "README", "index.html", "pub", "incoming", "data.tar.gz", "notes.txt", "ls-lR.gz",
+      "welcome.msg", "src", "debian", "linux-2.6.tar.bz2", "rfc959.txt"
+  };
+  private static final String[] DOMAINS = {
+      "example", "mail", "www", "ns1", "ftp", "cdn", "api", "static", "login", "news"
+  };
+  private static final String[] TLDS = {
+      "com", "org", "net", "pt", "edu"
+  };
+
+  private final String _protocol;
+  private final Random _random;
+
+  /**
+   * @param protocol ftp, pop or dns.
+   */
+  public SyntheticTraces(String protocol, long seed) {
+    _protocol = protocol.toLowerCase();
+    _random = new Random(seed);
+    if (getPort() < 0)
+      throw new IllegalArgumentException("unknown protocol: " + protocol);
+  }
+
+  public int getPort() {
+    if (_protocol.equals("ftp"))
+      return FTP_PORT;
+    if (_protocol.equals("pop"))
+      return POP_PORT;
+    if (_protocol.equals("dns"))
+      return DNS_PORT;
+    return -1;
+  }
+
+  public boolean isStateful() {
+    return !_protocol.equals("dns");
+  }
+
+  public boolean isTextBased() {
+    return !_protocol.equals("dns");
+  }
+
+  /**
+   * Returns the server address, as expected by the traces readers.
+   */
+  public String getServerAddress() {
+    return "*:" + getPort();
+  }
+
+  public Collection<List<Message>> getSessions(int total_sessions) {
+    List<List<Message>> sessions = new ArrayList<List<Message>>(total_sessions);
+    for (int i = 0; i < total_sessions; i++) {
+      List<Message> session = new ArrayList<Message>();
+      if (_protocol.equals("ftp"))
+        ftpSession(session);
+      else if (_protocol.equals("pop"))
+        popSession(session);
+      else
+        dnsSession(session);
+      sessions.add(session);
+    }
+    return sessions;
+  }
+
+  /**
+   * Returns the input messages of the sessions.
+   */
+  public static List<Message> getInputMessages(Collection<List<Message>> sessions) {
+    List<Message> messages = new ArrayList<Message>();
+    for (List<Message> session : sessions)
+      for (Message m : session)
+        if (m.isInput())
+          messages.add(m);
+    return messages;
+  }
+
+  // //////////////////////////////////////////////////////////////////////////////
+  // PROTOCOLS
+
+  private void ftpSession(List<Message> session) {
+    output(session, "220 FTP server ready.\r\n");
+    String user = pick(USERS);
+    input(session, "USER " + user + "\r\n");
+    output(session, "331 Please specify the password.\r\n");
+    input(session, "PASS " + word(4 + _random.nextInt(8)) + "\r\n");
+    if (_random.nextInt(10) == 0) {
+      output(session, "530 Login incorrect.\r\n");
+      input(session, "QUIT\r\n");
+      output(session, "221 Goodbye.\r\n");
+      return;
+    }
+    output(session, "230 Login successful.\r\n");
+    input(session, "SYST\r\n");
+    output(session, "215 UNIX Type: L8\r\n");
+
+    int commands = _random.nextInt(12);
+    for (int i = 0; i < commands; i++) {
+      String file = pick(FILES);
+      switch (_random.nextInt(10)) {
+      case 0:
+        input(session, "PWD\r\n");
+        output(session, "257 \"/home/" + user + "\"\r\n");
+        break;
+      case 1:
+        input(session, "CWD " + file + "\r\n");
+        output(session, "250 Directory successfully changed.\r\n");
+        break;
+      case 2:
+        input(session, "TYPE " + (_random.nextBoolean() ? "I" : "A") + "\r\n");
+        output(session, "200 Switching mode.\r\n");
+        break;
+      case 3:
+        input(session, "PASV\r\n");
+        output(session, "227 Entering Passive Mode (10,0,0,1," + (128 + _random.nextInt(64))
+            + "," + _random.nextInt(256) + ").\r\n");
+        break;
+      case 4:
+        input(session, "PORT 10,0,0," + (2 + _random.nextInt(200)) + ","
+            + (128 + _random.nextInt(64)) + "," + _random.nextInt(256) + "\r\n");
+        output(session, "200 PORT command successful.\r\n");
+        break;
+      case 5:
+        input(session, _random.nextBoolean() ? "LIST\r\n" : "LIST -l\r\n");
+        output(session, "150 Here comes the directory listing.\r\n");
+        output(session, "226 Directory send OK.\r\n");
+        break;
+      case 6:
+        input(session, "RETR " + file + "\r\n");
+        output(session, "150 Opening BINARY mode data connection for " + file + " ("
+            + _random.nextInt(1 << 20) + " bytes).\r\n");
+        output(session, "226 Transfer complete.\r\n");
+        break;
+      case 7:
+        input(session, "SIZE " + file + "\r\n");
+        output(session, "213 " + _random.nextInt(1 << 20) + "\r\n");
+        break;
+      case 8:
+        input(session, "STOR " + file + "\r\n");
+        output(session, "553 Could not create file.\r\n");
+        break;
+      default:
+        input(session, "NOOP\r\n");
+        output(session, "200 NOOP ok.\r\n");
+      }
+    }
+    input(session, "QUIT\r\n");
+    output(session, "221 Goodbye.\r\n");
+  }
+
+  private void popSession(List<Message> session) {
+    output(session, "+OK POP3 server ready <" + _random.nextInt(100000) + ".mail.example.com>\r\n");
+    input(session, "USER " + pick(USERS) + "\r\n");
+    output(session, "+OK\r\n");
+    input(session, "PASS " + word(4 + _random.nextInt(8)) + "\r\n");
+    if (_random.nextInt(10) == 0) {
+      output(session, "-ERR authentication failed\r\n");
+      input(session, "QUIT\r\n");
+      output(session, "+OK bye\r\n");
+      return;
+    }
+    int total = _random.nextInt(20);
+    output(session, "+OK " + total + " messages\r\n");
+
+    int commands = _random.nextInt(10);
+    for (int i = 0; i < commands; i++) {
+      int n = 1 + _random.nextInt(Math.max(1, total));
+      switch (_random.nextInt(7)) {
+      case 0:
+        input(session, "STAT\r\n");
+        output(session, "+OK " + total + " " + _random.nextInt(1 << 16) + "\r\n");
+        break;
+      case 1:
+        input(session, "LIST\r\n");
+        output(session, "+OK scan listing follows\r\n");
+        break;
+      case 2:
+        input(session, "LIST " + n + "\r\n");
+        output(session, "+OK " + n + " " + _random.nextInt(1 << 16) + "\r\n");
+        break;
+      case 3:
+        input(session, "RETR " + n + "\r\n");
+        output(session, "+OK " + _random.nextInt(1 << 16) + " octets\r\n");
+        break;
+      case 4:
+        input(session, "DELE " + n + "\r\n");
+        output(session, "+OK message " + n + " deleted\r\n");
+        break;
+      case 5:
+        input(session, "TOP " + n + " " + _random.nextInt(20) + "\r\n");
+        output(session, "+OK\r\n");
+        break;
+      default:
+        input(session, "UIDL\r\n");
+        output(session, "+OK\r\n");
+      }
+    }
+    input(session, "QUIT\r\n");
+    output(session, "+OK bye\r\n");
+  }
+
+  private void dnsSession(List<Message> session) {
+    int id = _random.nextInt(1 << 16);
+    int qtype = new int[] { 1, 1, 1, 28, 15, 16 }[_random.nextInt(6)];
+    String name = (_random.nextBoolean() ? pick(DOMAINS) + "." : "") + pick(DOMAINS)
+        + _random.nextInt(100) + "." + pick(TLDS);
+
+    ByteArrayOutputStream query = new ByteArrayOutputStream();
+    writeShort(query, id);
+    writeShort(query, 0x0100); // standard query, recursion desired
+    writeShort(query, 1); // questions
+    writeShort(query, 0);
+    writeShort(query, 0);
+    writeShort(query, 0);
+    writeName(query, name);
+    writeShort(query, qtype);
+    writeShort(query, 1); // IN
+    session.add(new Message(query.toByteArray(), true));
+
+    boolean found = _random.nextInt(8) != 0;
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    writeShort(response, id);
+    writeShort(response, found ? 0x8180 : 0x8183);
+    writeShort(response, 1);
+    writeShort(response, found ? 1 : 0);
+    writeShort(response, 0);
+    writeShort(response, 0);
+    writeName(response, name);
+    writeShort(response, qtype);
+    writeShort(response, 1);
+    if (found) {
+      writeShort(response, 0xC00C); // pointer to the question
+      writeShort(response, qtype);
+      writeShort(response, 1);
+      writeShort(response, 0);
+      writeShort(response, _random.nextInt(1 << 16)); // TTL
+      byte[] rdata = new byte[qtype == 28 ? 16 : 4];
+      _random.nextBytes(rdata);
+      writeShort(response, rdata.length);
+      response.write(rdata, 0, rdata.length);
+    }
+    session.add(new Message(response.toByteArray(), false));
+  }
+
+  private void input(List<Message> session, String message) {
+    session.add(new Message(message.getBytes(StandardCharsets.ISO_8859_1), true));
+  }
+
+  private void output(List<Message> session, String message) {
+    session.add(new Message(message.getBytes(StandardCharsets.ISO_8859_1), false));
+  }
+
+  private String pick(String[] values) {
+    return values[_random.nextInt(values.length)];
+  }
+
+  private String word(int length) {
+    StringBuilder word = new StringBuilder(length);
+    for (int i = 0; i < length; i++)
+      word.append((char)('a' + _random.nextInt(26)));
+    return word.toString();
+  }
+
+  private static void writeShort(ByteArrayOutputStream out, int value) {
+    out.write(value >> 8);
+    out.write(value);
+  }
+
+  private static void writeName(ByteArrayOutputStream out, String name) {
+    for (String label : name.split("\\.")) {
+      out.write(label.length());
+      out.write(label.getBytes(StandardCharsets.ISO_8859_1), 0, label.length());
+    }
+    out.write(0);
+  }
+
+  // //////////////////////////////////////////////////////////////////////////////
+  // PCAP
+
+  /**
+   * Writes the sessions to a pcap file (Ethernet, IPv4 and TCP or UDP), one
+   * packet per message. Each session has its own client address and port.
+   */
+  public void writePcap(Collection<List<Message>> sessions, String filename) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+        filename)));
+    try {
+      out.writeInt(0xA1B2C3D4);
+      out.writeShort(2);
+      out.writeShort(4);
+      out.writeInt(0); // time zone
+      out.writeInt(0); // accuracy
+      out.writeInt(65535); // snaplen
+      out.writeInt(1); // Ethernet
+
+      int nth_session = 0, time = 0;
+      boolean tcp = isStateful();
+      for (List<Message> session : sessions) {
+        int client_ip = 0x0A010000 + (nth_session % 65000) + 2;
+        int client_port = 1024 + (nth_session % 60000);
+        int seq_client = 1, seq_server = 1;
+        for (Message m : session) {
+          int src_ip = m.isInput() ? client_ip : SERVER_IP;
+          int dst_ip = m.isInput() ? SERVER_IP : client_ip;
+          int src_port = m.isInput() ? client_port : getPort();
+          int dst_port = m.isInput() ? getPort() : client_port;
+          int transport_length = tcp ? 20 : 8;
+          int ip_length = 20 + transport_length + m.length();
+
+          // Record header.
+          time++;
+          out.writeInt(time / 1000);
+          out.writeInt((time % 1000) * 1000);
+          out.writeInt(14 + ip_length);
+          out.writeInt(14 + ip_length);
+
+          // Ethernet.
+          out.writeInt(0x00000000);
+          out.writeShort(0x0001);
+          out.writeInt(0x00000000);
+          out.writeShort(0x0002);
+          out.writeShort(0x0800);
+
+          // IPv4 (without checksum).
+          out.writeByte(0x45);
+          out.writeByte(0);
+          out.writeShort(ip_length);
+          out.writeShort(time & 0xFFFF);
+          out.writeShort(0x4000); // don't fragment
+          out.writeByte(64);
+          out.writeByte(tcp ? 6 : 17);
+          out.writeShort(0);
+          out.writeInt(src_ip);
+          out.writeInt(dst_ip);
+
+          // TCP or UDP (without checksum).
+          out.writeShort(src_port);
+          out.writeShort(dst_port);
+          if (tcp) {
+            out.writeInt(m.isInput() ? seq_client : seq_server);
+            out.writeInt(m.isInput() ? seq_server : seq_client);
+            out.writeShort(0x5018); // header length, PSH and ACK
+            out.writeShort(65535);
+            out.writeShort(0);
+            out.writeShort(0);
+            if (m.isInput())
+              seq_client += m.length();
+            else
+              seq_server += m.length();
+          } else {
+            out.writeShort(8 + m.length());
+            out.writeShort(0);
+          }
+          for (int i = 0; i < m.length(); i++)
+            out.writeByte(m.charAt(i));
+        }
+        nth_session++;
+      }
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,87 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package bench;
+
+import java.io.*;
+import java.util.*;
+import org.openjdk.jmh.annotations.*;
+import automata.RegEx;
+import traces.Message;
+
+/**
+ * Synthetic traces shared by the benchmarks: the protocol and the number of
+ * sessions are parameters (e.g., -p protocol=ftp -p sessions=1000). The
+ * progress messages printed by the inference are discarded while the
+ * benchmarks run.
+ */
+@State(Scope.Benchmark)
+public abstract class TracesState {
+  public static final long SEED = 42;
+
+  @Param({ "ftp", "pop", "dns" })
+  public String protocol;
+
+  @Param({ "200" })
+  public int sessions;
+
+  protected SyntheticTraces traces;
+  protected Collection<List<Message>> all_sessions;
+  protected List<Message> input_messages;
+
+  private PrintStream _stdout;
+
+  @Setup(Level.Trial)
+  public void setUpTraces() {
+    _stdout = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    }));
+
+    traces = new SyntheticTraces(protocol, SEED);
+    RegEx.setTextBasedSupport(traces.isTextBased());
+    automata.State.NEXT_ID = 0;
+    all_sessions = traces.getSessions(sessions);
+    input_messages = SyntheticTraces.getInputMessages(all_sessions);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDownTraces() {
+    RegEx.setTextBasedSupport(true);
+    System.setOut(_stdout);
+  }
+}
@@ -0,0 +1,150 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+import traces.Framing;
+import traces.MappedPcapFile;
+import traces.PcapFile;
+import traces.SessionSampler;
+import utils.OptionsExtended;
+import utils.OptionsException;
+import automata.Operations;
+
+/**
+ * Command-line options shared by the programs that infer models from traces
+ * (Language, StateMachineMoore, StateMachineMealy and StreamingInference):
+ * they are registered with setTracesOptions() and setInferenceOptions(), and
+ * read with the other methods once the arguments are parsed.
+ */
+public final class CommandLineOptions {
+
+  private CommandLineOptions() {
+  }
+
+  /**
+   * Registers the options of how the traces are read: --framing= and --mmap.
+   */
+  public static void setTracesOptions(OptionsExtended opt) {
+    opt.setOption("--framing=", null,
+        "FRAMING\treassemble TCP streams: crlf, lf, length:SIZE[:OFFSET[:ADJUST]] or fixed:SIZE");
+    opt.setFlag("--mmap", null, "\t\tread pcap/pcapng files without jnetpcap (memory-mapped)");
+  }
+
+  /**
+   * Registers the options of the inference from sessions: --threads=,
+   * --minimization=, --sample= and --seed=.
+   */
+  public static void setInferenceOptions(OptionsExtended opt) {
+    opt.setOption("--threads=", null, "NUMBER\tnumber of threads (default: all processors)");
+    opt.setOption("--minimization=", null,
+        "ALGORITHM\tminimization algorithm: hopcroft (default), parallel or table");
+    opt.setOption("--sample=", null,
+        "STRATEGY\tsample sessions: reservoir:N, stratified:N (by command) and/or distinct");
+    opt.setOption("--seed=", null, "NUMBER\tseed of the sampling of sessions (default 0)");
+  }
+
+  /**
+   * Returns the framing of the reassembled TCP streams (--framing=), or null.
+   */
+  public static Framing getFraming(OptionsExtended opt) throws OptionsException {
+    if (!opt.getValueBoolean("--framing="))
+      return null;
+    try {
+      return Framing.parse(opt.getValueString("--framing="));
+    } catch (IllegalArgumentException e) {
+      throw new OptionsException(OptionsException.Types.INCORRECT_PARAMETER, e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the traces of the pcap file (--pcap=), read without jnetpcap if
+   * --mmap is set, and with the framing of getFraming().
+   */
+  public static PcapFile getPcapFile(OptionsExtended opt, String expression, String server_addr,
+      String msg_delimiter) throws OptionsException {
+    PcapFile traces;
+    if (opt.getValueBoolean("--mmap"))
+      traces = new MappedPcapFile(opt.getValueString("--pcap="), expression, server_addr,
+          msg_delimiter);
+    else
+      traces = new PcapFile(opt.getValueString("--pcap="), expression, server_addr,
+          msg_delimiter);
+    traces.setFraming(getFraming(opt));
+    return traces;
+  }
+
+  /**
+   * Returns the number of threads (--threads=), by default the number of
+   * available processors.
+   */
+  public static int getThreads(OptionsExtended opt) throws OptionsException {
+    if (!opt.getValueBoolean("--threads="))
+      return Runtime.getRuntime().availableProcessors();
+    return opt.getValueInteger("--threads=");
+  }
+
+  /**
+   * Sets the minimization algorithm (--minimization=), if given.
+   */
+  public static void setMinimization(OptionsExtended opt) throws OptionsException {
+    if (!opt.getValueBoolean("--minimization="))
+      return;
+    try {
+      Operations.setMinimizationMode(Operations.MinimizationMode.valueOf(opt.getValueString(
+          "--minimization=").toUpperCase()));
+    } catch (IllegalArgumentException e) {
+      throw new OptionsException(OptionsException.Types.INCORRECT_PARAMETER, "'"
+          + opt.getValueString("--minimization=") + "' not a minimization algorithm");
+    }
+  }
+
+  /**
+   * Returns the sampler of the sessions (--sample=, with the seed of --seed=),
+   * or null if all sessions are used.
+   */
+  public static SessionSampler getSampler(OptionsExtended opt) throws OptionsException {
+    if (!opt.getValueBoolean("--sample="))
+      return null;
+    long seed = 0;
+    if (opt.getValueBoolean("--seed=")) {
+      try {
+        seed = Long.parseLong(opt.getValueString("--seed="));
+      } catch (NumberFormatException e) {
+        throw new OptionsException(OptionsException.Types.INCORRECT_PARAMETER, "'"
+            + opt.getValueString("--seed=") + "' not a seed");
+      }
+    }
+    try {
+      return SessionSampler.parse(opt.getValueString("--sample="), seed);
+    } catch (IllegalArgumentException e) {
+      throw new OptionsException(OptionsException.Types.INCORRECT_PARAMETER, e.getMessage());
+    }
+  }
+}
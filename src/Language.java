@@ -39,65 +39,134 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
   protected static final long serialVersionUID = 1L;
   public static Timer TIMER;
 
-  private static int STATS_TIMER_PTA;
-  private static int STATS_TIMER_GENERALIZE;
-  private static int STATS_TIMER_MINIMIZATION;
-  private static int STATS_STATES0;
-  private static int STATS_STATES1;
-  private static int STATS_PATHS0;
-  private static int STATS_PATHS1;
+  private static final Statistics STATS = new Statistics();
   private static int STATS_MESSAGES = 0;
 
+  /**
+   * Times and sizes of the automata of an inference, printed by the mains
+   * (also of the state machines, see StateMachineMoore).
+   */
+  static class Statistics {
+    int timer_pta;
+    int timer_generalize;
+    int timer_minimization;
+    int states0;
+    int states1;
+    long paths0;
+    long paths1;
+  }
+
+  /* Classify messages with a DFA compiled from the language (see compile()). */
+  private static boolean COMPILED_MATCHER = true;
+
+  /* Order of the symbols merged by generalizeState(). */
+  private static final Comparator<RegularExpressionInterface> TOKEN_ORDER;
+  static {
+    TOKEN_ORDER = new Comparator<RegularExpressionInterface>() {
+      public int compare(RegularExpressionInterface re0, RegularExpressionInterface re1) {
+        return re0.toString().compareTo(re1.toString());
+      }
+    };
+  }
+
+  /* Timer and statistics of the generalization being done (see generalize()). */
+  private transient Timer _timer;
+  private transient Statistics _stats;
+
+  private transient volatile ByteDFA _dfa;
+  private transient volatile boolean _is_compiled = false;
+
+  /* Message types of the messages classified so far (see getMessageType()). */
+  private static int CACHE_SIZE = 4096;
+  private transient volatile MessageCache<LanguageMessageType> _cache;
+
   public Language(boolean is_input, Collection<List<Message>> messages, float T1, int T2) {
     System.out.println("[ ] building automaton");
     // State.NEXT_ID = 0;
 
     TIMER.restart();
     /* Extract individual messages and add them to the automaton. */
-    for (List<Message> session : messages) {
-      // System.out.println("> _____");
-      for (Message m : session) {
-        if (m.isInput() == is_input) {
-          STATS_MESSAGES++;
-          // System.out.println("> " + m);
-          this.addSequence(m);
-        }
+    LinkedHashMap<Message, MutableInt> counts = countMessages(is_input, messages);
+    if (Automaton.isIncrementalConstruction())
+      addSequencesMinimized(counts);
+    else {
+      for (Map.Entry<Message, MutableInt> entry : counts.entrySet()) {
+        // System.out.println("> " + entry.getKey());
+        this.addSequence(entry.getKey(), entry.getValue().getValue());
       }
     }
 
+    generalize(T1, T2);
+  }
+
+  /**
+   * Creates an empty language (prefix tree), to which messages are added with
+   * addSequence() before calling generalize().
+   */
+  Language() {
+    super();
+  }
+
+  /**
+   * Generalizes the prefix tree built from the messages, as done in the
+   * constructor.
+   */
+  void generalize(float T1, int T2) {
+    generalize(T1, T2, TIMER, STATS);
+  }
+
+  /**
+   * Generalizes the prefix tree, measuring it with the given timer (restarted
+   * when the prefix tree was started) and statistics instead of the static
+   * ones, e.g., in a background thread.
+   */
+  void generalize(float T1, int T2, Timer timer, Statistics stats) {
     //int n = 0;
+    _timer = timer;
+    _stats = stats;
 
-    STATS_TIMER_PTA = TIMER.getElapsedTime();
+    _stats.timer_pta = _timer.getElapsedTime();
     // automaton.DRAW("lang" + (++n) + "-PTA", false);
-    System.out.println("[T] PTA:\t" + STATS_TIMER_PTA);
+    System.out.println("[T] PTA:\t" + _stats.timer_pta);
 
     /* STATS */
-    TIMER.pause();
-    STATS_STATES0 = _all_states.size();
-    STATS_PATHS0 = this.getListofPaths().size();
-    TIMER.resume();
+    _timer.pause();
+    _stats.states0 = _all_states.size();
+    _stats.paths0 = this.countPaths();
+    _timer.resume();
     /* STATS */
 
-    /* Generalize and merge similar transitions. */
+    /*
+     * Generalize and merge similar transitions. After each round only the
+     * states that changed are determinized and minimized (see StateRegister),
+     * and only those are visited again in the next round.
+     */
     System.out.println("[ ] generalizing automaton");
 
-    TIMER.mark();
+    _timer.mark();
     Operations.minimization(this);
-    STATS_TIMER_MINIMIZATION = TIMER.getElapsedTimeFromMark();
+    StateRegister<RegEx> register = new StateRegister<RegEx>(this);
+    _stats.timer_minimization = _timer.getElapsedTimeFromMark();
     int old_total = _all_states.size();
-    if (generalizeI(T2)) {
-      TIMER.mark();
-      Operations.determinization(this);
-      Operations.minimization(this);
-      STATS_TIMER_MINIMIZATION += TIMER.getElapsedTimeFromMark();
+    ArrayList<State<RegEx>> new_states = new ArrayList<State<RegEx>>();
+    boolean generalized = false;
+    if (generalizeI(T2, _all_states, register, new_states)) {
+      updateRegister(register, new_states);
+      generalized = true;
       // this.DRAW("lang" + (++n) + "-generalized-T2", false);
     }
-    while (generalizeII(T1)) {
-      TIMER.mark();
+    register.prune();
+    Collection<State<RegEx>> to_visit = new ArrayList<State<RegEx>>(_all_states);
+    while (generalizeII(T1, to_visit, register, new_states)) {
+      to_visit = updateRegister(register, new_states);
+      generalized = true;
+      // this.DRAW("lang" + (++n) + "-generalized-T1", false);
+    }
+    if (generalized) {
+      _timer.mark();
       Operations.determinization(this);
       Operations.minimization(this);
-      STATS_TIMER_MINIMIZATION += TIMER.getElapsedTimeFromMark();
-      // this.DRAW("lang" + (++n) + "-generalized-T1", false);
+      _stats.timer_minimization += _timer.getElapsedTimeFromMark();
     }
 
     int new_total = _all_states.size();
@@ -109,13 +178,17 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
       concatUniqueLinearStates();
     this.resetAllStates();
 
-    STATS_TIMER_GENERALIZE = TIMER.getElapsedTime() - STATS_TIMER_PTA - STATS_TIMER_MINIMIZATION;
-    System.out.println("[T] Generalization:\t" + STATS_TIMER_GENERALIZE);
+    _stats.timer_generalize = _timer.getElapsedTime() - _stats.timer_pta
+        - _stats.timer_minimization;
+    System.out.println("[T] Generalization:\t" + _stats.timer_generalize);
 
     /* STATS */
-    STATS_STATES1 = _all_states.size();
-    STATS_PATHS1 = this.getListofPaths().size();
+    _stats.states1 = _all_states.size();
+    _stats.paths1 = this.countPaths();
     /* STATS */
+
+    // Compile again (and empty the cache) on the next message classified.
+    _is_compiled = false;
   }
 
   /**
@@ -129,35 +202,104 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
     super.addSequence(RegEx.tokenize(message, 0));
   }
 
-  private int transitions_to_state(State<RegEx> dest_state) {
-    int total_transitions = 0;
-    for (State<RegEx> s : _all_states)
-      for (Transition<RegEx> t : s)
-        if (t.getState() == dest_state)
-          total_transitions++;
-    return total_transitions;
+  /**
+   * Adds a message that occurred weight times (see addSequence(Message)).
+   */
+  public void addSequence(Message message, int weight) {
+    super.addSequence(RegEx.tokenize(message, 0), weight);
   }
 
   /**
-   * Concatenates linear transitions (and merges respective states).
-   * 
-   * @param s0 State we wish to check if it has any linear transitions.
-   * @param all_states List of all states.
-   * @param visited Set of visited states.
-   * @return Returns the index of the state merged with s0, -1 if no merging was
-   *         made.
+   * Counts the messages of the sessions in one direction. Identical messages
+   * are collapsed into one entry (kept in the order they first appear), so
+   * each one is tokenized and added to the prefix tree only once, with its
+   * count as weight. Weighted sessions (see WeightedSessions) are read only
+   * once too.
+   */
+  private static LinkedHashMap<Message, MutableInt> countMessages(boolean is_input,
+      Collection<List<Message>> messages) {
+    List<List<Message>> sessions;
+    List<Integer> weights = null;
+    if (messages instanceof WeightedSessions) {
+      sessions = ((WeightedSessions)messages).getDistinct();
+      weights = ((WeightedSessions)messages).getWeights();
+    } else
+      sessions = new ArrayList<List<Message>>(messages);
+
+    LinkedHashMap<Message, MutableInt> counts = new LinkedHashMap<Message, MutableInt>();
+    for (int i = 0; i < sessions.size(); i++) {
+      int weight = (weights == null) ? 1 : weights.get(i);
+      for (Message m : sessions.get(i)) {
+        if (m.isInput() == is_input) {
+          STATS_MESSAGES += weight;
+          MutableInt count = counts.get(m);
+          if (count == null)
+            counts.put(m, new MutableInt(weight));
+          else
+            count.setValue(count.getValue() + weight);
+        }
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Adds the messages already minimized (see Automaton.addSequenceMinimized()),
+   * sorting them by their tokens first.
    */
-  private void concatUniqueLinearTransitions(State<RegEx> s0, Set<State<RegEx>> visited) {
-    if (!visited.add(s0))
-      return;
+  private void addSequencesMinimized(LinkedHashMap<Message, MutableInt> counts) {
+    class SortKey implements Comparable<SortKey> {
+      String key;
+      Message message;
+      int weight;
+
+      public int compareTo(SortKey o) {
+        return key.compareTo(o.key);
+      }
+    }
 
-    /*
-     * We are going to get the linear transitions t0 and t1, such that t0 is a
-     * transition from s0 going to s1, which is the only transition in the whole
-     * automaton going to s1. Additionally, t1 is the only transition in s1.
-     */
+    ArrayList<SortKey> keys = new ArrayList<SortKey>(counts.size());
+    for (Map.Entry<Message, MutableInt> entry : counts.entrySet()) {
+      SortKey k = new SortKey();
+      k.key = RegEx.sortKey(entry.getKey(), 0);
+      k.message = entry.getKey();
+      k.weight = entry.getValue().getValue();
+      keys.add(k);
+    }
+    Collections.sort(keys);
 
-    for (Transition<RegEx> t0 : s0) {
+    for (SortKey k : keys)
+      this.addSequenceMinimized(RegEx.tokenize(k.message, 0), k.weight);
+    this.finishSequences();
+  }
+
+  /**
+   * Concatenates linear transitions (and merges respective states), going
+   * depth-first through the concatenated transitions from s0.
+   * 
+   * We are going to get the linear transitions t0 and t1, such that t0 is a
+   * transition from s0 going to s1, which is the only transition in the whole
+   * automaton going to s1. Additionally, t1 is the only transition in s1.
+   * 
+   * @param s0 State we wish to check if it has any linear transitions.
+   * @param in_degrees Number of transitions going to each state (see
+   *          Automaton.getInDegrees()).
+   * @param removed States merged so far (to be removed from _all_states).
+   */
+  private void concatUniqueLinearTransitions(State<RegEx> s0,
+      HashMap<State<RegEx>, Integer> in_degrees, Set<State<RegEx>> removed) {
+    Set<State<RegEx>> visited = new HashSet<State<RegEx>>(_all_states.size());
+    ArrayDeque<Iterator<Transition<RegEx>>> stack = new ArrayDeque<Iterator<Transition<RegEx>>>();
+    visited.add(s0);
+    stack.push(s0.iterator());
+
+    while (!stack.isEmpty()) {
+      Iterator<Transition<RegEx>> transitions = stack.peek();
+      if (!transitions.hasNext()) {
+        stack.pop();
+        continue;
+      }
+      Transition<RegEx> t0 = transitions.next();
 
       // concatenating t0+t1 where:
       // (s0) -t0-> (s1) -t1-> ...
@@ -168,8 +310,8 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
 
       // There must be only one transition to s1, and that is t0.
       State<RegEx> s1 = t0.getState();
-      int transitions_to_s1 = transitions_to_state(s1);
-      if (transitions_to_s1 != 1)
+      Integer transitions_to_s1 = in_degrees.get(s1);
+      if (transitions_to_s1 == null || transitions_to_s1 != 1)
         continue;
 
       // There must be only one transition leaving s1, and that is t1.
@@ -182,18 +324,19 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
       RegEx symb0 = (RegEx)t0.getSymbol();
       RegEx symb1 = (RegEx)t1.getSymbol();
 
-      // Update t0 with a concatenated symbol.
+      // Update t0 with a concatenated symbol (s2 keeps its in-degree, since t0
+      // replaces t1).
       t0.setSymbol(RegEx.concat(symb0, symb1));
       t0.setState(t1.getState());
 
-      // Delete s1 from all_states.
-      _all_states.remove(s1);
+      // Delete s1 (and its transition t1) from the automaton.
+      in_degrees.remove(s1);
+      removed.add(s1);
 
       // Proceed through this path (depth-first).
-      concatUniqueLinearTransitions(t0.getState(), visited);
-
+      if (visited.add(t0.getState()))
+        stack.push(t0.getState().iterator());
     }
-
   }
 
   /**
@@ -202,7 +345,9 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
    * S0 -AB-> S2
    */
   public void concatUniqueLinearStates() {
-    concatUniqueLinearTransitions(_initial_state, new HashSet<State<RegEx>>(_all_states.size()));
+    Set<State<RegEx>> removed = new HashSet<State<RegEx>>();
+    concatUniqueLinearTransitions(_initial_state, getInDegrees(), removed);
+    removeStates(removed);
   }
 
   /**
@@ -214,15 +359,14 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
       Collection<State<RegEx>> new_states) {
     RegEx re = (RegEx)t.getSymbol();
 
-    RegularExpressionInterface first_token = null;
-    List<RegularExpressionInterface> re_tokens = RegExOperations.process(re.getPattern());
+    List<RegularExpressionInterface> re_tokens = re.getTokens();
+    RegularExpressionInterface first_token = re_tokens.get(0);
     if (re_tokens.size() > 1) {
       // Replace current symbol with first token.
-      first_token = re_tokens.get(0);
-      re.setPattern(first_token.toString());
+      re.setTokens(re_tokens.subList(0, 1));
 
       // Create a new transition for the remaining tokens.
-      RegEx remaining = new RegEx(RegExOperations.toPattern(re_tokens, 1));
+      RegEx remaining = new RegEx(re_tokens.subList(1, re_tokens.size()));
       Transition<RegEx> next = new Transition<RegEx>(remaining, t.getState());
 
       // Replace t's next state to an intermediate one.
@@ -233,8 +377,7 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
 
     } else {
       // Only one token, so no need to create an intermediate state.
-      first_token = re_tokens.get(0);
-      re.setPattern(first_token.toString());
+      re.setTokens(re_tokens);
     }
 
     return first_token;
@@ -259,27 +402,62 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
       }
     }
 
-    // Get unifying symbol.
+    // Get unifying symbol. The symbols are merged in the order of their
+    // patterns, since the unifying symbol depends on it and the transitions of
+    // a state are not kept in any particular order (see StateRegister).
+    Collections.sort(to_generalize, TOKEN_ORDER);
     RegExOperations.BracketedExpression unifying_symbol = new RegExOperations.BracketedExpression();
     for (RegularExpressionInterface re : to_generalize)
       unifying_symbol = RegExOperations.merge(unifying_symbol, re);
-    String unifying_regular_expression = unifying_symbol.toString();
+    List<RegularExpressionInterface> unifying_tokens = Collections
+        .<RegularExpressionInterface> singletonList(unifying_symbol);
 
     // Set all transitions to the new unifying symbol.
     for (Transition<RegEx> t : s) {
       if (!isImmutable(t))
-        ((RegEx)t.getSymbol()).setPattern(unifying_regular_expression);
+        ((RegEx)t.getSymbol()).setTokens(unifying_tokens);
     }
 
     return dirty;
   }
 
-  private boolean generalizeI(int MIN_TRANSITIONS) {
+  /**
+   * Determinizes and minimizes the states changed by the last round of
+   * generalization, and returns the states to visit in the next round.
+   */
+  private Set<State<RegEx>> updateRegister(StateRegister<RegEx> register,
+      List<State<RegEx>> new_states) {
+    _timer.mark();
+    Set<State<RegEx>> dirty = register.update(new_states);
+    new_states.clear();
+    _stats.timer_minimization += _timer.getElapsedTimeFromMark();
+    return dirty;
+  }
+
+  /**
+   * Runs one round of generalizeI() over all the states, without determinizing
+   * nor minimizing the result (used by the benchmarks).
+   */
+  boolean generalizeI(int MIN_TRANSITIONS) {
+    return generalizeI(MIN_TRANSITIONS, new ArrayList<State<RegEx>>(_all_states),
+        new StateRegister<RegEx>(this), new ArrayList<State<RegEx>>());
+  }
+
+  /**
+   * Runs one round of generalizeII() over all the states, without
+   * determinizing nor minimizing the result (used by the benchmarks).
+   */
+  boolean generalizeII(float MIN_RATIO_TRANSITIONS_OVER_TOTAL_FREQ) {
+    return generalizeII(MIN_RATIO_TRANSITIONS_OVER_TOTAL_FREQ, new ArrayList<State<RegEx>>(
+        _all_states), new StateRegister<RegEx>(this), new ArrayList<State<RegEx>>());
+  }
+
+  private boolean generalizeI(int MIN_TRANSITIONS, Collection<State<RegEx>> states,
+      StateRegister<RegEx> register, List<State<RegEx>> new_states) {
     System.out.println("[ ] generalizing states with DIFFERENT_TRANSITIONS >= " + MIN_TRANSITIONS);
-    ArrayList<State<RegEx>> new_states = new ArrayList<State<RegEx>>();
     boolean dirty = false;
 
-    for (State<RegEx> s : _all_states) {
+    for (State<RegEx> s : states) {
       int total_transitions = s.getTransitions().size();
 
       /* Check for eligible transitions */
@@ -293,6 +471,7 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
       /* generalize */
       System.out.print("[ ] \t" + s + "\tDIFFERENT_TRANSITIONS = " + total_transitions);
       if (total_transitions >= MIN_TRANSITIONS) {
+        register.unregister(s);
         dirty |= generalizeState(s, new_states);
       }
       System.out.println();
@@ -320,13 +499,14 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
     return false;
   }
 
-  private boolean generalizeII(float MIN_RATIO_TRANSITIONS_OVER_TOTAL_FREQ) {
+  private boolean generalizeII(float MIN_RATIO_TRANSITIONS_OVER_TOTAL_FREQ,
+      Collection<State<RegEx>> states, StateRegister<RegEx> register,
+      List<State<RegEx>> new_states) {
     System.out.println("[ ] generalizing states with RATIO_DIFFERENT_TRANSITIONS > "
         + Convert.toDecimalString(MIN_RATIO_TRANSITIONS_OVER_TOTAL_FREQ, 2) + "...");
-    ArrayList<State<RegEx>> new_states = new ArrayList<State<RegEx>>();
     boolean dirty = false;
 
-    for (State<RegEx> s : _all_states) {
+    for (State<RegEx> s : states) {
       int total_transitions = s.getTransitions().size();
       int sum_freq = 0;
 
@@ -344,8 +524,10 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
       float ratio_different_transitions = (float)total_transitions / (float)sum_freq;
       System.out.print("[ ] \t" + s + "\tRATIO : " + total_transitions + " / " + sum_freq + "\t= "
           + String.format("%.2f", ratio_different_transitions));
-      if (ratio_different_transitions >= MIN_RATIO_TRANSITIONS_OVER_TOTAL_FREQ)
+      if (ratio_different_transitions >= MIN_RATIO_TRANSITIONS_OVER_TOTAL_FREQ) {
+        register.unregister(s);
         dirty |= generalizeState(s, new_states);
+      }
 
       System.out.println();
 
@@ -394,6 +576,9 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
     opt.setOption("--snaplen=", null,
         "BYTES\tmaximum bytes to extract from payload (useful to extract headers)");
     opt.setOption("--output=", null, "\t\tinfer output messages (from sessions only)");
+    opt.setOption("--incremental=", "-i", "\t\tbuild automaton already minimized (less memory)");
+    CommandLineOptions.setTracesOptions(opt);
+    CommandLineOptions.setInferenceOptions(opt);
 
     Automaton.DEBUG = true;
 
@@ -411,8 +596,15 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
       if (opt.getValueBoolean("-b"))
         RegEx.setTextBasedSupport(false);
       boolean stateless = opt.getValueBoolean("-s");
+      if (opt.getValueBoolean("-i"))
+        Automaton.setIncrementalConstruction(true);
+      CommandLineOptions.setMinimization(opt);
 
       int MAX = opt.getValueBoolean("-m") ? opt.getValueInteger("-m") : -1;
+      int THREADS = CommandLineOptions.getThreads(opt);
+      Operations.setMinimizationThreads(THREADS);
+
+      SessionSampler sampler = CommandLineOptions.getSampler(opt);
 
       String MSG_DELIMITER = opt.getValueString("--delim=");
       // Check for message delimiter (for text-based protocols).
@@ -432,24 +624,29 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
           traces = new TextFile(file);
         } else {
           file = opt.getValueString("--pcap=");
-          traces = new PcapFile(opt.getValueString("--pcap="), EXPRESSION, null, MSG_DELIMITER);
+          traces = CommandLineOptions.getPcapFile(opt, EXPRESSION, null, MSG_DELIMITER);
           if (opt.getValueBoolean("--ip"))
             ((PcapFile)traces).setPayloadIp(true);
           if (opt.getValueBoolean("--snaplen="))
             ((PcapFile)traces).setSnaplen(opt.getValueInteger("--snaplen="));
+          ((PcapFile)traces).setDecoderThreads(THREADS);
         }
 
         // Get sessions from traces and save to .sessions file.
         traces.open();
-        sessions = traces.getSessions(!stateless, MAX);
+        if (sampler != null)
+          sessions = traces.getSessions(!stateless, sampler);
+        else
+          sessions = traces.getSessions(!stateless, MAX);
         traces.close();
         System.out.println("[ ] saving sessions to " + file + ".sessions");
-        utils.Utils.saveToFile(new ArrayList<List<Message>>(sessions), file + ".sessions");
+        ModelFile.save(new ArrayList<List<Message>>(sessions), file + ".sessions");
       }
 
       else if (opt.getValueBoolean("--sessions=")) {
-        sessions = (Collection<List<Message>>)utils.Utils.readFromFile(opt
-            .getValueString("--sessions="));
+        sessions = (Collection<List<Message>>)ModelFile.load(opt.getValueString("--sessions="));
+        if (sampler != null)
+          sessions = SessionSampler.sample(sessions, sampler);
 //        if (opt.getValueBoolean("-m"))
 //          sessions = Sessions.trim(sessions, MAX);
       }
@@ -458,13 +655,19 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
         throw new OptionsException(OptionsException.Types.MISSING_PARAMETER, "Missing traces file.");
       }
 
+      // Identical sessions are kept only once, with their number of occurrences.
+      WeightedSessions weighted = WeightedSessions.dedup(sessions);
+      System.out.println("[ ] " + weighted.getDistinct().size() + " distinct sessions (of "
+          + weighted.size() + ")");
+      sessions = weighted;
+
       State.NEXT_ID = 0;
       Automaton.DEBUG_FILENAME = LANGUAGE;
       TIMER.restart();
       Language language = new Language(!opt.getValueBoolean("--output="), sessions, T1, T2);
       System.out.println("[T] TOTAL TIME:\t" + TIMER.getElapsedTime());
       language.resetAllStates();
-      language.saveToFile(LANGUAGE);
+      ModelFile.save(language, LANGUAGE);
       language.drawAutomaton(LANGUAGE, false);
 
       /* DEBUG */
@@ -473,13 +676,14 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
       // "331 Anonymous login ok");
 
       System.out.println("# Printing all paths");
-      List<List<RegEx>> all_paths = language.getListofPaths();
-      for (List<RegEx> path : all_paths) {
+      int total_paths = 0;
+      for (List<RegEx> path : language.getPaths()) {
         for (RegEx symbol : path)
           System.out.print(symbol);
         System.out.println();
+        total_paths++;
       }
-      System.out.println("[ ] inferred msgs formats:\t" + all_paths.size());
+      System.out.println("[ ] inferred msgs formats:\t" + total_paths);
 
       System.out.println("[ ] DONE!");
 
@@ -487,12 +691,12 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
       // PcapFile.printStatistics(sessions);
       System.out.print("[S]\t" + STATS_MESSAGES);
       // times: PTA, GENERALIZE, MINIMIZATION
-      System.out.print("\t" + STATS_TIMER_PTA + "\t" + STATS_TIMER_GENERALIZE + "\t"
-          + STATS_TIMER_MINIMIZATION);
+      System.out.print("\t" + STATS.timer_pta + "\t" + STATS.timer_generalize + "\t"
+          + STATS.timer_minimization);
       // states after PTA and after generalization
-      System.out.print("\t" + STATS_STATES0 + "\t" + STATS_STATES1);
+      System.out.print("\t" + STATS.states0 + "\t" + STATS.states1);
       // inferred msg types after PTA and after generalization
-      System.out.print("\t" + STATS_PATHS0 + "\t" + STATS_PATHS1);
+      System.out.print("\t" + STATS.paths0 + "\t" + STATS.paths1);
       System.out.println();
 
     } catch (OptionsException e_options) {
@@ -560,10 +764,91 @@ public class Language extends Automaton<RegEx> implements java.io.Serializable {
     return null;
   }
 
+  public static void setCompiledMatcher(boolean compiled) {
+    COMPILED_MATCHER = compiled;
+  }
+
+  /**
+   * Set the maximum number of messages whose message types are cached by each
+   * language (0 = no cache).
+   */
+  public static void setCacheSize(int size) {
+    CACHE_SIZE = size;
+  }
+
+  /**
+   * Compiles the language into a byte-level DFA used by accepts(CharSequence).
+   * It is compiled on the first call to accepts(CharSequence), so it only has
+   * to be called again if the language is changed afterwards. It also empties
+   * the cache of message types.
+   */
+  public synchronized void compile() {
+    _dfa = COMPILED_MATCHER ? ByteDFA.compile(this) : null;
+    if (_cache != null)
+      _cache.clear();
+    else if (CACHE_SIZE > 0)
+      _cache = new MessageCache<LanguageMessageType>(CACHE_SIZE);
+    _is_compiled = true;
+  }
+
+  private void checkCompiled() {
+    if (!_is_compiled) {
+      // Messages may be classified concurrently (see StateMachineMoore).
+      synchronized (this) {
+        if (!_is_compiled)
+          compile();
+      }
+    }
+  }
+
   /**
    * Returns a path accepting the message.
    */
   public Collection<Transition<RegEx>> accepts(CharSequence message) {
+    checkCompiled();
+    if (_cache != null && message instanceof ByteChars) {
+      LanguageMessageType message_type = getMessageType(message);
+      return (message_type != null) ? message_type.getPathInLanguage() : null;
+    }
+    return match(message);
+  }
+
+  /**
+   * Returns the message type of the message (ie, the path accepting it), or
+   * null if it is not accepted. Repeated messages get the same message type
+   * from the cache (see setCacheSize()).
+   */
+  public LanguageMessageType getMessageType(CharSequence message) {
+    checkCompiled();
+    MessageCache<LanguageMessageType> cache = _cache;
+    ByteChars bytes = (cache != null && message instanceof ByteChars) ? (ByteChars)message : null;
+    if (bytes != null) {
+      LanguageMessageType message_type = cache.get(bytes);
+      if (message_type != null)
+        return message_type;
+    }
+
+    Collection<Transition<RegEx>> path = match(message);
+    if (path == null)
+      return null;
+    LanguageMessageType message_type = new LanguageMessageType(path);
+    if (bytes != null)
+      cache.put(bytes, message_type);
+    return message_type;
+  }
+
+  /**
+   * Returns the cache of message types (null if there is none yet).
+   */
+  public MessageCache<LanguageMessageType> getCache() {
+    return _cache;
+  }
+
+  private Collection<Transition<RegEx>> match(CharSequence message) {
+    ByteDFA dfa = _dfa;
+    if (dfa != null)
+      return dfa.accepts(message);
+
     Stack<Transition<RegEx>> curr_path = new Stack<Transition<RegEx>>();
     if (accepts(_initial_state, message, curr_path, 0))
       return curr_path;
@@ -0,0 +1,130 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+import java.io.IOException;
+import java.util.*;
+import traces.Message;
+import utils.Utils;
+import automata.*;
+
+/**
+ * Saves and loads languages, state machines and sessions in the binary format
+ * of BinaryFormat. Files saved by older versions (Java serialization) are
+ * still loaded.
+ */
+public class ModelFile {
+
+  /**
+   * Saves a Language, StateMachineMoore, StateMachineMealy, Automaton<RegEx>
+   * or a collection of sessions.
+   */
+  @SuppressWarnings("unchecked")
+  public static void save(Object model, String filename) throws IOException {
+    BinaryFormat.Writer out;
+    if (model instanceof Language) {
+      out = new BinaryFormat.Writer(filename, BinaryFormat.LANGUAGE);
+      out.writeLanguage((Language)model);
+    } else if (model instanceof StateMachineMealy) {
+      StateMachineMealy state_machine = (StateMachineMealy)model;
+      out = new BinaryFormat.Writer(filename, BinaryFormat.MEALY);
+      out.writeLanguage(state_machine.language);
+      out.writeLanguage(state_machine.output_language);
+      out.writeStateMachine(state_machine);
+    } else if (model instanceof StateMachineMoore) {
+      StateMachineMoore state_machine = (StateMachineMoore)model;
+      out = new BinaryFormat.Writer(filename, BinaryFormat.MOORE);
+      out.writeLanguage(state_machine.language);
+      out.writeStateMachine(state_machine);
+    } else if (model instanceof Automaton) {
+      out = new BinaryFormat.Writer(filename, BinaryFormat.AUTOMATON);
+      out.writeLanguage((Automaton<RegEx>)model);
+    } else if (model instanceof Collection) {
+      out = new BinaryFormat.Writer(filename, BinaryFormat.SESSIONS);
+      out.writeSessions((Collection<List<Message>>)model);
+    } else
+      throw new IllegalArgumentException("Unsupported model: " + model.getClass().getName());
+    out.close();
+  }
+
+  /**
+   * Loads a Language, StateMachineMoore, StateMachineMealy, Automaton<RegEx>
+   * or a collection of sessions (Collection<List<Message>>).
+   */
+  public static Object load(String filename) throws IOException, ClassNotFoundException {
+    if (!BinaryFormat.isBinaryFormat(filename))
+      return Utils.readFromFile(filename);
+
+    BinaryFormat.Reader in = new BinaryFormat.Reader(filename);
+    switch (in.getKind()) {
+    case BinaryFormat.LANGUAGE:
+      Language language = new Language();
+      in.readLanguage(language);
+      updateNextId(language);
+      return language;
+    case BinaryFormat.MOORE:
+      StateMachineMoore moore = new StateMachineMoore();
+      moore.language = new Language();
+      in.readLanguage(moore.language);
+      in.readStateMachine(moore);
+      updateNextId(moore.language);
+      updateNextId(moore);
+      return moore;
+    case BinaryFormat.MEALY:
+      StateMachineMealy mealy = new StateMachineMealy();
+      mealy.language = new Language();
+      mealy.output_language = new Language();
+      in.readLanguage(mealy.language);
+      in.readLanguage(mealy.output_language);
+      in.readStateMachine(mealy);
+      updateNextId(mealy.language);
+      updateNextId(mealy.output_language);
+      updateNextId(mealy);
+      return mealy;
+    case BinaryFormat.AUTOMATON:
+      Automaton<RegEx> automaton = new Automaton<RegEx>();
+      in.readLanguage(automaton);
+      updateNextId(automaton);
+      return automaton;
+    case BinaryFormat.SESSIONS:
+      return in.readSessions();
+    default:
+      throw new IOException("Unknown model in file: " + filename);
+    }
+  }
+
+  /**
+   * Updates State.NEXT_ID as Automaton.loadFromFile() does.
+   */
+  private static void updateNextId(Automaton<?> automaton) {
+    for (State<?> s : automaton.getAllStates())
+      if (s.getId() >= State.NEXT_ID)
+        State.NEXT_ID = s.getId() + 1;
+  }
+}
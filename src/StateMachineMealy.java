@@ -38,6 +38,10 @@ public class StateMachineMealy extends StateMachineMoore implements java.io.Seri
   protected static final long serialVersionUID = StateMachineMoore.serialVersionUID;
   protected Language output_language;
 
+  public StateMachineMealy() {
+    output_language = null;
+  }
+
   public StateMachineMealy(Language l_input, Language l_output, Collection<List<Message>> sessions)
       throws UnknownMessageTypeException {
     language = l_input;
@@ -45,6 +49,11 @@ public class StateMachineMealy extends StateMachineMoore implements java.io.Seri
     infer(sessions);
   }
 
+  @Override
+  protected int countClassified(List<Message> session) {
+    return session.size();
+  }
+
   @Override
   public List<MessageType> convertSessionToSequenceOfMsgTypes(List<Message> session)
       throws UnknownMessageTypeException {
@@ -55,7 +64,7 @@ public class StateMachineMealy extends StateMachineMoore implements java.io.Seri
     /* Process each message of a session. */
     boolean look_for_output = false;
     for (Message m : session) {
-      STATS_MESSAGES++;
+      STATS_MESSAGES.incrementAndGet();
 
       /* Input message. */
       if (m.isInput()) {
@@ -68,11 +77,10 @@ public class StateMachineMealy extends StateMachineMoore implements java.io.Seri
           look_for_output = false;
         }
 
-        Collection<Transition<RegEx>> path_in_language = language.accepts(m);
-        if (path_in_language != null) {
-          LanguageMessageType msg_type = new LanguageMessageType(path_in_language);
+        LanguageMessageType msg_type = language.getMessageType(m);
+        if (msg_type != null)
           input.add(msg_type);
-        } else
+        else
           throw new UnknownMessageTypeException(m.toString(), nth_message);
       }
 
@@ -80,11 +88,10 @@ public class StateMachineMealy extends StateMachineMoore implements java.io.Seri
       else {
         // System.out.println("< " + m.toString());
         look_for_output = true;
-        Collection<Transition<RegEx>> path_in_language = output_language.accepts(m);
-        if (path_in_language != null) {
-          LanguageMessageType msg_type = new LanguageMessageType(path_in_language);
+        LanguageMessageType msg_type = output_language.getMessageType(m);
+        if (msg_type != null)
           output.add(msg_type);
-        } else
+        else
           throw new UnknownMessageTypeException(m.toString(), nth_message);
       }
 
@@ -139,6 +146,9 @@ public class StateMachineMealy extends StateMachineMoore implements java.io.Seri
 //    opt.setOption("--max=", "-m", "NUMBER\tmaximum number of messages to process");
     opt.setOption("--delim=", "-d", "message delimiter (eg, \"\\r\\n\")");
     opt.setOption("--stateless=", "-s", "\tif the protocol is stateless");
+    opt.setOption("--incremental=", "-i", "\t\tbuild automaton already minimized (less memory)");
+    CommandLineOptions.setTracesOptions(opt);
+    CommandLineOptions.setInferenceOptions(opt);
 
     /* Check command-line parameters. */
     opt.parseArgs(args);
@@ -146,7 +156,15 @@ public class StateMachineMealy extends StateMachineMoore implements java.io.Seri
 
       /* Parse command-line parameters. */
       boolean stateless = opt.getValueBoolean("-s");
+      if (opt.getValueBoolean("-i"))
+        Automaton.setIncrementalConstruction(true);
+      CommandLineOptions.setMinimization(opt);
       int MAX = opt.getValueBoolean("-m") ? opt.getValueInteger("-m") : -1;
+      int THREADS = CommandLineOptions.getThreads(opt);
+      Operations.setMinimizationThreads(THREADS);
+      setClassificationThreads(THREADS);
+
+      SessionSampler sampler = CommandLineOptions.getSampler(opt);
 
       // Check for message delimiter (for text-based protocols).
       String MSG_DELIMITER = opt.getValueString("--delim=");
@@ -164,8 +182,8 @@ public class StateMachineMealy extends StateMachineMoore implements java.io.Seri
       Automaton.DEBUG = true;
 
       /* Load inferred input languages. */
-      Language input_language = (Language)Utils.readFromFile(LANG1);
-      Language output_language = (Language)Utils.readFromFile(LANG2);
+      Language input_language = (Language)ModelFile.load(LANG1);
+      Language output_language = (Language)ModelFile.load(LANG2);
 
       /* Load sessions (extracted previously from traces). */
       Collection<List<Message>> sessions = null;
@@ -173,16 +191,21 @@ public class StateMachineMealy extends StateMachineMoore implements java.io.Seri
 
       // Packet capture files.
       if (opt.getValueBoolean("--pcap=")) {
-        traces = new PcapFile(opt.getValueString("--pcap="), EXPRESSION, SERVER_ADDR, MSG_DELIMITER);
+        traces = CommandLineOptions.getPcapFile(opt, EXPRESSION, SERVER_ADDR, MSG_DELIMITER);
+        ((PcapFile)traces).setDecoderThreads(THREADS);
         traces.open();
-        sessions = traces.getSessions(!stateless, MAX);
+        if (sampler != null)
+          sessions = traces.getSessions(!stateless, sampler);
+        else
+          sessions = traces.getSessions(!stateless, MAX);
         traces.close();
       }
 
       // Cached sessions.
       else if (opt.getValueBoolean("--sessions=")) {
-        sessions = (Collection<List<Message>>)utils.Utils.readFromFile(opt
-            .getValueString("--sessions="));
+        sessions = (Collection<List<Message>>)ModelFile.load(opt.getValueString("--sessions="));
+        if (sampler != null)
+          sessions = SessionSampler.sample(sessions, sampler);
 //        if (opt.getValueBoolean("-m"))
 //          sessions = Sessions.trim(sessions, MAX);
 
@@ -192,7 +215,10 @@ public class StateMachineMealy extends StateMachineMoore implements java.io.Seri
       else if (opt.getValueBoolean("--txt=")) {
         traces = new TextFile(opt.getValueString("--txt="));
         traces.open();
-        sessions = traces.getSessions(!stateless, MAX);
+        if (sampler != null)
+          sessions = traces.getSessions(!stateless, sampler);
+        else
+          sessions = traces.getSessions(!stateless, MAX);
         traces.close();
       }
 
@@ -201,24 +227,32 @@ public class StateMachineMealy extends StateMachineMoore implements java.io.Seri
         throw new OptionsException(OptionsException.Types.MISSING_PARAMETER, "Missing traces file.");
       }
 
+      // Identical sessions are kept only once, with their number of occurrences.
+      WeightedSessions weighted = WeightedSessions.dedup(sessions);
+      System.out.println("[ ] " + weighted.getDistinct().size() + " distinct sessions (of "
+          + weighted.size() + ")");
+      sessions = weighted;
+
       /* Infer state machine of the protocol. */
       TIMER.restart();
       StateMachineMealy state_machine = new StateMachineMealy(input_language, output_language,
           sessions);
       System.out.println("[T] TOTAL TIME:\t" + TIMER.getElapsedTime());
+      printCacheStatistics(input_language);
+      printCacheStatistics(output_language);
       state_machine.drawAutomaton(OUTFILE, false);
-      Utils.saveToFile(state_machine, OUTFILE);
+      ModelFile.save(state_machine, OUTFILE);
 
       /* STATISTICS */
       // PcapFile.printStatistics(sessions);
-      System.out.print("[S]\t" + STATS_MESSAGES);
+      System.out.print("[S]\t" + STATS_MESSAGES.get());
       // times: PTA, GENERALIZE, MINIMIZATION
-      System.out.print("\t" + STATS_TIMER_PTA + "\t" + STATS_TIMER_GENERALIZE + "\t"
-          + STATS_TIMER_MINIMIZATION);
+      System.out.print("\t" + STATS.timer_pta + "\t" + STATS.timer_generalize + "\t"
+          + STATS.timer_minimization);
       // states after PTA and after generalization
-      System.out.print("\t" + STATS_STATES0 + "\t" + STATS_STATES1);
+      System.out.print("\t" + STATS.states0 + "\t" + STATS.states1);
       // inferred msg types after PTA and after generalization
-      System.out.print("\t" + STATS_PATHS0 + "\t" + STATS_PATHS1);
+      System.out.print("\t" + STATS.paths0 + "\t" + STATS.paths1);
       System.out.println();
 
     } catch (OptionsException e_options) {
@@ -29,6 +29,12 @@
  * policies, either expressed or implied, of Joao Antunes.
  *****************************************************************************/
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import traces.*;
 import utils.*;
 import utils.Timer;
@@ -38,17 +44,16 @@ public class StateMachineMoore extends Automaton<MessageType> implements java.io
   protected static final long serialVersionUID = 1L;
   protected Language language;
 
-  protected static int STATS_TIMER_PTA;
-  protected static int STATS_TIMER_GENERALIZE;
-  protected static int STATS_TIMER_MINIMIZATION;
-  protected static int STATS_STATES0;
-  protected static int STATS_STATES1;
-  protected static int STATS_PATHS0;
-  protected static int STATS_PATHS1;
-  protected static int STATS_MESSAGES = 0;
+  protected static final Language.Statistics STATS = new Language.Statistics();
+  // Updated by the threads classifying sessions (see classifySessions()).
+  protected static final AtomicInteger STATS_MESSAGES = new AtomicInteger();
 
   public static Timer TIMER;
 
+  // Threads classifying the messages of the sessions (1 = no additional threads).
+  private static int CLASSIFICATION_THREADS = 1;
+  private static final int CLASSIFICATION_TASKS = 4; // sessions are split in tasks per thread
+
   // EXCEPTION
   public static class UnknownMessageTypeException extends Exception {
     int nth_message = 0; // which message was not accepted (in the traces)
@@ -72,78 +77,176 @@ public class StateMachineMoore extends Automaton<MessageType> implements java.io
     infer(sessions);
   }
 
+  /**
+   * Infers the state machine measuring it with the given timer and statistics
+   * instead of the static ones, e.g., in a background thread.
+   */
+  StateMachineMoore(Language l, Collection<List<Message>> sessions, Timer timer,
+      Language.Statistics stats) throws UnknownMessageTypeException {
+    super();
+    language = l;
+    infer(sessions, timer, stats);
+  }
+
   protected void infer(Collection<List<Message>> sessions) throws UnknownMessageTypeException {
+    infer(sessions, TIMER, STATS);
+  }
+
+  private void infer(Collection<List<Message>> sessions, Timer timer, Language.Statistics stats)
+      throws UnknownMessageTypeException {
     System.out.println("[ ] building automaton");
     int session_id = 0;
 
-    TIMER.restart();
+    timer.restart();
     /* Build raw automaton. */
-    for (List<Message> session : sessions) {
-      List<MessageType> inferred = convertSessionToSequenceOfMsgTypes(session);
-      System.out.println("[" + session_id + "] adding " + inferred);
-      super.addSequence(inferred);
-      session_id++;
+    // Identical sessions are classified and added only once, with their weight.
+    WeightedSessions weighted = WeightedSessions.dedup(sessions);
+    List<List<MessageType>> sequences = classifySessions(weighted.getDistinct());
+    List<Integer> weights = weighted.getWeights();
+    for (int i = 0; i < sequences.size(); i++) {
+      int weight = weights.get(i);
+      STATS_MESSAGES.addAndGet((weight - 1) * countClassified(weighted.getDistinct().get(i)));
+      System.out.println("[" + session_id + "] adding " + inferred(sequences.get(i), weight));
+      session_id += weight;
+    }
+    if (Automaton.isIncrementalConstruction())
+      super.addSequencesMinimized(sequences, weights);
+    else {
+      for (int i = 0; i < sequences.size(); i++)
+        super.addSequence(sequences.get(i), weights.get(i));
     }
 
-    STATS_TIMER_PTA = TIMER.getElapsedTime();
-    System.out.println("[T] PTA:\t" + STATS_TIMER_PTA);
+    stats.timer_pta = timer.getElapsedTime();
+    System.out.println("[T] PTA:\t" + stats.timer_pta);
 
     /* STATS */
-    STATS_STATES0 = _all_states.size();
-    // STATS_PATHS0 = this.getListofPaths().size();
-    TIMER.restart();
+    stats.states0 = _all_states.size();
+    // stats.paths0 = this.countPaths();
+    timer.restart();
     /* STATS */
 
     System.out.println("[ ] merging automaton");
     // automaton.DRAW("statemachine1-PTA", false);
-    TIMER.mark();
+    timer.mark();
     Operations.minimization(this);
-    STATS_TIMER_MINIMIZATION = TIMER.getElapsedTimeFromMark();
+    stats.timer_minimization = timer.getElapsedTimeFromMark();
     // automaton.DRAW("statemachine2-PTA-minimized", false);
 
     /* Generalize automaton. */
-    generalize(this);
+    generalize(this, timer, stats);
     this.resetAllStates();
-    STATS_TIMER_GENERALIZE = TIMER.getElapsedTime() - STATS_TIMER_MINIMIZATION;
-    System.out.println("[T] Merge:\t" + TIMER.getElapsedTimeFromMark());
+    stats.timer_generalize = timer.getElapsedTime() - stats.timer_minimization;
+    System.out.println("[T] Merge:\t" + timer.getElapsedTimeFromMark());
 
     /* STATS */
-    STATS_STATES1 = _all_states.size();
-    // STATS_PATHS1 = this.getListofPaths().size();
-    TIMER.restart();
+    stats.states1 = _all_states.size();
+    // stats.paths1 = this.countPaths();
+    timer.restart();
     /* STATS */
 
   }
 
-  // ////////////////////////////////////////////////////////
+  /**
+   * Set the number of threads classifying the messages of the sessions while
+   * inferring the state machine (see classifySessions()).
+   */
+  public static void setClassificationThreads(int threads) {
+    CLASSIFICATION_THREADS = (threads < 1) ? 1 : threads;
+  }
+
+  public static int getClassificationThreads() {
+    return CLASSIFICATION_THREADS;
+  }
 
   /**
-   * Returns the number of message types in common.
+   * Converts each session into its sequence of message types (see
+   * convertSessionToSequenceOfMsgTypes()), returning them in the same order as
+   * the sessions. Sessions are independent from each other, so they are split
+   * in ranges classified concurrently by CLASSIFICATION_THREADS threads. If
+   * sessions are not accepted by the language, the exception of the first one
+   * is thrown.
    */
-  private static int _msg_types_have_in_common(State<MessageType> s0, State<MessageType> s1) {
+  protected List<List<MessageType>> classifySessions(Collection<List<Message>> sessions)
+      throws UnknownMessageTypeException {
+    final List<List<Message>> to_classify = new ArrayList<List<Message>>(sessions);
+    int total = to_classify.size();
+    int total_tasks = Math.min(total, CLASSIFICATION_THREADS * CLASSIFICATION_TASKS);
+    if (CLASSIFICATION_THREADS == 1 || total_tasks <= 1) {
+      List<List<MessageType>> sequences = new ArrayList<List<MessageType>>(total);
+      for (List<Message> session : to_classify)
+        sequences.add(convertSessionToSequenceOfMsgTypes(session));
+      return sequences;
+    }
 
-    // Message types defined in s0
-    Set<MessageType> transitions_in_s0 = new HashSet<MessageType>(s0.getTransitions().size());
-    for (Transition<MessageType> t : s0.getTransitions())
-      transitions_in_s0.add(t.getSymbol());
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(CLASSIFICATION_THREADS,
+        total_tasks));
+    try {
+      ArrayList<Future<List<List<MessageType>>>> results;
+      results = new ArrayList<Future<List<List<MessageType>>>>(total_tasks);
+      for (int i = 0; i < total_tasks; i++) {
+        final int start = (int)((long)total * i / total_tasks);
+        final int end = (int)((long)total * (i + 1) / total_tasks);
+        results.add(executor.submit(new Callable<List<List<MessageType>>>() {
+          public List<List<MessageType>> call() throws UnknownMessageTypeException {
+            List<List<MessageType>> sequences = new ArrayList<List<MessageType>>(end - start);
+            for (List<Message> session : to_classify.subList(start, end))
+              sequences.add(convertSessionToSequenceOfMsgTypes(session));
+            return sequences;
+          }
+        }));
+      }
 
-    // Message types defined in s1
-    Set<MessageType> transitions_in_s1 = new HashSet<MessageType>(s1.getTransitions().size());
-    for (Transition<MessageType> t : s1.getTransitions())
-      transitions_in_s1.add(t.getSymbol());
+      List<List<MessageType>> sequences = new ArrayList<List<MessageType>>(total);
+      for (Future<List<List<MessageType>>> result : results)
+        sequences.addAll(result.get());
+      return sequences;
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof UnknownMessageTypeException)
+        throw (UnknownMessageTypeException)e.getCause();
+      throw new RuntimeException("Error while classifying messages", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
 
-    // intersection
-    transitions_in_s0.retainAll(transitions_in_s1);
+  // ////////////////////////////////////////////////////////
 
-    return transitions_in_s0.size();
+  /**
+   * Returns the position of each state in the list.
+   */
+  private static IdentityHashMap<State<MessageType>, Integer> indexStates(
+      List<State<MessageType>> states) {
+    IdentityHashMap<State<MessageType>, Integer> index;
+    index = new IdentityHashMap<State<MessageType>, Integer>(states.size());
+    for (int i = 0; i < states.size(); i++)
+      index.put(states.get(i), i);
+    return index;
   }
 
-  private static HashSet<State<MessageType>> getPartition(
-      HashSet<HashSet<State<MessageType>>> partitions, State<MessageType> state) {
-    for (HashSet<State<MessageType>> partition : partitions)
-      if (partition.contains(state))
-        return partition;
-    return null;
+  /**
+   * Returns the sets of two or more states joined in the disjoint sets (of
+   * their positions in the list), keeping the order of the list in each set.
+   */
+  private static ArrayList<List<State<MessageType>>> getAllSets(List<State<MessageType>> states,
+      DisjointSets disjoint_sets) {
+    LinkedHashMap<Integer, List<State<MessageType>>> sets;
+    sets = new LinkedHashMap<Integer, List<State<MessageType>>>();
+    for (int i = 0; i < states.size(); i++) {
+      if (disjoint_sets.getSize(i) <= 1)
+        continue;
+      Integer root = disjoint_sets.find(i);
+      List<State<MessageType>> set = sets.get(root);
+      if (set == null) {
+        set = new ArrayList<State<MessageType>>(disjoint_sets.getSize(i));
+        sets.put(root, set);
+      }
+      set.add(states.get(i));
+    }
+    return new ArrayList<List<State<MessageType>>>(sets.values());
   }
 
   /**
@@ -151,13 +254,13 @@ public class StateMachineMoore extends Automaton<MessageType> implements java.io
    * performed changes.
    */
   private static boolean mergeEachSet(Automaton<MessageType> automaton,
-      Collection<HashSet<State<MessageType>>> all_sets) {
+      Collection<? extends Collection<State<MessageType>>> all_sets) {
     boolean result = false;
 
     HashMap<State<MessageType>, State<MessageType>> merged_mapping = new HashMap<State<MessageType>, State<MessageType>>();
 
     // System.out.println("[ ] merging states...");
-    for (HashSet<State<MessageType>> set_to_merge : all_sets) {
+    for (Collection<State<MessageType>> set_to_merge : all_sets) {
       if (set_to_merge.size() <= 1)
         continue;
       result = true;
@@ -185,6 +288,11 @@ public class StateMachineMoore extends Automaton<MessageType> implements java.io
   }
 
   public static void generalize(Automaton<MessageType> automaton) {
+    generalize(automaton, TIMER, STATS);
+  }
+
+  static void generalize(Automaton<MessageType> automaton, Timer timer,
+      Language.Statistics stats) {
     ArrayList<State<MessageType>> _all_states = automaton.getAllStates();
     //int n = 2;
 
@@ -202,10 +310,10 @@ public class StateMachineMoore extends Automaton<MessageType> implements java.io
       if (generalizeI(automaton)) {
         dirty = true;
         System.out.println("\ttrue");
-        TIMER.mark();
+        timer.mark();
         Operations.determinization(automaton);
         Operations.minimization(automaton);
-        STATS_TIMER_MINIMIZATION += TIMER.getElapsedTimeFromMark();
+        stats.timer_minimization += timer.getElapsedTimeFromMark();
         // automaton.DRAW("statemachine" + (++n) + "-reduceI", false);
       }
 
@@ -216,10 +324,10 @@ public class StateMachineMoore extends Automaton<MessageType> implements java.io
       while (generalizeII(automaton)) {
         dirty = true;
         System.out.println("\ttrue");
-        TIMER.mark();
+        timer.mark();
         Operations.determinization(automaton);
         Operations.minimization(automaton);
-        STATS_TIMER_MINIMIZATION += TIMER.getElapsedTimeFromMark();
+        stats.timer_minimization += timer.getElapsedTimeFromMark();
         // automaton.DRAW("statemachine" + (++n) + "-reduceII", false);
       }
 
@@ -233,94 +341,33 @@ public class StateMachineMoore extends Automaton<MessageType> implements java.io
   }
 
   /**
-   * Merges cyclic states that are considered similar. Their similarity is
-   * related to the number of minimal changes that two states have to suffer to
-   * be identical.
+   * Merges cyclic states that are considered similar, i.e., the states that
+   * share at least one message type, directly or through other states. The
+   * candidates come from an index of the states accepting each message type,
+   * instead of comparing every pair of states.
    */
   private static boolean generalizeII(Automaton<MessageType> automaton) {
     System.out.println("[ ] reduceII()");
     ArrayList<State<MessageType>> _all_states = automaton.getAllStates();
-    HashSet<HashSet<State<MessageType>>> partitions = new HashSet<HashSet<State<MessageType>>>();
-
-    /* Compare each pair of partitions: containing s0 and s1. */
-    for (int i = 0; i < _all_states.size() - 1; i++) {
-      State<MessageType> s0 = _all_states.get(i);
-
-      // Get partition with s0.
-      HashSet<State<MessageType>> partition_with_s0 = getPartition(partitions, s0);
-      if (partition_with_s0 == null) {
-        partition_with_s0 = new HashSet<State<MessageType>>();
-        partition_with_s0.add(s0);
-        partitions.add(partition_with_s0);
-      }
-
-      for (int j = i + 1; j < _all_states.size(); j++) {
-        State<MessageType> s1 = _all_states.get(j);
-
-        /* Don't merge if there is a causal relation. */
-        // break if either 1) S0->S1 and no S1->S0
-        // 2) S1->S0 and no S0->S1
-        boolean s0_to_s1 = !s0.getAcceptedTransitions(s1).isEmpty();
-        boolean s1_to_s0 = !s0.getAcceptedTransitions(s1).isEmpty();
-        if (s0_to_s1 != s1_to_s0)
-          // the same as (s0_to_s1 && !s1_to_s0) || (s1_to_s0 && !s0_to_s1)
-          continue;
-
-        /* If there are transitions in common, merge two partitions. */
-        if (_msg_types_have_in_common(s0, s1) > 0) {
-          // Get partition with s1 and merge it with partition with s0.
-          HashSet<State<MessageType>> partition_with_s1 = getPartition(partitions, s1);
-          if (partition_with_s1 != null && partition_with_s0 != partition_with_s1) {
-            partition_with_s0.addAll(partition_with_s1);
-            partition_with_s1.clear(); // remove doesn't work
-            System.out.println("merging two partitions");
-          } else
-            partition_with_s0.add(s1);
-        }
-
+    DisjointSets partitions = new DisjointSets(_all_states.size());
+
+    // First state accepting each message type.
+    HashMap<MessageType, Integer> accepted_by = new HashMap<MessageType, Integer>();
+    for (int i = 0; i < _all_states.size(); i++) {
+      for (Transition<MessageType> t : _all_states.get(i)) {
+        Integer first = accepted_by.get(t.getSymbol());
+        if (first == null)
+          accepted_by.put(t.getSymbol(), i);
+        else
+          partitions.union(first, i);
       }
-
     }
 
     /* Merge all states of each partition. */
-    boolean changed = mergeEachSet(automaton, partitions);
+    boolean changed = mergeEachSet(automaton, getAllSets(_all_states, partitions));
     return changed;
   }
 
-  private static ArrayList<HashSet<State<MessageType>>> getAllSets(
-      Collection<HashSet<State<MessageType>>> collection_of_sets) {
-    ArrayList<HashSet<State<MessageType>>> partitions = new ArrayList<HashSet<State<MessageType>>>(
-        collection_of_sets.size());
-
-    // add each set as a new partition or merge with existing one
-    for (HashSet<State<MessageType>> set : collection_of_sets) {
-
-      // check if any elem of set already exists in any partition
-      HashSet<State<MessageType>> existing_partition = null;
-      for (HashSet<State<MessageType>> partition : partitions) {
-        for (State<MessageType> s : set)
-          if (partition.contains(s)) {
-            // merge with existing partition
-            existing_partition = partition;
-            break;
-          }
-        if (existing_partition != null)
-          break;
-      }
-
-      // create a new partition
-      if (existing_partition == null) {
-        existing_partition = new HashSet<State<MessageType>>();
-        partitions.add(existing_partition);
-      }
-
-      // add set to new or existing partition
-      existing_partition.addAll(set);
-    }
-
-    return partitions;
-  }
-
   /**
    * Merge all "similar" dest_states, ie, states that are destination of the
    * same symbol. In this resulting state machine each state represents the
@@ -329,38 +376,53 @@ public class StateMachineMoore extends Automaton<MessageType> implements java.io
   private static boolean generalizeI(Automaton<MessageType> automaton) {
     System.out.println("[ ] reduceI()");
     ArrayList<State<MessageType>> _all_states = automaton.getAllStates();
-    HashMap<MessageType, HashSet<State<MessageType>>> to_merge = new HashMap<MessageType, HashSet<State<MessageType>>>();
+    IdentityHashMap<State<MessageType>, Integer> index = indexStates(_all_states);
+    DisjointSets to_merge = new DisjointSets(_all_states.size());
 
-    // Get sets of states that accept the same symbol/message_format.
+    // Join the states that accept the same symbol/message_format.
+    HashMap<MessageType, Integer> dest_of = new HashMap<MessageType, Integer>();
     for (State<MessageType> state : _all_states) {
       for (Transition<MessageType> t : state) {
-        MessageType symbol = t.getSymbol();
-        HashSet<State<MessageType>> set = to_merge.get(symbol);
-        if (set == null) {
-          set = new HashSet<State<MessageType>>();
-          to_merge.put(symbol, set);
-        }
-        set.add(t.getState());
+        Integer dest = index.get(t.getState());
+        Integer first = dest_of.get(t.getSymbol());
+        if (first == null)
+          dest_of.put(t.getSymbol(), dest);
+        else
+          to_merge.union(first, dest);
       }
     }
 
-    ArrayList<HashSet<State<MessageType>>> sets = getAllSets(to_merge.values());
-    boolean changed = mergeEachSet(automaton, sets);
+    boolean changed = mergeEachSet(automaton, getAllSets(_all_states, to_merge));
     return changed;
   }
 
+  private static String inferred(List<MessageType> sequence, int weight) {
+    return (weight == 1) ? sequence.toString() : sequence + " (x" + weight + ")";
+  }
+
+  /**
+   * Returns the number of messages of the session that are classified (and
+   * counted) by convertSessionToSequenceOfMsgTypes().
+   */
+  protected int countClassified(List<Message> session) {
+    int total = 0;
+    for (Message m : session)
+      if (m.isInput())
+        total++;
+    return total;
+  }
+
   public List<MessageType> convertSessionToSequenceOfMsgTypes(List<Message> session)
       throws UnknownMessageTypeException {
     int nth_message = 0;
     List<MessageType> sequence = new ArrayList<MessageType>();
     for (Message m : session) {
       if (m.isInput()) { // Only process input messages.
-        STATS_MESSAGES++;
-        Collection<Transition<RegEx>> path_in_language = language.accepts(m);
-        if (path_in_language != null) {
-          MessageType msg_type = new LanguageMessageType(path_in_language);
+        STATS_MESSAGES.incrementAndGet();
+        MessageType msg_type = language.getMessageType(m);
+        if (msg_type != null)
           sequence.add(msg_type);
-        } else
+        else
           throw new UnknownMessageTypeException(m.toString(), nth_message);
       }
       nth_message++;
@@ -368,6 +430,16 @@ public class StateMachineMoore extends Automaton<MessageType> implements java.io
     return sequence;
   }
 
+  /**
+   * Prints the hits and misses of the cache of message types of the language.
+   */
+  protected static void printCacheStatistics(Language language) {
+    MessageCache<LanguageMessageType> cache = language.getCache();
+    if (cache != null)
+      System.out.println("[ ] message types cached:\t" + cache.getHits() + " hits, "
+          + cache.getMisses() + " misses");
+  }
+
   // /////////////////////////////////////////////////////////////////////////////
   public static void printUsage(OptionsExtended options) {
     System.out
@@ -404,6 +476,9 @@ public class StateMachineMoore extends Automaton<MessageType> implements java.io
     opt.setOption("--sessions=", null, "FILE\tSessions object file");
 //    opt.setOption("--max=", "-m", "NUMBER\tMaximum number of messages to process");
     opt.setOption("--delim=", "-d", "Message delimiter (eg, \"\\r\\n\")");
+    opt.setOption("--incremental=", "-i", "\t\tbuild automaton already minimized (less memory)");
+    CommandLineOptions.setTracesOptions(opt);
+    CommandLineOptions.setInferenceOptions(opt);
 
     /* Check command-line parameters. */
     opt.parseArgs(args);
@@ -411,6 +486,9 @@ public class StateMachineMoore extends Automaton<MessageType> implements java.io
 
       /* Parse command-line parameters. */
       boolean stateless = opt.getValueBoolean("-s");
+      if (opt.getValueBoolean("-i"))
+        Automaton.setIncrementalConstruction(true);
+      CommandLineOptions.setMinimization(opt);
       // Check for message delimiter (for text-based protocols).
       String MSG_DELIMITER = opt.getValueString("--delim=");
       if (MSG_DELIMITER != null) {
@@ -425,10 +503,14 @@ public class StateMachineMoore extends Automaton<MessageType> implements java.io
       Automaton.DEBUG = true;
 
       int MAX = opt.getValueBoolean("-m") ? opt.getValueInteger("-m") : -1;
+      int THREADS = CommandLineOptions.getThreads(opt);
+      Operations.setMinimizationThreads(THREADS);
+      setClassificationThreads(THREADS);
+
+      SessionSampler sampler = CommandLineOptions.getSampler(opt);
 
       /* Load inferred input languages. */
-      Automaton<RegEx> lang = Automaton.loadFromFile(LANGUAGE);
-      Language input_language = (Language)lang;
+      Language input_language = (Language)ModelFile.load(LANGUAGE);
       State.NEXT_ID = 0;
 
       /* Load sessions (extracted previously from traces). */
@@ -437,16 +519,24 @@ public class StateMachineMoore extends Automaton<MessageType> implements java.io
       if (opt.getValueBoolean("--txt=")) {
         traces = new TextFile(opt.getValueString("--txt="));
         traces.open();
-        sessions = traces.getSessions(!stateless, MAX);
+        if (sampler != null)
+          sessions = traces.getSessions(!stateless, sampler);
+        else
+          sessions = traces.getSessions(!stateless, MAX);
         traces.close();
       } else if (opt.getValueBoolean("--pcap=")) {
-        traces = new PcapFile(opt.getValueString("--pcap="), EXPRESSION, null, MSG_DELIMITER);
+        traces = CommandLineOptions.getPcapFile(opt, EXPRESSION, null, MSG_DELIMITER);
+        ((PcapFile)traces).setDecoderThreads(THREADS);
         traces.open();
-        sessions = traces.getSessions(!stateless, MAX);
+        if (sampler != null)
+          sessions = traces.getSessions(!stateless, sampler);
+        else
+          sessions = traces.getSessions(!stateless, MAX);
         traces.close();
       } else if (opt.getValueBoolean("--sessions=")) {
-        sessions = (Collection<List<Message>>)utils.Utils.readFromFile(opt
-            .getValueString("--sessions="));
+        sessions = (Collection<List<Message>>)ModelFile.load(opt.getValueString("--sessions="));
+        if (sampler != null)
+          sessions = SessionSampler.sample(sessions, sampler);
 //        if (opt.getValueBoolean("-m"))
 //          sessions = Sessions.trim(sessions, MAX);
 
@@ -454,27 +544,34 @@ public class StateMachineMoore extends Automaton<MessageType> implements java.io
         throw new OptionsException(OptionsException.Types.MISSING_PARAMETER, "Missing traces file.");
       }
 
+      // Identical sessions are kept only once, with their number of occurrences.
+      WeightedSessions weighted = WeightedSessions.dedup(sessions);
+      System.out.println("[ ] " + weighted.getDistinct().size() + " distinct sessions (of "
+          + weighted.size() + ")");
+      sessions = weighted;
+
       /* Infer state machine of the protocol. */
       TIMER.restart();
       StateMachineMoore state_machine = new StateMachineMoore(input_language, sessions);
       System.out.println("[T] TOTAL TIME:\t" + TIMER.getElapsedTime());
+      printCacheStatistics(input_language);
       state_machine.drawAutomaton(OUTFILE, false);
-      Utils.saveToFile(state_machine, OUTFILE);
+      ModelFile.save(state_machine, OUTFILE);
 
       /* STATISTICS */
       // PcapFile.printStatistics(sessions);
-      System.out.print("[S]\t" + STATS_MESSAGES);
+      System.out.print("[S]\t" + STATS_MESSAGES.get());
       // times: PTA, GENERALIZE, MINIMIZATION
-      System.out.print("\t" + STATS_TIMER_PTA + "\t" + STATS_TIMER_GENERALIZE + "\t"
-          + STATS_TIMER_MINIMIZATION);
+      System.out.print("\t" + STATS.timer_pta + "\t" + STATS.timer_generalize + "\t"
+          + STATS.timer_minimization);
       // states after PTA and after generalization
-      System.out.print("\t" + STATS_STATES0 + "\t" + STATS_STATES1);
+      System.out.print("\t" + STATS.states0 + "\t" + STATS.states1);
       // inferred msg types after PTA and after generalization
-      System.out.print("\t" + STATS_PATHS0 + "\t" + STATS_PATHS1);
+      System.out.print("\t" + STATS.paths0 + "\t" + STATS.paths1);
       System.out.println();
 
       /* Checking (original). */
-      for (List<Message> session : sessions) {
+      for (List<Message> session : weighted.getDistinct()) {
         try {
           List<MessageType> inferred = state_machine.convertSessionToSequenceOfMsgTypes(session);
           if (!state_machine.acceptsPrefix(inferred)) {
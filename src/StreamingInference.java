@@ -0,0 +1,510 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import traces.*;
+import traces.PcapFile.Connection;
+import utils.*;
+import utils.Timer;
+import automata.*;
+
+/**
+ * Infers the input language and the state machine (Moore) of a protocol while
+ * messages arrive, e.g., from a network device (PcapDevice.loop()) or from
+ * traces read one message at a time (run()).
+ * 
+ * Each input message is added to a prefix tree as soon as it arrives. From
+ * time to time (every N messages or milliseconds) a copy of the prefix tree is
+ * generalized as in Language and the state machine is inferred from the
+ * sessions seen so far, in a background thread, while messages keep being
+ * added. The last snapshot is returned by getSnapshot() and can also be saved
+ * to files.
+ * 
+ * Messages are not kept, only the prefix tree of the distinct messages and
+ * the distinct sessions (with their counts), so memory depends on the size of
+ * the model rather than on the size of the traces. New messages that do not
+ * fit the maximum number of states of the prefix tree and new sessions above
+ * the maximum number of sessions are dropped.
+ */
+public class StreamingInference implements MessageHandler {
+  private final float T1;
+  private final int T2;
+  private final boolean stateful;
+  private static final long GENERALIZER_STACK_SIZE = 128L * 1024 * 1024;
+
+  private int snapshot_messages = 10000; // messages between snapshots
+  private int snapshot_interval = 0; // milliseconds between snapshots (0 = none)
+  private int max_states = 1000000; // of the prefix tree
+  private int max_sessions = 100000; // distinct sessions
+  private int max_open_sessions = 10000;
+  private int max_session_length = 1000; // messages of each session
+  private String language_file = null;
+  private String state_machine_file = null;
+
+  /* Model. */
+  private final Language pta = new Language();
+  private final HashMap<Message, Message> messages = new HashMap<Message, Message>();
+  private final LinkedHashMap<List<Message>, MutableInt> sessions = new LinkedHashMap<List<Message>, MutableInt>();
+  private final LinkedHashMap<Connection, Session> open_sessions;
+  private Session stateless_session = null;
+
+  /* Statistics. */
+  private int total_messages = 0;
+  private int dropped_messages = 0;
+  private int dropped_sessions = 0;
+
+  /* Snapshots. */
+  private int new_messages = 0; // since the last snapshot
+  private long last_snapshot = System.currentTimeMillis();
+  private final ExecutorService generalizer;
+  private Future<Snapshot> pending = null;
+  // Only used by the generalizer thread, so that the inference done in other
+  // threads (e.g., by another instance) keeps the static ones.
+  private final Timer timer = new Timer();
+  private final Language.Statistics language_stats = new Language.Statistics();
+  private final Language.Statistics state_machine_stats = new Language.Statistics();
+  private volatile Snapshot snapshot = null;
+
+  /**
+   * Session being captured.
+   */
+  private static class Session {
+    ArrayList<Message> messages = new ArrayList<Message>();
+    boolean dropped = false; // some message was dropped
+    boolean expecting_response = false; // stateless protocols
+  }
+
+  /**
+   * Language and state machine inferred from the messages received until some
+   * point.
+   */
+  public static class Snapshot {
+    public final Language language;
+    public final StateMachineMoore state_machine; // null if not inferred
+    public final int messages;
+    public final int sessions;
+
+    private Snapshot(Language language, StateMachineMoore state_machine, int messages, int sessions) {
+      this.language = language;
+      this.state_machine = state_machine;
+      this.messages = messages;
+      this.sessions = sessions;
+    }
+  }
+
+  public StreamingInference(float T1, int T2, boolean stateful) {
+    this.T1 = T1;
+    this.T2 = T2;
+    this.stateful = stateful;
+
+    // Least recently used sessions are considered finished.
+    open_sessions = new LinkedHashMap<Connection, Session>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Connection, Session> eldest) {
+        if (size() <= max_open_sessions)
+          return false;
+        finishSession(eldest.getValue());
+        return true;
+      }
+    };
+
+    generalizer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        // Deep automata need a large stack (e.g., to be saved).
+        Thread thread = new Thread(null, r, "generalizer", GENERALIZER_STACK_SIZE);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /*
+   * Take a snapshot after this number of messages (0 = never).
+   */
+  public void setSnapshotMessages(int messages) {
+    snapshot_messages = messages;
+  }
+
+  /*
+   * Take a snapshot after this number of milliseconds (0 = never).
+   */
+  public void setSnapshotInterval(int milliseconds) {
+    snapshot_interval = milliseconds;
+  }
+
+  public void setMaxStates(int states) {
+    max_states = states;
+  }
+
+  public void setMaxSessions(int sessions) {
+    max_sessions = sessions;
+  }
+
+  public void setMaxOpenSessions(int sessions) {
+    max_open_sessions = sessions;
+  }
+
+  /*
+   * Messages above this number are added to the language but not to the
+   * session.
+   */
+  public void setMaxSessionLength(int messages) {
+    max_session_length = messages;
+  }
+
+  /*
+   * Save each snapshot to these files (null = don't save).
+   */
+  public void setOutput(String language_file, String state_machine_file) {
+    this.language_file = language_file;
+    this.state_machine_file = state_machine_file;
+  }
+
+  public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // INGESTION
+
+  /**
+   * Reads all messages from the traces, and then finishes the sessions and
+   * takes the last snapshot.
+   */
+  public Snapshot run(TracesInterface traces) throws InterruptedException {
+    Message m = null;
+    while ((m = traces.getNextPacket()) != null) {
+      Connection connection = (traces instanceof PcapFile) ? ((PcapFile)traces)
+          .getLastConnection() : null;
+      nextMessage(connection, m);
+    }
+    return finish();
+  }
+
+  /**
+   * Adds a message as it arrives.
+   */
+  public synchronized void nextMessage(Connection connection, Message m) {
+    Session session = getSession(connection, m);
+    if (!m.isInput())
+      return; // only responses to the session (stateless protocols)
+
+    total_messages++;
+    Message message = messages.get(m);
+    if (message == null && pta.getAllStates().size() >= max_states) {
+      dropped_messages++;
+      session.dropped = true;
+    } else {
+      if (message == null) {
+        message = new Message(m.getByteArray().clone(), true); // not shared
+        messages.put(message, message);
+      }
+      pta.addSequence(message);
+      if (session.messages.size() < max_session_length)
+        session.messages.add(message);
+    }
+
+    new_messages++;
+    if ((snapshot_messages > 0 && new_messages >= snapshot_messages)
+        || (snapshot_interval > 0 && System.currentTimeMillis() - last_snapshot >= snapshot_interval)) {
+      // Skip it if the last one is still being taken.
+      if ((pending == null || pending.isDone()) && !generalizer.isShutdown())
+        pending = generalizer.submit(prepareSnapshot());
+    }
+  }
+
+  private Session getSession(Connection connection, Message m) {
+    // Stateless protocols: each request (and its responses) is a session.
+    if (!stateful || connection == null) {
+      if (stateless_session != null && m.isInput() && stateless_session.expecting_response) {
+        finishSession(stateless_session);
+        stateless_session = null;
+      }
+      if (stateless_session == null)
+        stateless_session = new Session();
+      if (!m.isInput())
+        stateless_session.expecting_response = true;
+      return stateless_session;
+    }
+
+    Session session = open_sessions.get(connection);
+    if (session == null) {
+      session = new Session();
+      open_sessions.put(connection, session);
+    }
+    return session;
+  }
+
+  private void finishSession(Session session) {
+    if (session.dropped || session.messages.isEmpty())
+      return;
+    MutableInt count = sessions.get(session.messages);
+    if (count != null)
+      count.inc();
+    else if (sessions.size() < max_sessions) {
+      session.messages.trimToSize();
+      sessions.put(session.messages, new MutableInt(1));
+    } else
+      dropped_sessions++;
+  }
+
+  /**
+   * Finishes all sessions being captured (e.g., at the end of the traces).
+   */
+  public synchronized void finishSessions() {
+    for (Session session : open_sessions.values())
+      finishSession(session);
+    open_sessions.clear();
+    if (stateless_session != null)
+      finishSession(stateless_session);
+    stateless_session = null;
+  }
+
+  /**
+   * Finishes all sessions, waits for the snapshot being taken (if any) and
+   * takes the last snapshot.
+   */
+  public Snapshot finish() throws InterruptedException {
+    Future<Snapshot> last;
+    synchronized (this) {
+      finishSessions();
+      last = generalizer.submit(prepareSnapshot());
+      generalizer.shutdown();
+    }
+    return getResult(last);
+  }
+
+  // //////////////////////////////////////////////////////////////////
+  // SNAPSHOTS
+
+  /**
+   * Takes a snapshot now and waits for it.
+   */
+  public Snapshot takeSnapshot() throws InterruptedException {
+    Future<Snapshot> future;
+    synchronized (this) {
+      future = generalizer.submit(prepareSnapshot());
+    }
+    return getResult(future);
+  }
+
+  private static Snapshot getResult(Future<Snapshot> future) throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Copies the prefix tree and the sessions (including the ones still being
+   * captured), which are then generalized by the returned task.
+   */
+  private Callable<Snapshot> prepareSnapshot() {
+    new_messages = 0;
+    last_snapshot = System.currentTimeMillis();
+
+    final Language language = new Language();
+    Operations.copy(pta, language);
+    final ArrayList<List<Message>> session_list = new ArrayList<List<Message>>(sessions.size()
+        + open_sessions.size());
+    final ArrayList<Integer> counts = new ArrayList<Integer>(session_list.size());
+    for (Map.Entry<List<Message>, MutableInt> entry : sessions.entrySet()) {
+      session_list.add(entry.getKey());
+      counts.add(entry.getValue().getValue());
+    }
+    ArrayList<Session> unfinished = new ArrayList<Session>(open_sessions.values());
+    if (stateless_session != null)
+      unfinished.add(stateless_session);
+    for (Session session : unfinished) {
+      if (!session.dropped && !session.messages.isEmpty()) {
+        session_list.add(new ArrayList<Message>(session.messages));
+        counts.add(1);
+      }
+    }
+    final int total = total_messages;
+
+    return new Callable<Snapshot>() {
+      public Snapshot call() throws IOException {
+        return generalize(language, session_list, counts, total);
+      }
+    };
+  }
+
+  private Snapshot generalize(Language language, List<List<Message>> session_list,
+      List<Integer> counts, int total) throws IOException {
+    timer.restart();
+    language.generalize(T1, T2, timer, language_stats);
+
+    StateMachineMoore state_machine = null;
+    WeightedSessions all_sessions = new WeightedSessions();
+    for (int i = 0; i < session_list.size(); i++)
+      all_sessions.add(session_list.get(i), counts.get(i));
+    if (!all_sessions.isEmpty()) {
+      try {
+        state_machine = new StateMachineMoore(language, all_sessions, timer,
+            state_machine_stats);
+      } catch (StateMachineMoore.UnknownMessageTypeException e) {
+        System.err.println("[!] message not accepted by the language: " + e.getMessage());
+      }
+    }
+
+    Snapshot new_snapshot = new Snapshot(language, state_machine, total, all_sessions.size());
+    snapshot = new_snapshot;
+    System.out.println("[ ] snapshot: " + total + " messages, " + all_sessions.size()
+        + " sessions, " + language.getAllStates().size() + " states (dropped " + dropped_messages
+        + " messages, " + dropped_sessions + " sessions)");
+
+    if (language_file != null)
+      save(language, language_file);
+    if (state_machine_file != null && state_machine != null)
+      save(state_machine, state_machine_file);
+    return new_snapshot;
+  }
+
+  /**
+   * Saves the object to a temporary file first, so the file is always
+   * complete.
+   */
+  private static void save(Object o, String filename) throws IOException {
+    File tmp = new File(filename + ".tmp");
+    ModelFile.save(o, tmp.getPath());
+    File file = new File(filename);
+    file.delete();
+    if (!tmp.renameTo(file))
+      throw new IOException("Could not rename " + tmp + " to " + file);
+  }
+
+  // //////////////////////////////////////////////////////////////////
+
+  private static void printUsage(OptionsExtended options) {
+    System.out.println("Usage: java StreamingInference [OPTIONS...] T1 T2 LANGUAGE STATEMACHINE "
+        + "[\"expression\"]");
+    System.out.println();
+    System.out.println("Infers the language and the state machine of the protocol while "
+        + "messages are captured from a network device (or read from traces), saving "
+        + "snapshots of both automata from time to time.");
+    System.out.println();
+    System.out.println("Options:");
+    System.out.println(options.getUsageOptions());
+    System.out.println("Report bugs to <jantunes@di.fc.ul.pt>.");
+  }
+
+  public static void main(String[] args) {
+    OptionsExtended opt = new OptionsExtended();
+    opt.setOption("--device=", null, "NAME\tnetwork device to capture packets from");
+    opt.setOption("--pcap=", "-p", "FILE\tpacket capture file in tcpdump format");
+    opt.setOption("--delim=", null, "STRING\tdelimiter characters (text-based protocols only)");
+    opt.setOption("--stateless=", "-s", "\tif the server/protocol is stateless");
+    opt.setOption("--server=", null, "IP:PORT\tserver address, to tell requests from responses");
+    opt.setOption("--messages=", null, "NUMBER\tmessages between snapshots (default 10000)");
+    opt.setOption("--interval=", null, "SECONDS\tseconds between snapshots (default none)");
+    opt.setOption("--max-states=", null, "NUMBER\tmaximum states of the prefix tree");
+    opt.setOption("--max-sessions=", null, "NUMBER\tmaximum distinct sessions to keep");
+    CommandLineOptions.setTracesOptions(opt);
+
+    Automaton.DEBUG = true;
+
+    /* Check command line parameters. */
+    opt.parseArgs(args);
+    try {
+
+      /* Parse command-line arguments. */
+      float T1 = opt.getValueFloat();
+      int T2 = opt.getValueInteger();
+      String LANGUAGE = opt.getValueString();
+      String STATEMACHINE = opt.getValueString();
+      // Optional expression
+      String EXPRESSION = (opt.getTotalRemainingArgs() > 0) ? opt.getValueString() : null;
+      boolean stateless = opt.getValueBoolean("-s");
+      String SERVER_ADDR = opt.getValueString("--server=");
+
+      String MSG_DELIMITER = opt.getValueString("--delim=");
+      if (MSG_DELIMITER != null)
+        MSG_DELIMITER = Utils.toJavaString(MSG_DELIMITER);
+
+      final StreamingInference inference = new StreamingInference(T1, T2, !stateless);
+      inference.setOutput(LANGUAGE, STATEMACHINE);
+      if (opt.getValueBoolean("--messages="))
+        inference.setSnapshotMessages(opt.getValueInteger("--messages="));
+      if (opt.getValueBoolean("--interval="))
+        inference.setSnapshotInterval(opt.getValueInteger("--interval=") * 1000);
+      if (opt.getValueBoolean("--max-states="))
+        inference.setMaxStates(opt.getValueInteger("--max-states="));
+      if (opt.getValueBoolean("--max-sessions="))
+        inference.setMaxSessions(opt.getValueInteger("--max-sessions="));
+
+      // Live capture (until CTRL-C).
+      if (opt.getValueBoolean("--device=")) {
+        final PcapDevice device = new PcapDevice(opt.getValueString("--device="), EXPRESSION,
+            SERVER_ADDR, MSG_DELIMITER);
+        device.open();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+          public void run() {
+            device.breakLoop();
+            try {
+              inference.finish();
+            } catch (InterruptedException e) {
+              e.printStackTrace();
+            }
+          }
+        });
+        device.loop(inference);
+      }
+
+      // Traces.
+      else if (opt.getValueBoolean("--pcap=")) {
+        PcapFile traces = CommandLineOptions.getPcapFile(opt, EXPRESSION, SERVER_ADDR,
+            MSG_DELIMITER);
+        traces.open();
+        inference.run(traces);
+        traces.close();
+      }
+
+      else {
+        throw new OptionsException(OptionsException.Types.MISSING_PARAMETER,
+            "Missing network device or traces file.");
+      }
+
+    } catch (OptionsException e_options) {
+      /* print usage and quit */
+      printUsage(opt);
+      System.err.println("[!] " + e_options.getMessage());
+      System.exit(1);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -47,6 +47,48 @@ public class Automaton<T extends Symbol> implements java.io.Serializable {
   protected State<T> _initial_state;
   protected ArrayList<State<T>> _all_states;
 
+  /* Incremental construction (see addSequenceMinimized()). */
+  private static boolean INCREMENTAL_CONSTRUCTION = false;
+  protected transient HashMap<RegisterKey<T>, State<T>> _register;
+  protected transient ArrayList<Transition<T>> _last_path;
+
+  /**
+   * Key of a state in the register of the incremental construction. Two states
+   * are equivalent if both are final (or non-final) and if they have the same
+   * transitions, ie, same symbols going to the same destination states.
+   */
+  protected static class RegisterKey<T extends Symbol> {
+    private State<T> state;
+    private int hash;
+
+    RegisterKey(State<T> state) {
+      this.state = state;
+      hash = state._is_final ? 1 : 0;
+      for (Transition<T> t : state._transitions)
+        hash += t._symbol.hashCode() * 31 + System.identityHashCode(t._dest_state);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean equals(Object obj) {
+      State<T> other = ((RegisterKey<T>)obj).state;
+      if (state._is_final != other._is_final
+          || state._transitions.size() != other._transitions.size())
+        return false;
+      for (Transition<T> t : state._transitions) {
+        Transition<T> t_other = other.getTransition(t._symbol);
+        if (t_other == null || t_other._dest_state != t._dest_state)
+          return false;
+      }
+      return true;
+    }
+  }
+
   public void DRAW(String filename_with_desc, boolean show_freq) {
     if (DEBUG)
       TIMER.pause();
@@ -65,6 +107,18 @@ public class Automaton<T extends Symbol> implements java.io.Serializable {
     _all_states.add(_initial_state);
   }
 
+  /**
+   * If set, automata are built already minimized with addSequenceMinimized()
+   * instead of building the whole prefix tree with addSequence().
+   */
+  public static void setIncrementalConstruction(boolean incremental) {
+    INCREMENTAL_CONSTRUCTION = incremental;
+  }
+
+  public static boolean isIncrementalConstruction() {
+    return INCREMENTAL_CONSTRUCTION;
+  }
+
   public State<T> getInitialState() {
     return _initial_state;
   }
@@ -84,16 +138,57 @@ public class Automaton<T extends Symbol> implements java.io.Serializable {
       s._id = State.NEXT_ID++;
   }
 
-  protected State<T> appendNewSymbol(State<T> state, T symbol) {
+  /**
+   * Number of transitions going to each state (in-degree), counting the
+   * transitions of every state in _all_states. States without incoming
+   * transitions are left out. It is a snapshot of the automaton, so operations
+   * that redirect transitions or remove states must keep it up to date (see
+   * Language.concatUniqueLinearStates()).
+   */
+  public HashMap<State<T>, Integer> getInDegrees() {
+    HashMap<State<T>, Integer> in_degrees = new HashMap<State<T>, Integer>(
+        _all_states.size() * 2);
+    for (State<T> s : _all_states) {
+      for (Transition<T> t : s._transitions) {
+        Integer total = in_degrees.get(t._dest_state);
+        in_degrees.put(t._dest_state, (total == null) ? 1 : total + 1);
+      }
+    }
+    return in_degrees;
+  }
+
+  /**
+   * Removes a set of states from _all_states in a single pass (keeping the
+   * order of the remaining states).
+   */
+  protected void removeStates(Set<State<T>> states) {
+    if (states.isEmpty())
+      return;
+    ArrayList<State<T>> remaining = new ArrayList<State<T>>(_all_states.size());
+    for (State<T> s : _all_states)
+      if (!states.contains(s))
+        remaining.add(s);
+    _all_states = remaining;
+  }
+
+  protected State<T> appendNewSymbol(State<T> state, T symbol, int weight) {
     State<T> new_state = new State<T>();
     _all_states.add(new_state);
     Transition<T> new_t = new Transition<T>(symbol, new_state);
-    new_t.setFreq(1);
+    new_t.setFreq(weight);
     state.getTransitions().add(new_t);
     return new_state;
   }
 
   public void addSequence(Collection<T> sequence) {
+    addSequence(sequence, 1);
+  }
+
+  /**
+   * Adds a sequence that occurred weight times, which is the same as adding it
+   * weight times (the frequencies of its transitions are increased by weight).
+   */
+  public void addSequence(Collection<T> sequence, int weight) {
     State<T> state = _initial_state;
     Iterator<T> iterator = sequence.iterator();
     T symbol = null;
@@ -102,27 +197,194 @@ public class Automaton<T extends Symbol> implements java.io.Serializable {
     boolean found_prefix = true;
     while (found_prefix && !state.isFinal() && iterator.hasNext()) {
       symbol = iterator.next();
-      found_prefix = false;
-      for (Transition<T> t : state) {
-        if (t.getSymbol().equals(symbol)) {
-          found_prefix = true;
-          t.setFreq(t.getFreq() + 1);
-          state = t.getState();
-          symbol = null;
-          break;
-        }
+      Transition<T> t = state.getTransition(symbol);
+      found_prefix = (t != null);
+      if (found_prefix) {
+        t.setFreq(t.getFreq() + weight);
+        state = t.getState();
+        symbol = null;
       }
     }
     // Add last non-matching symbol and the remaining symbols of the sequence.
     if (symbol != null)
-      state = appendNewSymbol(state, symbol);
+      state = appendNewSymbol(state, symbol, weight);
     while (iterator.hasNext())
-      state = appendNewSymbol(state, iterator.next());
+      state = appendNewSymbol(state, iterator.next(), weight);
 
     // Set last state as final state.
     state.setFinal(true);
   }
 
+  /**
+   * Adds a sequence while keeping the automaton minimal (Daciuk et al.,
+   * incremental construction of minimal acyclic automata). Only the states of
+   * the last added sequence are kept apart; the others are kept in a register
+   * of unique states, so the number of states stays close to the one of the
+   * minimal automaton. Sequences must be added in lexicographic order (see
+   * sortSequences()) and finishSequences() must be called in the end.
+   *
+   * Unlike addSequence(), common prefixes are also followed through final
+   * states: a sequence that extends another one goes through its transitions
+   * (adding to their frequencies) instead of starting a new branch at its final
+   * state, so each transition counts all the sequences that go through it. The
+   * automaton and its frequencies are then the same as building the prefix
+   * tree and minimizing it only if no sequence is a proper prefix of another
+   * (e.g., messages that end with a delimiter).
+   */
+  public void addSequenceMinimized(List<T> sequence) {
+    addSequenceMinimized(sequence, 1);
+  }
+
+  /**
+   * Adds a sequence that occurred weight times (see addSequenceMinimized()).
+   */
+  public void addSequenceMinimized(List<T> sequence, int weight) {
+    if (_register == null) {
+      _register = new HashMap<RegisterKey<T>, State<T>>();
+      _last_path = new ArrayList<Transition<T>>();
+    }
+
+    // Get common prefix with the last sequence.
+    State<T> state = _initial_state;
+    int i = 0;
+    while (i < sequence.size() && i < _last_path.size()
+        && _last_path.get(i)._symbol.equals(sequence.get(i))) {
+      Transition<T> t = _last_path.get(i);
+      t._freq += weight;
+      state = t._dest_state;
+      i++;
+    }
+    if (i < sequence.size() && state.getTransition(sequence.get(i)) != null)
+      throw new IllegalArgumentException("sequences must be added in lexicographic order: "
+          + sequence);
+
+    // Remaining states of the last sequence will not change anymore.
+    replaceOrRegister(i);
+
+    // Add remaining symbols of the sequence.
+    for (; i < sequence.size(); i++) {
+      State<T> new_state = new State<T>();
+      Transition<T> new_t = new Transition<T>(sequence.get(i), new_state);
+      new_t.setFreq(weight);
+      state._transitions.add(new_t);
+      _last_path.add(new_t);
+      state = new_state;
+    }
+
+    // Set last state as final state.
+    state.setFinal(true);
+  }
+
+  /**
+   * Registers (or replaces by an equivalent registered state) the states of the
+   * last added sequence that are deeper than depth, starting from the last one.
+   */
+  private void replaceOrRegister(int depth) {
+    for (int i = _last_path.size() - 1; i >= depth; i--) {
+      Transition<T> t = _last_path.remove(i);
+      State<T> child = t._dest_state;
+      RegisterKey<T> key = new RegisterKey<T>(child);
+      State<T> registered = _register.get(key);
+      if (registered == null) {
+        _register.put(key, child);
+        _all_states.add(child);
+      } else {
+        // Merge child into the equivalent state.
+        for (Transition<T> t1 : child._transitions)
+          registered.getTransition(t1._symbol)._freq += t1._freq;
+        t._dest_state = registered;
+      }
+    }
+  }
+
+  /**
+   * Ends the incremental construction started with addSequenceMinimized().
+   */
+  public void finishSequences() {
+    if (_register == null)
+      return;
+    replaceOrRegister(0);
+    _register = null;
+    _last_path = null;
+  }
+
+  /**
+   * Adds all sequences with addSequenceMinimized(). The list is sorted first.
+   */
+  public void addSequencesMinimized(List<List<T>> sequences) {
+    sortSequences(sequences);
+    for (List<T> sequence : sequences)
+      addSequenceMinimized(sequence);
+    finishSequences();
+  }
+
+  /**
+   * Adds all sequences with addSequenceMinimized(), each one with the weight at
+   * the same position of weights. The lists are not changed.
+   */
+  public void addSequencesMinimized(List<List<T>> sequences, List<Integer> weights) {
+    for (int i : sortedOrder(sequences))
+      addSequenceMinimized(sequences.get(i), weights.get(i));
+    finishSequences();
+  }
+
+  /**
+   * Sorts a list of sequences such that sequences with a common prefix are
+   * contiguous, as required by addSequenceMinimized().
+   */
+  public static <T extends Symbol> void sortSequences(List<List<T>> sequences) {
+    int[] order = sortedOrder(sequences);
+    ArrayList<List<T>> sorted = new ArrayList<List<T>>(order.length);
+    for (int i : order)
+      sorted.add(sequences.get(i));
+    for (int i = 0; i < order.length; i++)
+      sequences.set(i, sorted.get(i));
+  }
+
+  /**
+   * Returns the positions of the sequences in the order given by
+   * sortSequences(). Equal sequences keep their relative order.
+   */
+  private static <T extends Symbol> int[] sortedOrder(List<List<T>> sequences) {
+    class SortKey implements Comparable<SortKey> {
+      int[] key;
+      int position;
+
+      public int compareTo(SortKey o) {
+        int length = Math.min(key.length, o.key.length);
+        for (int i = 0; i < length; i++)
+          if (key[i] != o.key[i])
+            return key[i] - o.key[i];
+        return key.length - o.key.length;
+      }
+    }
+
+    // Each symbol is identified by the order in which it first appears.
+    HashMap<T, Integer> symbols = new HashMap<T, Integer>();
+    ArrayList<SortKey> keys = new ArrayList<SortKey>(sequences.size());
+    for (List<T> sequence : sequences) {
+      SortKey k = new SortKey();
+      k.position = keys.size();
+      k.key = new int[sequence.size()];
+      int i = 0;
+      for (T symbol : sequence) {
+        Integer id = symbols.get(symbol);
+        if (id == null) {
+          id = symbols.size();
+          symbols.put(symbol, id);
+        }
+        k.key[i++] = id;
+      }
+      keys.add(k);
+    }
+    Collections.sort(keys);
+
+    int[] order = new int[keys.size()];
+    for (int i = 0; i < order.length; i++)
+      order[i] = keys.get(i).position;
+    return order;
+  }
+
   /**
    * Return true if the automaton accepts the sequence, and optionally builds a
    * Stack with the first accepted path.
@@ -248,23 +510,118 @@ public class Automaton<T extends Symbol> implements java.io.Serializable {
     System.out.println();
   }
 
-  private void getListofPaths_rec(List<T> current_path, State<T> state, List<List<T>> paths) {
-    if (state.isFinal())
-      paths.add(current_path);
-    for (Transition<T> t : state._transitions) {
-      List<T> subpath = new ArrayList<T>(current_path);
-      subpath.add(t._symbol);
-      getListofPaths_rec(subpath, t._dest_state, paths);
+  /**
+   * Iterates over the paths from the initial state to each final state (the
+   * same as getListofPaths()), one at a time, with an explicit stack of the
+   * transitions left to visit in each state of the current path.
+   */
+  private class PathIterator implements Iterator<List<T>> {
+    private final ArrayList<T> _path = new ArrayList<T>();
+    private final ArrayDeque<Iterator<Transition<T>>> _stack;
+    private List<T> _next;
+
+    PathIterator() {
+      _stack = new ArrayDeque<Iterator<Transition<T>>>();
+      if (_initial_state.isFinal())
+        _next = new ArrayList<T>(_path);
+      _stack.push(_initial_state._transitions.iterator());
+    }
+
+    public boolean hasNext() {
+      while (_next == null && !_stack.isEmpty()) {
+        Iterator<Transition<T>> transitions = _stack.peek();
+        if (!transitions.hasNext()) {
+          _stack.pop();
+          if (!_path.isEmpty())
+            _path.remove(_path.size() - 1);
+          continue;
+        }
+        Transition<T> t = transitions.next();
+        _path.add(t._symbol);
+        if (t._dest_state.isFinal())
+          _next = new ArrayList<T>(_path);
+        _stack.push(t._dest_state._transitions.iterator());
+      }
+      return _next != null;
+    }
+
+    public List<T> next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      List<T> path = _next;
+      _next = null;
+      return path;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
     }
   }
 
+  /**
+   * Returns the paths from the initial state to each final state. They are
+   * enumerated while iterating, so only the current path is kept in memory.
+   */
+  public Iterable<List<T>> getPaths() {
+    return new Iterable<List<T>>() {
+      public Iterator<List<T>> iterator() {
+        return new PathIterator();
+      }
+    };
+  }
+
   public List<List<T>> getListofPaths() {
     List<List<T>> paths = new ArrayList<List<T>>();
-    getListofPaths_rec(new ArrayList<T>(), _initial_state, paths);
+    for (List<T> path : getPaths())
+      paths.add(path);
     return paths;
 
   }
 
+  /**
+   * Returns the number of paths from the initial state to each final state
+   * (i.e., getListofPaths().size()) without enumerating them: the number of
+   * paths of each state is the sum of the ones of its destination states, plus
+   * one if it is final, computed once per state in post-order. It saturates at
+   * Long.MAX_VALUE. Throws IllegalStateException if the automaton has cycles,
+   * in which case the number of paths is infinite.
+   */
+  public long countPaths() {
+    IdentityHashMap<State<T>, Long> paths = new IdentityHashMap<State<T>, Long>();
+    Set<State<T>> on_stack = Collections.newSetFromMap(new IdentityHashMap<State<T>, Boolean>());
+    ArrayDeque<State<T>> stack = new ArrayDeque<State<T>>();
+    stack.push(_initial_state);
+    while (!stack.isEmpty()) {
+      State<T> state = stack.peek();
+      if (paths.containsKey(state)) {
+        stack.pop();
+        continue;
+      }
+
+      // Visit the destination states first.
+      if (on_stack.add(state)) {
+        for (Transition<T> t : state._transitions) {
+          if (on_stack.contains(t._dest_state))
+            throw new IllegalStateException("cycle in state " + t._dest_state);
+          if (!paths.containsKey(t._dest_state))
+            stack.push(t._dest_state);
+        }
+        continue;
+      }
+
+      long total = state.isFinal() ? 1 : 0;
+      for (Transition<T> t : state._transitions) {
+        total += paths.get(t._dest_state);
+        if (total < 0)
+          total = Long.MAX_VALUE;
+      }
+      paths.put(state, total);
+      on_stack.remove(state);
+      stack.pop();
+    }
+    return paths.get(_initial_state);
+  }
+
   private void add_graph_dot_nodes(ArrayList<String> dot_output, State<T> from, State<T> to,
       String from_label) {
     String from_toString = from.toString();
@@ -0,0 +1,398 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package automata;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import traces.Message;
+
+/**
+ * Compact binary format for languages, state machines and sessions, instead of
+ * Java serialization of the whole object graph.
+ * 
+ * A file starts with MAGIC, VERSION and the kind of model, followed by one or
+ * more sections. An automaton is saved as a table of distinct symbols, the
+ * states (ids and final flags), the index of the initial state and the
+ * transitions as (from, symbol, to) triples followed by their frequencies,
+ * all as arrays of ints. The symbols of state machines refer to the
+ * transitions of the languages saved before them. Sessions are saved as the
+ * number of messages of each session, the length and direction of each
+ * message and one blob with the bytes of all messages.
+ * 
+ * Files are read from a memory mapping, the messages of the sessions share
+ * the same buffer and the patterns of the symbols are only compiled when
+ * first used.
+ */
+public class BinaryFormat {
+  public static final int MAGIC = 0x5256584D; // "RVXM"
+  public static final int VERSION = 1;
+
+  /* Kinds of models. */
+  public static final int LANGUAGE = 1; // one language
+  public static final int MOORE = 2; // language and state machine
+  public static final int MEALY = 3; // input and output languages and state machine
+  public static final int SESSIONS = 4; // collection of sessions
+  public static final int AUTOMATON = 5; // any other automaton of RegEx
+
+  /* Kinds of symbols. */
+  private static final byte REGEX = 0;
+  private static final byte LANGUAGE_MESSAGE_TYPE = 1;
+  private static final byte IO_LANGUAGE_MESSAGE_TYPE = 2;
+
+  /**
+   * Returns true if the file is in this format (otherwise it may have been
+   * saved with Java serialization).
+   */
+  public static boolean isBinaryFormat(String filename) throws IOException {
+    DataInputStream in = new DataInputStream(new FileInputStream(filename));
+    try {
+      return in.readInt() == MAGIC;
+    } catch (EOFException e) {
+      return false;
+    } finally {
+      in.close();
+    }
+  }
+
+  // //////////////////////////////////////////////////////////////////////////////
+  // WRITER
+
+  public static class Writer implements Closeable {
+    private final DataOutputStream out;
+    // Index of each transition of the languages already written.
+    private final List<IdentityHashMap<Transition<RegEx>, Integer>> languages = new ArrayList<IdentityHashMap<Transition<RegEx>, Integer>>(
+        2);
+
+    public Writer(String filename, int kind) throws IOException {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(kind);
+    }
+
+    public void writeLanguage(Automaton<RegEx> language) throws IOException {
+      languages.add(writeAutomaton(language));
+    }
+
+    /**
+     * Writes a state machine whose message types are paths of the languages
+     * written before (first the input language, then the output language).
+     */
+    public void writeStateMachine(Automaton<MessageType> state_machine) throws IOException {
+      writeAutomaton(state_machine);
+    }
+
+    private <T extends Symbol> IdentityHashMap<Transition<T>, Integer> writeAutomaton(
+        Automaton<T> automaton) throws IOException {
+      // States: the ones listed first, then the others that can be reached.
+      IdentityHashMap<State<T>, Integer> state_index = new IdentityHashMap<State<T>, Integer>(
+          automaton._all_states.size());
+      ArrayList<State<T>> states = new ArrayList<State<T>>(automaton._all_states.size());
+      ArrayList<State<T>> to_add = new ArrayList<State<T>>(automaton._all_states);
+      to_add.add(automaton._initial_state);
+      for (int i = 0; i < to_add.size(); i++) {
+        State<T> state = to_add.get(i);
+        if (state_index.containsKey(state))
+          continue;
+        state_index.put(state, states.size());
+        states.add(state);
+        for (Transition<T> t : state)
+          if (!state_index.containsKey(t._dest_state))
+            to_add.add(t._dest_state);
+      }
+
+      // Distinct symbols and transitions.
+      HashMap<T, Integer> symbol_index = new HashMap<T, Integer>();
+      ArrayList<T> symbols = new ArrayList<T>();
+      IdentityHashMap<Transition<T>, Integer> transition_index = new IdentityHashMap<Transition<T>, Integer>();
+      ArrayList<Transition<T>> transitions = new ArrayList<Transition<T>>();
+      int[] from = new int[0];
+      for (State<T> state : states) {
+        for (Transition<T> t : state) {
+          if (!symbol_index.containsKey(t._symbol)) {
+            symbol_index.put(t._symbol, symbols.size());
+            symbols.add(t._symbol);
+          }
+          if (transitions.size() == from.length)
+            from = Arrays.copyOf(from, Math.max(16, from.length * 2));
+          from[transitions.size()] = state_index.get(state);
+          transition_index.put(t, transitions.size());
+          transitions.add(t);
+        }
+      }
+
+      out.writeInt(symbols.size());
+      for (T symbol : symbols)
+        writeSymbol(symbol);
+
+      out.writeInt(states.size());
+      for (State<T> state : states)
+        out.writeInt(state._id);
+      for (State<T> state : states)
+        out.writeByte(state._is_final ? 1 : 0);
+      out.writeInt(state_index.get(automaton._initial_state));
+
+      out.writeInt(transitions.size());
+      for (int i = 0; i < transitions.size(); i++) {
+        Transition<T> t = transitions.get(i);
+        out.writeInt(from[i]);
+        out.writeInt(symbol_index.get(t._symbol));
+        out.writeInt(state_index.get(t._dest_state));
+      }
+      for (Transition<T> t : transitions)
+        out.writeInt(t._freq);
+      return transition_index;
+    }
+
+    private void writeSymbol(Symbol symbol) throws IOException {
+      if (symbol instanceof RegEx) {
+        out.writeByte(REGEX);
+        byte[] regex = ((RegEx)symbol).getPattern().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(regex.length);
+        out.write(regex);
+      } else if (symbol instanceof LanguageMessageType) {
+        out.writeByte(LANGUAGE_MESSAGE_TYPE);
+        writePath((LanguageMessageType)symbol, 0);
+      } else if (symbol instanceof IOLanguageMessageType) {
+        IOLanguageMessageType io = (IOLanguageMessageType)symbol;
+        out.writeByte(IO_LANGUAGE_MESSAGE_TYPE);
+        out.writeInt(io._input.size());
+        for (LanguageMessageType input : io._input)
+          writePath(input, 0);
+        out.writeInt(io._output.size());
+        for (LanguageMessageType output : io._output)
+          writePath(output, 1);
+      } else
+        throw new IOException("Unsupported symbol: " + symbol.getClass().getName());
+    }
+
+    private void writePath(LanguageMessageType message_type, int language) throws IOException {
+      if (language >= languages.size())
+        throw new IOException("Language of message type not written: " + message_type);
+      IdentityHashMap<Transition<RegEx>, Integer> transitions = languages.get(language);
+      Collection<Transition<RegEx>> path = message_type.getPathInLanguage();
+      out.writeInt(path.size());
+      for (Transition<RegEx> t : path) {
+        Integer index = transitions.get(t);
+        if (index == null)
+          throw new IOException("Message type not in language: " + message_type);
+        out.writeInt(index);
+      }
+    }
+
+    public void writeSessions(Collection<List<Message>> sessions) throws IOException {
+      int total = 0;
+      out.writeInt(sessions.size());
+      for (List<Message> session : sessions) {
+        out.writeInt(session.size());
+        total += session.size();
+      }
+
+      long blob_length = 0;
+      out.writeInt(total);
+      for (List<Message> session : sessions)
+        for (Message m : session) {
+          out.writeInt(m.length());
+          blob_length += m.length();
+        }
+      for (List<Message> session : sessions)
+        for (Message m : session)
+          out.writeByte(m.isInput() ? 1 : 0);
+
+      if (blob_length > Integer.MAX_VALUE)
+        throw new IOException("Sessions too large: " + blob_length + " bytes");
+      out.writeInt((int)blob_length);
+      for (List<Message> session : sessions)
+        for (Message m : session)
+          out.write(m.getByteArray());
+    }
+
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  // //////////////////////////////////////////////////////////////////////////////
+  // READER
+
+  public static class Reader {
+    private final ByteBuffer in;
+    private final int kind;
+    // Transitions of the languages already read.
+    private final List<Transition<RegEx>[]> languages = new ArrayList<Transition<RegEx>[]>(2);
+
+    public Reader(String filename) throws IOException {
+      FileInputStream file = new FileInputStream(filename);
+      try {
+        FileChannel channel = file.getChannel();
+        in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+        file.close();
+      }
+
+      if (in.remaining() < 12 || in.getInt() != MAGIC)
+        throw new IOException("Not a model file: " + filename);
+      int version = in.getInt();
+      if (version > VERSION)
+        throw new IOException("Unsupported version " + version + " of model file: " + filename);
+      kind = in.getInt();
+    }
+
+    public int getKind() {
+      return kind;
+    }
+
+    public void readLanguage(Automaton<RegEx> language) throws IOException {
+      languages.add(readAutomaton(language));
+    }
+
+    public void readStateMachine(Automaton<MessageType> state_machine) throws IOException {
+      readAutomaton(state_machine);
+    }
+
+    /**
+     * Replaces the states of the automaton with the ones read. Returns the
+     * transitions in the order they were written.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Symbol> Transition<T>[] readAutomaton(Automaton<T> automaton)
+        throws IOException {
+      try {
+        Symbol[] symbols = new Symbol[in.getInt()];
+        for (int i = 0; i < symbols.length; i++)
+          symbols[i] = readSymbol();
+
+        int[] ids = readInts(in.getInt());
+        ArrayList<State<T>> states = new ArrayList<State<T>>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+          State<T> state = new State<T>();
+          state._id = ids[i];
+          state._is_final = in.get() != 0;
+          states.add(state);
+        }
+        State<T> initial_state = states.get(in.getInt());
+
+        int n = in.getInt();
+        int[] triples = readInts(3 * n);
+        int[] freqs = readInts(n);
+        Transition<T>[] transitions = (Transition<T>[])new Transition<?>[n];
+        for (int i = 0; i < n; i++) {
+          Transition<T> t = new Transition<T>((T)symbols[triples[3 * i + 1]],
+              states.get(triples[3 * i + 2]));
+          t._freq = freqs[i];
+          states.get(triples[3 * i])._transitions.add(t);
+          transitions[i] = t;
+        }
+
+        automaton._initial_state = initial_state;
+        automaton._all_states = states;
+        return transitions;
+      } catch (RuntimeException e) { // BufferUnderflowException, bad indexes...
+        throw new IOException("Corrupted model file", e);
+      }
+    }
+
+    private int[] readInts(int n) {
+      int[] values = new int[n];
+      IntBuffer ints = in.asIntBuffer();
+      ints.get(values);
+      in.position(in.position() + 4 * n);
+      return values;
+    }
+
+    private Symbol readSymbol() throws IOException {
+      byte type = in.get();
+      switch (type) {
+      case REGEX:
+        byte[] regex = new byte[in.getInt()];
+        in.get(regex);
+        return new RegEx(new String(regex, StandardCharsets.UTF_8)); // compiled when used
+      case LANGUAGE_MESSAGE_TYPE:
+        return readPath(0);
+      case IO_LANGUAGE_MESSAGE_TYPE:
+        List<LanguageMessageType> input = new ArrayList<LanguageMessageType>();
+        for (int i = in.getInt(); i > 0; i--)
+          input.add(readPath(0));
+        List<LanguageMessageType> output = new ArrayList<LanguageMessageType>();
+        for (int i = in.getInt(); i > 0; i--)
+          output.add(readPath(1));
+        return new IOLanguageMessageType(input, output);
+      default:
+        throw new IOException("Unknown symbol type: " + type);
+      }
+    }
+
+    private LanguageMessageType readPath(int language) throws IOException {
+      if (language >= languages.size())
+        throw new IOException("Language of message type not read");
+      Transition<RegEx>[] transitions = languages.get(language);
+      int[] indexes = readInts(in.getInt());
+      List<Transition<RegEx>> path = new ArrayList<Transition<RegEx>>(indexes.length);
+      for (int index : indexes)
+        path.add(transitions[index]);
+      return new LanguageMessageType(path);
+    }
+
+    /**
+     * Reads the sessions. Their messages share a single buffer.
+     */
+    public Collection<List<Message>> readSessions() throws IOException {
+      try {
+        int[] session_lengths = readInts(in.getInt());
+        int[] lengths = readInts(in.getInt());
+        byte[] is_input = new byte[lengths.length];
+        in.get(is_input);
+        byte[] blob = new byte[in.getInt()];
+        in.get(blob);
+
+        ArrayList<List<Message>> sessions = new ArrayList<List<Message>>(session_lengths.length);
+        int m = 0, offset = 0;
+        for (int session_length : session_lengths) {
+          List<Message> session = new ArrayList<Message>(session_length);
+          for (int i = 0; i < session_length; i++, m++) {
+            session.add(new Message(blob, offset, lengths[m], is_input[m] != 0));
+            offset += lengths[m];
+          }
+          sessions.add(session);
+        }
+        return sessions;
+      } catch (RuntimeException e) {
+        throw new IOException("Corrupted model file", e);
+      }
+    }
+  }
+
+}
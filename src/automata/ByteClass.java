@@ -0,0 +1,217 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package automata;
+
+import traces.ByteChars;
+
+/**
+ * Matcher of the regular expressions that are a single class of bytes,
+ * optionally followed by + (e.g., "[A-Za-z0-9\Q-\E]+", "\S+" or "\w+"), which
+ * are the symbols of the generalized fields of a Language. The class is a set
+ * of 256 bits, so matching does not go through java.util.regex. Classes are
+ * parsed as ByteDFA does, with the same semantics as java.util.regex.
+ */
+public final class ByteClass {
+  private final long[] bits;
+  private final boolean high; // also matches chars above 0xFF (e.g., \S)
+  private final boolean many;
+
+  private ByteClass(long[] bits, boolean high, boolean many) {
+    this.bits = bits;
+    this.high = high;
+    this.many = many;
+  }
+
+  /**
+   * Returns the matcher of the pattern, or null if the pattern is not a single
+   * class (bracket expression or escaped class), optionally followed by +.
+   */
+  public static ByteClass compile(String pattern) {
+    int length = pattern.length();
+    if (length < 2)
+      return null;
+    long[] bits = new long[4];
+    boolean[] high = new boolean[1];
+    int end;
+    if (pattern.charAt(0) == '[')
+      end = parseBracket(pattern, 1, bits, high);
+    else if (pattern.charAt(0) == '\\' && "dDwWsS".indexOf(pattern.charAt(1)) >= 0)
+      end = parseEscape(pattern, 1, bits, high);
+    else
+      return null;
+
+    if (end == length)
+      return new ByteClass(bits, high[0], false);
+    if (end == length - 1 && pattern.charAt(end) == '+')
+      return new ByteClass(bits, high[0], true);
+    return null;
+  }
+
+  public boolean contains(int c) {
+    return (c > 0xFF) ? high : (bits[c >> 6] & (1L << c)) != 0;
+  }
+
+  /**
+   * Returns the length of the match at offset (greedy), or 0 if there is no
+   * match, as RegEx.match() does.
+   */
+  public int match(CharSequence data, int offset) {
+    int length = data.length();
+    int max = many ? length : Math.min(length, offset + 1);
+    int end = offset;
+    if (data instanceof ByteChars) {
+      ByteChars chars = (ByteChars)data;
+      while (end < max) {
+        int b = chars.byteAt(end) & 0xFF;
+        if ((bits[b >> 6] & (1L << b)) == 0)
+          break;
+        end++;
+      }
+    } else {
+      while (end < max && contains(data.charAt(end)))
+        end++;
+    }
+    return end - offset;
+  }
+
+  /**
+   * Parses a bracket expression after '[' and returns the index after ']', or
+   * -1 if it is not supported.
+   */
+  static int parseBracket(String pattern, int i, long[] bits, boolean[] high) {
+    int length = pattern.length();
+    if (i < length && pattern.charAt(i) == '^')
+      return -1;
+    boolean first = true;
+    while (i < length) {
+      char c = pattern.charAt(i);
+      if (c == ']' && !first)
+        return i + 1;
+      first = false;
+
+      if (c == '\\' && i + 1 < length && pattern.charAt(i + 1) == 'Q') {
+        int end = pattern.indexOf("\\E", i + 2);
+        if (end < 0)
+          return -1;
+        for (int j = i + 2; j < end; j++) {
+          if (pattern.charAt(j) > 0xFF)
+            return -1;
+          add(bits, pattern.charAt(j));
+        }
+        i = end + 2;
+      } else if (c == '\\') {
+        i = parseEscape(pattern, i + 1, bits, high);
+        if (i < 0)
+          return -1;
+      } else if (c == '[' || c == '&' || c > 0xFF) {
+        return -1;
+      } else if (c == '-' && pattern.charAt(i - 1) != '[' && i + 1 < length
+          && pattern.charAt(i + 1) != ']') {
+        return -1; // range with an escaped character
+
+      } else if (i + 2 < length && pattern.charAt(i + 1) == '-' && pattern.charAt(i + 2) != ']') {
+        char to = pattern.charAt(i + 2);
+        if (to == '\\' || to == '[' || to < c || to > 0xFF)
+          return -1;
+        for (int b = c; b <= to; b++)
+          add(bits, b);
+        i += 3;
+      } else {
+        add(bits, c);
+        i++;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Parses an escape sequence after '\' and returns the index after it, or -1
+   * if it is not supported.
+   */
+  static int parseEscape(String pattern, int i, long[] bits, boolean[] high) {
+    if (i >= pattern.length())
+      return -1;
+    char c = pattern.charAt(i);
+    switch (c) {
+    case 'x':
+      if (i + 2 >= pattern.length())
+        return -1;
+      try {
+        add(bits, Integer.parseInt(pattern.substring(i + 1, i + 3), 16));
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+      return i + 3;
+    case 'd':
+    case 'D':
+    case 'w':
+    case 'W':
+    case 's':
+    case 'S':
+      long[] set = new long[4];
+      for (int b = 0; b < 256; b++)
+        if ((c == 'd' || c == 'D') ? (b >= '0' && b <= '9')
+            : (c == 'w' || c == 'W') ? (Character.isLetterOrDigit(b) && b < 128 || b == '_')
+                : (b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r'))
+          add(set, b);
+      boolean upper = Character.isUpperCase(c);
+      for (int j = 0; j < 4; j++)
+        bits[j] |= upper ? ~set[j] : set[j];
+      high[0] |= upper;
+      return i + 1;
+    case 't':
+      add(bits, '\t');
+      return i + 1;
+    case 'n':
+      add(bits, '\n');
+      return i + 1;
+    case 'r':
+      add(bits, '\r');
+      return i + 1;
+    default:
+      if (Character.isLetterOrDigit(c) || c > 0xFF)
+        return -1;
+      add(bits, c); // escaped symbol
+      return i + 1;
+    }
+  }
+
+  static long[] single(int b) {
+    long[] bits = new long[4];
+    add(bits, b);
+    return bits;
+  }
+
+  static void add(long[] bits, int b) {
+    bits[b >> 6] |= 1L << b;
+  }
+}
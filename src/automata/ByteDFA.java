@@ -0,0 +1,535 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package automata;
+
+import java.util.*;
+
+/**
+ * Byte-level DFA compiled from an (acyclic) automaton of RegEx, such as a
+ * Language, to find the path that accepts a message in one pass, without
+ * java.util.regex.
+ * 
+ * Each RegEx is compiled to a sequence of atoms, i.e., a set of bytes that
+ * appears once or many (+) times. The DFA is built from the atoms of all paths
+ * of the automaton (Glushkov construction), so each accepting state knows
+ * which paths accept the message. Since a path is only followed by
+ * Language.accepts() if each RegEx matches the same substring as
+ * java.util.regex does (greedy), the first of those paths that matches in the
+ * same way is the path returned by Language.accepts().
+ */
+public class ByteDFA {
+  // DFAs with more states are not compiled (see compile()).
+  public static int MAX_STATES = 1 << 16;
+
+  private static final int DEAD = 0; // state without transitions
+  private static final int START = 0; // position before the first byte
+
+  /* Sets of bytes (256 bits), plus whether they include non-byte chars. */
+  private final ArrayList<long[]> _sets = new ArrayList<long[]>();
+  private final ArrayList<Boolean> _sets_high = new ArrayList<Boolean>();
+  private long[][] _set_bits;
+  private boolean[] _set_high;
+
+  /**
+   * Atoms of a regular expression.
+   */
+  private static class Atoms {
+    int[] set; // set of bytes of each atom
+    boolean[] many; // atom+
+    boolean[] disjoint_next; // set of next atom has no common bytes
+
+    Atoms(int size) {
+      set = new int[size];
+      many = new boolean[size];
+      disjoint_next = new boolean[size];
+    }
+  }
+
+  /* Paths of the automaton as a tree of edges (in the order of accepts()). */
+  private ArrayList<Transition<RegEx>> _edge_transition = new ArrayList<Transition<RegEx>>();
+  private ArrayList<Integer> _edge_parent = new ArrayList<Integer>();
+  private ArrayList<int[]> _edge_children = new ArrayList<int[]>();
+  private ArrayList<Integer> _edge_first_position = new ArrayList<Integer>();
+
+  /* Positions (atom of an edge). */
+  private int[] _position_set;
+  private boolean[] _position_many;
+  private int[] _position_edge; // -1 if not the last atom of the edge
+
+  /* DFA. */
+  private int[] _byte_class = new int[256];
+  private int _classes;
+  private int[] _next; // _next[state * _classes + _byte_class[byte]]
+  private int _start;
+  private int[][] _accepting; // edges with accepting paths, in DFS order
+  private Atoms[][] _path_atoms; // of each edge
+  private List<Transition<RegEx>>[] _paths; // of each edge
+
+  private final boolean _empty_accepted;
+
+  private ByteDFA(boolean empty_accepted) {
+    _empty_accepted = empty_accepted;
+  }
+
+  /**
+   * Returns the DFA of the automaton, or null if the automaton has cycles, if
+   * some of its RegEx are not supported or if the DFA has more than MAX_STATES
+   * states.
+   */
+  public static ByteDFA compile(Automaton<RegEx> automaton) {
+    State<RegEx> initial = automaton.getInitialState();
+    ByteDFA dfa = new ByteDFA(initial.isFinal());
+    IdentityHashMap<RegEx, Atoms> atoms = new IdentityHashMap<RegEx, Atoms>();
+    if (!dfa.addEdges(-1, initial, atoms, new HashSet<State<RegEx>>()))
+      return null;
+    dfa.createPositions(atoms);
+    if (!dfa.createStates())
+      return null;
+    dfa.createPaths(atoms);
+    return dfa;
+  }
+
+  // //////////////////////////////////////////////////////////////////////////////
+  // MATCHING
+
+  /**
+   * Returns the path that accepts the message (the same as
+   * Language.accepts()), or null.
+   */
+  public List<Transition<RegEx>> accepts(CharSequence message) {
+    int length = message.length();
+    if (length == 0)
+      return _empty_accepted ? Collections.<Transition<RegEx>> emptyList() : null;
+
+    int state = _start;
+    for (int i = 0; i < length && state != DEAD; i++) {
+      char c = message.charAt(i);
+      if (c > 0xFF)
+        return search(message);
+      state = _next[state * _classes + _byte_class[c]];
+    }
+    if (state == DEAD || _accepting[state] == null)
+      return null;
+
+    for (int edge : _accepting[state])
+      if (matches(_path_atoms[edge], message))
+        return _paths[edge];
+    return null;
+  }
+
+  /**
+   * Depth-first search of the path (as in Language.accepts()), for messages
+   * that are not made of bytes.
+   */
+  private List<Transition<RegEx>> search(CharSequence message) {
+    for (int edge = 0; edge < _paths.length; edge++)
+      if (_paths[edge] != null && matches(_path_atoms[edge], message))
+        return _paths[edge];
+    return null;
+  }
+
+  /**
+   * Checks if each RegEx of the path matches the message as java.util.regex
+   * does (greedy), one after the other.
+   */
+  private boolean matches(Atoms[] path, CharSequence message) {
+    int offset = 0;
+    for (Atoms atoms : path) {
+      offset = match(atoms, 0, message, offset);
+      if (offset < 0)
+        return false;
+    }
+    return offset == message.length();
+  }
+
+  /**
+   * Returns the end of the match of atoms (from the i-th atom) at offset, or
+   * -1. Atoms with many bytes take as many as possible, as long as the
+   * remaining atoms match.
+   */
+  private int match(Atoms atoms, int i, CharSequence message, int offset) {
+    int length = message.length();
+    int n = atoms.set.length;
+    while (i < n) {
+      int set = atoms.set[i];
+      if (!atoms.many[i]) {
+        if (offset == length || !contains(set, message.charAt(offset)))
+          return -1;
+        offset++;
+        i++;
+        continue;
+      }
+
+      int end = offset;
+      while (end < length && contains(set, message.charAt(end)))
+        end++;
+      if (end == offset)
+        return -1;
+      if (i + 1 == n)
+        return end;
+      if (atoms.disjoint_next[i]) {
+        // a shorter match would have to be followed by a byte of this set
+        offset = end;
+        i++;
+        continue;
+      }
+      for (int e = end; e > offset; e--) {
+        int match = match(atoms, i + 1, message, e);
+        if (match >= 0)
+          return match;
+      }
+      return -1;
+    }
+    return offset;
+  }
+
+  private boolean contains(int set, char c) {
+    if (c > 0xFF)
+      return _set_high[set];
+    return (_set_bits[set][c >> 6] & (1L << c)) != 0;
+  }
+
+  // //////////////////////////////////////////////////////////////////////////////
+  // COMPILATION
+
+  /**
+   * Adds the edges of the paths from state, in the order followed by
+   * Language.accepts(). Returns false if there is a cycle or an unsupported
+   * RegEx.
+   */
+  private boolean addEdges(int parent, State<RegEx> state, IdentityHashMap<RegEx, Atoms> atoms,
+      HashSet<State<RegEx>> visiting) {
+    if (!visiting.add(state))
+      return false;
+
+    int[] children = new int[state._transitions.size()];
+    int n = 0;
+    for (Transition<RegEx> t : state) {
+      RegEx regex = t._symbol;
+      if (!atoms.containsKey(regex)) {
+        Atoms a = parse(regex.getPattern());
+        if (a == null)
+          return false;
+        atoms.put(regex, a);
+      }
+
+      int edge = _edge_transition.size();
+      if (edge >= MAX_STATES)
+        return false;
+      _edge_transition.add(t);
+      _edge_parent.add(parent);
+      _edge_children.add(null);
+      children[n++] = edge;
+      if (!addEdges(edge, t._dest_state, atoms, visiting))
+        return false;
+    }
+    if (parent >= 0)
+      _edge_children.set(parent, children);
+    else
+      _edge_children.add(children); // root, last element
+
+    visiting.remove(state);
+    return true;
+  }
+
+  private int[] getChildren(int edge) {
+    return _edge_children.get(edge < 0 ? _edge_children.size() - 1 : edge);
+  }
+
+  private void createPositions(IdentityHashMap<RegEx, Atoms> atoms) {
+    int edges = _edge_transition.size();
+    int total = 1; // START
+    for (int e = 0; e < edges; e++)
+      total += atoms.get(_edge_transition.get(e)._symbol).set.length;
+
+    _position_set = new int[total];
+    _position_many = new boolean[total];
+    _position_edge = new int[total];
+    _position_edge[START] = -1;
+    int p = 1;
+    for (int e = 0; e < edges; e++) {
+      Atoms a = atoms.get(_edge_transition.get(e)._symbol);
+      _edge_first_position.add(p);
+      for (int i = 0; i < a.set.length; i++, p++) {
+        _position_set[p] = a.set[i];
+        _position_many[p] = a.many[i];
+        _position_edge[p] = (i == a.set.length - 1) ? e : -1;
+      }
+    }
+
+    _set_bits = _sets.toArray(new long[_sets.size()][]);
+    _set_high = new boolean[_sets_high.size()];
+    for (int i = 0; i < _set_high.length; i++)
+      _set_high[i] = _sets_high.get(i);
+  }
+
+  /**
+   * Subset construction of the DFA, with bytes grouped in classes of bytes
+   * that belong to the same sets. Returns false if there are too many states.
+   */
+  private boolean createStates() {
+    // Classes of bytes.
+    HashMap<BitSet, Integer> classes = new HashMap<BitSet, Integer>();
+    ArrayList<Integer> representative = new ArrayList<Integer>();
+    for (int b = 0; b < 256; b++) {
+      BitSet signature = new BitSet(_set_bits.length);
+      for (int s = 0; s < _set_bits.length; s++)
+        if ((_set_bits[s][b >> 6] & (1L << b)) != 0)
+          signature.set(s);
+      Integer c = classes.get(signature);
+      if (c == null) {
+        c = classes.size();
+        classes.put(signature, c);
+        representative.add(b);
+      }
+      _byte_class[b] = c;
+    }
+    _classes = classes.size();
+
+    // States are sets of positions.
+    HashMap<PositionSet, Integer> ids = new HashMap<PositionSet, Integer>();
+    ArrayList<int[]> states = new ArrayList<int[]>();
+    ArrayList<int[]> transitions = new ArrayList<int[]>();
+    states.add(new int[0]); // DEAD
+    ids.put(new PositionSet(new int[0]), DEAD);
+    states.add(new int[] { START });
+    ids.put(new PositionSet(new int[] { START }), 1);
+    _start = 1;
+
+    int[] mark = new int[_position_set.length];
+    int stamp = 0;
+    int[] next = new int[_position_set.length];
+    for (int s = 0; s < states.size(); s++) {
+      int[] positions = states.get(s);
+      int[] row = new int[_classes];
+      for (int c = 0; c < _classes && positions.length > 0; c++) {
+        int b = representative.get(c);
+        int size = 0;
+        stamp++;
+        for (int p : positions) {
+          // follow(p): itself (many), next atom of the edge, or first atoms of
+          // the next edges.
+          if (p != START && _position_many[p] && mark[p] != stamp && inSet(p, b)) {
+            mark[p] = stamp;
+            next[size++] = p;
+          }
+          if (p != START && _position_edge[p] < 0) {
+            int q = p + 1;
+            if (mark[q] != stamp && inSet(q, b)) {
+              mark[q] = stamp;
+              next[size++] = q;
+            }
+          } else {
+            for (int child : getChildren(p == START ? -1 : _position_edge[p])) {
+              int q = _edge_first_position.get(child);
+              if (mark[q] != stamp && inSet(q, b)) {
+                mark[q] = stamp;
+                next[size++] = q;
+              }
+            }
+          }
+        }
+
+        int[] key = Arrays.copyOf(next, size);
+        Arrays.sort(key);
+        PositionSet set = new PositionSet(key);
+        Integer id = ids.get(set);
+        if (id == null) {
+          id = states.size();
+          if (id >= MAX_STATES)
+            return false;
+          ids.put(set, id);
+          states.add(key);
+        }
+        row[c] = id;
+      }
+      transitions.add(row);
+    }
+
+    _next = new int[states.size() * _classes];
+    for (int s = 0; s < states.size(); s++)
+      System.arraycopy(transitions.get(s), 0, _next, s * _classes, _classes);
+
+    // Accepting states: edges whose path ends in a final state, in DFS order.
+    _accepting = new int[states.size()][];
+    for (int s = 0; s < states.size(); s++) {
+      int[] edges = new int[states.get(s).length];
+      int n = 0;
+      for (int p : states.get(s)) {
+        int edge = (p == START) ? -1 : _position_edge[p];
+        if (edge >= 0 && _edge_transition.get(edge)._dest_state._is_final)
+          edges[n++] = edge;
+      }
+      if (n > 0) {
+        _accepting[s] = Arrays.copyOf(edges, n);
+        Arrays.sort(_accepting[s]);
+      }
+    }
+    return true;
+  }
+
+  private boolean inSet(int position, int b) {
+    return (_set_bits[_position_set[position]][b >> 6] & (1L << b)) != 0;
+  }
+
+  private void createPaths(IdentityHashMap<RegEx, Atoms> atoms) {
+    int edges = _edge_transition.size();
+    @SuppressWarnings("unchecked")
+    List<Transition<RegEx>>[] paths = (List<Transition<RegEx>>[])new List<?>[edges];
+    _paths = paths;
+    _path_atoms = new Atoms[edges][];
+    for (int e = 0; e < edges; e++) {
+      if (!_edge_transition.get(e)._dest_state._is_final)
+        continue;
+      LinkedList<Transition<RegEx>> path = new LinkedList<Transition<RegEx>>();
+      for (int edge = e; edge >= 0; edge = _edge_parent.get(edge))
+        path.addFirst(_edge_transition.get(edge));
+      _paths[e] = Collections.unmodifiableList(new ArrayList<Transition<RegEx>>(path));
+      _path_atoms[e] = new Atoms[path.size()];
+      int i = 0;
+      for (Transition<RegEx> t : path)
+        _path_atoms[e][i++] = atoms.get(t._symbol);
+    }
+  }
+
+  /**
+   * Sorted positions, as key of the states of the DFA.
+   */
+  private static class PositionSet {
+    private final int[] _positions;
+    private final int _hash;
+
+    PositionSet(int[] positions) {
+      _positions = positions;
+      _hash = Arrays.hashCode(positions);
+    }
+
+    @Override
+    public int hashCode() {
+      return _hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof PositionSet && Arrays.equals(_positions, ((PositionSet)obj)._positions);
+    }
+  }
+
+  // //////////////////////////////////////////////////////////////////////////////
+  // REGULAR EXPRESSIONS
+
+  /**
+   * Returns the atoms of the pattern, or null if it is not supported. Supported
+   * patterns are the ones created by RegEx and RegExOperations: \Q...\E, \xHH,
+   * \S, \s, \w, \W, \d, \D, escaped symbols, brackets with ranges of these and
+   * literal characters, each optionally followed by +.
+   */
+  private Atoms parse(String pattern) {
+    ArrayList<Integer> sets = new ArrayList<Integer>();
+    ArrayList<Boolean> many = new ArrayList<Boolean>();
+    int length = pattern.length();
+    int i = 0;
+    while (i < length) {
+      char c = pattern.charAt(i);
+      if (c == '+') {
+        if (sets.isEmpty() || many.get(many.size() - 1))
+          return null;
+        many.set(many.size() - 1, true);
+        i++;
+      } else if (c == '\\' && i + 1 < length && pattern.charAt(i + 1) == 'Q') {
+        int end = pattern.indexOf("\\E", i + 2);
+        if (end < 0)
+          end = length;
+        for (int j = i + 2; j < end; j++) {
+          if (pattern.charAt(j) > 0xFF)
+            return null;
+          sets.add(getSet(ByteClass.single(pattern.charAt(j)), false));
+          many.add(false);
+        }
+        i = Math.min(end + 2, length);
+      } else if (c == '[') {
+        long[] bits = new long[4];
+        boolean[] high = new boolean[1];
+        i = ByteClass.parseBracket(pattern, i + 1, bits, high);
+        if (i < 0)
+          return null;
+        sets.add(getSet(bits, high[0]));
+        many.add(false);
+      } else if (c == '\\') {
+        long[] bits = new long[4];
+        boolean[] high = new boolean[1];
+        i = ByteClass.parseEscape(pattern, i + 1, bits, high);
+        if (i < 0)
+          return null;
+        sets.add(getSet(bits, high[0]));
+        many.add(false);
+      } else if (".*?{}()|^$]".indexOf(c) >= 0 || c > 0xFF) {
+        return null;
+      } else {
+        sets.add(getSet(ByteClass.single(c), false));
+        many.add(false);
+        i++;
+      }
+    }
+    if (sets.isEmpty())
+      return null;
+
+    Atoms atoms = new Atoms(sets.size());
+    for (int j = 0; j < sets.size(); j++) {
+      atoms.set[j] = sets.get(j);
+      atoms.many[j] = many.get(j);
+    }
+    for (int j = 0; j + 1 < sets.size(); j++)
+      atoms.disjoint_next[j] = disjoint(atoms.set[j], atoms.set[j + 1]);
+    return atoms;
+  }
+
+  private int getSet(long[] bits, boolean high) {
+    for (int i = 0; i < _sets.size(); i++)
+      if (Arrays.equals(_sets.get(i), bits) && _sets_high.get(i) == high)
+        return i;
+    _sets.add(bits);
+    _sets_high.add(high);
+    return _sets.size() - 1;
+  }
+
+  private boolean disjoint(int set0, int set1) {
+    if (_sets_high.get(set0) && _sets_high.get(set1))
+      return false;
+    long[] bits0 = _sets.get(set0), bits1 = _sets.get(set1);
+    for (int j = 0; j < 4; j++)
+      if ((bits0[j] & bits1[j]) != 0)
+        return false;
+    return true;
+  }
+
+}
@@ -37,6 +37,9 @@ public class IOLanguageMessageType implements MessageType, java.io.Serializable
   private static final long serialVersionUID = LanguageMessageType.serialVersionUID;
   protected List<LanguageMessageType> _input, _output;
 
+  // Id and the version of the symbols it was computed with (see getId()).
+  private transient volatile SymbolTable.VersionedEntry _id;
+
   public IOLanguageMessageType(List<LanguageMessageType> input, List<LanguageMessageType> output) {
     _input = input;
     _output = output;
@@ -50,17 +53,41 @@ public class IOLanguageMessageType implements MessageType, java.io.Serializable
     return _output;
   }
 
+  /**
+   * Returns the id of the sequence of input and output message types. Ids
+   * start at 1, so 0 separates the input from the output.
+   */
+  public int getId() {
+    SymbolTable.VersionedEntry id = _id;
+    int version = TransitionList.getSymbolsVersion();
+    if (id != null && id.version == version)
+      return id.entry.id;
+
+    int[] types = new int[_input.size() + 1 + _output.size()];
+    int i = 0;
+    for (LanguageMessageType input : _input)
+      types[i++] = input.getId();
+    types[i++] = 0;
+    for (LanguageMessageType output : _output)
+      types[i++] = output.getId();
+    id = new SymbolTable.VersionedEntry(SymbolTable.intern(types), version);
+    _id = id;
+    return id.entry.id;
+  }
+
+  /**
+   * Returns a hash of the input and output message types (see
+   * LanguageMessageType.hashCode()), which does not depend on their ids.
+   */
   @Override
   public int hashCode() {
-    return _input.hashCode() ^ _output.hashCode();
+    return 31 * _input.hashCode() + _output.hashCode();
   }
 
   @Override
   public boolean equals(Object obj) {
-    if (obj instanceof IOLanguageMessageType) {
-      IOLanguageMessageType other = (IOLanguageMessageType)obj;
-      return (_input.equals(other._input) && _output.equals(other._output));
-    }
+    if (obj instanceof IOLanguageMessageType)
+      return getId() == ((IOLanguageMessageType)obj).getId();
     return super.equals(obj);
   }
 
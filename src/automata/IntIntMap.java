@@ -0,0 +1,103 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package automata;
+
+import java.util.Arrays;
+
+/**
+ * Map of int keys to int values with open addressing, to index symbols by
+ * their ids (see SymbolTable) without boxing them.
+ */
+final class IntIntMap {
+  private int[] _keys;
+  private int[] _values;
+  private int _size = 0;
+  private final int _missing;
+
+  /**
+   * @param missing value returned by get() for keys that are not in the map.
+   */
+  IntIntMap(int capacity, int missing) {
+    int n = Integer.highestOneBit(Math.max(4, capacity * 2 - 1)) << 1;
+    _keys = new int[n];
+    _values = new int[n];
+    Arrays.fill(_keys, Integer.MIN_VALUE);
+    _missing = missing;
+  }
+
+  int size() {
+    return _size;
+  }
+
+  int get(int key) {
+    int mask = _keys.length - 1;
+    for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+      int k = _keys[i];
+      if (k == key)
+        return _values[i];
+      if (k == Integer.MIN_VALUE)
+        return _missing;
+    }
+  }
+
+  /**
+   * Key must not be Integer.MIN_VALUE.
+   */
+  void put(int key, int value) {
+    int mask = _keys.length - 1;
+    int i = hash(key) & mask;
+    while (_keys[i] != Integer.MIN_VALUE && _keys[i] != key)
+      i = (i + 1) & mask;
+    _values[i] = value;
+    if (_keys[i] != key) {
+      _keys[i] = key;
+      if (++_size * 2 > _keys.length)
+        grow();
+    }
+  }
+
+  private void grow() {
+    int[] keys = _keys, values = _values;
+    _keys = new int[keys.length * 2];
+    _values = new int[keys.length * 2];
+    Arrays.fill(_keys, Integer.MIN_VALUE);
+    _size = 0;
+    for (int i = 0; i < keys.length; i++)
+      if (keys[i] != Integer.MIN_VALUE)
+        put(keys[i], values[i]);
+  }
+
+  private static int hash(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -46,6 +46,9 @@ public class LanguageMessageType implements MessageType, java.io.Serializable {
   // Path of transitions in language automaton that accept a type of message.
   private Collection<Transition<RegEx>> _path_in_language;
 
+  // Id and the version of the symbols it was computed with (see getId()).
+  private transient volatile SymbolTable.VersionedEntry _id;
+
   public static void setTextualProtocol(boolean is_textual) {
     if (is_textual)
       LanguageMessageType.PATTERN_FIELD = LanguageMessageType.PATTERN_TEXTUAL_FIELD;
@@ -67,31 +70,43 @@ public class LanguageMessageType implements MessageType, java.io.Serializable {
     return _path_in_language;
   }
 
+  /**
+   * Returns the id of the sequence of symbols of the path (not of the
+   * transitions, which are different in different copies of a language). It is
+   * computed again if the symbols have changed since (e.g., generalized).
+   */
+  public int getId() {
+    SymbolTable.VersionedEntry id = _id;
+    int version = TransitionList.getSymbolsVersion();
+    if (id != null && id.version == version)
+      return id.entry.id;
+
+    int[] symbols = new int[_path_in_language.size()];
+    int i = 0;
+    for (Transition<RegEx> t : _path_in_language)
+      symbols[i++] = t._symbol.getId();
+    id = new SymbolTable.VersionedEntry(SymbolTable.intern(symbols), version);
+    _id = id;
+    return id.entry.id;
+  }
+
+  /**
+   * Returns the hashCode() of the list of the symbols of the path, which
+   * (unlike their ids) does not depend on the order they were interned.
+   */
   @Override
   public int hashCode() {
-    return _path_in_language.hashCode();
+    int hash = 1;
+    for (Transition<RegEx> t : _path_in_language)
+      hash = 31 * hash + t._symbol.hashCode();
+    return hash;
   }
 
   @Override
   public boolean equals(Object obj) {
-
-    if (obj instanceof LanguageMessageType) {
-      LanguageMessageType other = (LanguageMessageType)obj;
-
-      // We don't use plain equals because we have a list of transitions. We
-      // have
-      // to override this to compare only the symbols of the transitions.
-      Iterator<Transition<RegEx>> iter0 = this._path_in_language.iterator();
-      Iterator<Transition<RegEx>> iter1 = other._path_in_language.iterator();
-      while (iter0.hasNext() && iter1.hasNext()) {
-        Symbol s0 = ((Transition<RegEx>)iter0.next())._symbol;
-        Symbol s1 = ((Transition<RegEx>)iter1.next())._symbol;
-        if (!s0.equals(s1))
-          return false;
-      }
-      return iter0.hasNext() == iter1.hasNext();
-    }
-
+    // Only the symbols of the transitions are compared (see getId()).
+    if (obj instanceof LanguageMessageType)
+      return getId() == ((LanguageMessageType)obj).getId();
     return super.equals(obj);
   }
 
@@ -34,4 +34,10 @@ package automata;
 
 public interface MessageType extends Symbol {
 
+  /**
+   * Returns the id of the message type in the SymbolTable. Message types are
+   * equal if and only if they have the same id.
+   */
+  public int getId();
+
 }
@@ -33,6 +33,9 @@ package automata;
 
 import java.awt.Point;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Operations {
 
@@ -40,96 +43,169 @@ public class Operations {
   // DETERMINIZATION
   // ////////////////////////////////////////////////////////////
   /**
-   * Object for holding a set of states that should be merged together because
-   * they share the same symbol at the same state
+   * Set of states that should be merged together because they share the same
+   * symbol at the same state. It is kept as the sorted indexes of the states
+   * (see Determinization.indexOf()).
    */
-  @SuppressWarnings("rawtypes")
-  private static class UnionStates extends HashSet<State> {
-    private static final long serialVersionUID = 1L;
-    int freq = 0;
-    boolean is_final = false;
+  static final class Subset {
+    final int[] states;
+    final int hash;
 
-    @Override
-    public boolean equals(Object arg0) {
-      if (arg0 instanceof UnionStates)
-        return equals((UnionStates)arg0);
-      return super.equals(arg0);
+    Subset(int[] states) {
+      this.states = states;
+      this.hash = Arrays.hashCode(states);
     }
 
     @Override
     public int hashCode() {
-      return this.size();
+      return hash;
     }
 
-    public boolean equals(UnionStates arg0) {
-      return this.containsAll(arg0) && arg0.containsAll(this);
+    @Override
+    public boolean equals(Object obj) {
+      return Arrays.equals(states, ((Subset)obj).states);
     }
   }
 
-  public static <T extends Symbol> void determinization(Automaton<T> automaton) {
-    HashMap<UnionStates, State<T>> new_states = new HashMap<UnionStates, State<T>>(
-        automaton._all_states.size());
+  /**
+   * States reached with the same symbol from the states of a subset, and the
+   * sum of the frequencies of those transitions.
+   */
+  private static final class Successors {
+    int[] states = new int[2];
+    int size = 0;
+    int freq = 0;
+    boolean is_final = false;
 
-    // Set the initial state of the new automaton.
-    State<T> new_initial_state = new State<T>();
-    new_initial_state._id = 0;
-    UnionStates initial_state = new UnionStates();
-    initial_state.add(automaton._initial_state);
-    new_states.put(initial_state, new_initial_state);
-    automaton._initial_state = new_initial_state;
+    void add(int state) {
+      if (size == states.length)
+        states = Arrays.copyOf(states, size * 2);
+      states[size++] = state;
+    }
 
-    // Recursive call.
-    determinization_rec(initial_state, new_states);
+    Subset toSubset() {
+      int[] sorted = Arrays.copyOf(states, size);
+      Arrays.sort(sorted);
+      int n = 0;
+      for (int i = 0; i < sorted.length; i++)
+        if (i == 0 || sorted[i] != sorted[i - 1])
+          sorted[n++] = sorted[i];
+      return new Subset(n == sorted.length ? sorted : Arrays.copyOf(sorted, n));
+    }
+  }
 
-    // Set all states of the new automaton.
-    automaton._all_states = new ArrayList<State<T>>(new_states.values());
+  /**
+   * New state whose transitions are still being created, and the symbols left.
+   */
+  private static final class Frame<T extends Symbol> {
+    final State<T> state;
+    final Iterator<Map.Entry<T, Successors>> symbols;
+
+    Frame(State<T> state, HashMap<T, Successors> symbols) {
+      this.state = state;
+      this.symbols = symbols.entrySet().iterator();
+    }
   }
 
-  private static <T extends Symbol> void determinization_rec(UnionStates states,
-      HashMap<UnionStates, State<T>> new_states) {
-    HashMap<T, UnionStates> defined_symbols = new HashMap<T, UnionStates>();
+  private static final class Determinization<T extends Symbol> {
+    private final IdentityHashMap<State<T>, Integer> _index;
+    private final ArrayList<State<T>> _states = new ArrayList<State<T>>();
 
-    /* Search for states to merge. */
-    for (State<T> state : states) {
-      for (Transition<T> t : state) {
-        T key = t._symbol;
+    Determinization(int capacity) {
+      _index = new IdentityHashMap<State<T>, Integer>(capacity);
+    }
+
+    int indexOf(State<T> state) {
+      Integer i = _index.get(state);
+      if (i == null) {
+        i = _states.size();
+        _index.put(state, i);
+        _states.add(state);
+      }
+      return i;
+    }
+
+    State<T> get(int i) {
+      return _states.get(i);
+    }
 
-        UnionStates value = defined_symbols.get(key);
-        if (value == null) {
-          value = new UnionStates();
-          defined_symbols.put(key, value);
+    /**
+     * Groups the transitions of the states of the subset by symbol.
+     */
+    HashMap<T, Successors> successors(Subset subset) {
+      HashMap<T, Successors> defined_symbols = new HashMap<T, Successors>();
+      for (int i : subset.states) {
+        for (Transition<T> t : _states.get(i)) {
+          Successors value = defined_symbols.get(t._symbol);
+          if (value == null) {
+            value = new Successors();
+            defined_symbols.put(t._symbol, value);
+          }
+          value.add(indexOf(t._dest_state));
+          value.freq += t._freq;
+          if (t._dest_state._is_final)
+            value.is_final = true;
         }
-        value.add(t._dest_state);
-        value.freq += t._freq;
-        if (t._dest_state._is_final)
-          value.is_final = true;
       }
+      return defined_symbols;
     }
+  }
+
+  /**
+   * Subset construction. New states are created depth-first, as a recursive
+   * construction would, but with a stack of their own, so that large automata
+   * do not overflow the thread stack.
+   */
+  public static <T extends Symbol> void determinization(Automaton<T> automaton) {
+    Determinization<T> nfa = new Determinization<T>(automaton._all_states.size());
+    HashMap<Subset, State<T>> new_states = new HashMap<Subset, State<T>>(
+        automaton._all_states.size() * 2);
+    ArrayList<State<T>> all_states = new ArrayList<State<T>>(automaton._all_states.size());
+
+    // Set the initial state of the new automaton.
+    State<T> new_initial_state = new State<T>();
+    new_initial_state._id = 0;
+    Subset initial_state = new Subset(new int[] { nfa.indexOf(automaton._initial_state) });
+    new_states.put(initial_state, new_initial_state);
+    all_states.add(new_initial_state);
+    automaton._initial_state = new_initial_state;
 
-    State<T> this_state = new_states.get(states);
+    ArrayDeque<Frame<T>> stack = new ArrayDeque<Frame<T>>();
+    stack.push(new Frame<T>(new_initial_state, nfa.successors(initial_state)));
+    while (!stack.isEmpty()) {
+      Frame<T> frame = stack.peek();
+      if (!frame.symbols.hasNext()) {
+        stack.pop();
+        continue;
+      }
 
-    /* Merge states: for each different symbol create a new transition. */
-    for (Map.Entry<T, UnionStates> entry : defined_symbols.entrySet()) {
-      T key = entry.getKey();
-      UnionStates states_to_merge = entry.getValue();
+      /* Merge states: for each different symbol create a new transition. */
+      Map.Entry<T, Successors> entry = frame.symbols.next();
+      Successors successors = entry.getValue();
+      Subset states_to_merge = successors.toSubset();
 
-      // Get (previously merged) new state (or we create it below).
+      // Get (previously merged) new state or create it.
       State<T> new_state = new_states.get(states_to_merge);
-      if (new_state == null) {
+      boolean is_new = (new_state == null);
+      if (is_new) {
         new_state = new State<T>();
-        new_state._is_final = states_to_merge.is_final;
-        if (states_to_merge.size() == 1)
-          new_state._id = states_to_merge.iterator().next()._id;
+        new_state._is_final = successors.is_final;
+        if (states_to_merge.states.length == 1)
+          new_state._id = nfa.get(states_to_merge.states[0])._id;
         new_states.put(states_to_merge, new_state);
-        // Recursive call.
-        determinization_rec(states_to_merge, new_states);
+        all_states.add(new_state);
       }
       @SuppressWarnings("unchecked")
-      Transition<T> new_t = new Transition<T>((T)key.clone(), new_state);
-      new_t._freq = states_to_merge.freq;
-      this_state._transitions.add(new_t);
+      Transition<T> new_t = new Transition<T>((T)entry.getKey().clone(), new_state);
+      new_t._freq = successors.freq;
+      frame.state._transitions.add(new_t);
+
+      if (is_new)
+        stack.push(new Frame<T>(new_state, nfa.successors(states_to_merge)));
     }
 
+    // Set all states of the new automaton.
+    automaton._all_states = all_states;
   }
 
   // ////////////////////////////////////////////////////////////
@@ -261,9 +337,69 @@ public class Operations {
   }
 
   /**
-   * Minimization algorithm.
+   * Algorithms available to minimize an automaton. TABLE is the classic
+   * table-filling algorithm (O(n^2) memory), while HOPCROFT refines a partition
+   * of the states in O(m log n) time and O(n + m) memory. PARALLEL refines the
+   * blocks of the partition concurrently (see minimizationParallel()).
+   */
+  public static enum MinimizationMode {
+    TABLE, HOPCROFT, PARALLEL
+  }
+
+  private static MinimizationMode MINIMIZATION_MODE = MinimizationMode.HOPCROFT;
+
+  public static void setMinimizationMode(MinimizationMode mode) {
+    MINIMIZATION_MODE = mode;
+  }
+
+  public static MinimizationMode getMinimizationMode() {
+    return MINIMIZATION_MODE;
+  }
+
+  // Threads refining partition blocks in minimizationParallel(), and their
+  // pool, shared by all minimizations (created on first use).
+  private static int MINIMIZATION_THREADS = Runtime.getRuntime().availableProcessors();
+  private static ForkJoinPool MINIMIZATION_POOL = null;
+
+  public static synchronized void setMinimizationThreads(int threads) {
+    threads = (threads < 1) ? 1 : threads;
+    if (threads != MINIMIZATION_THREADS && MINIMIZATION_POOL != null) {
+      MINIMIZATION_POOL.shutdown();
+      MINIMIZATION_POOL = null;
+    }
+    MINIMIZATION_THREADS = threads;
+  }
+
+  /**
+   * Returns the pool of the MINIMIZATION_THREADS threads, or null if there is
+   * only one thread.
+   */
+  private static synchronized ForkJoinPool getMinimizationPool() {
+    if (MINIMIZATION_THREADS > 1 && MINIMIZATION_POOL == null)
+      MINIMIZATION_POOL = new ForkJoinPool(MINIMIZATION_THREADS);
+    return MINIMIZATION_POOL;
+  }
+
+  public static synchronized int getMinimizationThreads() {
+    return MINIMIZATION_THREADS;
+  }
+
+  /**
+   * Minimization algorithm (see setMinimizationMode()).
    */
   public static <T extends Symbol> void minimization(Automaton<T> automaton) {
+    if (MINIMIZATION_MODE == MinimizationMode.HOPCROFT)
+      minimizationHopcroft(automaton);
+    else if (MINIMIZATION_MODE == MinimizationMode.PARALLEL)
+      minimizationParallel(automaton);
+    else
+      minimizationTable(automaton);
+  }
+
+  /**
+   * Table-filling minimization algorithm.
+   */
+  public static <T extends Symbol> void minimizationTable(Automaton<T> automaton) {
     int total_states = automaton._all_states.size();
     System.out.println("[ ] minimizing automaton");
     System.out.println("[ ] \tcreating table for " + automaton._all_states.size() + " states.");
@@ -380,6 +516,543 @@ public class Operations {
         + "% smaler)");
   }
 
+  /**
+   * Signature of a state used to build the initial partition: states can only
+   * be equivalent if they are both final (or non-final) and if they define
+   * transitions for exactly the same symbols.
+   */
+  private static class StateSignature {
+    final boolean is_final;
+    final int[] symbols;
+
+    StateSignature(boolean is_final, int[] symbols) {
+      this.is_final = is_final;
+      this.symbols = symbols;
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(symbols) ^ (is_final ? 1 : 0);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      StateSignature other = (StateSignature)obj;
+      return is_final == other.is_final && Arrays.equals(symbols, other.symbols);
+    }
+  }
+
+  /**
+   * Gives consecutive indexes to symbols. Message types are indexed by their
+   * ids (see SymbolTable), other symbols by equals().
+   */
+  private static class SymbolIndex<T extends Symbol> {
+    private final IntIntMap _ids = new IntIntMap(64, -1);
+    private final HashMap<T, Integer> _symbols = new HashMap<T, Integer>();
+    private int _size = 0;
+
+    int indexOf(T symbol) {
+      if (symbol instanceof MessageType) {
+        int id = ((MessageType)symbol).getId();
+        int index = _ids.get(id);
+        if (index < 0) {
+          index = _size++;
+          _ids.put(id, index);
+        }
+        return index;
+      }
+      Integer index = _symbols.get(symbol);
+      if (index == null) {
+        index = _size++;
+        _symbols.put(symbol, index);
+      }
+      return index;
+    }
+
+    int size() {
+      return _size;
+    }
+  }
+
+  /**
+   * Integer-indexed view of an automaton used by the partition refinement
+   * algorithms (minimizationHopcroft() and minimizationParallel()). States are
+   * numbered in the order of automaton._all_states (ignoring duplicates) and
+   * the transitions of each state q are kept in [trans_start[q],
+   * trans_start[q+1]) as (tail, label, head).
+   */
+  private static final class IndexedAutomaton<T extends Symbol> {
+    final HashMap<State<T>, Integer> index;
+    final ArrayList<State<T>> states;
+    final int n, m, total_symbols;
+    final int[] trans_start, tail, label, head;
+
+    IndexedAutomaton(Automaton<T> automaton) {
+      /* Index states (ignoring duplicates). */
+      index = new HashMap<State<T>, Integer>(automaton._all_states.size() * 2);
+      states = new ArrayList<State<T>>(automaton._all_states.size());
+      for (State<T> s : automaton._all_states) {
+        if (!index.containsKey(s)) {
+          index.put(s, states.size());
+          states.add(s);
+        }
+      }
+      n = states.size();
+
+      /* Index symbols. */
+      SymbolIndex<T> symbols = new SymbolIndex<T>();
+      int total_transitions = 0;
+      for (State<T> s : states) {
+        total_transitions += s._transitions.size();
+        for (Transition<T> t : s._transitions)
+          symbols.indexOf(t._symbol);
+      }
+      total_symbols = symbols.size();
+
+      /* Index transitions (only the first transition of each symbol). */
+      trans_start = new int[n + 1];
+      tail = new int[total_transitions];
+      label = new int[total_transitions];
+      head = new int[total_transitions];
+      int[] last_seen = new int[total_symbols];
+      Arrays.fill(last_seen, -1);
+      int total = 0;
+      for (int q = 0; q < n; q++) {
+        trans_start[q] = total;
+        for (Transition<T> t : states.get(q)._transitions) {
+          Integer dest = index.get(t._dest_state);
+          int a = symbols.indexOf(t._symbol);
+          // Ignore transitions leaving the automaton and repeated symbols (as in
+          // State.getTransition()).
+          if (dest == null || last_seen[a] == q)
+            continue;
+          last_seen[a] = q;
+          tail[total] = q;
+          label[total] = a;
+          head[total] = dest;
+          total++;
+        }
+      }
+      trans_start[n] = total;
+      m = total;
+    }
+
+    /**
+     * Sorts the transitions of each state by label, so that the transitions of
+     * two states with the same defined symbols can be compared position by
+     * position.
+     */
+    void sortTransitionsByLabel() {
+      long[] pairs = new long[total_symbols];
+      for (int q = 0; q < n; q++) {
+        int start = trans_start[q], size = trans_start[q + 1] - start;
+        for (int i = 0; i < size; i++)
+          pairs[i] = ((long)label[start + i] << 32) | head[start + i];
+        Arrays.sort(pairs, 0, size);
+        for (int i = 0; i < size; i++) {
+          label[start + i] = (int)(pairs[i] >>> 32);
+          head[start + i] = (int)pairs[i];
+        }
+      }
+    }
+
+    /**
+     * Incoming transitions of each state q, kept in in_trans[in_start[q],
+     * in_start[q+1]). Returns {in_start, in_trans}.
+     */
+    int[][] incomingTransitions() {
+      int[] in_start = new int[n + 1];
+      for (int i = 0; i < m; i++)
+        in_start[head[i] + 1]++;
+      for (int q = 0; q < n; q++)
+        in_start[q + 1] += in_start[q];
+      int[] in_trans = new int[m];
+      int[] in_fill = Arrays.copyOf(in_start, n);
+      for (int i = 0; i < m; i++)
+        in_trans[in_fill[head[i]]++] = i;
+      return new int[][] { in_start, in_trans };
+    }
+
+    /**
+     * Initial partition: same finality and same defined symbols. Fills the
+     * block of each state and returns the total number of blocks.
+     */
+    int initialPartition(int[] block_of) {
+      HashMap<StateSignature, Integer> signatures = new HashMap<StateSignature, Integer>();
+      for (int q = 0; q < n; q++) {
+        int[] defined = Arrays.copyOfRange(label, trans_start[q], trans_start[q + 1]);
+        Arrays.sort(defined);
+        StateSignature key = new StateSignature(states.get(q)._is_final, defined);
+        Integer b = signatures.get(key);
+        if (b == null) {
+          b = signatures.size();
+          signatures.put(key, b);
+        }
+        block_of[q] = b;
+      }
+      return signatures.size();
+    }
+
+    /**
+     * Merges the states of each block into its first state, adding up the
+     * frequencies of the merged transitions.
+     */
+    void merge(Automaton<T> automaton, int[] block_of, int total_blocks) {
+      System.out.println("[ ] \tmerging equivalent states");
+      ArrayList<State<T>> representatives = new ArrayList<State<T>>(total_blocks);
+      @SuppressWarnings("unchecked")
+      State<T>[] representative_of = (State<T>[])new State<?>[total_blocks];
+      for (int q = 0; q < n; q++) {
+        State<T> s = states.get(q);
+        State<T> r = representative_of[block_of[q]];
+        if (r == null) {
+          representative_of[block_of[q]] = s;
+          representatives.add(s);
+          continue;
+        }
+        r._is_final = (r._is_final || s._is_final);
+        r._id = (r._id < s._id) ? r._id : s._id;
+        for (Transition<T> t1 : s._transitions) {
+          Transition<T> t0 = r.getTransition(t1._symbol);
+          if (t0 != null)
+            t0._freq += t1._freq;
+          else {
+            @SuppressWarnings("unchecked")
+            Transition<T> clone = (Transition<T>)t1.clone();
+            r._transitions.add(clone);
+          }
+        }
+      }
+      for (State<T> r : representatives) {
+        for (Transition<T> t : r._transitions) {
+          Integer dest = index.get(t._dest_state);
+          if (dest != null)
+            t._dest_state = representative_of[block_of[dest]];
+        }
+      }
+      Integer initial = index.get(automaton._initial_state);
+      if (initial != null)
+        automaton._initial_state = representative_of[block_of[initial]];
+      automaton._all_states = representatives;
+
+      System.out.println("[ ] \tminimized: " + n + " >  " + automaton._all_states.size()
+          + " states (" + (int)((1 - (automaton._all_states.size() / ((float)n))) * 100)
+          + "% smaler)");
+    }
+  }
+
+  /**
+   * Partition refinement (Hopcroft) minimization algorithm. It computes the
+   * same equivalence classes as minimizationTable() but over an integer-indexed
+   * view of automaton._all_states, and then merges each class into a single
+   * state, adding up the frequencies of the merged transitions.
+   */
+  public static <T extends Symbol> void minimizationHopcroft(Automaton<T> automaton) {
+    System.out.println("[ ] minimizing automaton");
+    System.out.println("[ ] \tpartitioning " + automaton._all_states.size() + " states.");
+
+    IndexedAutomaton<T> indexed = new IndexedAutomaton<T>(automaton);
+    int n = indexed.n, m = indexed.m;
+    if (n == 0)
+      return;
+    int[] tail = indexed.tail, label = indexed.label;
+    int[][] incoming = indexed.incomingTransitions();
+    int[] in_start = incoming[0], in_trans = incoming[1];
+
+    /* Initial partition: same finality and same defined symbols. */
+    int[] elems = new int[n]; // states ordered by block
+    int[] loc = new int[n]; // position of each state in elems
+    int[] block_of = new int[n];
+    int[] first = new int[n], mid = new int[n], end = new int[n];
+    int total_blocks = indexed.initialPartition(block_of);
+    {
+      int[] block_size = new int[n];
+      for (int q = 0; q < n; q++)
+        block_size[block_of[q]]++;
+      for (int b = 0, pos = 0; b < total_blocks; b++) {
+        first[b] = mid[b] = end[b] = pos;
+        pos += block_size[b];
+      }
+      for (int q = 0; q < n; q++) {
+        int b = block_of[q];
+        loc[q] = end[b];
+        elems[end[b]++] = q;
+      }
+    }
+
+    /* Refine partition. */
+    LinkedList<Integer> pending = new LinkedList<Integer>();
+    boolean[] is_pending = new boolean[n];
+    for (int b = 0; b < total_blocks; b++) {
+      pending.add(b);
+      is_pending[b] = true;
+    }
+    int[] bucket = new int[indexed.total_symbols]; // incoming transitions by symbol
+    Arrays.fill(bucket, -1);
+    int[] next_in_bucket = new int[m];
+    int[] touched_symbols = new int[indexed.total_symbols];
+    int[] touched_blocks = new int[n];
+    int[] splitter = new int[n];
+
+    while (!pending.isEmpty()) {
+      int b = pending.removeFirst();
+      is_pending[b] = false;
+
+      // Copy splitter, since block b may be split while processing it.
+      int splitter_size = end[b] - first[b];
+      System.arraycopy(elems, first[b], splitter, 0, splitter_size);
+
+      // Group incoming transitions of the splitter by symbol.
+      int total_symbols = 0;
+      for (int i = 0; i < splitter_size; i++) {
+        int q = splitter[i];
+        for (int j = in_start[q]; j < in_start[q + 1]; j++) {
+          int t = in_trans[j];
+          if (bucket[label[t]] == -1)
+            touched_symbols[total_symbols++] = label[t];
+          next_in_bucket[t] = bucket[label[t]];
+          bucket[label[t]] = t;
+        }
+      }
+
+      for (int k = 0; k < total_symbols; k++) {
+        int a = touched_symbols[k];
+
+        // Mark predecessors (moving them to the beginning of their block).
+        int total_touched = 0;
+        for (int t = bucket[a]; t != -1; t = next_in_bucket[t]) {
+          int p = tail[t];
+          int pb = block_of[p];
+          if (mid[pb] == first[pb])
+            touched_blocks[total_touched++] = pb;
+          int pos = loc[p];
+          int other = elems[mid[pb]];
+          elems[pos] = other;
+          loc[other] = pos;
+          elems[mid[pb]] = p;
+          loc[p] = mid[pb]++;
+        }
+        bucket[a] = -1;
+
+        // Split touched blocks into marked and unmarked states.
+        for (int i = 0; i < total_touched; i++) {
+          int pb = touched_blocks[i];
+          if (mid[pb] == end[pb]) {
+            mid[pb] = first[pb]; // all states marked: nothing to split
+            continue;
+          }
+          int nb = total_blocks++;
+          first[nb] = mid[nb] = first[pb];
+          end[nb] = mid[pb];
+          first[pb] = mid[pb];
+          for (int pos = first[nb]; pos < end[nb]; pos++)
+            block_of[elems[pos]] = nb;
+
+          if (is_pending[pb] || end[nb] - first[nb] <= end[pb] - first[pb]) {
+            pending.add(nb);
+            is_pending[nb] = true;
+          } else {
+            pending.add(pb);
+            is_pending[pb] = true;
+          }
+        }
+      }
+    }
+
+    indexed.merge(automaton, block_of, total_blocks);
+  }
+
+  /**
+   * Splits a range of the blocks that may have become unstable in the last
+   * round of minimizationParallel(). Each block is refined independently: its
+   * states are grouped by the blocks reached by their (label sorted)
+   * transitions, the group of the first state keeps the block and the other
+   * groups get new consecutive blocks. Only elems, first and end are written,
+   * and only in the range of the blocks of this task, so that block_of can be
+   * read by all tasks and updated once the round is over.
+   */
+  private static final class RefineBlocks extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private static final int THRESHOLD = 4096; // states refined by each task
+
+    private final int[] trans_start, head, block_of, elems, first, end;
+    private final int[] blocks, weight; // blocks to refine and prefix sum of sizes
+    private final int lo, hi;
+    private final AtomicInteger total_blocks;
+
+    RefineBlocks(int[] trans_start, int[] head, int[] block_of, int[] elems, int[] first,
+        int[] end, int[] blocks, int[] weight, int lo, int hi, AtomicInteger total_blocks) {
+      this.trans_start = trans_start;
+      this.head = head;
+      this.block_of = block_of;
+      this.elems = elems;
+      this.first = first;
+      this.end = end;
+      this.blocks = blocks;
+      this.weight = weight;
+      this.lo = lo;
+      this.hi = hi;
+      this.total_blocks = total_blocks;
+    }
+
+    private RefineBlocks split(int lo, int hi) {
+      return new RefineBlocks(trans_start, head, block_of, elems, first, end, blocks, weight,
+          lo, hi, total_blocks);
+    }
+
+    @Override
+    protected void compute() {
+      if (hi - lo > 1 && weight[hi] - weight[lo] > THRESHOLD) {
+        // Split in two halves with (roughly) the same number of states.
+        int half = weight[lo] + (weight[hi] - weight[lo]) / 2;
+        int mid = Arrays.binarySearch(weight, lo + 1, hi, half);
+        mid = (mid < 0) ? -mid - 1 : mid;
+        mid = Math.max(lo + 1, Math.min(hi - 1, mid));
+        invokeAll(split(lo, mid), split(mid, hi));
+        return;
+      }
+      for (int i = lo; i < hi; i++)
+        refine(blocks[i]);
+    }
+
+    private boolean sameSignature(int p, int q) {
+      for (int i = trans_start[p], j = trans_start[q]; i < trans_start[p + 1]; i++, j++)
+        if (block_of[head[i]] != block_of[head[j]])
+          return false;
+      return true;
+    }
+
+    private void refine(int b) {
+      int start = first[b], stop = end[b];
+      int q0 = elems[start];
+      int pos = start + 1;
+      while (pos < stop && sameSignature(q0, elems[pos]))
+        pos++;
+      if (pos == stop)
+        return; // stable block
+
+      // Group the states of the block by the blocks they reach.
+      HashMap<StateSignature, Integer> groups = new HashMap<StateSignature, Integer>();
+      int size = stop - start;
+      int[] group_of = new int[size];
+      for (int i = 0; i < size; i++) {
+        int q = elems[start + i];
+        int[] dest = new int[trans_start[q + 1] - trans_start[q]];
+        for (int j = 0; j < dest.length; j++)
+          dest[j] = block_of[head[trans_start[q] + j]];
+        StateSignature key = new StateSignature(false, dest);
+        Integer g = groups.get(key);
+        if (g == null) {
+          g = groups.size();
+          groups.put(key, g);
+        }
+        group_of[i] = g;
+      }
+
+      // Reorder the states of the block by group (keeping their order).
+      int total_groups = groups.size();
+      int[] group_start = new int[total_groups + 1];
+      for (int i = 0; i < size; i++)
+        group_start[group_of[i] + 1]++;
+      for (int g = 0; g < total_groups; g++)
+        group_start[g + 1] += group_start[g];
+      int[] sorted = new int[size];
+      int[] fill = Arrays.copyOf(group_start, total_groups);
+      for (int i = 0; i < size; i++)
+        sorted[fill[group_of[i]]++] = elems[start + i];
+      System.arraycopy(sorted, 0, elems, start, size);
+
+      end[b] = start + group_start[1];
+      int nb = total_blocks.getAndAdd(total_groups - 1);
+      for (int g = 1; g < total_groups; g++, nb++) {
+        first[nb] = start + group_start[g];
+        end[nb] = start + group_start[g + 1];
+      }
+    }
+  }
+
+  /**
+   * Parallel partition refinement minimization algorithm. It computes the
+   * same equivalence classes as minimizationHopcroft(), but in rounds: in each
+   * round, the blocks with states that reach a block split in the previous
+   * round are refined concurrently on a ForkJoinPool (see
+   * setMinimizationThreads()), and the new blocks are only committed at the
+   * end of the round. It takes as many rounds as the length of the longest
+   * distinguishing suffix, so it pays off on wide automata rather than on long
+   * chains of states.
+   */
+  public static <T extends Symbol> void minimizationParallel(Automaton<T> automaton) {
+    System.out.println("[ ] minimizing automaton");
+    System.out.println("[ ] \tpartitioning " + automaton._all_states.size() + " states ("
+        + getMinimizationThreads() + " threads).");
+
+    IndexedAutomaton<T> indexed = new IndexedAutomaton<T>(automaton);
+    int n = indexed.n;
+    if (n == 0)
+      return;
+    indexed.sortTransitionsByLabel();
+    int[] tail = indexed.tail;
+    int[][] incoming = indexed.incomingTransitions();
+    int[] in_start = incoming[0], in_trans = incoming[1];
+
+    /* Initial partition: same finality and same defined symbols. */
+    int[] elems = new int[n]; // states ordered by block
+    int[] block_of = new int[n];
+    int[] first = new int[n], end = new int[n];
+    int initial_blocks = indexed.initialPartition(block_of);
+    for (int q = 0; q < n; q++)
+      end[block_of[q]]++;
+    for (int b = 0, pos = 0; b < initial_blocks; b++) {
+      int size = end[b];
+      first[b] = end[b] = pos;
+      pos += size;
+    }
+    for (int q = 0; q < n; q++)
+      elems[end[block_of[q]]++] = q;
+
+    /* Refine partition. */
+    AtomicInteger total_blocks = new AtomicInteger(initial_blocks);
+    int[] blocks = new int[n]; // blocks to refine in the next round
+    int[] weight = new int[n + 1];
+    int[] marked = new int[n]; // last round in which each block was added
+    int total_pending = initial_blocks;
+    for (int b = 0; b < initial_blocks; b++)
+      blocks[b] = b;
+    ForkJoinPool pool = getMinimizationPool();
+    for (int round = 1; total_pending > 0; round++) {
+      for (int i = 0; i < total_pending; i++)
+        weight[i + 1] = weight[i] + end[blocks[i]] - first[blocks[i]];
+      int before = total_blocks.get();
+      RefineBlocks task = new RefineBlocks(indexed.trans_start, indexed.head, block_of,
+          elems, first, end, blocks, weight, 0, total_pending, total_blocks);
+      if (pool != null)
+        pool.invoke(task);
+      else
+        task.compute();
+      int after = total_blocks.get();
+
+      // Commit the new blocks and look for the blocks that may split next.
+      for (int nb = before; nb < after; nb++)
+        for (int pos = first[nb]; pos < end[nb]; pos++)
+          block_of[elems[pos]] = nb;
+      total_pending = 0;
+      for (int nb = before; nb < after; nb++) {
+        for (int pos = first[nb]; pos < end[nb]; pos++) {
+          int q = elems[pos];
+          for (int j = in_start[q]; j < in_start[q + 1]; j++) {
+            int pb = block_of[tail[in_trans[j]]];
+            if (marked[pb] != round && end[pb] - first[pb] > 1) {
+              marked[pb] = round;
+              blocks[total_pending++] = pb;
+            }
+          }
+        }
+      }
+    }
+
+    indexed.merge(automaton, block_of, total_blocks.get());
+  }
+
   // ////////////////////////////////////////////////////////////
   // MERGE STATES (recursively and without concurrent modification code)
   // ////////////////////////////////////////////////////////////
@@ -490,4 +1163,50 @@ public class Operations {
     }
   }
 
+  // ////////////////////////////////////////////////////////////
+  // COPY
+  // ////////////////////////////////////////////////////////////
+
+  /**
+   * Copies the states and transitions of an automaton into another one
+   * (replacing its states), cloning the symbols. The copy can then be changed,
+   * e.g., generalized, while the original keeps growing.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T extends Symbol> void copy(Automaton<T> from, Automaton<T> to) {
+    IdentityHashMap<State<T>, State<T>> copies = new IdentityHashMap<State<T>, State<T>>(
+        from._all_states.size());
+    ArrayList<State<T>> all_states = new ArrayList<State<T>>(from._all_states.size());
+    ArrayDeque<State<T>> to_copy = new ArrayDeque<State<T>>();
+    to_copy.push(from._initial_state);
+    copies.put(from._initial_state, copyState(from._initial_state, all_states));
+
+    while (!to_copy.isEmpty()) {
+      State<T> state = to_copy.pop();
+      State<T> copy = copies.get(state);
+      for (Transition<T> t : state) {
+        State<T> dest = copies.get(t._dest_state);
+        if (dest == null) {
+          dest = copyState(t._dest_state, all_states);
+          copies.put(t._dest_state, dest);
+          to_copy.push(t._dest_state);
+        }
+        Transition<T> new_t = new Transition<T>((T)t._symbol.clone(), dest);
+        new_t._freq = t._freq;
+        copy._transitions.add(new_t);
+      }
+    }
+
+    to._initial_state = copies.get(from._initial_state);
+    to._all_states = all_states;
+  }
+
+  private static <T extends Symbol> State<T> copyState(State<T> state, List<State<T>> all_states) {
+    State<T> copy = new State<T>();
+    copy._id = state._id;
+    copy._is_final = state._is_final;
+    all_states.add(copy);
+    return copy;
+  }
+
 }
@@ -32,10 +32,13 @@
 package automata;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import traces.ByteChars;
+import automata.RegExOperations.RegularExpressionInterface;
 import dot.DotGraph;
 
 public class RegEx implements Symbol, MessageType, java.io.Serializable {
@@ -49,33 +52,231 @@ public class RegEx implements Symbol, MessageType, java.io.Serializable {
   Pattern.compile(" |\\r\\n", FLAGS) // at every space or CRLF
       : Pattern.compile(".", FLAGS); // at every byte
 
-  private Pattern _pattern;
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+  private static final byte[][] SINGLE_BYTES = new byte[256][];
+  static {
+    for (int b = 0; b < 256; b++)
+      SINGLE_BYTES[b] = new byte[] { (byte)b };
+  }
+
+  private String _regex; // rendered when first used if the symbol is a literal or tokens
+  private volatile Pattern _pattern; // compiled when first used (see compiled())
+
+  /*
+   * Literal symbols (e.g., the tokens of messages) keep their bytes, which are
+   * only quoted into a regular expression when it is needed (see getPattern()),
+   * and are hashed and matched byte by byte. setPattern() turns them into
+   * regular expressions.
+   */
+  private transient byte[] _literal;
+  private transient boolean _literal_text; // quote printable bytes as text
+  private transient int _hash;
+  private transient SymbolTable.Entry _id; // in the SymbolTable (null until it is needed)
+
+  /*
+   * Structured form of the regular expression (see getTokens()), which the
+   * generalization of symbols works on instead of parsing their patterns. The
+   * tokens are never modified, so they can be shared by several symbols.
+   */
+  private transient volatile List<RegularExpressionInterface> _tokens;
+  // Tokens the symbol was created with, which its pattern is rendered from.
+  private transient volatile List<RegularExpressionInterface> _rendered_from;
+
+  // Matcher of patterns that are a single class of bytes (see ByteClass).
+  private transient volatile ByteClass _class;
+  private transient volatile boolean _class_checked;
 
   public RegEx(Pattern pattern) {
+    _regex = pattern.pattern();
     _pattern = pattern;
   }
 
   public RegEx(String regex) {
-    setPattern(regex);
+    _regex = regex;
   }
 
   public RegEx(CharSequence data) {
-    setPattern(quote(data));
+    if (data instanceof ByteChars) {
+      byte[] literal = ((ByteChars)data).getByteArray(0, data.length());
+      if (hasBackslash(literal))
+        _regex = quote(data);
+      else {
+        _literal = literal;
+        _literal_text = IS_TEXT_BASED_PROTOCOL;
+      }
+    } else
+      _regex = quote(data);
     // length_BINARY = data.length();
   }
 
+  /**
+   * Creates the regular expression of a sequence of tokens, which keeps them so
+   * that they are not parsed again (see getTokens()), and whose pattern is only
+   * rendered when it is needed (see getPattern()).
+   */
+  public RegEx(List<RegularExpressionInterface> tokens) {
+    _rendered_from = Collections.unmodifiableList(new ArrayList<RegularExpressionInterface>(
+        tokens));
+    _tokens = parsed(tokens);
+  }
+
+  /**
+   * Bytes with a backslash are quoted right away, since quote() does not escape
+   * it and the regular expression may not match them literally (e.g., "\\E").
+   */
+  private RegEx(byte[] literal, boolean text) {
+    if (hasBackslash(literal)) {
+      StringBuilder sb = new StringBuilder(literal.length + 4);
+      quote(literal, text, sb);
+      _regex = sb.toString();
+    } else {
+      _literal = literal;
+      _literal_text = text;
+    }
+  }
+
   public void setPattern(String regex) {
-    _pattern = Pattern.compile(regex, FLAGS);
+    _regex = regex;
+    _pattern = null;
+    _literal = null;
+    _tokens = null;
+    _rendered_from = null;
+    _class_checked = false;
+    _hash = 0;
+    _id = null;
+    TransitionList.symbolsChanged();
   }
 
   public void setPattern(Pattern pattern) {
+    _regex = pattern.pattern();
     _pattern = pattern;
+    _literal = null;
+    _tokens = null;
+    _rendered_from = null;
+    _class_checked = false;
+    _hash = 0;
+    _id = null;
+    TransitionList.symbolsChanged();
+  }
+
+  /**
+   * Replaces the regular expression with a sequence of tokens, as
+   * setPattern(RegExOperations.toPattern(tokens, 0)) would, but keeping them so
+   * that they are not parsed again (see getTokens()), and without rendering the
+   * pattern until it is needed.
+   */
+  public void setTokens(List<RegularExpressionInterface> tokens) {
+    _rendered_from = Collections.unmodifiableList(new ArrayList<RegularExpressionInterface>(
+        tokens));
+    _tokens = parsed(tokens);
+    _regex = null;
+    _pattern = null;
+    _literal = null;
+    _class_checked = false;
+    _hash = 0;
+    _id = null;
+    TransitionList.symbolsChanged();
+  }
+
+  /**
+   * Returns the tokens that RegExOperations.process() gives for the pattern of
+   * the tokens, so that symbols have the same tokens however they were created.
+   */
+  private static List<RegularExpressionInterface> parsed(
+      List<RegularExpressionInterface> tokens) {
+    ArrayList<RegularExpressionInterface> parsed = new ArrayList<RegularExpressionInterface>(
+        tokens.size());
+    for (RegularExpressionInterface token : tokens) {
+      if (token instanceof RegExOperations.BracketedExpression)
+        token = ((RegExOperations.BracketedExpression)token).parsed();
+      parsed.add(token);
+    }
+    return Collections.unmodifiableList(parsed);
+  }
+
+  /**
+   * Returns the tokens of the regular expression (see RegExOperations), as
+   * RegExOperations.process(getPattern()) would. They are parsed only once, or
+   * not at all for literals, which are split directly from their bytes.
+   */
+  public List<RegularExpressionInterface> getTokens() {
+    List<RegularExpressionInterface> tokens = _tokens;
+    if (tokens == null) {
+      byte[] literal = _literal;
+      if (literal != null)
+        tokens = RegExOperations.process(literal, _literal_text);
+      else
+        tokens = RegExOperations.process(_regex);
+      tokens = Collections.unmodifiableList(tokens);
+      _tokens = tokens;
+    }
+    return tokens;
+  }
+
+  /**
+   * Returns the id of the regular expression in the SymbolTable.
+   */
+  public int getId() {
+    SymbolTable.Entry id = _id;
+    if (id == null) {
+      byte[] literal = _literal;
+      if (literal != null)
+        id = SymbolTable.intern(literal, _literal_text, hashCode(), this);
+      else
+        id = SymbolTable.intern(getPattern());
+      _id = id;
+    }
+    return id.id;
+  }
+
+  /**
+   * Returns true if the symbol matches only the bytes it was created with.
+   */
+  public boolean isLiteral() {
+    return _literal != null;
+  }
+
+  /**
+   * Returns the pattern, compiling it the first time it is needed, since most
+   * symbols are only compared by their regular expression (or matched by
+   * ByteDFA).
+   */
+  private Pattern compiled() {
+    Pattern pattern = _pattern;
+    if (pattern == null) {
+      pattern = Pattern.compile(getPattern(), FLAGS);
+      _pattern = pattern;
+    }
+    return pattern;
+  }
+
+  private ByteClass byteClass() {
+    if (!_class_checked) {
+      _class = ByteClass.compile(getPattern());
+      _class_checked = true;
+    }
+    return _class;
+  }
+
+  private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+    getPattern();
+    out.defaultWriteObject();
+  }
+
+  /**
+   * Objects saved before the patterns were compiled lazily only have _pattern.
+   */
+  private void readObject(java.io.ObjectInputStream in) throws java.io.IOException,
+      ClassNotFoundException {
+    in.defaultReadObject();
+    if (_regex == null)
+      _regex = _pattern.pattern();
   }
 
   public static void setTextBasedSupport(boolean text_based) {
     IS_TEXT_BASED_PROTOCOL = text_based;
     if (text_based)
-      PATTERN_TOKEN = Pattern.compile("\\\\Q(.*?)\\\\E", FLAGS);
+      PATTERN_TOKEN = Pattern.compile(" |\\r\\n", FLAGS);
     else
       // treat each byte as a single field initially
       PATTERN_TOKEN = Pattern.compile(".", FLAGS);
@@ -99,37 +300,87 @@ public class RegEx implements Symbol, MessageType, java.io.Serializable {
   // }
 
   public static RegEx concat(RegEx r0, RegEx r1) {
-    String concat = r0._pattern.pattern() + r1._pattern.pattern();
+    byte[] l0 = r0._literal, l1 = r1._literal;
+    if (l0 != null && l1 != null && r0._literal_text == r1._literal_text) {
+      byte[] literal = Arrays.copyOf(l0, l0.length + l1.length);
+      System.arraycopy(l1, 0, literal, l0.length, l1.length);
+      return new RegEx(literal, r0._literal_text);
+    }
+    String concat = r0.getPattern() + r1.getPattern();
     concat = concat.replaceAll("\\\\E\\\\Q", "");
     return new RegEx(concat);
   }
 
   public String getPattern() {
-    return _pattern.pattern();
+    String regex = _regex;
+    if (regex == null) {
+      byte[] literal = _literal;
+      if (literal != null) {
+        StringBuilder sb = new StringBuilder(literal.length + 4);
+        quote(literal, _literal_text, sb);
+        regex = sb.toString();
+      } else
+        regex = RegExOperations.toPattern(_rendered_from, 0);
+      _regex = regex;
+    }
+    return regex;
   }
 
   public String toString() {
-    return _pattern.pattern().replaceAll("\\\\E|\\\\Q", "");
+    byte[] literal = _literal;
+    if (literal != null) {
+      StringBuilder sb = new StringBuilder(literal.length);
+      for (byte b : literal) {
+        if (_literal_text && ByteChars.isASCIIPrintable(b))
+          sb.append((char)b);
+        else
+          appendEscaped(b, sb);
+      }
+      return sb.toString();
+    }
+    return getPattern().replaceAll("\\\\E|\\\\Q", "");
   }
 
   public String toDot() {
     return DotGraph.sanitize(toString());
   }
 
+  /**
+   * Returns the hashCode() of the regular expression rather than its id, so
+   * that the order of hash tables of symbols (e.g., in determinization) does
+   * not depend on the order in which symbols were interned.
+   */
   @Override
   public int hashCode() {
-    return _pattern.pattern().hashCode();
+    byte[] literal = _literal;
+    if (literal == null)
+      return getPattern().hashCode();
+    // the same as getPattern().hashCode(), without quoting the bytes
+    int hash = _hash;
+    if (hash == 0) {
+      hash = quoteHash(literal, _literal_text);
+      _hash = hash;
+    }
+    return hash;
   }
 
   @Override
   public boolean equals(Object obj) {
     if (obj instanceof RegEx)
-      return _pattern.pattern().equals(((RegEx)obj)._pattern.pattern());
+      return getId() == ((RegEx)obj).getId();
     else
       return super.equals(obj);
   }
 
+  /**
+   * Splits the message into literal symbols, at every space or CRLF (or at
+   * every byte in binary-based protocols). Messages (ByteChars) are scanned
+   * byte by byte, without regular expressions.
+   */
   public static List<RegEx> tokenize(CharSequence message, int offset) {
+    if (message instanceof ByteChars)
+      return tokenize((ByteChars)message, offset);
+
     List<RegEx> tokens = new ArrayList<RegEx>(10);
     Matcher matcher = PATTERN_TOKEN.matcher(message);
 
@@ -148,12 +399,104 @@ public class RegEx implements Symbol, MessageType, java.io.Serializable {
     return tokens;
   }
 
+  private static List<RegEx> tokenize(ByteChars message, int offset) {
+    boolean text = IS_TEXT_BASED_PROTOCOL;
+    int length = message.length();
+    List<RegEx> tokens = new ArrayList<RegEx>(text ? 10 : Math.max(length - offset, 0));
+    for (int i = offset, end; i < length; i = end) {
+      end = nextToken(message, i, length, text);
+      if (end == i + 1)
+        tokens.add(new RegEx(SINGLE_BYTES[message.byteAt(i) & 0xFF], text));
+      else
+        tokens.add(new RegEx(message.getByteArray(i, end), text));
+    }
+    return tokens;
+  }
+
+  /**
+   * Returns the end of the token that starts at the given position: a
+   * delimiter (space or CRLF) or the bytes up to the next delimiter.
+   */
+  private static int nextToken(ByteChars message, int start, int length, boolean text) {
+    if (!text)
+      return start + 1;
+    if (isDelimiter(message, start, length))
+      return message.byteAt(start) == ' ' ? start + 1 : start + 2;
+    int i = start + 1;
+    while (i < length && !isDelimiter(message, i, length))
+      i++;
+    return i;
+  }
+
+  private static boolean isDelimiter(ByteChars message, int i, int length) {
+    byte b = message.byteAt(i);
+    return b == ' ' || (b == '\r' && i + 1 < length && message.byteAt(i + 1) == '\n');
+  }
+
+  /**
+   * Returns a key whose natural order sorts messages by their sequence of
+   * tokens (see tokenize()), such that messages with common tokens are
+   * contiguous. Each token is followed by a '\0' and its bytes are shifted by
+   * one.
+   */
+  public static String sortKey(CharSequence message, int offset) {
+    StringBuilder key = new StringBuilder(message.length() + 10);
+    if (message instanceof ByteChars) {
+      ByteChars bytes = (ByteChars)message;
+      boolean text = IS_TEXT_BASED_PROTOCOL;
+      int length = bytes.length();
+      for (int i = offset, end; i < length; i = end) {
+        end = nextToken(bytes, i, length, text);
+        for (int j = i; j < end; j++)
+          key.append((char)((bytes.byteAt(j) & 0xFF) + 1));
+        key.append('\0');
+      }
+      return key.toString();
+    }
+
+    Matcher matcher = PATTERN_TOKEN.matcher(message);
+
+    int i = offset, end = 0;
+    int start = 0;
+    while (matcher.find(i)) {
+      start = matcher.start();
+      end = matcher.end();
+      if (i < start)
+        appendSortKey(key, message, i, start);
+      appendSortKey(key, message, start, end);
+      i = end;
+    }
+    if (i != message.length())
+      appendSortKey(key, message, i, message.length());
+    return key.toString();
+  }
+
+  private static void appendSortKey(StringBuilder key, CharSequence message, int start, int end) {
+    for (int i = start; i < end; i++)
+      key.append((char)(message.charAt(i) + 1));
+    key.append('\0');
+  }
+
   public boolean accepts(CharSequence data) {
     return match(data, 0) == data.length();
   }
 
   public int match(CharSequence data, int offset) {
-    Matcher m = _pattern.matcher(data);
+    byte[] literal = _literal;
+    if (literal != null) {
+      if (offset + literal.length > data.length())
+        return 0;
+      for (int i = 0; i < literal.length; i++)
+        if (data.charAt(offset + i) != (literal[i] & 0xFF))
+          return 0;
+      return literal.length;
+    }
+
+    ByteClass byte_class = byteClass();
+    if (byte_class != null)
+      return byte_class.match(data, offset);
+
+    Matcher m = compiled().matcher(data);
 
     if (m.find(offset)) {
       int start = m.start();
@@ -199,13 +542,79 @@ public class RegEx implements Symbol, MessageType, java.io.Serializable {
     return sb.toString();
   }
 
+  /**
+   * Quotes the bytes of a literal, as quote(CharSequence) does.
+   */
+  private static void quote(byte[] literal, boolean text, StringBuilder sb) {
+    boolean quoting = false;
+    for (byte b : literal) {
+      if (text && ByteChars.isASCIIPrintable(b)) {
+        if (!quoting) {
+          sb.append("\\Q");
+          quoting = true;
+        }
+        sb.append((char)b);
+      } else {
+        if (quoting) {
+          sb.append("\\E");
+          quoting = false;
+        }
+        appendEscaped(b, sb);
+      }
+    }
+    if (quoting)
+      sb.append("\\E");
+  }
+
+  /**
+   * Returns the hashCode() of the quoted literal (see quote()), computed as
+   * String.hashCode() would.
+   */
+  private static int quoteHash(byte[] literal, boolean text) {
+    int h = 0;
+    boolean quoting = false;
+    for (byte b : literal) {
+      if (text && ByteChars.isASCIIPrintable(b)) {
+        if (!quoting) {
+          h = 31 * (31 * h + '\\') + 'Q';
+          quoting = true;
+        }
+        h = 31 * h + b;
+      } else {
+        if (quoting) {
+          h = 31 * (31 * h + '\\') + 'E';
+          quoting = false;
+        }
+        h = 31 * (31 * (31 * (31 * h + '\\') + 'x') + HEX_DIGITS[(b >> 4) & 0xF])
+            + HEX_DIGITS[b & 0xF];
+      }
+    }
+    if (quoting)
+      h = 31 * (31 * h + '\\') + 'E';
+    return h;
+  }
+
+  private static boolean hasBackslash(byte[] literal) {
+    for (byte b : literal)
+      if (b == '\\')
+        return true;
+    return false;
+  }
+
+  private static void appendEscaped(byte b, StringBuilder sb) {
+    sb.append('\\').append('x').append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
+  }
+
   public static String escape(byte b) {
-    return "\\x" + String.format("%02X", b);
+    return new String(new char[] { '\\', 'x', HEX_DIGITS[(b >> 4) & 0xF], HEX_DIGITS[b & 0xF] });
   }
 
   @Override
   public Object clone() {
-    return new RegEx(_pattern.pattern());
+    RegEx clone = (_literal != null) ? new RegEx(_literal, _literal_text) : new RegEx(
+        getPattern());
+    clone._id = _id;
+    return clone;
   }
 
 }
@@ -107,6 +107,10 @@ public class RegExOperations {
         data = new byte[0];
     }
 
+    private QuotedExpression(byte[] data) {
+      this.data = data;
+    }
+
     @Override
     public String toString() {
       return "\\Q" + new String(data) + "\\E";
@@ -123,6 +127,10 @@ public class RegExOperations {
       data[0] = (byte)Integer.parseInt(text.substring(2), 16);
     }
 
+    private EscapedChar(byte b) {
+      data = new byte[] { b };
+    }
+
     /*
      * (non-Javadoc)
      * @see java.lang.Object#toString()
@@ -147,7 +155,7 @@ public class RegExOperations {
     boolean any_nonwhitespace_char = false;
     boolean alpha;
     boolean digit;
-    Set<Byte> other_chars;
+    long[] other_chars = new long[4]; // other bytes (256 bits)
     // boolean zero;
     boolean many;
 
@@ -164,7 +172,6 @@ public class RegExOperations {
       any_nonwhitespace_char = false;
       alpha = false;
       digit = false;
-      other_chars = new HashSet<Byte>();
       // zero = false;
       many = false;
     }
@@ -173,16 +180,23 @@ public class RegExOperations {
      * True if alpha and if there are other characters (all printable).
      */
     private boolean isElligableForNonWhitespaceChars() {
-      if (this.many && this.alpha && !other_chars.isEmpty()) {
-        for (byte b : other_chars) {
-          if (b == (char)' ' || !ByteChars.isASCIIPrintable(b))
+      if (this.many && this.alpha && hasOtherChars()) {
+        for (int b = 0; b < 256; b++)
+          if (hasOtherChar(b) && (b == ' ' || !ByteChars.isASCIIPrintable((byte)b)))
             return false;
-          return true;
-        }
+        return true;
       }
       return false;
     }
 
+    private boolean hasOtherChars() {
+      return (other_chars[0] | other_chars[1] | other_chars[2] | other_chars[3]) != 0;
+    }
+
+    private boolean hasOtherChar(int b) {
+      return (other_chars[b >> 6] & (1L << b)) != 0;
+    }
+
     public static BracketedExpression generalize(byte data[]) {
       BracketedExpression re = new BracketedExpression();
       for (byte b : data) {
@@ -191,7 +205,7 @@ public class RegExOperations {
         else if (ByteChars.isASCIIDigit(b))
           re.digit = true;
         else
-          re.other_chars.add(b);
+          ByteClass.add(re.other_chars, b & 0xFF);
       }
       if (data.length > 1) {
         // re.zero = false;
@@ -209,11 +223,10 @@ public class RegExOperations {
       else if (ByteChars.isASCIIDigit(b))
         digit = true;
       else
-        other_chars.add(b);
+        ByteClass.add(other_chars, b & 0xFF);
     }
 
     public BracketedExpression(String text) {
-      other_chars = new HashSet<Byte>();
       Matcher matcher = PATTERN_.matcher(text);
       if (matcher.find()) {
         StringBuffer content = new StringBuffer(matcher.group(1));
@@ -290,10 +303,13 @@ public class RegExOperations {
       if (any_nonwhitespace_char)
         return "\\S+";
 
-      if (many && alpha && digit && other_chars.isEmpty())
+      if (many && alpha && digit && !hasOtherChars())
         return "\\w+";
 
-      StringBuffer sb = new StringBuffer(12 + 5 * other_chars.size());
+      int total_other = 0;
+      for (long bits : other_chars)
+        total_other += Long.bitCount(bits);
+      StringBuffer sb = new StringBuffer(12 + 5 * total_other);
       sb.append('[');
 
       if (alpha) {
@@ -304,7 +320,11 @@ public class RegExOperations {
       if (digit)
         sb.append("0-9");
 
-      for (byte b : other_chars) {
+      // in order of the bytes, so that equal classes are equal expressions
+      for (int i = 0; i < 256; i++) {
+        if (!hasOtherChar(i))
+          continue;
+        byte b = (byte)i;
         if (ByteChars.isASCIIPrintable(b)) {
           if (ByteChars.isASCIIAlpha(b) | ByteChars.isASCIIDigit(b))
             sb.append((char)b);
@@ -326,28 +346,50 @@ public class RegExOperations {
     }
 
     /**
-     * Merges two regular expressions.
+     * Merges two regular expressions (union of their bytes).
      */
     public static BracketedExpression merge(BracketedExpression re0, BracketedExpression re1) {
       BracketedExpression merged = new BracketedExpression();
       merged.any_nonwhitespace_char = re0.any_nonwhitespace_char || re1.any_nonwhitespace_char;
       merged.alpha = re0.alpha || re1.alpha;
       merged.digit = re0.digit || re1.digit;
-      merged.other_chars.addAll(re0.other_chars);
-      merged.other_chars.addAll(re1.other_chars);
+      for (int i = 0; i < 4; i++)
+        merged.other_chars[i] = re0.other_chars[i] | re1.other_chars[i];
       // merged.zero = re0.zero || re1.zero;
       merged.many = re0.many || re1.many;
       return merged;
     }
 
+    /**
+     * Returns a copy if it can be simplified, since the expression may be one of
+     * the tokens of a RegEx (see RegEx.getTokens()).
+     */
     @Override
     public BracketedExpression generalize() {
       /* check if we can simplify this by generalizing to any text char */
-      if (!any_nonwhitespace_char && isElligableForNonWhitespaceChars())
-        any_nonwhitespace_char = true;
+      if (!any_nonwhitespace_char && isElligableForNonWhitespaceChars()) {
+        BracketedExpression generalized = merge(this, new BracketedExpression());
+        generalized.any_nonwhitespace_char = true;
+        return generalized;
+      }
       return this;
     }
 
+    /**
+     * Returns the expression that process() gives for toString(), which may be
+     * more general (\S+ for the expressions elligable for it and for \w+).
+     */
+    BracketedExpression parsed() {
+      if (any_nonwhitespace_char || (many && alpha && digit && !hasOtherChars())) {
+        if (any_nonwhitespace_char && many && alpha && digit && !hasOtherChars())
+          return this;
+        BracketedExpression parsed = new BracketedExpression();
+        parsed.any_nonwhitespace_char = parsed.many = parsed.alpha = parsed.digit = true;
+        return parsed;
+      }
+      return generalize();
+    }
+
     /**
      * Because BracketedExpression is a generalization, we return null!
      */
@@ -454,6 +496,27 @@ public class RegExOperations {
     return tokens;
   }
 
+  /**
+   * Returns the tokens that process() would return for the quoted bytes of a
+   * literal (see RegEx.quote()), without quoting and parsing them: a
+   * QuotedExpression for each run of printable bytes (in text mode) and an
+   * EscapedChar for every other byte.
+   */
+  static List<RegularExpressionInterface> process(byte[] literal, boolean text) {
+    ArrayList<RegularExpressionInterface> tokens = new ArrayList<RegularExpressionInterface>();
+    int i = 0;
+    while (i < literal.length) {
+      int start = i;
+      while (text && i < literal.length && ByteChars.isASCIIPrintable(literal[i]))
+        i++;
+      if (i > start)
+        tokens.add(new QuotedExpression(Arrays.copyOfRange(literal, start, i)));
+      else
+        tokens.add(new EscapedChar(literal[i++]));
+    }
+    return tokens;
+  }
+
   public static String toPattern(List<RegularExpressionInterface> tokens, int start) {
     return toPattern(tokens, start, tokens.size());
   }
@@ -40,12 +40,12 @@ public class State<T extends Symbol> implements Iterable<Transition<T>>, java.io
   public static int NEXT_ID = 0;
 
   protected boolean _is_final;
-  protected ArrayList<Transition<T>> _transitions;
+  protected TransitionList<T> _transitions;
   protected int _id;
 
   public State() {
     _is_final = false;
-    _transitions = new ArrayList<Transition<T>>(1);
+    _transitions = new TransitionList<T>(1);
     _id = NEXT_ID++;
   }
 
@@ -65,7 +65,7 @@ public class State<T extends Symbol> implements Iterable<Transition<T>>, java.io
     _id = id;
   }
 
-  public ArrayList<Transition<T>> getTransitions() {
+  public TransitionList<T> getTransitions() {
     return _transitions;
   }
 
@@ -77,10 +77,7 @@ public class State<T extends Symbol> implements Iterable<Transition<T>>, java.io
   }
 
   protected Transition<T> getTransition(Symbol symbol) {
-    for (Transition<T> t : _transitions)
-      if (t._symbol.equals(symbol))
-        return t;
-    return null;
+    return _transitions.find(symbol);
   }
 
   // //////////////////////////////////////////////////////////////////////////////
@@ -218,4 +215,19 @@ public class State<T extends Symbol> implements Iterable<Transition<T>>, java.io
     return _transitions.iterator();
   }
 
+  @SuppressWarnings("unchecked")
+  private void readObject(java.io.ObjectInputStream in) throws java.io.IOException,
+      ClassNotFoundException {
+    // Automata saved before transitions were indexed use a plain ArrayList.
+    java.io.ObjectInputStream.GetField fields = in.readFields();
+    _is_final = fields.get("_is_final", false);
+    _id = fields.get("_id", 0);
+    Collection<Transition<T>> transitions = (Collection<Transition<T>>)fields.get("_transitions",
+        null);
+    if (transitions instanceof TransitionList)
+      _transitions = (TransitionList<T>)transitions;
+    else
+      _transitions = new TransitionList<T>(transitions);
+  }
+
 }
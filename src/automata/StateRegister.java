@@ -0,0 +1,428 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package automata;
+
+import java.util.*;
+
+/**
+ * Register of the states of an acyclic automaton, indexed by their finality and
+ * their transitions (symbol and destination state), to determinize and
+ * minimize only the states that change (e.g., the generalized states of
+ * Language) instead of the whole automaton. In a minimal acyclic automaton two
+ * states are equivalent if and only if they have the same finality and the
+ * same transitions, so each changed state only has to be looked up in the
+ * register once the states it goes to are registered.
+ *
+ * The result is the same automaton that Operations.determinization() and
+ * Operations.minimization() would give, including the frequencies of the
+ * transitions, but not the ids and the order of the states. States that are
+ * merged or become unreachable are only taken out of _all_states by prune().
+ */
+public class StateRegister<T extends MessageType> {
+  private final Automaton<T> _automaton;
+  private final HashMap<Signature, State<T>> _register;
+  private final IdentityHashMap<State<T>, Node<T>> _nodes;
+  private int _total_nodes = 0;
+
+  // States whose transitions are being changed (see unregister()).
+  private final LinkedHashSet<State<T>> _changed = new LinkedHashSet<State<T>>();
+  // States that lost incoming transitions since the last update().
+  private final ArrayList<State<T>> _orphans = new ArrayList<State<T>>();
+
+  /**
+   * Finality and transitions of a state (symbol ids and numbers of the
+   * destination states, sorted).
+   */
+  private static final class Signature {
+    final boolean is_final;
+    final long[] transitions;
+    final int hash;
+
+    Signature(boolean is_final, long[] transitions) {
+      this.is_final = is_final;
+      this.transitions = transitions;
+      this.hash = Arrays.hashCode(transitions) ^ (is_final ? 1 : 0);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      Signature other = (Signature)obj;
+      return is_final == other.is_final && Arrays.equals(transitions, other.transitions);
+    }
+  }
+
+  private static final class Node<T extends Symbol> {
+    final int number;
+    int in_degree = 0;
+    Signature signature = null; // while registered
+    boolean removed = false;
+    // Sources of the transitions to the state. It may have repeated and stale
+    // entries, which are checked against their transitions when used.
+    ArrayList<State<T>> parents = new ArrayList<State<T>>(1);
+
+    Node(int number) {
+      this.number = number;
+    }
+  }
+
+  /**
+   * Registers all states of the automaton, which should be minimal.
+   */
+  public StateRegister(Automaton<T> automaton) {
+    _automaton = automaton;
+    _nodes = new IdentityHashMap<State<T>, Node<T>>(automaton._all_states.size() * 2);
+    _register = new HashMap<Signature, State<T>>(automaton._all_states.size() * 2);
+    for (State<T> s : automaton._all_states)
+      for (Transition<T> t : s._transitions)
+        addParent(t._dest_state, s);
+    for (State<T> s : automaton._all_states)
+      register(s);
+  }
+
+  private Node<T> nodeOf(State<T> state) {
+    Node<T> node = _nodes.get(state);
+    if (node == null) {
+      node = new Node<T>(_total_nodes++);
+      _nodes.put(state, node);
+    }
+    return node;
+  }
+
+  private void addParent(State<T> state, State<T> parent) {
+    Node<T> node = nodeOf(state);
+    node.in_degree++;
+    node.parents.add(parent);
+  }
+
+  private Signature signatureOf(State<T> state) {
+    long[] transitions = new long[state._transitions.size()];
+    int i = 0;
+    for (Transition<T> t : state._transitions)
+      transitions[i++] = ((long)t._symbol.getId() << 32) | nodeOf(t._dest_state).number;
+    Arrays.sort(transitions);
+    return new Signature(state._is_final, transitions);
+  }
+
+  /**
+   * Registers the state, unless there is an equivalent one, which is returned.
+   */
+  private State<T> register(State<T> state) {
+    Signature signature = signatureOf(state);
+    State<T> equivalent = _register.get(signature);
+    if (equivalent != null && equivalent != state)
+      return equivalent;
+    _register.put(signature, state);
+    nodeOf(state).signature = signature;
+    return null;
+  }
+
+  private boolean isRegistered(State<T> state) {
+    Node<T> node = _nodes.get(state);
+    return node != null && node.signature != null;
+  }
+
+  private boolean isRemoved(State<T> state) {
+    Node<T> node = _nodes.get(state);
+    return node != null && node.removed;
+  }
+
+  private void unindex(State<T> state) {
+    Node<T> node = nodeOf(state);
+    if (node.signature != null) {
+      if (_register.get(node.signature) == state)
+        _register.remove(node.signature);
+      node.signature = null;
+    }
+  }
+
+  /**
+   * Takes the state out of the register. It must be called before its
+   * transitions (or its finality) are changed, and update() must be called
+   * once all changes are made.
+   */
+  public void unregister(State<T> state) {
+    if (!_changed.add(state))
+      return;
+    unindex(state);
+    for (Transition<T> t : state._transitions) {
+      nodeOf(t._dest_state).in_degree--;
+      _orphans.add(t._dest_state);
+    }
+  }
+
+  /**
+   * Determinizes and minimizes the states changed since the last update() (see
+   * unregister()) and the new states, which are registered again. Returns the
+   * states whose transitions have changed (the changed and new states that are
+   * left, the states created to determinize them and the ones that got
+   * transitions of merged states).
+   */
+  public Set<State<T>> update(Collection<State<T>> new_states) {
+    _changed.addAll(new_states);
+    LinkedHashSet<State<T>> dirty = new LinkedHashSet<State<T>>(_changed);
+    determinize(dirty);
+    removeUnreachable(dirty);
+    minimize(dirty);
+    _changed.clear();
+    return dirty;
+  }
+
+  /**
+   * Removes the states merged or unreachable since the last call from
+   * _all_states.
+   */
+  public void prune() {
+    Set<State<T>> removed = new HashSet<State<T>>();
+    for (Map.Entry<State<T>, Node<T>> entry : _nodes.entrySet())
+      if (entry.getValue().removed)
+        removed.add(entry.getKey());
+    _automaton.removeStates(removed);
+  }
+
+  /**
+   * Subset construction starting at the changed states, which keep their
+   * transitions when there are no repeated symbols. Subsets of a single state
+   * are the state itself, and new states are created for the other subsets.
+   */
+  private void determinize(Set<State<T>> dirty) {
+    IdentityHashMap<State<T>, ArrayList<Transition<T>>> nfa;
+    nfa = new IdentityHashMap<State<T>, ArrayList<Transition<T>>>(_changed.size() * 2);
+    for (State<T> s : _changed)
+      nfa.put(s, new ArrayList<Transition<T>>(s._transitions));
+
+    HashMap<Operations.Subset, State<T>> subsets = new HashMap<Operations.Subset, State<T>>();
+    IdentityHashMap<State<T>, List<State<T>>> members;
+    members = new IdentityHashMap<State<T>, List<State<T>>>();
+    ArrayDeque<State<T>> pending = new ArrayDeque<State<T>>();
+    for (State<T> s : _changed)
+      addTransitions(s, Collections.singletonList(s), nfa, subsets, members, pending, dirty);
+    while (!pending.isEmpty()) {
+      State<T> merged = pending.pop();
+      addTransitions(merged, members.get(merged), nfa, subsets, members, pending, dirty);
+    }
+  }
+
+  /**
+   * Sets the transitions of state to the ones of the states of its subset,
+   * grouped by symbol.
+   */
+  private void addTransitions(State<T> state, List<State<T>> subset,
+      IdentityHashMap<State<T>, ArrayList<Transition<T>>> nfa,
+      HashMap<Operations.Subset, State<T>> subsets,
+      IdentityHashMap<State<T>, List<State<T>>> members, ArrayDeque<State<T>> pending,
+      Set<State<T>> dirty) {
+    LinkedHashMap<T, ArrayList<Transition<T>>> by_symbol;
+    by_symbol = new LinkedHashMap<T, ArrayList<Transition<T>>>();
+    for (State<T> q : subset) {
+      List<Transition<T>> transitions = nfa.get(q);
+      for (Transition<T> t : (transitions != null) ? transitions : q._transitions) {
+        ArrayList<Transition<T>> same_symbol = by_symbol.get(t._symbol);
+        if (same_symbol == null) {
+          same_symbol = new ArrayList<Transition<T>>(1);
+          by_symbol.put(t._symbol, same_symbol);
+        }
+        same_symbol.add(t);
+      }
+    }
+
+    state._transitions.clear();
+    for (Map.Entry<T, ArrayList<Transition<T>>> entry : by_symbol.entrySet()) {
+      ArrayList<Transition<T>> same_symbol = entry.getValue();
+      Transition<T> new_t;
+      if (same_symbol.size() == 1 && subset.size() == 1 && subset.get(0) == state)
+        new_t = same_symbol.get(0); // already a transition of state
+      else {
+        @SuppressWarnings("unchecked")
+        T symbol = (T)entry.getKey().clone();
+        new_t = new Transition<T>(symbol, destination(same_symbol, subsets, members, pending,
+            dirty));
+        for (Transition<T> t : same_symbol)
+          new_t._freq += t._freq;
+      }
+      state._transitions.add(new_t);
+      addParent(new_t._dest_state, state);
+    }
+  }
+
+  /**
+   * Returns the state of the subset of destination states of the transitions.
+   */
+  private State<T> destination(ArrayList<Transition<T>> transitions,
+      HashMap<Operations.Subset, State<T>> subsets,
+      IdentityHashMap<State<T>, List<State<T>>> members, ArrayDeque<State<T>> pending,
+      Set<State<T>> dirty) {
+    int[] numbers = new int[transitions.size()];
+    for (int i = 0; i < numbers.length; i++)
+      numbers[i] = nodeOf(transitions.get(i)._dest_state).number;
+    Arrays.sort(numbers);
+    int n = 0;
+    for (int i = 0; i < numbers.length; i++)
+      if (i == 0 || numbers[i] != numbers[i - 1])
+        numbers[n++] = numbers[i];
+    if (n == 1)
+      return transitions.get(0)._dest_state;
+
+    Operations.Subset key = new Operations.Subset(Arrays.copyOf(numbers, n));
+    State<T> merged = subsets.get(key);
+    if (merged == null) {
+      merged = new State<T>();
+      ArrayList<State<T>> states = new ArrayList<State<T>>(n);
+      for (Transition<T> t : transitions) {
+        if (!states.contains(t._dest_state)) {
+          states.add(t._dest_state);
+          merged._is_final |= t._dest_state._is_final;
+        }
+      }
+      subsets.put(key, merged);
+      members.put(merged, states);
+      pending.push(merged);
+      _automaton._all_states.add(merged);
+      dirty.add(merged);
+    }
+    return merged;
+  }
+
+  /**
+   * Removes the states left without incoming transitions (except the initial
+   * state), and then the states only they went to.
+   */
+  private void removeUnreachable(Set<State<T>> dirty) {
+    ArrayDeque<State<T>> candidates = new ArrayDeque<State<T>>(_orphans);
+    candidates.addAll(dirty);
+    _orphans.clear();
+    while (!candidates.isEmpty()) {
+      State<T> s = candidates.pop();
+      Node<T> node = nodeOf(s);
+      if (node.removed || node.in_degree > 0 || s == _automaton._initial_state)
+        continue;
+      remove(s, dirty);
+      for (Transition<T> t : s._transitions) {
+        nodeOf(t._dest_state).in_degree--;
+        candidates.push(t._dest_state);
+      }
+    }
+  }
+
+  private void remove(State<T> state, Set<State<T>> dirty) {
+    unindex(state);
+    Node<T> node = nodeOf(state);
+    node.removed = true;
+    node.parents = null;
+    dirty.remove(state);
+  }
+
+  /**
+   * Registers the dirty states that are not registered, after the states they
+   * go to (depth-first), merging each one into its equivalent registered state
+   * if there is one.
+   */
+  private void minimize(Set<State<T>> dirty) {
+    ArrayList<State<T>> pending = new ArrayList<State<T>>(dirty);
+    Set<State<T>> on_stack = Collections.newSetFromMap(new IdentityHashMap<State<T>, Boolean>());
+    ArrayDeque<State<T>> states = new ArrayDeque<State<T>>();
+    ArrayDeque<Iterator<Transition<T>>> transitions = new ArrayDeque<Iterator<Transition<T>>>();
+    for (int i = 0; i < pending.size(); i++) {
+      State<T> p = pending.get(i);
+      if (isRegistered(p) || isRemoved(p))
+        continue;
+      states.push(p);
+      transitions.push(p._transitions.iterator());
+      on_stack.add(p);
+      while (!states.isEmpty()) {
+        Iterator<Transition<T>> iter = transitions.peek();
+        if (iter.hasNext()) {
+          State<T> next = iter.next()._dest_state;
+          if (isRegistered(next) || isRemoved(next))
+            continue;
+          if (on_stack.contains(next))
+            throw new IllegalStateException("cyclic automaton: " + next);
+          states.push(next);
+          transitions.push(next._transitions.iterator());
+          on_stack.add(next);
+          continue;
+        }
+        State<T> q = states.pop();
+        transitions.pop();
+        on_stack.remove(q);
+        State<T> equivalent = register(q);
+        if (equivalent != null)
+          merge(q, equivalent, pending, dirty);
+      }
+    }
+  }
+
+  /**
+   * Merges the state into its equivalent one, adding up the frequencies of
+   * their transitions (as Operations.minimization() does), and redirects the
+   * transitions to it, whose states have to be registered again.
+   */
+  private void merge(State<T> state, State<T> equivalent, ArrayList<State<T>> pending,
+      Set<State<T>> dirty) {
+    equivalent._is_final |= state._is_final;
+    if (state._id < equivalent._id)
+      equivalent._id = state._id;
+    for (Transition<T> t : state._transitions) {
+      equivalent.getTransition(t._symbol)._freq += t._freq;
+      nodeOf(t._dest_state).in_degree--;
+    }
+    dirty.add(equivalent);
+
+    Node<T> node = nodeOf(state);
+    Set<State<T>> parents = Collections.newSetFromMap(new IdentityHashMap<State<T>, Boolean>());
+    for (State<T> p : node.parents) {
+      if (isRemoved(p) || !parents.add(p))
+        continue;
+      boolean redirected = false;
+      for (Transition<T> t : p._transitions) {
+        if (t._dest_state == state) {
+          t._dest_state = equivalent;
+          addParent(equivalent, p);
+          redirected = true;
+        }
+      }
+      if (redirected) {
+        unindex(p);
+        pending.add(p);
+        dirty.add(p);
+      }
+    }
+    if (_automaton._initial_state == state)
+      _automaton._initial_state = equivalent;
+    remove(state, dirty);
+  }
+
+}
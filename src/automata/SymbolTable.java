@@ -0,0 +1,211 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package automata;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+/**
+ * Interns the symbols of the automata, giving each different regular
+ * expression (and each different sequence of symbols, for message types) an
+ * integer id, starting at 1. Symbols with the same id are equal, so they are
+ * compared by id (see MessageType.getId()).
+ *
+ * The symbols keep the Entry of their id, and the table only holds weak
+ * references to them: an id stays in the table while some symbol has it, and
+ * is dropped once its symbols are garbage collected, so that the table does not
+ * grow with every token that was ever compared. Ids are never reused, and a
+ * regular expression that is interned again after it was dropped gets a new
+ * id. Ids depend on the order symbols are interned, so they are never used as
+ * hash codes.
+ */
+public final class SymbolTable {
+  private static final WeakHashMap<String, WeakReference<Entry>> PATTERNS =
+      new WeakHashMap<String, WeakReference<Entry>>();
+  private static final WeakHashMap<Literal, WeakReference<Entry>> LITERALS =
+      new WeakHashMap<Literal, WeakReference<Entry>>();
+  private static final WeakHashMap<Sequence, WeakReference<Entry>> SEQUENCES =
+      new WeakHashMap<Sequence, WeakReference<Entry>>();
+  private static int NEXT_PATTERN_ID = 1;
+  private static int NEXT_SEQUENCE_ID = 1;
+
+  /**
+   * Id of a symbol. It keeps its keys in the table, which are dropped when the
+   * entry is no longer referenced.
+   */
+  static final class Entry {
+    final int id;
+    private final Object key;
+    private Object literal; // the key in LITERALS, if any (guarded by PATTERNS)
+
+    Entry(int id, Object key) {
+      this.id = id;
+      this.key = key;
+    }
+  }
+
+  /**
+   * Entry of a message type and the version of the symbols it was computed
+   * with (see TransitionList.getSymbolsVersion()).
+   */
+  static final class VersionedEntry {
+    final Entry entry;
+    final int version;
+
+    VersionedEntry(Entry entry, int version) {
+      this.entry = entry;
+      this.version = version;
+    }
+  }
+
+  private SymbolTable() {
+  }
+
+  /**
+   * Returns the entry of a regular expression.
+   */
+  static Entry intern(String regex) {
+    synchronized (PATTERNS) {
+      Entry entry = get(PATTERNS, regex);
+      if (entry == null) {
+        entry = new Entry(NEXT_PATTERN_ID++, regex);
+        put(PATTERNS, regex, entry);
+      }
+      return entry;
+    }
+  }
+
+  /**
+   * Returns the entry of a literal (see RegEx), which is the entry of its
+   * quoted regular expression. The bytes are only quoted when the literal is
+   * not in the table.
+   */
+  static Entry intern(byte[] literal, boolean text, int hash, RegEx symbol) {
+    Literal key = new Literal(literal, text, hash);
+    synchronized (PATTERNS) {
+      Entry entry = get(LITERALS, key);
+      if (entry != null)
+        return entry;
+    }
+    String regex = symbol.getPattern();
+    synchronized (PATTERNS) {
+      Entry entry = intern(regex);
+      if (entry.literal == null) {
+        entry.literal = key;
+        put(LITERALS, key, entry);
+      }
+      return entry;
+    }
+  }
+
+  /**
+   * Returns the entry of a sequence of ids (e.g., the symbols of a message
+   * type). The ids must be kept by their symbols while the entry is used.
+   */
+  static Entry intern(int[] sequence) {
+    Sequence key = new Sequence(sequence);
+    synchronized (PATTERNS) {
+      Entry entry = get(SEQUENCES, key);
+      if (entry == null) {
+        entry = new Entry(NEXT_SEQUENCE_ID++, key);
+        put(SEQUENCES, key, entry);
+      }
+      return entry;
+    }
+  }
+
+  private static <K> Entry get(WeakHashMap<K, WeakReference<Entry>> table, K key) {
+    WeakReference<Entry> reference = table.get(key);
+    return (reference == null) ? null : reference.get();
+  }
+
+  private static <K> void put(WeakHashMap<K, WeakReference<Entry>> table, K key, Entry entry) {
+    // A cleared mapping keeps its old key, which is no longer referenced.
+    table.remove(key);
+    table.put(key, new WeakReference<Entry>(entry));
+  }
+
+  /**
+   * Returns the number of different regular expressions in the table.
+   */
+  public static int size() {
+    synchronized (PATTERNS) {
+      return PATTERNS.size();
+    }
+  }
+
+  // //////////////////////////////////////////////////////////////////////////////
+
+  private static final class Literal {
+    final byte[] bytes;
+    final boolean text;
+    final int hash;
+
+    Literal(byte[] bytes, boolean text, int hash) {
+      this.bytes = bytes;
+      this.text = text;
+      this.hash = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      Literal other = (Literal)obj;
+      return text == other.text && Arrays.equals(bytes, other.bytes);
+    }
+  }
+
+  private static final class Sequence {
+    final int[] ids;
+    final int hash;
+
+    Sequence(int[] ids) {
+      this.ids = ids;
+      this.hash = Arrays.hashCode(ids);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return Arrays.equals(ids, ((Sequence)obj).ids);
+    }
+  }
+}
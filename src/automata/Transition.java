@@ -93,6 +93,7 @@ public class Transition<T extends Symbol> implements Symbol, java.io.Serializabl
 
   public void setSymbol(T _symbol) {
     this._symbol = _symbol;
+    TransitionList.symbolsChanged();
   }
 
   public void setState(State<T> dest_state) {
@@ -0,0 +1,218 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package automata;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * List of the transitions of a state. Once a state has more than
+ * INDEX_THRESHOLD transitions, they are also indexed by symbol so that
+ * State.getTransition() does not have to scan the whole list. The order of the
+ * transitions is the order of the list.
+ *
+ * Only RegEx symbols are indexed: the hashCode() of other symbols (e.g.,
+ * LanguageMessageType) depends on automata that may change while indexed.
+ *
+ * Several threads may call find() at the same time (e.g., classifying
+ * messages): the index is built by the first one that needs it and published
+ * whole. Like any ArrayList, the list must not be modified while it is read.
+ */
+public class TransitionList<T extends Symbol> extends ArrayList<Transition<T>> {
+  private static final long serialVersionUID = Symbol.serialVersionUID;
+  public static int INDEX_THRESHOLD = 8;
+
+  // Incremented whenever a symbol is changed in place (see symbolsChanged()).
+  private static final AtomicInteger SYMBOLS_VERSION = new AtomicInteger();
+
+  private transient volatile Index<T> _index = null;
+
+  /**
+   * First transition of each symbol (as in a linear scan of the list), and the
+   * version of the symbols it was built with. Once published, it is only
+   * changed by add(), which keeps it up to date.
+   */
+  private static final class Index<T extends Symbol> {
+    final HashMap<Symbol, Transition<T>> transitions;
+    final int version;
+
+    Index(List<Transition<T>> list, int version) {
+      this.transitions = new HashMap<Symbol, Transition<T>>(list.size() * 2);
+      this.version = version;
+      for (Transition<T> t : list)
+        if (!transitions.containsKey(t._symbol))
+          transitions.put(t._symbol, t);
+    }
+  }
+
+  public TransitionList(int capacity) {
+    super(capacity);
+  }
+
+  public TransitionList(Collection<? extends Transition<T>> transitions) {
+    super(transitions);
+  }
+
+  /**
+   * Must be called whenever a symbol that may already be in a transition is
+   * changed, because the indexes use the hashCode() of the symbols.
+   */
+  public static void symbolsChanged() {
+    SYMBOLS_VERSION.incrementAndGet();
+  }
+
+  /**
+   * Returns a number that changes whenever a symbol is changed in place.
+   */
+  static int getSymbolsVersion() {
+    return SYMBOLS_VERSION.get();
+  }
+
+  /**
+   * Returns the first transition with the given symbol, or null.
+   */
+  public Transition<T> find(Symbol symbol) {
+    if (size() <= INDEX_THRESHOLD || !(symbol instanceof RegEx)) {
+      for (Transition<T> t : this)
+        if (t._symbol.equals(symbol))
+          return t;
+      return null;
+    }
+
+    Index<T> index = _index;
+    int version = SYMBOLS_VERSION.get();
+    if (index == null || index.version != version) {
+      index = new Index<T>(this, version);
+      _index = index;
+    }
+    return index.transitions.get(symbol);
+  }
+
+  // //////////////////////////////////////////////////////////////////////////////
+  // Appending keeps the index, any other modification discards it.
+
+  @Override
+  public boolean add(Transition<T> t) {
+    super.add(t);
+    Index<T> index = _index;
+    if (index != null && !index.transitions.containsKey(t._symbol))
+      index.transitions.put(t._symbol, t);
+    return true;
+  }
+
+  @Override
+  public void add(int index, Transition<T> t) {
+    _index = null;
+    super.add(index, t);
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends Transition<T>> c) {
+    _index = null;
+    return super.addAll(c);
+  }
+
+  @Override
+  public boolean addAll(int index, Collection<? extends Transition<T>> c) {
+    _index = null;
+    return super.addAll(index, c);
+  }
+
+  @Override
+  public Transition<T> set(int index, Transition<T> t) {
+    _index = null;
+    return super.set(index, t);
+  }
+
+  @Override
+  public Transition<T> remove(int index) {
+    _index = null;
+    return super.remove(index);
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    _index = null;
+    return super.remove(o);
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    _index = null;
+    return super.removeAll(c);
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    _index = null;
+    return super.retainAll(c);
+  }
+
+  @Override
+  public boolean removeIf(Predicate<? super Transition<T>> filter) {
+    _index = null;
+    return super.removeIf(filter);
+  }
+
+  @Override
+  public void replaceAll(UnaryOperator<Transition<T>> operator) {
+    _index = null;
+    super.replaceAll(operator);
+  }
+
+  @Override
+  public void sort(Comparator<? super Transition<T>> c) {
+    _index = null;
+    super.sort(c);
+  }
+
+  @Override
+  protected void removeRange(int from, int to) {
+    _index = null;
+    super.removeRange(from, to);
+  }
+
+  @Override
+  public void clear() {
+    _index = null;
+    super.clear();
+  }
+
+  @Override
+  public List<Transition<T>> subList(int from, int to) {
+    _index = null; // the sublist may be modified
+    return super.subList(from, to);
+  }
+
+}
@@ -62,6 +62,10 @@ public class ByteChars implements CharSequence, java.io.Serializable {
     return len;
   }
 
+  public final byte byteAt(int idx) {
+    return buf[off + idx];
+  }
+
   public byte[] getByteArray() {
     if (off == 0 && len == buf.length)
       return buf;
@@ -72,6 +76,15 @@ public class ByteChars implements CharSequence, java.io.Serializable {
     }
   }
 
+  /**
+   * Returns a copy of the bytes from start_index to end_index.
+   */
+  public byte[] getByteArray(int start_index, int end_index) {
+    byte[] array = new byte[end_index - start_index];
+    System.arraycopy(buf, off + start_index, array, 0, array.length);
+    return array;
+  }
+
   /**
    * Creates a ByteChars (CharSequence) with the same buffer but with updated
    * offset and length.
@@ -81,7 +94,7 @@ public class ByteChars implements CharSequence, java.io.Serializable {
   }
 
   public String toString() {
-    StringBuffer sb = new StringBuffer(buf.length * 3);
+    StringBuffer sb = new StringBuffer(len * 3);
     for (int i = off; i < off + len; i++) {
       if (isASCIIPrintable(buf[i]))
         sb.append((char)buf[i]);
@@ -121,7 +134,36 @@ public class ByteChars implements CharSequence, java.io.Serializable {
 
   @Override
   public int hashCode() {
-    return len;
+    int hash = len;
+    for (int i = off; i < off + len; i++)
+      hash = 31 * hash + buf[i];
+    return hash;
+  }
+
+  /**
+   * 64-bit hash of the bytes (FNV-1a, with the bits mixed at the end), for
+   * keys that should rarely collide (see MessageCache).
+   */
+  public long longHashCode() {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = off; i < off + len; i++)
+      hash = (hash ^ (buf[i] & 0xFF)) * 0x100000001b3L;
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /**
+   * Checks if the bytes of this sequence are the same as the ones in bytes.
+   */
+  public boolean contentEquals(byte[] bytes) {
+    if (len != bytes.length)
+      return false;
+    for (int i = 0; i < len; i++)
+      if (buf[off + i] != bytes[i])
+        return false;
+    return true;
   }
 
   @Override
@@ -130,7 +172,7 @@ public class ByteChars implements CharSequence, java.io.Serializable {
       ByteChars chars = (ByteChars)obj;
       if (this.len != chars.len)
         return false;
-      for (int i = off, j = chars.off; i < len; i++, j++)
+      for (int i = off, j = chars.off; i < off + len; i++, j++)
         if (buf[i] != chars.buf[j])
           return false;
       return true;
@@ -138,6 +180,18 @@ public class ByteChars implements CharSequence, java.io.Serializable {
     return super.equals(obj);
   }
 
+  /**
+   * Saves only the bytes of this sequence, not the whole buffer it may share
+   * with other sequences (e.g., a window of MappedPcapFile).
+   */
+  private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+    java.io.ObjectOutputStream.PutField fields = out.putFields();
+    fields.put("buf", getByteArray());
+    fields.put("off", 0);
+    fields.put("len", len);
+    out.writeFields();
+  }
+
   public static ByteChars concat(ByteChars arg0, ByteChars arg1) {
     byte[] data = new byte[arg0.length() + arg1.length()];
     System.arraycopy(arg0.buf, arg0.off, data, 0, arg0.len);
@@ -0,0 +1,162 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package traces;
+
+/**
+ * Splits a stream of bytes (e.g., a reassembled TCP stream, see
+ * TcpReassembler) into messages, by looking only at the bytes:
+ * <ul>
+ * <li>delimiter: messages end with a sequence of bytes, such as CRLF in
+ * text-based protocols.</li>
+ * <li>length-prefixed: messages start with a header that has the length of the
+ * rest of the message (big-endian), as in DNS over TCP.</li>
+ * <li>fixed-size: all messages have the same size.</li>
+ * </ul>
+ */
+public abstract class Framing {
+  // Larger messages (or no message end within as many bytes) are not framed.
+  public static int MAX_MESSAGE_SIZE = 1024 * 1024;
+
+  /**
+   * Returns the length of the message that starts at offset, or -1 if more
+   * than the available length bytes are needed to know it. The returned length
+   * can be larger than the available bytes.
+   */
+  public abstract int messageLength(byte[] data, int offset, int length);
+
+  /**
+   * Returns messageLength(data, offset, length), knowing that a previous call
+   * with the first scanned bytes of the message needed more bytes (e.g., as
+   * the segments of a stream arrive), so that framings that look for the end
+   * of the message resume after them instead of scanning them again.
+   */
+  public int messageLength(byte[] data, int offset, int length, int scanned) {
+    return messageLength(data, offset, length);
+  }
+
+  /**
+   * Creates a framing from its description (eg, command-line options): "crlf",
+   * "lf", "length:SIZE[:OFFSET[:ADJUST]]" or "fixed:SIZE" (see
+   * lengthPrefixed() and fixed()).
+   */
+  public static Framing parse(String description) {
+    String[] parts = description.trim().split(":");
+    String name = parts[0].toLowerCase();
+    int[] values = new int[parts.length - 1];
+    for (int i = 1; i < parts.length; i++) {
+      try {
+        values[i - 1] = Integer.parseInt(parts[i]);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("'" + parts[i] + "' not a number");
+      }
+    }
+
+    if (name.equals("crlf") && values.length == 0)
+      return delimiter(new byte[] { '\r', '\n' });
+    if (name.equals("lf") && values.length == 0)
+      return delimiter(new byte[] { '\n' });
+    if (name.equals("length") && values.length >= 1 && values.length <= 3)
+      return lengthPrefixed(values[0], (values.length > 1) ? values[1] : 0,
+          (values.length > 2) ? values[2] : 0);
+    if (name.equals("fixed") && values.length == 1)
+      return fixed(values[0]);
+    throw new IllegalArgumentException("'" + description + "' not a framing");
+  }
+
+  /**
+   * Messages end with the delimiter (included in the message).
+   */
+  public static Framing delimiter(final byte[] delimiter) {
+    if (delimiter.length == 0)
+      throw new IllegalArgumentException("empty delimiter");
+    return new Framing() {
+      public int messageLength(byte[] data, int offset, int length) {
+        return messageLength(data, offset, length, 0);
+      }
+
+      @Override
+      public int messageLength(byte[] data, int offset, int length, int scanned) {
+        byte first = delimiter[0];
+        int end = offset + length - delimiter.length;
+        // the delimiter can only start in the last bytes of the scanned ones
+        int start = offset + Math.max(0, scanned - delimiter.length + 1);
+        for (int i = start; i <= end; i++) {
+          if (data[i] != first)
+            continue;
+          int j = 1;
+          while (j < delimiter.length && data[i + j] == delimiter[j])
+            j++;
+          if (j == delimiter.length)
+            return i - offset + delimiter.length;
+        }
+        return -1;
+      }
+    };
+  }
+
+  /**
+   * Messages start with an unsigned big-endian length field of size bytes (1 to
+   * 4) at offset. The message has offset + size + field + adjust bytes, i.e.,
+   * adjust corrects fields that count more or less than the bytes after them.
+   */
+  public static Framing lengthPrefixed(final int size, final int offset, final int adjust) {
+    if (size < 1 || size > 4 || offset < 0)
+      throw new IllegalArgumentException("not a length field: " + size + " bytes at " + offset);
+    return new Framing() {
+      public int messageLength(byte[] data, int off, int length) {
+        if (length < offset + size)
+          return -1;
+        long field = 0;
+        for (int i = off + offset; i < off + offset + size; i++)
+          field = (field << 8) | (data[i] & 0xFF);
+        long total = offset + size + field + adjust;
+        // corrupted field: not framed (see MAX_MESSAGE_SIZE)
+        if (total <= 0 || total > Integer.MAX_VALUE)
+          return Integer.MAX_VALUE;
+        return (int)total;
+      }
+    };
+  }
+
+  /**
+   * All messages have size bytes.
+   */
+  public static Framing fixed(final int size) {
+    if (size < 1)
+      throw new IllegalArgumentException("not a message size: " + size);
+    return new Framing() {
+      public int messageLength(byte[] data, int offset, int length) {
+        return size;
+      }
+    };
+  }
+}
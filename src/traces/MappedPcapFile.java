@@ -0,0 +1,450 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package traces;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import org.jnetpcap.PcapClosedException;
+
+/**
+ * Reads packet capture files (pcap or pcapng) in Java, i.e., without jnetpcap
+ * and libpcap. The file is memory-mapped in windows of WINDOW_SIZE bytes and
+ * the protocol headers (Ethernet, Linux cooked capture, IPv4, IPv6, TCP and
+ * UDP) are parsed in place. Messages are slices of the window (buf/off/len),
+ * so payloads are not copied one by one. When the reader moves to the next
+ * window, the messages still pointing to the previous one are packed into a
+ * smaller buffer if they use only a small part of it.
+ * 
+ * Filter expressions are limited to the ones supported by PacketFilter.
+ */
+public class MappedPcapFile extends PcapFile {
+  public static int WINDOW_SIZE = 64 * 1024 * 1024;
+  // Larger packets or blocks mean that the file is corrupted.
+  private static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+
+  // Link-layer header types.
+  private static final int LINKTYPE_NULL = 0;
+  private static final int LINKTYPE_ETHERNET = 1;
+  private static final int LINKTYPE_RAW = 101;
+  private static final int LINKTYPE_LINUX_SLL = 113;
+  private static final int LINKTYPE_IPV4 = 228;
+  private static final int LINKTYPE_IPV6 = 229;
+
+  private static final int PCAPNG_SECTION_HEADER = 0x0A0D0D0A;
+  private static final int PCAPNG_INTERFACE = 1;
+  private static final int PCAPNG_PACKET = 2; // obsolete
+  private static final int PCAPNG_SIMPLE_PACKET = 3;
+  private static final int PCAPNG_ENHANCED_PACKET = 6;
+
+  private FileChannel _channel;
+  private long _file_size;
+
+  // Window of the file, starting at _window_start, and current position in it.
+  private byte[] _window;
+  private long _window_start;
+  private int _pos;
+  // Messages returned from the current window.
+  private ArrayList<Message> _window_messages = new ArrayList<Message>();
+
+  private boolean _is_pcapng;
+  private boolean _big_endian;
+  private int _link_type; // pcap
+  private ArrayList<Integer> _link_types = new ArrayList<Integer>(); // pcapng
+
+  private PacketFilter _filter;
+
+  // Last packet read by nextFrame().
+  private int _frame_offset, _frame_length, _frame_link_type;
+
+  public MappedPcapFile(String file, String expr, String server_addr, String delimiter_regex) {
+    super(file, expr, server_addr, delimiter_regex);
+  }
+
+  /**
+   * Packets are sliced from the mapped file instead of being decoded by
+   * jnetpcap, so there are no decoder threads.
+   */
+  @Override
+  public void setDecoderThreads(int threads) {
+  }
+
+  @Override
+  public void open() throws PcapClosedException {
+    try {
+      if (filter != null)
+        _filter = PacketFilter.compile(filter);
+
+      _channel = new FileInputStream(filename).getChannel();
+      _file_size = _channel.size();
+      _window = new byte[0];
+      _window_start = 0;
+      _pos = 0;
+      if (!ensure(24))
+        throw new PcapClosedException("Not a packet capture file: " + filename);
+
+      int magic = getInt(_window, 0, true);
+      if (magic == 0xA1B2C3D4 || magic == 0xA1B23C4D || magic == 0xD4C3B2A1
+          || magic == 0x4D3CB2A1) {
+        _is_pcapng = false;
+        _big_endian = (magic == 0xA1B2C3D4 || magic == 0xA1B23C4D);
+        _link_type = getInt(20) & 0xFFFF; // upper bits are flags
+        _pos = 24;
+      } else if (magic == PCAPNG_SECTION_HEADER) {
+        _is_pcapng = true; // byte order is read from the section header
+      } else
+        throw new PcapClosedException("Not a packet capture file: " + filename);
+
+    } catch (IllegalArgumentException e) {
+      throw new PcapClosedException(e.getMessage());
+    } catch (IOException e) {
+      throw new PcapClosedException("Error while opening file: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public void close() {
+    if (_channel != null)
+      try {
+        _channel.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+  }
+
+  @Override
+  public Message getNextPacket() {
+    Message m = super.getNextPacket();
+    if (m != null && m.buf == _window)
+      _window_messages.add(m);
+    return m;
+  }
+
+  @Override
+  protected Message nextMessage() {
+    try {
+      Message m = null;
+      do {
+        if (!nextFrame())
+          return null;
+        m = toMessage(_window, _frame_offset, _frame_length, _frame_link_type);
+      } while (m == null);
+      return m;
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return null;
+  }
+
+  // //////////////////////////////////////////////////////////////////////////////
+  // FILE FORMATS
+
+  /**
+   * Makes sure that the window has the next n bytes of the file, from _pos.
+   * Returns false if the file ends before that.
+   */
+  private boolean ensure(int n) throws IOException {
+    if (_pos + n <= _window.length)
+      return true;
+
+    long start = _window_start + _pos;
+    long size = Math.min(Math.max(WINDOW_SIZE, n), _file_size - start);
+    if (size < n)
+      return false;
+
+    releaseWindow();
+    MappedByteBuffer mapped = _channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    _window = new byte[(int)size];
+    mapped.get(_window);
+    _window_start = start;
+    _pos = 0;
+    return true;
+  }
+
+  /**
+   * Moves messages that use only a small part of the current window to a
+   * buffer of their own, so that the window can be garbage collected.
+   */
+  private void releaseWindow() {
+    long used = 0;
+    for (Message m : _window_messages)
+      if (m.buf == _window)
+        used += m.len;
+
+    if (used * 4 < _window.length) {
+      byte[] packed = new byte[(int)used];
+      int off = 0;
+      for (Message m : _window_messages) {
+        if (m.buf == _window) {
+          System.arraycopy(m.buf, m.off, packed, off, m.len);
+          m.buf = packed;
+          m.off = off;
+          off += m.len;
+        }
+      }
+    }
+    _window_messages.clear();
+  }
+
+  /**
+   * Reads the next packet (_frame_offset, _frame_length and _frame_link_type).
+   * Returns false if there are no more packets.
+   */
+  private boolean nextFrame() throws IOException {
+    if (!_is_pcapng) {
+      // Record header: seconds, microseconds, captured length, original length.
+      if (!ensure(16))
+        return false;
+      int caplen = getInt(_pos + 8);
+      if (caplen < 0 || caplen > MAX_BLOCK_SIZE || !ensure(16 + caplen))
+        return false;
+      _frame_offset = _pos + 16;
+      _frame_length = caplen;
+      _frame_link_type = _link_type;
+      _pos += 16 + caplen;
+      return true;
+    }
+
+    while (true) {
+      // Block header: type and total length (repeated at the end of the block).
+      if (!ensure(12))
+        return false;
+      int type = getInt(_pos);
+      if (type == PCAPNG_SECTION_HEADER) {
+        int byte_order = getInt(_window, _pos + 8, true);
+        if (byte_order == 0x1A2B3C4D)
+          _big_endian = true;
+        else if (byte_order == 0x4D3C2B1A)
+          _big_endian = false;
+        else
+          return false;
+        _link_types.clear();
+      }
+      int length = getInt(_pos + 4);
+      if (length < 12 || length > MAX_BLOCK_SIZE || !ensure(length))
+        return false;
+      int block = _pos;
+      _pos += length;
+
+      int link_type = -1, offset = 0, caplen = 0;
+      if (type == PCAPNG_INTERFACE) {
+        _link_types.add(getShort(block + 8));
+      } else if (type == PCAPNG_ENHANCED_PACKET && length >= 32) {
+        link_type = getLinkType(getInt(block + 8));
+        caplen = Math.min(getInt(block + 20), length - 32);
+        offset = block + 28;
+      } else if (type == PCAPNG_SIMPLE_PACKET && length >= 16) {
+        link_type = getLinkType(0);
+        caplen = Math.min(getInt(block + 8), length - 16);
+        offset = block + 12;
+      } else if (type == PCAPNG_PACKET && length >= 32) {
+        link_type = getLinkType(getShort(block + 8));
+        caplen = Math.min(getInt(block + 20), length - 32);
+        offset = block + 28;
+      }
+
+      if (link_type >= 0 && caplen >= 0) {
+        _frame_offset = offset;
+        _frame_length = caplen;
+        _frame_link_type = link_type;
+        return true;
+      }
+    }
+  }
+
+  private int getLinkType(int pcapng_interface) {
+    if (pcapng_interface < 0 || pcapng_interface >= _link_types.size())
+      return -1;
+    return _link_types.get(pcapng_interface);
+  }
+
+  /* Integers in the byte order of the file. */
+
+  private int getInt(int offset) {
+    return getInt(_window, offset, _big_endian);
+  }
+
+  private int getShort(int offset) {
+    if (_big_endian)
+      return getShort(_window, offset);
+    return (_window[offset] & 0xFF) | ((_window[offset + 1] & 0xFF) << 8);
+  }
+
+  private static int getInt(byte[] data, int offset, boolean big_endian) {
+    if (big_endian)
+      return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+          | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8)
+        | ((data[offset + 2] & 0xFF) << 16) | ((data[offset + 3] & 0xFF) << 24);
+  }
+
+  /* Integers in network byte order. */
+
+  private static int getShort(byte[] data, int offset) {
+    return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+  }
+
+  // //////////////////////////////////////////////////////////////////////////////
+  // PROTOCOL HEADERS
+
+  /**
+   * Returns a Message with the payload of the packet (a slice of data), as
+   * PcapFile.toMessage() does, or null if the packet is filtered out or has no
+   * payload. It also sets last_connection and last_seq.
+   */
+  protected Message toMessage(byte[] data, int offset, int length, int link_type) {
+    last_connection = null;
+    last_seq = -1;
+    last_flags = 0;
+    int end = offset + length;
+
+    /* Link layer. */
+    int ip = offset, type = 0;
+    switch (link_type) {
+    case LINKTYPE_ETHERNET:
+      if (length < 14)
+        return null;
+      type = getShort(data, offset + 12);
+      ip = offset + 14;
+      // VLAN tags
+      while ((type == 0x8100 || type == 0x88A8) && ip + 4 <= end) {
+        type = getShort(data, ip + 2);
+        ip += 4;
+      }
+      break;
+    case LINKTYPE_LINUX_SLL:
+      if (length < 16)
+        return null;
+      type = getShort(data, offset + 14);
+      ip = offset + 16;
+      break;
+    case LINKTYPE_NULL:
+      if (length < 5)
+        return null;
+      ip = offset + 4; // address family in host byte order
+      type = ((data[ip] & 0xF0) == 0x60) ? 0x86DD : 0x0800;
+      break;
+    case LINKTYPE_RAW:
+    case LINKTYPE_IPV4:
+    case LINKTYPE_IPV6:
+      if (length < 1)
+        return null;
+      type = ((data[ip] & 0xF0) == 0x60) ? 0x86DD : 0x0800;
+      break;
+    default:
+      return null;
+    }
+
+    /* Network layer. */
+    int src = 0, dst = 0, addr_len = 0, protocol = 0, payload = 0, payload_end = 0;
+    boolean is_fragment = false;
+    if (type == 0x0800) {
+      if (ip + 20 > end || (data[ip] & 0xF0) != 0x40)
+        return null;
+      int header_length = (data[ip] & 0x0F) * 4;
+      if (header_length < 20)
+        return null;
+      protocol = data[ip + 9] & 0xFF;
+      is_fragment = (getShort(data, ip + 6) & 0x1FFF) != 0;
+      src = ip + 12;
+      dst = ip + 16;
+      addr_len = 4;
+      payload = ip + header_length;
+      payload_end = Math.min(ip + getShort(data, ip + 2), end);
+    } else if (type == 0x86DD) {
+      if (ip + 40 > end || (data[ip] & 0xF0) != 0x60)
+        return null;
+      protocol = data[ip + 6] & 0xFF;
+      src = ip + 8;
+      dst = ip + 24;
+      addr_len = 16;
+      payload = ip + 40;
+      payload_end = Math.min(payload + getShort(data, ip + 4), end);
+    } else
+      return null;
+    if (payload > payload_end)
+      return null;
+
+    /* Transport layer. */
+    int transport = payload, next = protocol;
+    if (addr_len == 16) {
+      // Skip extension headers: hop-by-hop, routing and destination options.
+      while ((next == 0 || next == 43 || next == 60) && transport + 8 <= payload_end) {
+        next = data[transport] & 0xFF;
+        transport += ((data[transport + 1] & 0xFF) + 1) * 8;
+      }
+      is_fragment = (next == 44);
+    }
+    int src_port = -1, dst_port = -1, data_offset = 0, data_end = payload_end;
+    if (!is_fragment && next == PacketFilter.TCP && transport + 20 <= payload_end) {
+      src_port = getShort(data, transport);
+      dst_port = getShort(data, transport + 2);
+      data_offset = transport + ((data[transport + 12] & 0xF0) >> 4) * 4;
+      last_seq = getInt(data, transport + 4, true) & 0xFFFFFFFFL;
+      last_flags = data[transport + 13] & 0xFF;
+    } else if (!is_fragment && next == PacketFilter.UDP && transport + 8 <= payload_end) {
+      src_port = getShort(data, transport);
+      dst_port = getShort(data, transport + 2);
+      data_offset = transport + 8;
+      data_end = Math.min(transport + getShort(data, transport + 4), payload_end);
+    }
+
+    if (_filter != null
+        && !_filter.accepts(data, src, dst, addr_len, next, src_port, dst_port))
+      return null;
+
+    // Check type of payload to extract.
+    int src_ip = getInt(data, src + addr_len - 4, true); // last 4 bytes
+    int dst_ip = getInt(data, dst + addr_len - 4, true);
+    if (payload_ip) {
+      last_seq = -1;
+      last_flags = 0;
+      src_port = dst_port = 0;
+      data_offset = payload;
+      data_end = payload_end;
+    } else if (src_port < 0)
+      return null;
+
+    // Check direction of message (input or output).
+    boolean is_input = isInput(dst_ip, dst_port);
+    last_connection = toConnection(is_input, src_ip, src_port, dst_ip, dst_port);
+
+    // Ignore empty packet (eg, TCP handshake), unless it ends a reassembled
+    // stream (see getNextFramedMessage()).
+    if (data_offset >= data_end)
+      return endsStream(last_flags) ? new Message(new byte[0], is_input) : null;
+    return new Message(data, data_offset, data_end - data_offset, is_input);
+  }
+
+}
@@ -40,6 +40,11 @@ public class Message extends ByteChars implements java.io.Serializable {
     input = is_input;
   }
 
+  public Message(byte[] data, int offset, int length, boolean is_input) {
+    super(data, offset, length);
+    input = is_input;
+  }
+
   public void setByteArray(byte[] data) {
     this.buf = data;
     this.off = 0;
@@ -0,0 +1,158 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+package traces;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of values computed from messages (e.g., their message types),
+ * since real traces repeat the same messages over and over. Messages are keyed
+ * by the 64-bit hash of their bytes (see ByteChars.longHashCode()), and each
+ * entry keeps a copy of the bytes to tell collisions apart.
+ * 
+ * It is split in segments with least recently used (LRU) eviction, so that it
+ * can be shared by several threads.
+ */
+public class MessageCache<V> {
+  private static final int SEGMENTS = 16; // power of two
+  private static final int MAX_LENGTH = 1024; // longer messages are not cached
+
+  private static final class Entry<V> {
+    final byte[] bytes;
+    final V value;
+
+    Entry(byte[] bytes, V value) {
+      this.bytes = bytes;
+      this.value = value;
+    }
+  }
+
+  private static final class Segment<V> extends LinkedHashMap<Long, Entry<V>> {
+    private static final long serialVersionUID = 1L;
+    private final int capacity;
+
+    Segment(int capacity) {
+      super(16, 0.75f, true); // access order
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Entry<V>> eldest) {
+      return size() > capacity;
+    }
+  }
+
+  private final Segment<V>[] _segments;
+  private final AtomicLong _hits = new AtomicLong();
+  private final AtomicLong _misses = new AtomicLong();
+
+  /**
+   * @param capacity maximum number of messages in the cache.
+   */
+  public MessageCache(int capacity) {
+    @SuppressWarnings("unchecked")
+    Segment<V>[] segments = (Segment<V>[])new Segment<?>[SEGMENTS];
+    _segments = segments;
+    int segment_capacity = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+    for (int i = 0; i < SEGMENTS; i++)
+      _segments[i] = new Segment<V>(segment_capacity);
+  }
+
+  private Segment<V> segment(long hash) {
+    return _segments[(int)(hash >>> 32) & (SEGMENTS - 1)];
+  }
+
+  /**
+   * Returns the value of the message, or null if it is not in the cache.
+   */
+  public V get(ByteChars message) {
+    if (message.length() <= MAX_LENGTH) {
+      long hash = message.longHashCode();
+      Segment<V> segment = segment(hash);
+      Entry<V> entry;
+      synchronized (segment) {
+        entry = segment.get(hash);
+      }
+      if (entry != null && message.contentEquals(entry.bytes)) {
+        _hits.incrementAndGet();
+        return entry.value;
+      }
+    }
+    _misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Adds the value of the message (replacing a message with the same hash).
+   */
+  public void put(ByteChars message, V value) {
+    if (message.length() > MAX_LENGTH)
+      return;
+    long hash = message.longHashCode();
+    Entry<V> entry = new Entry<V>(message.getByteArray(0, message.length()), value);
+    Segment<V> segment = segment(hash);
+    synchronized (segment) {
+      segment.put(hash, entry);
+    }
+  }
+
+  /**
+   * Removes all messages (e.g., once the values are no longer valid), keeping
+   * the hit and miss counters.
+   */
+  public void clear() {
+    for (Segment<V> segment : _segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (Segment<V> segment : _segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  public long getHits() {
+    return _hits.get();
+  }
+
+  public long getMisses() {
+    return _misses.get();
+  }
+}
@@ -0,0 +1,283 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package traces;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.*;
+
+/**
+ * Filter of packets for readers that do not use libpcap (e.g.,
+ * MappedPcapFile). It supports the most common tcpdump expressions:
+ * 
+ * <pre>
+ *   [tcp|udp] [src|dst] port NUMBER
+ *   [src|dst] host ADDRESS
+ *   tcp | udp | ip | ip6
+ * </pre>
+ * 
+ * combined with and (&&), or (||), not (!) and parenthesis.
+ */
+public abstract class PacketFilter {
+  public static final int TCP = 6, UDP = 17;
+
+  // Direction of host and port primitives.
+  private static final int ANY = 0, SRC = 1, DST = 2;
+
+  /**
+   * Checks the packet whose source and destination addresses (4 bytes for IPv4,
+   * 16 for IPv6) start at src and dst in data. Ports are -1 if the packet has
+   * no TCP/UDP header.
+   */
+  public abstract boolean accepts(byte[] data, int src, int dst, int addr_len, int protocol,
+      int src_port, int dst_port);
+
+  /**
+   * Returns the filter of the expression.
+   * 
+   * @throws IllegalArgumentException if the expression is not supported.
+   */
+  public static PacketFilter compile(String expression) {
+    Parser parser = new Parser(expression);
+    PacketFilter filter = parser.parseOr();
+    if (parser.hasNext())
+      throw parser.error();
+    return filter;
+  }
+
+  // //////////////////////////////////////////////////////////////////////////////
+
+  private static class Parser {
+    private final String _expression;
+    private final List<String> _tokens = new ArrayList<String>();
+    private int _next = 0;
+
+    Parser(String expression) {
+      _expression = expression;
+      StringTokenizer tokenizer = new StringTokenizer(expression, " \t\r\n()!", true);
+      while (tokenizer.hasMoreTokens()) {
+        String token = tokenizer.nextToken();
+        if (token.trim().length() > 0)
+          _tokens.add(token);
+      }
+    }
+
+    boolean hasNext() {
+      return _next < _tokens.size();
+    }
+
+    String peek() {
+      return hasNext() ? _tokens.get(_next) : "";
+    }
+
+    String next() {
+      if (!hasNext())
+        throw error();
+      return _tokens.get(_next++);
+    }
+
+    IllegalArgumentException error() {
+      return new IllegalArgumentException("Unsupported filter expression: " + _expression);
+    }
+
+    PacketFilter parseOr() {
+      PacketFilter filter = parseAnd();
+      while (peek().equals("or") || peek().equals("||")) {
+        next();
+        filter = new Or(filter, parseAnd());
+      }
+      return filter;
+    }
+
+    PacketFilter parseAnd() {
+      PacketFilter filter = parseNot();
+      while (peek().equals("and") || peek().equals("&&")) {
+        next();
+        filter = new And(filter, parseNot());
+      }
+      return filter;
+    }
+
+    PacketFilter parseNot() {
+      if (peek().equals("not") || peek().equals("!")) {
+        next();
+        return new Not(parseNot());
+      }
+      return parsePrimitive();
+    }
+
+    PacketFilter parsePrimitive() {
+      String token = next();
+      if (token.equals("(")) {
+        PacketFilter filter = parseOr();
+        if (!next().equals(")"))
+          throw error();
+        return filter;
+      }
+
+      int protocol = 0;
+      if (token.equals("tcp") || token.equals("udp")) {
+        protocol = token.equals("tcp") ? TCP : UDP;
+        if (!peek().equals("src") && !peek().equals("dst") && !peek().equals("port"))
+          return new Protocol(protocol, 0);
+        token = next();
+      } else if (token.equals("ip") || token.equals("ip6")) {
+        return new Protocol(0, token.equals("ip") ? 4 : 16);
+      }
+
+      int direction = ANY;
+      if (token.equals("src") || token.equals("dst")) {
+        direction = token.equals("src") ? SRC : DST;
+        token = next();
+      }
+
+      if (token.equals("port")) {
+        try {
+          return new Port(protocol, direction, Integer.parseInt(next()));
+        } catch (NumberFormatException e) {
+          throw error();
+        }
+      } else if (token.equals("host") && protocol == 0) {
+        try {
+          return new Host(direction, InetAddress.getByName(next()).getAddress());
+        } catch (UnknownHostException e) {
+          throw new IllegalArgumentException("Unknown host in filter expression: " + _expression);
+        }
+      }
+      throw error();
+    }
+  }
+
+  // //////////////////////////////////////////////////////////////////////////////
+
+  private static class And extends PacketFilter {
+    private final PacketFilter _left, _right;
+
+    And(PacketFilter left, PacketFilter right) {
+      _left = left;
+      _right = right;
+    }
+
+    public boolean accepts(byte[] data, int src, int dst, int addr_len, int protocol, int src_port,
+        int dst_port) {
+      return _left.accepts(data, src, dst, addr_len, protocol, src_port, dst_port)
+          && _right.accepts(data, src, dst, addr_len, protocol, src_port, dst_port);
+    }
+  }
+
+  private static class Or extends PacketFilter {
+    private final PacketFilter _left, _right;
+
+    Or(PacketFilter left, PacketFilter right) {
+      _left = left;
+      _right = right;
+    }
+
+    public boolean accepts(byte[] data, int src, int dst, int addr_len, int protocol, int src_port,
+        int dst_port) {
+      return _left.accepts(data, src, dst, addr_len, protocol, src_port, dst_port)
+          || _right.accepts(data, src, dst, addr_len, protocol, src_port, dst_port);
+    }
+  }
+
+  private static class Not extends PacketFilter {
+    private final PacketFilter _filter;
+
+    Not(PacketFilter filter) {
+      _filter = filter;
+    }
+
+    public boolean accepts(byte[] data, int src, int dst, int addr_len, int protocol, int src_port,
+        int dst_port) {
+      return !_filter.accepts(data, src, dst, addr_len, protocol, src_port, dst_port);
+    }
+  }
+
+  /**
+   * Transport protocol (protocol != 0) or IP version (addr_len != 0).
+   */
+  private static class Protocol extends PacketFilter {
+    private final int _protocol, _addr_len;
+
+    Protocol(int protocol, int addr_len) {
+      _protocol = protocol;
+      _addr_len = addr_len;
+    }
+
+    public boolean accepts(byte[] data, int src, int dst, int addr_len, int protocol, int src_port,
+        int dst_port) {
+      return (_protocol == 0 || _protocol == protocol) && (_addr_len == 0 || _addr_len == addr_len);
+    }
+  }
+
+  private static class Port extends PacketFilter {
+    private final int _protocol, _direction, _port;
+
+    Port(int protocol, int direction, int port) {
+      _protocol = protocol;
+      _direction = direction;
+      _port = port;
+    }
+
+    public boolean accepts(byte[] data, int src, int dst, int addr_len, int protocol, int src_port,
+        int dst_port) {
+      if (_protocol != 0 && _protocol != protocol)
+        return false;
+      return (_direction != DST && src_port == _port) || (_direction != SRC && dst_port == _port);
+    }
+  }
+
+  private static class Host extends PacketFilter {
+    private final int _direction;
+    private final byte[] _address;
+
+    Host(int direction, byte[] address) {
+      _direction = direction;
+      _address = address;
+    }
+
+    public boolean accepts(byte[] data, int src, int dst, int addr_len, int protocol, int src_port,
+        int dst_port) {
+      if (addr_len != _address.length)
+        return false;
+      return (_direction != DST && equals(data, src)) || (_direction != SRC && equals(data, dst));
+    }
+
+    private boolean equals(byte[] data, int offset) {
+      for (int i = 0; i < _address.length; i++)
+        if (data[offset + i] != _address[i])
+          return false;
+      return true;
+    }
+  }
+
+}
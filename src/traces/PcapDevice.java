@@ -33,6 +33,7 @@ package traces;
 
 import java.io.IOException;
 import java.util.*;
+import automata.BinaryFormat;
 import org.jnetpcap.Pcap;
 import org.jnetpcap.PcapClosedException;
 import org.jnetpcap.packet.PcapPacket;
@@ -86,14 +87,15 @@ public class PcapDevice extends PcapFile {
   }
 
   /**
-   * Saves captured sessions (ArrayList<List<Message>>) to file.
+   * Saves captured sessions to file (see automata.BinaryFormat).
    * 
    * @param filename
    * @throws IOException
    */
   public void saveSessions(String filename) throws IOException {
-    ArrayList<List<Message>> to_save = new ArrayList<List<Message>>(sessions.values());
-    utils.Utils.saveToFile(to_save, filename);
+    BinaryFormat.Writer out = new BinaryFormat.Writer(filename, BinaryFormat.SESSIONS);
+    out.writeSessions(sessions.values());
+    out.close();
   }
 
   /*
@@ -122,4 +124,28 @@ public class PcapDevice extends PcapFile {
 
   }
 
+  /**
+   * Reads packets from the network device until breakLoop() and hands each
+   * message (split at the delimiter) to the handler as it arrives, instead of
+   * keeping the sessions in memory.
+   */
+  public void loop(MessageHandler message_handler) {
+    PcapPacketHandler<MessageHandler> handler = new PcapPacketHandler<MessageHandler>() {
+      private final List<Message> fragments = new ArrayList<Message>();
+
+      public void nextPacket(PcapPacket packet, MessageHandler message_handler) {
+        Message m = toMessage(packet);
+        if (m == null)
+          return;
+
+        fragments.clear();
+        toFragments(m, fragments);
+        for (Message fragment : fragments)
+          message_handler.nextMessage(last_connection, fragment);
+      }
+    };
+
+    pcap.loop(Pcap.LOOP_INFINATE, handler, message_handler);
+  }
+
 }
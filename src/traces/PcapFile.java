@@ -34,6 +34,7 @@ package traces;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.jnetpcap.*;
@@ -63,13 +64,34 @@ public class PcapFile implements TracesInterface {
   protected boolean payload_ip = false;
 
   protected Connection last_connection;
+  // TCP sequence number of the last packet (-1 if it is not TCP).
+  protected long last_seq = -1;
+  // TCP flags of the last packet (0 if it is not TCP).
+  protected int last_flags = 0;
+  protected static final int TCP_FIN = 0x01, TCP_RST = 0x04;
 
   private Pattern PATTERN_TEXT_DELIMITER;
   protected Message _fragment;
 
-  protected PcapHeader header = new PcapHeader(JMemory.Type.POINTER);
-  protected JBuffer buffer = new JBuffer(JMemory.Type.POINTER);
-  private int snaplen = 0;
+  // Splits reassembled TCP streams into messages instead (see setFraming()).
+  protected Framing framing = null;
+  private TcpReassembler _reassembler = null;
+
+  // Created on first use, so that subclasses may read traces without jnetpcap.
+  protected PcapHeader header = null;
+  protected JBuffer buffer = null;
+  protected int snaplen = 0;
+
+  // Threads decoding packets in getSessions() (1 = no additional threads).
+  protected int decoder_threads = 1;
+  private static final int DECODER_BATCH = 256; // packets per hand-over
+  private static final int DECODER_QUEUE = 16; // pending batches per thread
+
+  // Connections in getSessions(boolean, SessionSampler) until the least
+  // recently used one is considered finished.
+  protected int max_open_sessions = 10000;
+
+  private Decoder decoder = null;
 
   public static class Connection implements Comparable<Connection> {
     private int ip, port;
@@ -116,6 +138,41 @@ public class PcapFile implements TracesInterface {
     snaplen = length;
   }
 
+  /*
+   * Set the number of threads decoding packets while extracting the sessions
+   * of stateful protocols.
+   */
+  public void setDecoderThreads(int threads) {
+    decoder_threads = threads;
+  }
+
+  /**
+   * Set the number of sessions kept open by getSessions(boolean,
+   * SessionSampler). Above it, the connection without messages for the
+   * longest time is considered finished, and its later messages are dropped
+   * (while it is one of the last max_open_sessions connections finished).
+   */
+  public void setMaxOpenSessions(int sessions) {
+    max_open_sessions = sessions;
+  }
+
+  /**
+   * Reassembles the TCP streams and splits them into messages with the
+   * framing, instead of splitting each segment at the message delimiter (see
+   * TcpReassembler).
+   */
+  public void setFraming(Framing framing) {
+    this.framing = framing;
+    _reassembler = null;
+  }
+
+  /**
+   * Returns the connection of the last message returned by getNextPacket().
+   */
+  public Connection getLastConnection() {
+    return last_connection;
+  }
+
   public PcapFile(String file, String expr, String server_addr, String delimiter_regex) {
     filename = file;
     filter = expr;
@@ -173,19 +230,14 @@ public class PcapFile implements TracesInterface {
       Matcher matcher = PATTERN_TEXT_DELIMITER.matcher(m);
       if (matcher.find()) {
         boolean is_input = m.isInput();
-        byte[] data = m.getByteArray();
         int end = matcher.end();
-        if (end < data.length) {
+        if (end < m.len) {
 
-          // Keep remaining of the message in _fragment.
-          byte[] remaining_data = new byte[data.length - end];
-          System.arraycopy(data, end, remaining_data, 0, data.length - end);
-          _fragment = new Message(remaining_data, is_input);
+          // Keep remaining of the message in _fragment (same buffer).
+          _fragment = new Message(m.buf, m.off + end, m.len - end, is_input);
 
           // New message fragment.
-          byte[] new_data = new byte[end];
-          System.arraycopy(data, 0, new_data, 0, end);
-          m = new Message(new_data, is_input);
+          m = new Message(m.buf, m.off, end, is_input);
 
         } else {
           _fragment = null;
@@ -196,18 +248,19 @@ public class PcapFile implements TracesInterface {
     return m;
   }
 
-  private static boolean trimToSnaplen(Message m, int snaplen) {
+  protected static boolean trimToSnaplen(Message m, int snaplen) {
     if (snaplen > 0 && m.len > snaplen) {
       byte[] trimmed_buf = new byte[snaplen];
-      System.arraycopy(m.buf, 0, trimmed_buf, 0, snaplen);
-      m.buf = trimmed_buf;
-      m.len = snaplen;
+      System.arraycopy(m.buf, m.off, trimmed_buf, 0, snaplen);
+      m.setByteArray(trimmed_buf);
       return true;
     }
     return false;
   }
 
   public Message getNextPacket() {
+    if (framing != null)
+      return getNextFramedMessage();
     Message m = null;
 
     /* Check if there is some old fragment. */
@@ -220,93 +273,187 @@ public class PcapFile implements TracesInterface {
     }
 
     /* Get next message. */
-    do {
+    m = nextMessage();
+    if (m == null)
+      return null; // if null, there are no more packets.
 
-      if (pcap.nextEx(header, buffer) != 1)
-        return null; // if null, there are no more packets.
-      PcapPacket packet = new PcapPacket(header, buffer);
+    /* Check if message should be split. */
+    m = getNextFragment(m);
+    trimToSnaplen(m, snaplen);
+    return m;
+  }
 
-      // To support loopback interface: 14th byte is the type field, which can
-      // be at offset 12 or 14.
-      if (buffer.getByte(14) == 8)
-        packet.scan(JProtocol.SLL_ID);
-      else
-        packet.scan(JProtocol.ETHERNET_ID);
+  /**
+   * Returns the next message of the reassembled TCP streams (see setFraming()).
+   */
+  private Message getNextFramedMessage() {
+    if (_reassembler == null)
+      _reassembler = new TcpReassembler(framing);
+    Message m;
+    while ((m = _reassembler.next()) == null) {
+      Message segment = nextMessage();
+      if (segment == null) {
+        _reassembler.flush();
+        if ((m = _reassembler.next()) == null)
+          return null;
+        break;
+      }
+      if (segment.len > 0)
+        _reassembler.add(last_connection, last_seq, segment);
+      if ((last_flags & TCP_RST) != 0)
+        _reassembler.reset(last_connection);
+      else if ((last_flags & TCP_FIN) != 0)
+        _reassembler.end(last_connection, segment.isInput(), last_seq + segment.len);
+    }
+    last_connection = _reassembler.getConnection();
+    trimToSnaplen(m, snaplen);
+    return m;
+  }
 
-      m = toMessage(packet);
+  /**
+   * Returns the payload of the next packet with some payload (before
+   * splitting it at the message delimiter), or null if there are no more
+   * packets. It also sets last_connection and last_seq.
+   */
+  protected Message nextMessage() {
+    if (header == null) {
+      header = new PcapHeader(JMemory.Type.POINTER);
+      buffer = new JBuffer(JMemory.Type.POINTER);
+    }
 
+    Message m = null;
+    do {
+      if (pcap.nextEx(header, buffer) != 1)
+        return null;
+      PcapPacket packet = new PcapPacket(header, buffer);
+      scan(packet);
+      m = toMessage(packet);
     } while (m == null);
-
-    /* Check if message should be split. */
-    m = getNextFragment(m);
-    trimToSnaplen(m, snaplen);
     return m;
   }
 
+  /**
+   * Decodes the protocol headers of a packet.
+   */
+  protected static void scan(PcapPacket packet) {
+    // To support loopback interface: 14th byte is the type field, which can
+    // be at offset 12 or 14.
+    if (packet.getByte(14) == 8)
+      packet.scan(JProtocol.SLL_ID);
+    else
+      packet.scan(JProtocol.ETHERNET_ID);
+  }
+
   /**
    * Returns a Message with the contents of the packet payload. The payload can
    * be either TCP/UDP or IP.
    */
   public Message toMessage(PcapPacket packet) {
-    // System.out.println("PcapFile.toMessage()");
-    last_connection = null;
-    // packet.scan(JProtocol.ETHERNET_ID); // use this outside pcap.loop()
-
-    boolean is_input = true;
-    JHeader header = null;
-    Ip4 ip4_header = new Ip4();
-    Ip6 ip6_header = new Ip6();
-    int length = 0, offset = 0;
-
-    int src_ip = 0, dst_ip = 0, src_port = 0, dst_port = 0;
-
-    /* Get IP addresses. */
-    if (packet.hasHeader(ip4_header)) {
-      src_ip = ip4_header.sourceToInt();
-      dst_ip = ip4_header.destinationToInt();
-      header = ip4_header;
-    } else if (packet.hasHeader(ip6_header)) {
-      // get last 4 bytes.
-      src_ip = Convert.toInteger(ip6_header.source(), 12, 4);
-      dst_ip = Convert.toInteger(ip6_header.destination(), 12, 4);
-      header = ip6_header;
-    } else
-      return null;
+    if (decoder == null)
+      decoder = new Decoder();
+    Message m = decoder.toMessage(packet);
+    last_connection = decoder.connection;
+    last_seq = decoder.seq;
+    last_flags = decoder.flags;
+    return m;
+  }
 
-    // Check type of payload to extract.
-    if (payload_ip == false) {
-      Tcp tcp_header = new Tcp();
-      Udp udp_header = new Udp();
-
-      // Get TCP/UDP header.
-      if (packet.hasHeader(tcp_header)) {
-        src_port = tcp_header.source();
-        dst_port = tcp_header.destination();
-        header = tcp_header;
-      } else if (packet.hasHeader(udp_header)) {
-        src_port = udp_header.source();
-        dst_port = udp_header.destination();
-        header = udp_header;
+  /**
+   * Extracts the payload and the connection of packets. The protocol headers
+   * are reused from packet to packet, so each thread needs its own Decoder.
+   */
+  protected class Decoder {
+    private final Ip4 ip4_header = new Ip4();
+    private final Ip6 ip6_header = new Ip6();
+    private final Tcp tcp_header = new Tcp();
+    private final Udp udp_header = new Udp();
+
+    // Connection, TCP sequence number (or -1) and TCP flags (or 0) of the last
+    // decoded packet.
+    protected Connection connection;
+    protected long seq;
+    protected int flags;
+
+    /**
+     * Returns a Message with the contents of the packet payload. The payload
+     * can be either TCP/UDP or IP.
+     */
+    public Message toMessage(PcapPacket packet) {
+      connection = null;
+      seq = -1;
+      flags = 0;
+
+      boolean is_input = true;
+      JHeader header = null;
+      int length = 0, offset = 0;
+
+      int src_ip = 0, dst_ip = 0, src_port = 0, dst_port = 0;
+
+      /* Get IP addresses. */
+      if (packet.hasHeader(ip4_header)) {
+        src_ip = ip4_header.sourceToInt();
+        dst_ip = ip4_header.destinationToInt();
+        header = ip4_header;
+      } else if (packet.hasHeader(ip6_header)) {
+        // get last 4 bytes.
+        src_ip = Convert.toInteger(ip6_header.source(), 12, 4);
+        dst_ip = Convert.toInteger(ip6_header.destination(), 12, 4);
+        header = ip6_header;
       } else
         return null;
 
+      // Check type of payload to extract.
+      if (payload_ip == false) {
+
+        // Get TCP/UDP header.
+        if (packet.hasHeader(tcp_header)) {
+          src_port = tcp_header.source();
+          dst_port = tcp_header.destination();
+          seq = tcp_header.seq();
+          flags = tcp_header.flags();
+          header = tcp_header;
+        } else if (packet.hasHeader(udp_header)) {
+          src_port = udp_header.source();
+          dst_port = udp_header.destination();
+          header = udp_header;
+        } else
+          return null;
+
+      }
+
+      // Check direction of message (input or output).
+      is_input = isInput(dst_ip, dst_port);
+      connection = toConnection(is_input, src_ip, src_port, dst_ip, dst_port);
+
+      /* Get payload. */
+      offset = header.getPayloadOffset();
+      length = header.getPayloadLength();
+
+      // Ignore empty packet (eg, TCP handshake), unless it ends a reassembled
+      // stream (see getNextFramedMessage()).
+      if (length == 0)
+        return endsStream(flags) ? new Message(new byte[0], is_input) : null;
+      else
+        return new Message(packet.getByteArray(offset, length), is_input);
     }
+  }
 
-    // Check direction of message (input or output).
-    is_input = (protocol_port == 0 || protocol_port == dst_port)
-        && (server_addr == 0 || server_addr == dst_ip);
-    last_connection = (is_input) ? new Connection(src_ip, src_port) : new Connection(dst_ip,
-        dst_port);
+  /**
+   * Checks if a packet without payload has to be returned anyway, as it ends a
+   * TCP stream that is reassembled (see setFraming()).
+   */
+  protected boolean endsStream(int tcp_flags) {
+    return framing != null && (tcp_flags & (TCP_FIN | TCP_RST)) != 0;
+  }
 
-    /* Get payload. */
-    offset = header.getPayloadOffset();
-    length = header.getPayloadLength();
+  protected boolean isInput(int dst_ip, int dst_port) {
+    return (protocol_port == 0 || protocol_port == dst_port)
+        && (server_addr == 0 || server_addr == dst_ip);
+  }
 
-    // Ignore empty packet (eg, TCP handshake).
-    if (length == 0)
-      return null; // return getNextPacket();
-    else
-      return new Message(packet.getByteArray(offset, length), is_input);
+  protected static Connection toConnection(boolean is_input, int src_ip, int src_port, int dst_ip,
+      int dst_port) {
+    return (is_input) ? new Connection(src_ip, src_port) : new Connection(dst_ip, dst_port);
   }
 
   @Override
@@ -347,20 +494,25 @@ public class PcapFile implements TracesInterface {
      * In a statefull protocol, sessions are determined by the connection
      * information written to last_connection by the call getNextPacket().
      */
+    if (is_stateful_protocol && sample_size < 0 && decoder_threads > 1 && _fragment == null
+        && framing == null)
+      return getSessionsParallel();
+
+    // Payloads are copied to the arena of the store (see SessionStore).
+    SessionStore sessions = new SessionStore();
     if (is_stateful_protocol) {
-      // Using LinkedHashMap to maintain the same order.
-      LinkedHashMap<Connection, List<Message>> sessions = new LinkedHashMap<Connection, List<Message>>();
+      // Sessions are numbered in the order of their first message.
+      HashMap<Connection, Integer> session_ids = new HashMap<Connection, Integer>();
       Message m = null;
       while ((m = getNextPacket()) != null && sample_size != 0) {
-        List<Message> session = sessions.get(last_connection);
+        Integer session = session_ids.get(last_connection);
         if (session == null) {
-          session = new ArrayList<Message>();
-          sessions.put(last_connection, session);
+          session = sessions.newSession();
+          session_ids.put(last_connection, session);
         }
-        session.add(m);
+        sessions.add(session, m);
         sample_size--;
       }
-      return sessions.values();
     }
 
     /*
@@ -368,30 +520,334 @@ public class PcapFile implements TracesInterface {
      * single session.
      */
     else {
-      ArrayList<List<Message>> sessions = new ArrayList<List<Message>>();
-      List<Message> session = new ArrayList<Message>();
+      int session = -1;
       Message m = null;
       boolean expecting_response = false;
       while ((m = getNextPacket()) != null && sample_size != 0) {
 
         // Got a request but we were looking for a response, it's a new session.
         if (m.isInput() && expecting_response) {
-          sessions.add(session);
-          session = new ArrayList<Message>();
+          session = sessions.newSession();
           expecting_response = false;
         }
         // Got a response, we should expect more responses.
         else if (m.isInput() == false)
           expecting_response = true;
 
-        session.add(m);
+        if (session < 0)
+          session = sessions.newSession();
+        sessions.add(session, m);
         sample_size--;
       }
+    }
+    sessions.trimToSize();
+    return sessions;
+  }
 
-      // no more messages to process: add current session
+  /**
+   * Extracts application sessions from the traces (as in getSessions()) and
+   * offers each one to the sampler as soon as it is finished, returning the
+   * sample. Only the open sessions and the sample are kept in memory: in
+   * stateful protocols, sessions are finished at the end of the traces or
+   * when there are more than max_open_sessions (see setMaxOpenSessions()).
+   * The sampler keeps a copy of the sessions it samples (see
+   * SessionSampler.setDetach()).
+   */
+  public Collection<List<Message>> getSessions(boolean is_stateful_protocol,
+      final SessionSampler sampler) {
+    sampler.setDetach(true);
+    Message m = null;
+    if (is_stateful_protocol) {
+      // Connections finished above max_open_sessions, whose later messages are
+      // dropped rather than starting a session in the middle of a connection.
+      final LinkedHashMap<Connection, Boolean> finished;
+      finished = new LinkedHashMap<Connection, Boolean>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Connection, Boolean> eldest) {
+          return size() > max_open_sessions;
+        }
+      };
+      // Least recently used sessions are considered finished.
+      LinkedHashMap<Connection, List<Message>> sessions;
+      sessions = new LinkedHashMap<Connection, List<Message>>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Connection, List<Message>> eldest) {
+          if (size() <= max_open_sessions)
+            return false;
+          sampler.offer(eldest.getValue());
+          finished.put(eldest.getKey(), Boolean.TRUE);
+          return true;
+        }
+      };
+      while ((m = getNextPacket()) != null) {
+        List<Message> session = sessions.get(last_connection);
+        if (session == null) {
+          if (finished.get(last_connection) != null)
+            continue;
+          session = new ArrayList<Message>();
+          sessions.put(last_connection, session);
+        }
+        session.add(m);
+      }
+
+      // The remaining sessions finish in the order of their last message.
+      for (List<Message> session : sessions.values())
+        sampler.offer(session);
+    }
+
+    else {
+      List<Message> session = new ArrayList<Message>();
+      boolean expecting_response = false;
+      while ((m = getNextPacket()) != null) {
+        if (m.isInput() && expecting_response) {
+          sampler.offer(session);
+          session = new ArrayList<Message>();
+          expecting_response = false;
+        } else if (m.isInput() == false)
+          expecting_response = true;
+        session.add(m);
+      }
       if (!session.isEmpty())
-        sessions.add(session);
-      return sessions;
+        sampler.offer(session);
+    }
+    return sampler.getSample();
+  }
+
+  // //////////////////////////////////////////////////////////
+  // PARALLEL EXTRACTION OF SESSIONS
+  // //////////////////////////////////////////////////////////
+
+  /**
+   * Packet read from the traces, numbered in order of capture.
+   */
+  private static class Frame {
+    long number;
+    PcapPacket packet; // null if already decoded
+    Connection connection;
+    Message message;
+
+    Frame(long number, PcapPacket packet) {
+      this.number = number;
+      this.packet = packet;
+    }
+  }
+
+  /**
+   * Messages of a connection and the number of the frame with its first
+   * message, which gives the order of the sessions.
+   */
+  private static class Session implements Comparable<Session> {
+    long first_frame;
+    List<Message> messages = new ArrayList<Message>();
+
+    Session(long first_frame) {
+      this.first_frame = first_frame;
+    }
+
+    @Override
+    public int compareTo(Session o) {
+      return (first_frame < o.first_frame) ? -1 : ((first_frame == o.first_frame) ? 0 : 1);
+    }
+  }
+
+  /**
+   * Decodes the packets of the connections whose hash falls in this shard. An
+   * empty batch marks the end of the traces.
+   */
+  private class Shard implements Callable<Collection<Session>> {
+    private final BlockingQueue<List<Frame>> queue = new ArrayBlockingQueue<List<Frame>>(
+        DECODER_QUEUE);
+    private final HashMap<Connection, Session> sessions = new HashMap<Connection, Session>();
+
+    public Collection<Session> call() throws InterruptedException {
+      Decoder decoder = new Decoder();
+      List<Frame> batch;
+      while (!(batch = queue.take()).isEmpty()) {
+        for (Frame frame : batch) {
+          if (frame.packet != null) {
+            scan(frame.packet);
+            frame.message = decoder.toMessage(frame.packet);
+            frame.connection = decoder.connection;
+          }
+          if (frame.message == null)
+            continue;
+
+          Session session = sessions.get(frame.connection);
+          if (session == null) {
+            session = new Session(frame.number);
+            sessions.put(frame.connection, session);
+          }
+          toFragments(frame.message, session.messages);
+        }
+      }
+      return sessions.values();
+    }
+  }
+
+  /**
+   * Parallel version of getSessions(true): this thread reads the packets and
+   * hands them over to decoder_threads shards, each decoding the packets of
+   * the connections with the same hash. Messages of a connection are decoded
+   * by the same thread and in order, and the sessions are returned in the
+   * same order as in the sequential version.
+   */
+  protected Collection<List<Message>> getSessionsParallel() {
+    int n = decoder_threads;
+    ExecutorService executor = Executors.newFixedThreadPool(n);
+    ArrayList<Shard> shards = new ArrayList<Shard>(n);
+    ArrayList<Future<Collection<Session>>> results = new ArrayList<Future<Collection<Session>>>(n);
+    ArrayList<List<Frame>> batches = new ArrayList<List<Frame>>(n);
+    for (int i = 0; i < n; i++) {
+      Shard shard = new Shard();
+      shards.add(shard);
+      results.add(executor.submit(shard));
+      batches.add(new ArrayList<Frame>(DECODER_BATCH));
+    }
+
+    try {
+      if (header == null) {
+        header = new PcapHeader(JMemory.Type.POINTER);
+        buffer = new JBuffer(JMemory.Type.POINTER);
+      }
+      Decoder decoder = new Decoder();
+      long number = 0;
+      while (pcap.nextEx(header, buffer) == 1) {
+        Frame frame = new Frame(number++, new PcapPacket(header, buffer));
+
+        // Packets that are not plain TCP/UDP over IP are decoded here to find
+        // out their connection.
+        Connection connection = peekConnection(frame.packet);
+        if (connection == null) {
+          scan(frame.packet);
+          frame.message = decoder.toMessage(frame.packet);
+          if (frame.message == null)
+            continue;
+          frame.connection = connection = decoder.connection;
+          frame.packet = null;
+        }
+
+        int h = connection.hashCode();
+        int i = ((h ^ (h >>> 16)) & 0x7fffffff) % n;
+        List<Frame> batch = batches.get(i);
+        batch.add(frame);
+        if (batch.size() == DECODER_BATCH) {
+          handOver(shards.get(i), results.get(i), batch);
+          batches.set(i, new ArrayList<Frame>(DECODER_BATCH));
+        }
+      }
+      for (int i = 0; i < n; i++) {
+        if (!batches.get(i).isEmpty())
+          handOver(shards.get(i), results.get(i), batches.get(i));
+        handOver(shards.get(i), results.get(i), new ArrayList<Frame>(0));
+      }
+
+      // Merge the sessions of all shards in order of their first message.
+      ArrayList<Session> sessions = new ArrayList<Session>();
+      for (Future<Collection<Session>> result : results)
+        sessions.addAll(result.get());
+      Collections.sort(sessions);
+      ArrayList<List<Message>> ordered = new ArrayList<List<Message>>(sessions.size());
+      for (Session session : sessions)
+        ordered.add(session.messages);
+      return ordered;
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Error while decoding packets", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Waits for room in the queue of the shard, unless the shard has stopped
+   * (i.e., failed).
+   */
+  private static void handOver(Shard shard, Future<Collection<Session>> result, List<Frame> batch)
+      throws InterruptedException, ExecutionException {
+    while (!shard.queue.offer(batch, 100, TimeUnit.MILLISECONDS))
+      if (result.isDone()) {
+        result.get(); // throws the exception of the shard
+        throw new IllegalStateException("Decoder stopped before the end of the traces");
+      }
+  }
+
+  /**
+   * Returns the connection of a raw packet, without decoding it, from the
+   * addresses and ports of TCP/UDP over IPv4 or IPv6 (no extension headers)
+   * over Ethernet or Linux cooked capture. Returns null for any other packet
+   * (e.g., VLAN, IP fragments, tunnels), which must then be decoded.
+   */
+  private Connection peekConnection(JBuffer packet) {
+    int size = packet.size();
+    if (size < 16)
+      return null;
+    int ip = (packet.getByte(14) == 8) ? 16 : 14; // see scan()
+    if (size < ip + 40)
+      return null;
+    int type = (packet.getUByte(ip - 2) << 8) | packet.getUByte(ip - 1);
+    int version = packet.getUByte(ip) >> 4;
+
+    int src_ip, dst_ip, transport, protocol;
+    if (type == 0x0800 && version == 4) {
+      int fragment = ((packet.getUByte(ip + 6) & 0x1F) << 8) | packet.getUByte(ip + 7);
+      if (fragment != 0)
+        return null;
+      protocol = packet.getUByte(ip + 9);
+      src_ip = getInt(packet, ip + 12);
+      dst_ip = getInt(packet, ip + 16);
+      transport = ip + (packet.getUByte(ip) & 0x0F) * 4;
+    } else if (type == 0x86DD && version == 6) {
+      // Next header must be TCP/UDP, otherwise there could be an IPv4 header
+      // inside, which would be the one decoded.
+      protocol = packet.getUByte(ip + 6);
+      if (protocol != 6 && protocol != 17)
+        return null;
+      src_ip = getInt(packet, ip + 20); // last 4 bytes
+      dst_ip = getInt(packet, ip + 36);
+      transport = ip + 40;
+    } else
+      return null;
+
+    int src_port = 0, dst_port = 0;
+    if (payload_ip == false) {
+      if ((protocol != 6 && protocol != 17) || size < transport + 4)
+        return null;
+      src_port = (packet.getUByte(transport) << 8) | packet.getUByte(transport + 1);
+      dst_port = (packet.getUByte(transport + 2) << 8) | packet.getUByte(transport + 3);
+    }
+    return toConnection(isInput(dst_ip, dst_port), src_ip, src_port, dst_ip, dst_port);
+  }
+
+  private static int getInt(JBuffer packet, int offset) {
+    return (packet.getUByte(offset) << 24) | (packet.getUByte(offset + 1) << 16)
+        | (packet.getUByte(offset + 2) << 8) | packet.getUByte(offset + 3);
+  }
+
+  /**
+   * Splits a message at the message delimiter, as getNextPacket() does, and
+   * adds the fragments to the list.
+   */
+  protected void toFragments(Message m, List<Message> fragments) {
+    while (m != null) {
+      Message remaining = null;
+      if (PATTERN_TEXT_DELIMITER != null) {
+        Matcher matcher = PATTERN_TEXT_DELIMITER.matcher(m);
+        if (matcher.find() && matcher.end() < m.length()) {
+          int end = matcher.end();
+          remaining = new Message(m.buf, m.off + end, m.len - end, m.isInput());
+          m = new Message(m.buf, m.off, end, m.isInput());
+        }
+      }
+      trimToSnaplen(m, snaplen);
+      fragments.add(m);
+      m = remaining;
     }
   }
 
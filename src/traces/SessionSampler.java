@@ -0,0 +1,403 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+package traces;
+
+import java.util.*;
+
+/**
+ * Strategy to keep a bounded sample of the sessions extracted from the traces
+ * (see PcapFile.getSessions(boolean, SessionSampler)). Sessions are offered
+ * one at a time, as soon as they are finished, so the traces do not have to
+ * fit in memory, and the sample is returned in the order the sessions were
+ * offered.
+ * 
+ * Unlike taking the first N messages, the sample is not biased toward the
+ * beginning of the traces:
+ * <ul>
+ * <li>reservoir: uniform sample of N sessions.</li>
+ * <li>stratified: uniform sample of N sessions for each command (the first
+ * token of the first input message), so that rare commands are kept.</li>
+ * <li>distinct: skips sessions identical to ones already offered (byte by
+ * byte), before offering them to another sampler.</li>
+ * </ul>
+ *
+ * Only the sessions that are kept are copied (see setDetach()).
+ */
+public abstract class SessionSampler {
+  private static final int MAX_COMMAND = 16; // bytes of the command of a session
+  private static final int MAX_STRATA = 1024; // other commands share a stratum
+
+  // Sessions above it are no longer remembered by the distinct strategy.
+  public static int MAX_DISTINCT = 100000;
+
+  protected long offered = 0;
+  protected boolean detach = false;
+
+  /**
+   * Offers a finished session to the sample.
+   */
+  public abstract void offer(List<Message> session);
+
+  /**
+   * Makes the sampler keep a copy of the sessions it keeps (see detach())
+   * instead of the sessions offered, whose messages may point to a buffer
+   * shared with other messages (e.g., a window of MappedPcapFile).
+   */
+  public void setDetach(boolean detach) {
+    this.detach = detach;
+  }
+
+  /**
+   * Returns the session to keep in the sample.
+   */
+  protected List<Message> keep(List<Message> session) {
+    return detach ? detach(session) : session;
+  }
+
+  /**
+   * Copies the payloads of the session to an array of its own, so that the
+   * session does not keep in memory the buffers its messages were read from.
+   */
+  public static List<Message> detach(List<Message> session) {
+    int size = 0;
+    for (Message m : session)
+      size += m.len;
+    byte[] payloads = new byte[size];
+    List<Message> copy = new ArrayList<Message>(session.size());
+    int offset = 0;
+    for (Message m : session) {
+      System.arraycopy(m.buf, m.off, payloads, offset, m.len);
+      copy.add(new Message(payloads, offset, m.len, m.isInput()));
+      offset += m.len;
+    }
+    return copy;
+  }
+
+  /**
+   * Returns the sessions sampled so far, in the order they were offered.
+   */
+  public abstract Collection<List<Message>> getSample();
+
+  /**
+   * Number of sessions offered so far.
+   */
+  public long getOffered() {
+    return offered;
+  }
+
+  /**
+   * Samples sessions that are already in memory (e.g., loaded from a file).
+   */
+  public static Collection<List<Message>> sample(Collection<List<Message>> sessions,
+      SessionSampler sampler) {
+    for (List<Message> session : sessions)
+      sampler.offer(session);
+    return sampler.getSample();
+  }
+
+  /**
+   * Creates a sampler from its description (eg, command-line options): a comma
+   * separated list of "reservoir:N", "stratified:N" and "distinct", such as
+   * "distinct,stratified:100".
+   */
+  public static SessionSampler parse(String description, long seed) {
+    SessionSampler sampler = null;
+    boolean distinct = false;
+    for (String strategy : description.split(",")) {
+      String[] parts = strategy.trim().split(":");
+      String name = parts[0].toLowerCase();
+      if (name.equals("distinct") && parts.length == 1) {
+        distinct = true;
+        continue;
+      }
+      if (sampler != null || parts.length != 2)
+        throw new IllegalArgumentException("'" + description + "' not a sampling strategy");
+      int size;
+      try {
+        size = Integer.parseInt(parts[1]);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("'" + parts[1] + "' not a sample size");
+      }
+      if (name.equals("reservoir"))
+        sampler = reservoir(size, seed);
+      else if (name.equals("stratified"))
+        sampler = stratified(size, seed);
+      else
+        throw new IllegalArgumentException("'" + name + "' not a sampling strategy");
+    }
+    if (sampler == null)
+      sampler = all();
+    return distinct ? distinct(sampler) : sampler;
+  }
+
+  // ////////////////////////////////////////////////////////////
+  // STRATEGIES
+  // ////////////////////////////////////////////////////////////
+
+  /**
+   * Keeps every session.
+   */
+  public static SessionSampler all() {
+    return new SessionSampler() {
+      private final ArrayList<List<Message>> sample = new ArrayList<List<Message>>();
+
+      public void offer(List<Message> session) {
+        offered++;
+        sample.add(keep(session));
+      }
+
+      public Collection<List<Message>> getSample() {
+        return sample;
+      }
+    };
+  }
+
+  /**
+   * Uniform sample of (at most) size sessions.
+   */
+  public static SessionSampler reservoir(int size, long seed) {
+    return new Reservoir(size, new Random(seed));
+  }
+
+  /**
+   * Uniform sample of (at most) size sessions for each command.
+   */
+  public static SessionSampler stratified(int size, long seed) {
+    return new Stratified(size, new Random(seed));
+  }
+
+  /**
+   * Offers to sampler only the sessions that were not offered before.
+   */
+  public static SessionSampler distinct(SessionSampler sampler) {
+    return new Distinct(sampler);
+  }
+
+  /**
+   * Session and its position in the sessions offered.
+   */
+  private static class Sampled implements Comparable<Sampled> {
+    final long position;
+    final List<Message> session;
+
+    Sampled(long position, List<Message> session) {
+      this.position = position;
+      this.session = session;
+    }
+
+    public int compareTo(Sampled o) {
+      return (position < o.position) ? -1 : ((position == o.position) ? 0 : 1);
+    }
+  }
+
+  private static Collection<List<Message>> inOrder(List<Sampled> sampled) {
+    Collections.sort(sampled);
+    ArrayList<List<Message>> sample = new ArrayList<List<Message>>(sampled.size());
+    for (Sampled s : sampled)
+      sample.add(s.session);
+    return sample;
+  }
+
+  /**
+   * Reservoir sampling (algorithm R): the n-th session replaces a random one of
+   * the sample with probability size/n.
+   */
+  private static class Reservoir extends SessionSampler {
+    private final int size;
+    private final Random random;
+    private final ArrayList<Sampled> reservoir;
+
+    Reservoir(int size, Random random) {
+      if (size < 1)
+        throw new IllegalArgumentException("sample size must be positive");
+      this.size = size;
+      this.random = random;
+      reservoir = new ArrayList<Sampled>(Math.min(size, 1024));
+    }
+
+    public void offer(List<Message> session) {
+      long position = offered++;
+      add(position, session);
+    }
+
+    /**
+     * Adds the offered-th session (of this reservoir), at position among all
+     * the sessions offered.
+     */
+    void add(long position, List<Message> session) {
+      if (reservoir.size() < size)
+        reservoir.add(new Sampled(position, keep(session)));
+      else {
+        long j = (long)(random.nextDouble() * offered);
+        if (j < size)
+          reservoir.set((int)j, new Sampled(position, keep(session)));
+      }
+    }
+
+    public Collection<List<Message>> getSample() {
+      return inOrder(new ArrayList<Sampled>(reservoir));
+    }
+  }
+
+  /**
+   * Reservoir sampling of each stratum of sessions with the same command.
+   */
+  private static class Stratified extends SessionSampler {
+    private final int size;
+    private final Random random;
+    private final HashMap<ByteChars, Reservoir> strata = new HashMap<ByteChars, Reservoir>();
+    private Reservoir others = null; // sessions of commands above MAX_STRATA
+
+    Stratified(int size, Random random) {
+      if (size < 1)
+        throw new IllegalArgumentException("sample size must be positive");
+      this.size = size;
+      this.random = random;
+    }
+
+    public void offer(List<Message> session) {
+      long position = offered++;
+      ByteChars command = getCommand(session);
+      Reservoir stratum = strata.get(command);
+      if (stratum == null) {
+        if (strata.size() < MAX_STRATA) {
+          stratum = new Reservoir(size, random);
+          stratum.setDetach(detach);
+          strata.put(command, stratum);
+        } else {
+          if (others == null) {
+            others = new Reservoir(size, random);
+            others.setDetach(detach);
+          }
+          stratum = others;
+        }
+      }
+      // Keep the position among all sessions (not in the stratum).
+      stratum.offered++;
+      stratum.add(position, session);
+    }
+
+    @Override
+    public void setDetach(boolean detach) {
+      super.setDetach(detach);
+      for (Reservoir stratum : strata.values())
+        stratum.setDetach(detach);
+      if (others != null)
+        others.setDetach(detach);
+    }
+
+    public Collection<List<Message>> getSample() {
+      ArrayList<Sampled> sampled = new ArrayList<Sampled>();
+      for (Reservoir stratum : strata.values())
+        sampled.addAll(stratum.reservoir);
+      if (others != null)
+        sampled.addAll(others.reservoir);
+      return inOrder(sampled);
+    }
+  }
+
+  /**
+   * Command of a session: first token of its first input message (up to a
+   * space or end of line), or of its first message if it has no input.
+   */
+  static ByteChars getCommand(List<Message> session) {
+    Message first = null;
+    for (Message m : session) {
+      if (m.isInput()) {
+        first = m;
+        break;
+      }
+    }
+    if (first == null && !session.isEmpty())
+      first = session.get(0);
+    if (first == null)
+      return new ByteChars();
+
+    int end = 0;
+    while (end < first.length() && end < MAX_COMMAND) {
+      byte b = first.byteAt(end);
+      if (b == ' ' || b == '\r' || b == '\n')
+        break;
+      end++;
+    }
+    return new ByteChars(first.getByteArray(0, end));
+  }
+
+  /**
+   * Skips sessions whose messages (and their directions) are the same as the
+   * ones of a session already offered. The distinct sessions are compared by
+   * content (see WeightedSessions.SessionKey), and only the MAX_DISTINCT ones
+   * offered most recently are remembered, so an older session may be offered
+   * again. The sessions remembered are the ones offered to the sampler, so
+   * they are copied when detached.
+   */
+  private static class Distinct extends SessionSampler {
+    private final SessionSampler sampler;
+    private final LinkedHashMap<WeightedSessions.SessionKey, Boolean> seen;
+
+    Distinct(SessionSampler sampler) {
+      this.sampler = sampler;
+      // Least recently offered sessions are forgotten.
+      seen = new LinkedHashMap<WeightedSessions.SessionKey, Boolean>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<WeightedSessions.SessionKey, Boolean> eldest) {
+          return size() > MAX_DISTINCT;
+        }
+      };
+    }
+
+    public void offer(List<Message> session) {
+      offered++;
+      if (seen.get(new WeightedSessions.SessionKey(session)) != null)
+        return;
+      session = keep(session);
+      seen.put(new WeightedSessions.SessionKey(session), Boolean.TRUE);
+      sampler.offer(session);
+    }
+
+    public Collection<List<Message>> getSample() {
+      return sampler.getSample();
+    }
+  }
+
+  /**
+   * 64-bit hash of the messages of a session and of their directions.
+   */
+  static long longHashCode(List<Message> session) {
+    long hash = session.size();
+    for (Message m : session)
+      hash = (hash ^ m.longHashCode()) * 0x9e3779b97f4a7c15L + (m.isInput() ? 1 : 2);
+    return hash;
+  }
+}
@@ -0,0 +1,252 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package traces;
+
+import java.util.*;
+
+/**
+ * Sessions whose messages are stored in a few large byte arrays (an arena)
+ * instead of one Message and one byte[] per message. The payloads are copied
+ * one after the other into chunks of up to CHUNK_SIZE bytes, and each message
+ * is only its position, its length (with the direction in the highest bit) and
+ * its session, in primitive arrays. The overhead is about 20 bytes per message
+ * instead of the headers and fields of a Message, its byte[] and the
+ * ArrayList of the session.
+ * 
+ * The sessions (and their messages) are views over the arena: the Message
+ * returned each time a message is read is a flyweight that points to the chunk
+ * with the payload, which is not copied. Messages are added in the order they
+ * arrive, possibly interleaving different sessions; the messages of each
+ * session are indexed (ordered by session) on the first read after messages
+ * were added. Sessions must not be added while being read by other threads.
+ */
+public class SessionStore extends AbstractList<List<Message>> implements RandomAccess,
+    java.io.Serializable {
+  private static final long serialVersionUID = 1L;
+
+  public static int CHUNK_SIZE = 16 * 1024 * 1024;
+  private static final int FIRST_CHUNK_SIZE = 64 * 1024;
+  private static final int INPUT = 0x80000000; // direction bit of _lengths
+
+  // Payloads of the messages.
+  private final ArrayList<byte[]> _chunks = new ArrayList<byte[]>();
+  private byte[] _chunk = null; // last chunk
+  private int _chunk_used = 0;
+  private long _payload_size = 0;
+
+  // Messages, in the order they were added.
+  private long[] _positions = new long[1024]; // chunk << 32 | offset in chunk
+  private int[] _lengths = new int[1024];
+  private int[] _session_of = new int[1024];
+  private int _total_messages = 0;
+  private int _total_sessions = 0;
+
+  // Messages ordered by session (see index()), null after messages are added.
+  private volatile Index _index = null;
+
+  /**
+   * Messages ordered by session, and the position in order of the first
+   * message of each session. It is published whole, so it can be read without
+   * synchronization.
+   */
+  private static final class Index {
+    final int[] order;
+    final int[] session_start;
+
+    Index(int[] order, int[] session_start) {
+      this.order = order;
+      this.session_start = session_start;
+    }
+  }
+
+  /**
+   * Messages of a session, from position start of order.
+   */
+  private class SessionView extends AbstractList<Message> implements RandomAccess,
+      java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+    private final int[] order;
+    private final int start, size;
+
+    SessionView(int[] order, int start, int size) {
+      this.order = order;
+      this.start = start;
+      this.size = size;
+    }
+
+    @Override
+    public Message get(int index) {
+      if (index < 0 || index >= size)
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      return message(order[start + index]);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    // Saved as a plain list of messages.
+    private Object writeReplace() {
+      return new ArrayList<Message>(this);
+    }
+  }
+
+  /**
+   * Starts a new (empty) session, returning its index.
+   */
+  public int newSession() {
+    _index = null;
+    return _total_sessions++;
+  }
+
+  /**
+   * Copies the payload of the message to the end of the session.
+   */
+  public void add(int session, Message m) {
+    if (session < 0 || session >= _total_sessions)
+      throw new IndexOutOfBoundsException("Session: " + session + ", Size: " + _total_sessions);
+    if (_total_messages == _lengths.length) {
+      int capacity = _lengths.length * 2;
+      _positions = Arrays.copyOf(_positions, capacity);
+      _lengths = Arrays.copyOf(_lengths, capacity);
+      _session_of = Arrays.copyOf(_session_of, capacity);
+    }
+
+    int length = m.len;
+    if (_chunk == null || _chunk_used + length > _chunk.length) {
+      // the few bytes left at the end of the last chunk are not used
+      int size = (_chunk == null) ? FIRST_CHUNK_SIZE : Math.min(_chunk.length * 2, CHUNK_SIZE);
+      _chunk = new byte[Math.max(size, length)];
+      _chunks.add(_chunk);
+      _chunk_used = 0;
+    }
+    System.arraycopy(m.buf, m.off, _chunk, _chunk_used, length);
+
+    int i = _total_messages++;
+    _positions[i] = ((long)(_chunks.size() - 1) << 32) | _chunk_used;
+    _lengths[i] = m.isInput() ? (length | INPUT) : length;
+    _session_of[i] = session;
+    _chunk_used += length;
+    _payload_size += length;
+    _index = null;
+  }
+
+  /**
+   * Releases the unused memory of the arena, e.g., once all sessions were
+   * added.
+   */
+  public void trimToSize() {
+    trimChunk();
+    _positions = Arrays.copyOf(_positions, _total_messages);
+    _lengths = Arrays.copyOf(_lengths, _total_messages);
+    _session_of = Arrays.copyOf(_session_of, _total_messages);
+  }
+
+  private void trimChunk() {
+    if (_chunk != null && _chunk_used < _chunk.length) {
+      _chunk = Arrays.copyOf(_chunk, _chunk_used);
+      _chunks.set(_chunks.size() - 1, _chunk);
+    }
+  }
+
+  private Message message(int i) {
+    long position = _positions[i];
+    int length = _lengths[i];
+    return new Message(_chunks.get((int)(position >>> 32)), (int)position, length & ~INPUT,
+        (length & INPUT) != 0);
+  }
+
+  /**
+   * Orders the messages by session (counting sort), keeping the order in which
+   * they were added within each session.
+   */
+  private Index index() {
+    Index index = _index;
+    if (index != null)
+      return index;
+    synchronized (this) {
+      if (_index == null)
+        _index = buildIndex();
+      return _index;
+    }
+  }
+
+  private Index buildIndex() {
+    int[] start = new int[_total_sessions + 1];
+    for (int i = 0; i < _total_messages; i++)
+      start[_session_of[i] + 1]++;
+    for (int s = 0; s < _total_sessions; s++)
+      start[s + 1] += start[s];
+    int[] next = Arrays.copyOf(start, _total_sessions);
+    int[] order = new int[_total_messages];
+    for (int i = 0; i < _total_messages; i++)
+      order[next[_session_of[i]]++] = i;
+    return new Index(order, start);
+  }
+
+  @Override
+  public List<Message> get(int session) {
+    if (session < 0 || session >= _total_sessions)
+      throw new IndexOutOfBoundsException("Session: " + session + ", Size: " + _total_sessions);
+    Index index = index();
+    int start = index.session_start[session];
+    return new SessionView(index.order, start, index.session_start[session + 1] - start);
+  }
+
+  @Override
+  public int size() {
+    return _total_sessions;
+  }
+
+  /**
+   * Returns the number of messages of all sessions.
+   */
+  public int getTotalMessages() {
+    return _total_messages;
+  }
+
+  /**
+   * Returns the number of bytes of the payloads of all messages.
+   */
+  public long getPayloadSize() {
+    return _payload_size;
+  }
+
+  // Saved as a plain list of sessions.
+  private Object writeReplace() {
+    ArrayList<List<Message>> sessions = new ArrayList<List<Message>>(_total_sessions);
+    for (List<Message> session : this)
+      sessions.add(new ArrayList<Message>(session));
+    return sessions;
+  }
+}
@@ -0,0 +1,384 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package traces;
+
+import java.util.*;
+import traces.PcapFile.Connection;
+
+/**
+ * Reassembles the TCP streams of the connections (one in each direction) from
+ * their segments, and splits them into messages with a Framing. Messages can
+ * then span several segments, and a segment can have several messages (e.g.,
+ * pipelined requests).
+ * 
+ * Segments are ordered by their sequence number: retransmitted bytes are
+ * dropped and segments that arrive early wait in a ring buffer of MAX_PENDING
+ * segments per stream, allocated on the first one. If the ring fills up, the
+ * missing bytes are considered lost. Complete messages are slices of the
+ * segment they were in, if they fit in it, so only the bytes of messages that
+ * span several segments are copied to the buffer of the stream.
+ * 
+ * A stream ends once all its bytes up to a FIN are in order (see end()), when
+ * its connection is reset (see reset()) or, above MAX_STREAMS, when it is the
+ * stream without segments for the longest time.
+ */
+public class TcpReassembler {
+  public static int MAX_PENDING = 64; // out-of-order segments per stream
+  public static int MAX_STREAMS = 20000; // open streams (two per connection)
+
+  private final Framing _framing;
+  private final LinkedHashMap<StreamKey, Stream> _streams;
+
+  // Complete messages, and their connections, not returned yet by next().
+  private final ArrayDeque<Message> _messages = new ArrayDeque<Message>();
+  private final ArrayDeque<Connection> _connections = new ArrayDeque<Connection>();
+  private Connection _connection;
+
+  private static class StreamKey {
+    final Connection connection;
+    final boolean is_input;
+
+    StreamKey(Connection connection, boolean is_input) {
+      this.connection = connection;
+      this.is_input = is_input;
+    }
+
+    @Override
+    public int hashCode() {
+      return connection.hashCode() * 2 + (is_input ? 1 : 0);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      StreamKey key = (StreamKey)obj;
+      return is_input == key.is_input && connection.equals(key.connection);
+    }
+  }
+
+  /**
+   * Bytes of one direction of a connection.
+   */
+  private static class Stream {
+    final Connection connection;
+    final boolean is_input;
+    int next_seq; // sequence number of the next byte in order
+
+    // Bytes received in order that are not a complete message yet, and how
+    // many of them the framing already scanned (see Framing.messageLength()).
+    byte[] buf = null;
+    int off = 0, len = 0, scanned = 0;
+
+    // Segments received out of order, sorted by sequence number from head
+    // (null until a segment arrives early).
+    int[] pending_seq = null;
+    byte[][] pending = null;
+    int head = 0, count = 0;
+
+    // Sequence number after the last byte, once a FIN was received.
+    boolean has_fin = false;
+    int fin_seq;
+
+    Stream(Connection connection, boolean is_input, int seq) {
+      this.connection = connection;
+      this.is_input = is_input;
+      this.next_seq = seq;
+    }
+
+    int slot(int i) {
+      return (head + i) % pending.length;
+    }
+  }
+
+  public TcpReassembler(Framing framing) {
+    _framing = framing;
+    // Least recently used streams are ended.
+    _streams = new LinkedHashMap<StreamKey, Stream>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<StreamKey, Stream> eldest) {
+        if (size() <= MAX_STREAMS)
+          return false;
+        endStream(eldest.getValue());
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Adds the payload of a segment of the connection, with the sequence number
+   * of its first byte. Payloads without sequence number (negative seq, e.g.,
+   * UDP datagrams) are split into messages on their own.
+   */
+  public void add(Connection connection, long seq, Message segment) {
+    if (seq < 0) {
+      frame(connection, segment.isInput(), segment.buf, segment.off, segment.len, 0, true);
+      return;
+    }
+
+    StreamKey key = new StreamKey(connection, segment.isInput());
+    Stream stream = _streams.get(key);
+    if (stream == null) {
+      stream = new Stream(connection, segment.isInput(), (int)seq);
+      _streams.put(key, stream);
+    }
+
+    // Sequence numbers wrap around, so they are compared by their difference.
+    int diff = (int)seq - stream.next_seq;
+    if (diff > 0)
+      addPending(stream, (int)seq, segment.getByteArray(0, segment.len));
+    else if (-diff < segment.len) {
+      append(stream, segment.buf, segment.off - diff, segment.len + diff);
+      appendPending(stream);
+    }
+    if (stream.has_fin && stream.next_seq - stream.fin_seq >= 0) {
+      _streams.remove(key);
+      endStream(stream);
+    }
+  }
+
+  /**
+   * Ends the stream of the connection in the direction of is_input once its
+   * bytes before seq, the sequence number after the FIN, are in order. The
+   * bytes that are not a complete message then are returned as they are.
+   */
+  public void end(Connection connection, boolean is_input, long seq) {
+    StreamKey key = new StreamKey(connection, is_input);
+    Stream stream = _streams.get(key);
+    if (stream == null)
+      return;
+    if (stream.next_seq - (int)seq >= 0) {
+      _streams.remove(key);
+      endStream(stream);
+    } else {
+      stream.has_fin = true;
+      stream.fin_seq = (int)seq;
+    }
+  }
+
+  /**
+   * Ends both streams of the connection, considering lost the bytes still
+   * missing.
+   */
+  public void reset(Connection connection) {
+    for (boolean is_input : new boolean[] { true, false }) {
+      Stream stream = _streams.remove(new StreamKey(connection, is_input));
+      if (stream != null)
+        endStream(stream);
+    }
+  }
+
+  /**
+   * Ends all streams: bytes that are not a complete message yet are returned
+   * as they are, and missing bytes are considered lost.
+   */
+  public void flush() {
+    for (Stream stream : _streams.values())
+      endStream(stream);
+    _streams.clear();
+  }
+
+  /**
+   * Returns the number of streams not ended yet.
+   */
+  public int getOpenStreams() {
+    return _streams.size();
+  }
+
+  /**
+   * Returns the next complete message, or null if more segments are needed.
+   */
+  public Message next() {
+    _connection = _connections.poll();
+    return _messages.poll();
+  }
+
+  /**
+   * Returns the connection of the last message returned by next().
+   */
+  public Connection getConnection() {
+    return _connection;
+  }
+
+  // //////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Splits the bytes in messages, returning how many bytes were split. The
+   * first scanned bytes were already scanned by the framing. If is_final, the
+   * remaining bytes are a message too.
+   */
+  private int frame(Connection connection, boolean is_input, byte[] data, int offset,
+      int length, int scanned, boolean is_final) {
+    int framed = 0;
+    while (framed < length) {
+      int remaining = length - framed;
+      int n = _framing.messageLength(data, offset + framed, remaining, scanned);
+      scanned = 0;
+      // Not a valid message (or too large): the bytes are taken as they are.
+      if (n == 0 || n > Framing.MAX_MESSAGE_SIZE
+          || (n < 0 && remaining >= Framing.MAX_MESSAGE_SIZE))
+        n = remaining;
+      else if (n < 0 || n > remaining) {
+        if (!is_final)
+          break;
+        n = remaining;
+      }
+      _messages.add(new Message(data, offset + framed, n, is_input));
+      _connections.add(connection);
+      framed += n;
+    }
+    return framed;
+  }
+
+  /**
+   * Appends bytes that are in order to the stream.
+   */
+  private void append(Stream stream, byte[] data, int offset, int length) {
+    stream.next_seq += length;
+    if (stream.len == 0) {
+      // Complete messages are slices of the segment.
+      int framed = frame(stream.connection, stream.is_input, data, offset, length, 0, false);
+      if (framed < length) {
+        stream.buf = Arrays.copyOfRange(data, offset + framed, offset + length);
+        stream.off = 0;
+        stream.len = stream.scanned = length - framed;
+      }
+      return;
+    }
+
+    // Bytes before off+len may be in returned messages, so they are never
+    // overwritten: a new buffer is used when there is no room after them.
+    int end = stream.off + stream.len;
+    if (end + length > stream.buf.length) {
+      byte[] buf = new byte[Math.max(2 * (stream.len + length), 1024)];
+      System.arraycopy(stream.buf, stream.off, buf, 0, stream.len);
+      stream.buf = buf;
+      stream.off = 0;
+      end = stream.len;
+    }
+    System.arraycopy(data, offset, stream.buf, end, length);
+    stream.len += length;
+    // The bytes of a message that is still incomplete were all scanned.
+    int framed = frame(stream.connection, stream.is_input, stream.buf, stream.off, stream.len,
+        stream.scanned, false);
+    stream.off += framed;
+    stream.len = stream.scanned = stream.len - framed;
+    if (stream.len == 0)
+      stream.buf = null;
+  }
+
+  private void endStream(Stream stream) {
+    while (stream.count > 0)
+      skipGap(stream);
+    endMessage(stream);
+  }
+
+  /**
+   * Appends the pending segments that are now in order.
+   */
+  private void appendPending(Stream stream) {
+    while (stream.count > 0) {
+      int slot = stream.head;
+      int diff = stream.pending_seq[slot] - stream.next_seq;
+      if (diff > 0)
+        return;
+      byte[] data = stream.pending[slot];
+      stream.pending[slot] = null;
+      stream.head = stream.slot(1);
+      stream.count--;
+      if (-diff < data.length)
+        append(stream, data, -diff, data.length + diff);
+    }
+  }
+
+  /**
+   * Keeps a segment received out of order, in order of sequence number. If
+   * there is no room for it, the bytes missing before the first pending
+   * segment are considered lost.
+   */
+  private void addPending(Stream stream, int seq, byte[] data) {
+    if (stream.pending == null) {
+      stream.pending_seq = new int[MAX_PENDING];
+      stream.pending = new byte[MAX_PENDING][];
+    }
+    if (stream.count == stream.pending.length) {
+      skipGap(stream);
+      int diff = seq - stream.next_seq;
+      if (diff <= 0) {
+        if (-diff < data.length) {
+          append(stream, data, -diff, data.length + diff);
+          appendPending(stream);
+        }
+        return;
+      }
+    }
+
+    // Retransmitted segment.
+    for (int i = 0; i < stream.count; i++) {
+      int slot = stream.slot(i);
+      if (stream.pending_seq[slot] == seq && stream.pending[slot].length >= data.length)
+        return;
+    }
+
+    // Insertion from the tail, as segments tend to arrive in order.
+    int i = stream.count;
+    while (i > 0 && stream.pending_seq[stream.slot(i - 1)] - seq > 0) {
+      stream.pending_seq[stream.slot(i)] = stream.pending_seq[stream.slot(i - 1)];
+      stream.pending[stream.slot(i)] = stream.pending[stream.slot(i - 1)];
+      i--;
+    }
+    stream.pending_seq[stream.slot(i)] = seq;
+    stream.pending[stream.slot(i)] = data;
+    stream.count++;
+  }
+
+  /**
+   * Considers lost the bytes missing before the first pending segment: the
+   * bytes before them are a message and the pending segments are appended.
+   */
+  private void skipGap(Stream stream) {
+    endMessage(stream);
+    stream.next_seq = stream.pending_seq[stream.head];
+    appendPending(stream);
+  }
+
+  /**
+   * Returns the bytes that are not a complete message yet as they are.
+   */
+  private void endMessage(Stream stream) {
+    if (stream.len > 0)
+      frame(stream.connection, stream.is_input, stream.buf, stream.off, stream.len,
+          stream.scanned, true);
+    stream.buf = null;
+    stream.off = stream.len = stream.scanned = 0;
+  }
+}
@@ -122,4 +122,12 @@ public class TextFile implements TracesInterface {
     return sessions;
   }
 
+  /**
+   * Extracts application sessions from the traces and returns the ones
+   * sampled by the sampler.
+   */
+  public Collection<List<Message>> getSessions(boolean stateful_protocol, SessionSampler sampler) {
+    return SessionSampler.sample(getSessions(stateful_protocol, -1), sampler);
+  }
+
 }
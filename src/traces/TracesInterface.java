@@ -46,4 +46,6 @@ public interface TracesInterface {
 
   public Collection<List<Message>> getSessions(boolean stateful_protocol, int sample_size);
 
+  public Collection<List<Message>> getSessions(boolean stateful_protocol, SessionSampler sampler);
+
 }
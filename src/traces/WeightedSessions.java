@@ -0,0 +1,170 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package traces;
+
+import java.util.*;
+
+/**
+ * Sessions with the number of times each one occurred (its weight). Identical
+ * sessions (same messages, in the same directions) are kept only once, so that
+ * they are classified and added to the automata only once, with their weight
+ * (see Automaton.addSequence(Collection, int)). Iterating over the collection
+ * still returns each session as many times as its weight, so it can be used
+ * wherever the original sessions were.
+ */
+public class WeightedSessions extends AbstractCollection<List<Message>> {
+  private final ArrayList<List<Message>> _sessions = new ArrayList<List<Message>>();
+  private final ArrayList<Integer> _weights = new ArrayList<Integer>();
+  private final HashMap<SessionKey, Integer> _index = new HashMap<SessionKey, Integer>();
+  private int _size = 0;
+
+  /**
+   * Session compared by the contents and directions of its messages.
+   */
+  static class SessionKey {
+    final List<Message> session;
+    final long hash;
+
+    SessionKey(List<Message> session) {
+      this.session = session;
+      this.hash = SessionSampler.longHashCode(session);
+    }
+
+    @Override
+    public int hashCode() {
+      return (int)(hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof SessionKey))
+        return false;
+      SessionKey other = (SessionKey)obj;
+      if (hash != other.hash || session.size() != other.session.size())
+        return false;
+      Iterator<Message> i0 = session.iterator(), i1 = other.session.iterator();
+      while (i0.hasNext()) {
+        Message m0 = i0.next(), m1 = i1.next();
+        if (m0.isInput() != m1.isInput() || !m0.equals(m1))
+          return false;
+      }
+      return true;
+    }
+  }
+
+  public WeightedSessions() {
+  }
+
+  /**
+   * Collapses the identical sessions, which are kept in the order they first
+   * appear. Sessions that are already weighted are returned as they are.
+   */
+  public static WeightedSessions dedup(Collection<List<Message>> sessions) {
+    if (sessions instanceof WeightedSessions)
+      return (WeightedSessions)sessions;
+    WeightedSessions weighted = new WeightedSessions();
+    for (List<Message> session : sessions)
+      weighted.add(session, 1);
+    return weighted;
+  }
+
+  @Override
+  public boolean add(List<Message> session) {
+    add(session, 1);
+    return true;
+  }
+
+  /**
+   * Adds a session that occurred weight times.
+   */
+  public void add(List<Message> session, int weight) {
+    if (weight < 1)
+      throw new IllegalArgumentException("weight must be positive: " + weight);
+    SessionKey key = new SessionKey(session);
+    Integer i = _index.get(key);
+    if (i == null) {
+      _index.put(key, _sessions.size());
+      _sessions.add(session);
+      _weights.add(weight);
+    } else
+      _weights.set(i, _weights.get(i) + weight);
+    _size += weight;
+  }
+
+  /**
+   * Returns the distinct sessions.
+   */
+  public List<List<Message>> getDistinct() {
+    return Collections.unmodifiableList(_sessions);
+  }
+
+  /**
+   * Returns the weights of the distinct sessions, in the same order.
+   */
+  public List<Integer> getWeights() {
+    return Collections.unmodifiableList(_weights);
+  }
+
+  /**
+   * Returns the total number of sessions (the sum of the weights).
+   */
+  @Override
+  public int size() {
+    return _size;
+  }
+
+  @Override
+  public Iterator<List<Message>> iterator() {
+    return new Iterator<List<Message>>() {
+      private int i = 0, repeated = 0;
+
+      public boolean hasNext() {
+        return i < _sessions.size();
+      }
+
+      public List<Message> next() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+        List<Message> session = _sessions.get(i);
+        if (++repeated == _weights.get(i)) {
+          i++;
+          repeated = 0;
+        }
+        return session;
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
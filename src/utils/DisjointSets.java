@@ -0,0 +1,98 @@
+/*****************************************************************************
+ * [Simplified BSD License]
+ *
+ * Copyright 2011 Joao Antunes. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *    2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY JOAO ANTUNES ''AS IS'' AND ANY EXPRESS
+ * OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL JOAO ANTUNES OR CONTRIBUTORS BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ * THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are
+ * those of the authors and should not be interpreted as representing official
+ * policies, either expressed or implied, of Joao Antunes.
+ *****************************************************************************/
+
+package utils;
+
+/**
+ * Disjoint sets (union-find) of the integers 0..size-1, with path halving and
+ * union by size, so that each operation takes almost constant time.
+ */
+public class DisjointSets {
+  private final int[] _parent;
+  private final int[] _size;
+  private int _total_sets;
+
+  public DisjointSets(int size) {
+    _parent = new int[size];
+    _size = new int[size];
+    for (int i = 0; i < size; i++) {
+      _parent[i] = i;
+      _size[i] = 1;
+    }
+    _total_sets = size;
+  }
+
+  /**
+   * Returns the representative of the set containing element.
+   */
+  public int find(int element) {
+    while (_parent[element] != element) {
+      _parent[element] = _parent[_parent[element]];
+      element = _parent[element];
+    }
+    return element;
+  }
+
+  /**
+   * Joins the sets containing element0 and element1. Returns true if they
+   * were in different sets.
+   */
+  public boolean union(int element0, int element1) {
+    int root0 = find(element0), root1 = find(element1);
+    if (root0 == root1)
+      return false;
+    if (_size[root0] < _size[root1]) {
+      int temp = root0;
+      root0 = root1;
+      root1 = temp;
+    }
+    _parent[root1] = root0;
+    _size[root0] += _size[root1];
+    _total_sets--;
+    return true;
+  }
+
+  /**
+   * Returns the number of elements in the set containing element.
+   */
+  public int getSize(int element) {
+    return _size[find(element)];
+  }
+
+  public int getTotalSets() {
+    return _total_sets;
+  }
+
+  public int size() {
+    return _parent.length;
+  }
+
+}
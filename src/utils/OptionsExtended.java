@@ -24,6 +24,7 @@ public class OptionsExtended {
     String opt_short;
     String value;
     String description;
+    boolean flag; // never followed by a value
 
     Opt(String opt, String opt_short, String description) {
       this.opt = opt;
@@ -32,6 +33,8 @@ public class OptionsExtended {
     }
 
     public boolean equals(String option) {
+      if (flag)
+        return option.equals(opt) || option.equals(opt_short);
       return ((opt != null && (option.equals(opt) || option.startsWith(opt))) || (opt_short != null && option
           .equals(opt_short)));
     }
@@ -56,6 +59,16 @@ public class OptionsExtended {
     _options.add(new Opt(opt, opt_short, description));
   }
 
+  /**
+   * @param opt String option with the format --opt (without a value)
+   * @param opt_short String option with the format -opt_short
+   */
+  public void setFlag(String opt, String opt_short, String description) {
+    Opt option = new Opt(opt, opt_short, description);
+    option.flag = true;
+    _options.add(option);
+  }
+
   private Opt getOption(String arg) {
     for (Opt option : _options)
       if (option.equals(arg))
@@ -70,7 +83,9 @@ public class OptionsExtended {
       Opt option = getOption(arg);
       if (option != null) {
         // get 'value'
-        {
+        if (option.flag)
+          option.value = "";
+        else {
           // --opt=value
           if (!arg.equals(option.opt) && arg.startsWith(option.opt))
             option.value = arg.substring(option.opt.length());
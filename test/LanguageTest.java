@@ -1,4 +1,6 @@
 import java.util.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 import traces.*;
@@ -91,6 +93,33 @@ public class LanguageTest {
     automaton.DRAW("test/LanguageTest1", false);
   }
 
+  @Test
+  public void concatLongLinearChainTest() {
+    // long enough to overflow the stack of a recursive pass
+    Language language = createEmptyLanguage();
+    int length = 100000;
+    State<RegEx> s = language.getInitialState();
+    for (int i = 0; i < length; i++) {
+      State<RegEx> next = new State<RegEx>();
+      language.getAllStates().add(next);
+      addTransition(s, "x", next);
+      s = next;
+    }
+    s.setFinal(true);
+
+    // every two transitions are concatenated (the pass follows the new ones)
+    language.concatUniqueLinearStates();
+    assertEquals(length / 2 + 1, language.getAllStates().size());
+    RegEx xx = new RegEx(new ByteChars("xx".getBytes()));
+    s = language.getInitialState();
+    for (int i = 0; i < length / 2; i++) {
+      assertEquals(1, s.getTransitions().size());
+      assertEquals(xx, s.getTransitions().get(0).getSymbol());
+      s = s.getTransitions().get(0).getState();
+    }
+    assertTrue(s.getTransitions().isEmpty());
+  }
+
   @Test
   public void inferFromTracesTest() {
     /* Parameters: input */
@@ -0,0 +1,76 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.util.*;
+import org.junit.Test;
+import traces.MappedPcapFile;
+import traces.Message;
+import utils.Utils;
+import automata.*;
+
+public class ModelFileTest {
+
+  private static Collection<List<Message>> getSessions() {
+    MappedPcapFile traces = new MappedPcapFile("test/traces.pcap", "port 21", "*:21", null);
+    traces.open();
+    Collection<List<Message>> sessions = traces.getSessions(true);
+    traces.close();
+    return sessions;
+  }
+
+  private static String dump(Automaton<?> automaton) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(automaton.getInitialState().getId()).append('\n');
+    for (State<?> s : automaton.getAllStates()) {
+      sb.append(s.getId()).append(s.isFinal() ? "F" : "").append(':');
+      for (Transition<?> t : s.getTransitions())
+        sb.append(' ').append(t.toString(true)).append("->").append(t.getState().getId());
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testSaveAndLoad() throws Exception {
+    Language.TIMER = new utils.Timer();
+    StateMachineMoore.TIMER = new utils.Timer();
+    Collection<List<Message>> sessions = getSessions();
+    Language input = new Language(true, sessions, 0.3f, 30);
+    Language output = new Language(false, sessions, 0.3f, 30);
+    StateMachineMoore moore = new StateMachineMoore(input, sessions);
+    StateMachineMealy mealy = new StateMachineMealy(input, output, sessions);
+    File file = File.createTempFile("model", ".bin");
+    try {
+      ModelFile.save(sessions, file.getPath());
+      assertEquals(sessions.toString(), ModelFile.load(file.getPath()).toString());
+
+      ModelFile.save(input, file.getPath());
+      Language language = (Language)ModelFile.load(file.getPath());
+      assertEquals(dump(input), dump(language));
+      for (List<Message> session : sessions)
+        for (Message m : session)
+          if (m.isInput())
+            assertEquals(input.accepts(m).toString(), language.accepts(m).toString());
+
+      ModelFile.save(moore, file.getPath());
+      StateMachineMoore moore_loaded = (StateMachineMoore)ModelFile.load(file.getPath());
+      assertEquals(dump(moore), dump(moore_loaded));
+      assertEquals(dump(input), dump(moore_loaded.language));
+      for (List<Message> session : sessions)
+        assertTrue(moore_loaded.acceptsPrefix(moore_loaded.convertSessionToSequenceOfMsgTypes(session)));
+
+      ModelFile.save(mealy, file.getPath());
+      StateMachineMealy mealy_loaded = (StateMachineMealy)ModelFile.load(file.getPath());
+      assertEquals(dump(mealy), dump(mealy_loaded));
+      assertEquals(dump(output), dump(mealy_loaded.output_language));
+      for (List<Message> session : sessions)
+        assertTrue(mealy_loaded.acceptsPrefix(mealy_loaded.convertSessionToSequenceOfMsgTypes(session)));
+
+      // Files saved with Java serialization.
+      Utils.saveToFile(input, file.getPath());
+      assertEquals(dump(input), dump((Language)ModelFile.load(file.getPath())));
+    } finally {
+      file.delete();
+    }
+  }
+}
@@ -1,6 +1,11 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import java.io.IOException;
 import java.util.*;
+import org.junit.Before;
 import org.junit.Test;
+import traces.MappedPcapFile;
 import traces.Message;
 import traces.PcapFile;
 import automata.*;
@@ -15,6 +20,12 @@ public class StateMachineTest {
     return sequence;
   }
 
+  // generalize() measures the time of the minimizations.
+  @Before
+  public void setUpTimer() {
+    StateMachineMoore.TIMER = new utils.Timer();
+  }
+
   @Test
   public void testReduce() {
     try {
@@ -34,6 +45,41 @@ public class StateMachineTest {
 
   }
 
+  @Test
+  public void testGeneralize() {
+    String[] alphabet = { "A", "B", "C", "D", "E", "F", "G", "H" };
+    Random random = new Random(7);
+    for (int round = 0; round < 20; round++) {
+      Automaton<MessageType> automaton = new Automaton<MessageType>();
+      List<List<MessageType>> sequences = new ArrayList<List<MessageType>>();
+      for (int i = 0; i < 10; i++) {
+        StringBuilder tokens = new StringBuilder(alphabet[random.nextInt(alphabet.length)]);
+        for (int j = random.nextInt(6); j > 0; j--)
+          tokens.append(' ').append(alphabet[random.nextInt(alphabet.length)]);
+        sequences.add(createSequence(tokens.toString()));
+        automaton.addSequence(sequences.get(i));
+      }
+      Operations.minimization(automaton);
+      StateMachineMoore.generalize(automaton);
+
+      // No two states accept the same message type, nor is a message type the
+      // destination of two different states.
+      HashMap<MessageType, State<MessageType>> accepted_by, dest_of;
+      accepted_by = new HashMap<MessageType, State<MessageType>>();
+      dest_of = new HashMap<MessageType, State<MessageType>>();
+      for (State<MessageType> state : new HashSet<State<MessageType>>(automaton.getAllStates())) {
+        for (Transition<MessageType> t : state) {
+          State<MessageType> other = accepted_by.put(t.getSymbol(), state);
+          assertTrue(other == null || other == state);
+          other = dest_of.put(t.getSymbol(), t.getState());
+          assertTrue(other == null || other == t.getState());
+        }
+      }
+      for (List<MessageType> sequence : sequences)
+        assertTrue(automaton.acceptsPrefix(sequence));
+    }
+  }
+
   @Test
   public void testInferFromTraces() {
     /* Parameters. */
@@ -76,6 +122,54 @@ public class StateMachineTest {
     System.out.println("DONE!");
   }
 
+  @Test
+  public void testParallelClassification() throws Exception {
+    MappedPcapFile traces = new MappedPcapFile("test/traces.pcap", "port 21", "*:21", null);
+    traces.open();
+    List<List<Message>> sessions = new ArrayList<List<Message>>();
+    for (List<Message> session : traces.getSessions(true))
+      for (int i = 0; i < 10; i++)
+        sessions.add(session);
+    traces.close();
+    Language.TIMER = new utils.Timer();
+    StateMachineMoore.TIMER = new utils.Timer();
+    Language input_language = new Language(true, sessions, 0.3f, 30);
+    Language output_language = new Language(false, sessions, 0.3f, 30);
+
+    int threads = StateMachineMoore.getClassificationThreads();
+    try {
+      StateMachineMoore.setClassificationThreads(1);
+      int messages = StateMachineMoore.STATS_MESSAGES.get();
+      StateMachineMealy sequential = new StateMachineMealy(input_language, output_language,
+          sessions);
+      int sequential_messages = StateMachineMoore.STATS_MESSAGES.get() - messages;
+
+      StateMachineMoore.setClassificationThreads(4);
+      messages = StateMachineMoore.STATS_MESSAGES.get();
+      StateMachineMealy parallel = new StateMachineMealy(input_language, output_language,
+          sessions);
+      assertEquals(sequential_messages, StateMachineMoore.STATS_MESSAGES.get() - messages);
+      assertEquals(sequential.getAllStates().size(), parallel.getAllStates().size());
+      assertEquals(sequential.getInitialState().getSumFreq(),
+          parallel.getInitialState().getSumFreq());
+      for (List<Message> session : sessions)
+        assertTrue(parallel.acceptsPrefix(parallel.convertSessionToSequenceOfMsgTypes(session)));
+
+      // Sessions with unknown messages are still reported.
+      List<Message> unknown = new ArrayList<Message>(sessions.get(0));
+      unknown.add(0, new Message(new byte[] { 0, 1, 2 }, true));
+      sessions.set(sessions.size() - 1, unknown);
+      try {
+        new StateMachineMoore(input_language, sessions);
+        fail("unknown message accepted");
+      } catch (StateMachineMoore.UnknownMessageTypeException e) {
+        assertEquals(0, e.nth_message);
+      }
+    } finally {
+      StateMachineMoore.setClassificationThreads(threads);
+    }
+  }
+
   public static void main(String[] args) {
     StateMachineTest s = new StateMachineTest();
     s.testInferFromTraces();
@@ -0,0 +1,64 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.*;
+import org.junit.Test;
+import traces.MappedPcapFile;
+import traces.Message;
+import automata.*;
+
+public class StreamingInferenceTest {
+  private static final String TRACES = "test/traces.pcap";
+
+  private static MappedPcapFile openTraces() {
+    MappedPcapFile traces = new MappedPcapFile(TRACES, "port 21", "*:21", null);
+    traces.open();
+    return traces;
+  }
+
+  @Test
+  public void testSnapshots() throws Exception {
+    // The snapshots are measured with their own timer, not the static ones.
+    Language.TIMER = null;
+    StateMachineMoore.TIMER = null;
+    StreamingInference inference = new StreamingInference(0.3f, 30, true);
+    inference.setSnapshotMessages(10);
+    MappedPcapFile traces = openTraces();
+    StreamingInference.Snapshot snapshot = inference.run(traces);
+    traces.close();
+
+    traces = openTraces();
+    Collection<List<Message>> sessions = traces.getSessions(true);
+    traces.close();
+    assertEquals(32, snapshot.messages);
+    assertEquals(sessions.size(), snapshot.sessions);
+    assertTrue(snapshot.state_machine != null);
+
+    // Same messages as in batch mode, in a different order.
+    Language.TIMER = new utils.Timer();
+    StateMachineMoore.TIMER = new utils.Timer();
+    Language language = new Language(true, sessions, 0.3f, 30);
+    assertEquals(language.getListofPaths().size(), snapshot.language.getListofPaths().size());
+    for (List<Message> session : sessions) {
+      for (Message m : session)
+        if (m.isInput())
+          assertTrue(snapshot.language.accepts(m) != null);
+      List<MessageType> inferred = snapshot.state_machine.convertSessionToSequenceOfMsgTypes(session);
+      assertTrue(snapshot.state_machine.acceptsPrefix(inferred));
+    }
+  }
+
+  @Test
+  public void testBoundedModel() throws Exception {
+    StreamingInference inference = new StreamingInference(0.3f, 30, true);
+    inference.setMaxStates(20);
+    inference.setSnapshotMessages(0);
+    MappedPcapFile traces = openTraces();
+    StreamingInference.Snapshot snapshot = inference.run(traces);
+    traces.close();
+
+    // Messages that did not fit were dropped, and so were their sessions.
+    assertEquals(32, snapshot.messages);
+    assertTrue(snapshot.sessions < 4);
+    assertTrue(snapshot.state_machine == null || snapshot.sessions > 0);
+  }
+}
@@ -0,0 +1,55 @@
+
+package automata;
+
+import java.util.Arrays;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class ByteDFATest {
+
+  @Test
+  public void testAccepts() {
+    Automaton<RegEx> automaton = new Automaton<RegEx>();
+    State<RegEx> q0 = automaton._initial_state;
+    State<RegEx> q1 = new State<RegEx>();
+    State<RegEx> q2 = new State<RegEx>();
+    State<RegEx> q3 = new State<RegEx>();
+    q2._is_final = true;
+    q3._is_final = true;
+    Transition<RegEx> word = new Transition<RegEx>(new RegEx("\\w+"), q1);
+    Transition<RegEx> colon = new Transition<RegEx>(new RegEx("\\Q:\\E"), q2);
+    Transition<RegEx> any = new Transition<RegEx>(new RegEx("\\S+"), q2);
+    Transition<RegEx> letters = new Transition<RegEx>(new RegEx("\\Q-\\E[a-z]+\\x0D\\x0A"), q3);
+    q0._transitions.add(word);
+    q0._transitions.add(any);
+    q1._transitions.add(colon);
+    q1._transitions.add(letters);
+
+    ByteDFA dfa = ByteDFA.compile(automaton);
+    assertTrue(dfa != null);
+    assertEquals(Arrays.asList(word, colon), dfa.accepts("ab:"));
+    assertEquals(Arrays.asList(any), dfa.accepts("a-b"));
+    assertEquals(Arrays.asList(word, letters), dfa.accepts("Ab-c\r\n"));
+    assertEquals(Arrays.asList(any), dfa.accepts("\u0400x"));
+    assertNull(dfa.accepts(""));
+    assertNull(dfa.accepts("a b"));
+
+    assertNull(dfa.accepts("ab-\r\n"));
+
+    // [a-z]+ takes all letters, as java.util.regex does, so nothing is left for the next one
+    automaton = new Automaton<RegEx>();
+    automaton.addSequence(OperationsTest.createSequence("[a-z]+ [a-z\\Q-\\E]"));
+    dfa = ByteDFA.compile(automaton);
+    assertNull(dfa.accepts("aaa"));
+    assertEquals(2, dfa.accepts("aa-").size());
+  }
+
+  @Test
+  public void testUnsupported() {
+    Automaton<RegEx> automaton = new Automaton<RegEx>();
+    automaton.addSequence(OperationsTest.createSequence("a* b"));
+    assertNull(ByteDFA.compile(automaton));
+  }
+}
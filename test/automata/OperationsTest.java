@@ -3,7 +3,21 @@ package automata;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 
 public class OperationsTest {
@@ -104,4 +118,376 @@ public class OperationsTest {
     Operations.minimization(automaton);
     automaton.DRAW("test/example-minimized", false);
   }
+
+  private static Automaton<RegEx> createPrefixTree() {
+    Automaton<RegEx> automaton = new Automaton<RegEx>();
+    automaton.addSequence(createSequence("USER a \r\n"));
+    automaton.addSequence(createSequence("USER b \r\n"));
+    automaton.addSequence(createSequence("PASS a \r\n"));
+    automaton.addSequence(createSequence("PASS b \r\n"));
+    automaton.addSequence(createSequence("QUIT \r\n"));
+    automaton.addSequence(createSequence("QUIT"));
+    return automaton;
+  }
+
+  @Test
+  public void testMinimizationModes() {
+    Operations.MinimizationMode mode = Operations.getMinimizationMode();
+    try {
+      for (int i = 0; i < 2; i++) {
+        Automaton<RegEx> table = (i == 0) ? createBooksAutomaton() : createPrefixTree();
+        Automaton<RegEx> hopcroft = (i == 0) ? createBooksAutomaton() : createPrefixTree();
+        Operations.setMinimizationMode(Operations.MinimizationMode.TABLE);
+        Operations.minimization(table);
+        Operations.setMinimizationMode(Operations.MinimizationMode.HOPCROFT);
+        Operations.minimization(hopcroft);
+        assertEquals(table._all_states.size(), hopcroft._all_states.size());
+        assertEquals(table._initial_state.getSumFreq(), hopcroft._initial_state.getSumFreq());
+      }
+
+      Automaton<RegEx> automaton = createPrefixTree();
+      Operations.minimization(automaton);
+      // Initial state, USER and PASS, QUIT (final), arguments and final state.
+      assertEquals(5, automaton._all_states.size());
+      assertTrue(automaton.accepts(createSequence("PASS a \r\n")));
+      assertTrue(automaton.accepts(createSequence("QUIT")));
+      assertEquals(6, automaton._initial_state.getSumFreq());
+    } finally {
+      Operations.setMinimizationMode(mode);
+    }
+  }
+
+  @Test
+  public void testParallelMinimization() {
+    Operations.MinimizationMode mode = Operations.getMinimizationMode();
+    int threads = Operations.getMinimizationThreads();
+    try {
+      // large enough prefix tree to be refined by several tasks
+      Random random = new Random(1);
+      List<List<RegEx>> sequences = new ArrayList<List<RegEx>>();
+      for (int i = 0; i < 3000; i++) {
+        StringBuilder sequence = new StringBuilder("CMD");
+        for (int j = random.nextInt(12); j >= 0; j--)
+          sequence.append(random.nextBoolean() ? " a" : " b");
+        sequences.add(createSequence(sequence.toString()));
+      }
+      for (int n = 1; n <= 4; n *= 2) {
+        Automaton<RegEx> hopcroft = new Automaton<RegEx>();
+        Automaton<RegEx> parallel = new Automaton<RegEx>();
+        for (List<RegEx> sequence : sequences) {
+          hopcroft.addSequence(sequence);
+          parallel.addSequence(sequence);
+        }
+        Operations.setMinimizationMode(Operations.MinimizationMode.HOPCROFT);
+        Operations.minimization(hopcroft);
+        Operations.setMinimizationMode(Operations.MinimizationMode.PARALLEL);
+        Operations.setMinimizationThreads(n);
+        Operations.minimization(parallel);
+        assertEquals(hopcroft._all_states.size(), parallel._all_states.size());
+        assertEquals(hopcroft._initial_state.getSumFreq(), parallel._initial_state.getSumFreq());
+        for (int i = 0; i < 100; i++)
+          assertTrue(parallel.accepts(sequences.get(i)));
+        assertFalse(parallel.accepts(createSequence("CMD a c")));
+      }
+    } finally {
+      Operations.setMinimizationMode(mode);
+      Operations.setMinimizationThreads(threads);
+    }
+  }
+
+  @Test
+  public void testIncrementalConstruction() {
+    String[] sequences = {
+        "USER a \r\n", "QUIT \r\n", "PASS b \r\n", "USER b \r\n", "PASS a \r\n",
+        "USER a \r\n", "LIST \r\n", "LIST -l \r\n"
+    };
+    Automaton<RegEx> pta = new Automaton<RegEx>();
+    List<List<RegEx>> to_add = new ArrayList<List<RegEx>>();
+    for (String sequence : sequences) {
+      pta.addSequence(createSequence(sequence));
+      to_add.add(createSequence(sequence));
+    }
+    Operations.minimization(pta);
+
+    Automaton<RegEx> automaton = new Automaton<RegEx>();
+    automaton.addSequencesMinimized(to_add);
+    assertEquals(pta._all_states.size(), automaton._all_states.size());
+    assertEquals(pta._initial_state.getSumFreq(), automaton._initial_state.getSumFreq());
+    for (String sequence : sequences)
+      assertTrue(automaton.accepts(createSequence(sequence)));
+    assertFalse(automaton.accepts(createSequence("LIST -l")));
+  }
+
+  /**
+   * Frequencies of the transitions of the first path that accepts the sequence.
+   */
+  private static List<Integer> pathFrequencies(Automaton<RegEx> automaton, List<RegEx> sequence) {
+    List<Integer> frequencies = new ArrayList<Integer>();
+    State<RegEx> state = automaton._initial_state;
+    for (RegEx symbol : sequence) {
+      Transition<RegEx> t = state.getTransition(symbol);
+      frequencies.add(t.getFreq());
+      state = t.getState();
+    }
+    return frequencies;
+  }
+
+  @Test
+  public void testIncrementalFrequencies() {
+    // sequences that are not a prefix of another one (ending with "$")
+    Random random = new Random(1);
+    for (int round = 0; round < 100; round++) {
+      Automaton<RegEx> pta = new Automaton<RegEx>();
+      List<List<RegEx>> to_add = new ArrayList<List<RegEx>>();
+      for (int i = 0; i < 6; i++) {
+        StringBuilder sequence = new StringBuilder();
+        for (int n = 1 + random.nextInt(3); n > 0; n--)
+          sequence.append("ab".charAt(random.nextInt(2))).append(' ');
+        sequence.append('$');
+        pta.addSequence(createSequence(sequence.toString()));
+        to_add.add(createSequence(sequence.toString()));
+      }
+      Operations.minimization(pta);
+      Automaton<RegEx> incremental = new Automaton<RegEx>();
+      incremental.addSequencesMinimized(new ArrayList<List<RegEx>>(to_add));
+      assertEquals(pta._all_states.size(), incremental._all_states.size());
+      for (List<RegEx> sequence : to_add)
+        assertEquals(pathFrequencies(pta, sequence), pathFrequencies(incremental, sequence));
+    }
+
+    // a sequence that extends another goes through its final state
+    List<List<RegEx>> to_add = new ArrayList<List<RegEx>>();
+    to_add.add(createSequence("A"));
+    to_add.add(createSequence("A B"));
+    to_add.add(createSequence("A B"));
+    Automaton<RegEx> incremental = new Automaton<RegEx>();
+    incremental.addSequencesMinimized(to_add);
+    assertEquals(Arrays.asList(3, 2), pathFrequencies(incremental, createSequence("A B")));
+  }
+
+  @Test
+  public void testWeightedSequences() {
+    String[] sequences = { "USER a \r\n", "QUIT \r\n", "USER b \r\n", "QUIT" };
+    int[] weights = { 3, 1, 5, 2 };
+    Automaton<RegEx> repeated = new Automaton<RegEx>();
+    Automaton<RegEx> weighted = new Automaton<RegEx>();
+    List<List<RegEx>> to_add = new ArrayList<List<RegEx>>();
+    List<Integer> to_add_weights = new ArrayList<Integer>();
+    for (int i = 0; i < sequences.length; i++) {
+      for (int n = 0; n < weights[i]; n++)
+        repeated.addSequence(createSequence(sequences[i]));
+      weighted.addSequence(createSequence(sequences[i]), weights[i]);
+      to_add.add(createSequence(sequences[i]));
+      to_add_weights.add(weights[i]);
+    }
+    assertEquals(repeated._all_states.size(), weighted._all_states.size());
+    assertEquals(11, weighted._initial_state.getSumFreq());
+    assertEquals(8, weighted._initial_state.getTransition(new RegEx("USER")).getFreq());
+
+    Operations.minimization(repeated);
+    Automaton<RegEx> incremental = new Automaton<RegEx>();
+    incremental.addSequencesMinimized(to_add, to_add_weights);
+    assertEquals(repeated._all_states.size(), incremental._all_states.size());
+    assertEquals(11, incremental._initial_state.getSumFreq());
+    assertEquals(3, incremental._initial_state.getTransition(new RegEx("QUIT")).getFreq());
+    for (String sequence : sequences)
+      assertTrue(incremental.accepts(createSequence(sequence)));
+  }
+
+  @Test
+  public void testTransitionIndex() {
+    State<RegEx> state = new State<RegEx>();
+    List<RegEx> symbols = new ArrayList<RegEx>();
+    for (int i = 0; i < 3 * TransitionList.INDEX_THRESHOLD; i++) {
+      symbols.add(new RegEx("CMD" + i));
+      state.getTransitions().add(new Transition<RegEx>(symbols.get(i), new State<RegEx>()));
+    }
+    assertTrue(state.getTransition(new RegEx("CMD0")) == state.getTransitions().get(0));
+    assertTrue(state.getTransition(new RegEx("CMD20")) == state.getTransitions().get(20));
+    assertTrue(state.getTransition(new RegEx("CMD")) == null);
+
+    // symbols changed in place and removed transitions
+    symbols.get(5).setPattern("\\w+");
+    assertTrue(state.getTransition(new RegEx("CMD5")) == null);
+    assertTrue(state.getTransition(new RegEx("\\w+")) == state.getTransitions().get(5));
+    state.getTransitions().remove(0);
+    assertTrue(state.getTransition(new RegEx("CMD0")) == null);
+    assertTrue(state.getTransition(new RegEx("CMD1")) == state.getTransitions().get(0));
+
+    // bulk modifications
+    final State<RegEx> dest = new State<RegEx>();
+    state.getTransitions().replaceAll(new UnaryOperator<Transition<RegEx>>() {
+      public Transition<RegEx> apply(Transition<RegEx> t) {
+        return new Transition<RegEx>(t.getSymbol(), dest);
+      }
+    });
+    assertTrue(state.getTransition(new RegEx("CMD1")).getState() == dest);
+    state.getTransitions().removeIf(new Predicate<Transition<RegEx>>() {
+      public boolean test(Transition<RegEx> t) {
+        return t.getSymbol().equals(new RegEx("CMD1"));
+      }
+    });
+    assertTrue(state.getTransition(new RegEx("CMD1")) == null);
+    final State<RegEx> other = new State<RegEx>();
+    state.getTransitions().add(new Transition<RegEx>(new RegEx("CMD10"), other));
+    Collections.sort(state.getTransitions(), new Comparator<Transition<RegEx>>() {
+      public int compare(Transition<RegEx> t0, Transition<RegEx> t1) {
+        return (t0.getState() == other ? 0 : 1) - (t1.getState() == other ? 0 : 1);
+      }
+    });
+    assertTrue(state.getTransition(new RegEx("CMD10")).getState() == other);
+  }
+
+  @Test
+  public void testConcurrentTransitionIndex() throws InterruptedException {
+    final State<RegEx> state = new State<RegEx>();
+    for (int i = 0; i < 1000; i++)
+      state.getTransitions().add(new Transition<RegEx>(new RegEx("CMD" + i), state));
+    final AtomicInteger found = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            if (j % 100 == 0)
+              TransitionList.symbolsChanged(); // rebuilt by any thread
+            if (state.getTransition(new RegEx("CMD" + j)) == state.getTransitions().get(j))
+              found.incrementAndGet();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    assertEquals(1000 * threads.length, found.get());
+  }
+
+  @Test
+  public void testDeterminization() {
+    // two paths, a b^length and a b^(length+1), sharing only the first symbol
+    Automaton<RegEx> automaton = new Automaton<RegEx>();
+    int length = 100000;
+    for (int n = 0; n < 2; n++) {
+      State<RegEx> s = new State<RegEx>();
+      automaton._initial_state._transitions.add(new Transition<RegEx>(new RegEx("a"), s));
+      automaton._all_states.add(s);
+      for (int i = 0; i < length + n; i++) {
+        State<RegEx> next = new State<RegEx>();
+        s._transitions.add(new Transition<RegEx>(new RegEx("b"), next));
+        automaton._all_states.add(next);
+        s = next;
+      }
+      s._is_final = true;
+    }
+
+    // deep enough to overflow the stack of a recursive construction
+    Operations.determinization(automaton);
+    assertEquals(length + 3, automaton._all_states.size());
+    State<RegEx> s = automaton._initial_state.getTransition(new RegEx("a"))._dest_state;
+    for (int i = 0; i < length; i++) {
+      assertEquals(1, s._transitions.size());
+      s = s.getTransition(new RegEx("b"))._dest_state;
+    }
+    assertTrue(s._is_final);
+    s = s.getTransition(new RegEx("b"))._dest_state;
+    assertTrue(s._is_final);
+    assertTrue(s._transitions.isEmpty());
+  }
+
+  /**
+   * States (in breadth-first order) with their transitions sorted by symbol.
+   */
+  private static String describe(Automaton<RegEx> automaton) {
+    HashMap<State<RegEx>, Integer> index = new HashMap<State<RegEx>, Integer>();
+    ArrayList<State<RegEx>> states = new ArrayList<State<RegEx>>();
+    index.put(automaton._initial_state, 0);
+    states.add(automaton._initial_state);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < states.size(); i++) {
+      State<RegEx> s = states.get(i);
+      TreeMap<String, Transition<RegEx>> transitions = new TreeMap<String, Transition<RegEx>>();
+      for (Transition<RegEx> t : s._transitions)
+        transitions.put(t._symbol.getPattern(), t);
+      sb.append(i).append(s._is_final ? "*" : "").append(':');
+      for (Transition<RegEx> t : transitions.values()) {
+        if (!index.containsKey(t._dest_state)) {
+          index.put(t._dest_state, states.size());
+          states.add(t._dest_state);
+        }
+        sb.append(' ').append(t._symbol.getPattern()).append('/').append(t._freq);
+        sb.append("->").append(index.get(t._dest_state));
+      }
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testStateRegister() {
+    Random random = new Random(1);
+    String[] commands = { "USER", "PASS", "LIST", "RETR", "QUIT" };
+    for (int n = 0; n < 20; n++) {
+      Automaton<RegEx> automaton = new Automaton<RegEx>();
+      for (int i = 0; i < 30; i++) {
+        StringBuilder sequence = new StringBuilder(commands[random.nextInt(commands.length)]);
+        for (int j = random.nextInt(4); j > 0; j--)
+          sequence.append(" x").append(random.nextInt(4));
+        automaton.addSequence(createSequence(sequence + " \r\n"));
+      }
+      Operations.minimization(automaton);
+      StateRegister<RegEx> register = new StateRegister<RegEx>(automaton);
+
+      // give the same symbol to the transitions of some states, as Language
+      // does when it generalizes them
+      for (int round = 0; round < 3; round++) {
+        for (State<RegEx> s : new ArrayList<State<RegEx>>(automaton._all_states)) {
+          if (s._transitions.size() < 2 || random.nextInt(3) > 0)
+            continue;
+          register.unregister(s);
+          for (Transition<RegEx> t : s._transitions)
+            if (t._symbol.getPattern().startsWith("x"))
+              t._symbol.setPattern("x");
+        }
+        Automaton<RegEx> expected = new Automaton<RegEx>();
+        Operations.copy(automaton, expected);
+        Operations.determinization(expected);
+        Operations.minimization(expected);
+
+        register.update(new ArrayList<State<RegEx>>());
+        register.prune();
+        assertEquals(expected._all_states.size(), automaton._all_states.size());
+        assertEquals(describe(expected), describe(automaton));
+      }
+    }
+  }
+
+  @Test
+  public void testPaths() {
+    Automaton<RegEx> automaton = createPrefixTree();
+    HashSet<String> expected = new HashSet<String>();
+    for (String sequence : new String[] { "USER a \r\n", "USER b \r\n", "PASS a \r\n",
+        "PASS b \r\n", "QUIT \r\n", "QUIT" })
+      expected.add(createSequence(sequence).toString());
+    for (int i = 0; i < 2; i++) {
+      HashSet<String> paths = new HashSet<String>();
+      for (List<RegEx> path : automaton.getPaths()) {
+        assertTrue(automaton.accepts(path));
+        paths.add(path.toString());
+      }
+      assertEquals(expected, paths);
+      assertEquals(6, automaton.countPaths());
+      assertEquals(automaton.getListofPaths().size(), automaton.countPaths());
+      Operations.minimization(automaton);
+    }
+
+    // The number of paths of a cyclic automaton is infinite.
+    State<RegEx> last = automaton._initial_state.getTransition(new RegEx("QUIT")).getState();
+    last._transitions.add(new Transition<RegEx>(new RegEx("QUIT"), last));
+    try {
+      automaton.countPaths();
+      fail("cycle not detected");
+    } catch (IllegalStateException e) {
+    }
+  }
 }
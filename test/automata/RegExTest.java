@@ -1,8 +1,11 @@
 
 package automata;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.Test;
 import traces.ByteChars;
 
@@ -57,4 +60,114 @@ public class RegExTest {
     assertTrue(r0.accepts(s));
   }
 
+  @Test
+  public void testTokenize() {
+    ByteChars message = new ByteChars("USER a\r\n".getBytes());
+    assertEquals(4, RegEx.tokenize(message, 0).size());
+    try {
+      RegEx.setTextBasedSupport(false);
+      assertEquals(8, RegEx.tokenize(message, 0).size());
+    } finally {
+      RegEx.setTextBasedSupport(true);
+    }
+    assertEquals(4, RegEx.tokenize(message, 0).size());
+  }
+
+  @Test
+  public void testLiteral() {
+    ByteChars message = new ByteChars("RETR a\u0000b\r\n".getBytes());
+    RegEx literal = RegEx.tokenize(message, 0).get(2);
+    RegEx quoted = new RegEx("\\Qa\\E\\x00\\Qb\\E");
+    assertTrue(literal.isLiteral());
+    assertEquals(quoted, literal);
+    assertEquals(quoted.hashCode(), literal.hashCode());
+    assertEquals("a\\x00b", literal.toString());
+    assertEquals(3, literal.match(message, 5));
+    assertEquals(0, literal.match(message, 4));
+
+    RegEx concat = RegEx.concat(literal, new RegEx(new ByteChars("c".getBytes())));
+    assertTrue(concat.accepts("a\u0000bc"));
+    assertEquals("\\Qa\\E\\x00\\Qbc\\E", concat.getPattern());
+
+    literal.setPattern("\\w+");
+    assertFalse(literal.isLiteral());
+    assertTrue(literal.accepts("abc"));
+  }
+
+  @Test
+  public void testByteClass() {
+    // same bytes in any order are the same class
+    RegExOperations.BracketedExpression b0 = RegExOperations.BracketedExpression
+        .generalize("1\r2-3".getBytes());
+    RegExOperations.BracketedExpression b1 = RegExOperations.BracketedExpression
+        .generalize("4-5\r6".getBytes());
+    assertEquals(b0.toString(), b1.toString());
+    RegExOperations.BracketedExpression merged = RegExOperations.merge(b0,
+        RegExOperations.BracketedExpression.generalize(".".getBytes()));
+    assertEquals("[0-9\\x0D\\Q-\\E\\Q.\\E]+", merged.toString());
+
+    // same matches as java.util.regex
+    String[] patterns = { merged.toString(), "\\w+", "\\S+", "[A-Za-z]", "[0-9\\x00\\xFF]+" };
+    java.util.Random random = new java.util.Random(1);
+    byte[] alphabet = { 'a', 'Z', '9', '_', '-', ' ', '.', '\r', '\n', 0, (byte)0xFF };
+    for (String pattern : patterns) {
+      assertTrue(ByteClass.compile(pattern) != null);
+      RegEx regex = new RegEx(pattern);
+      java.util.regex.Pattern java_pattern = java.util.regex.Pattern.compile(pattern);
+      for (int n = 0; n < 200; n++) {
+        byte[] data = new byte[random.nextInt(6)];
+        for (int i = 0; i < data.length; i++)
+          data[i] = alphabet[random.nextInt(alphabet.length)];
+        ByteChars chars = new ByteChars(data);
+        java.util.regex.Matcher m = java_pattern.matcher(chars);
+        int expected = m.lookingAt() ? m.end() : 0;
+        assertEquals(pattern + " " + chars, expected, regex.match(chars, 0));
+      }
+    }
+    assertTrue(ByteClass.compile("[A-Z]+ ") == null);
+    assertTrue(ByteClass.compile("\\Qa\\E") == null);
+  }
+
+  @Test
+  public void testTokens() {
+    // literals are split as their quoted patterns are parsed
+    RegEx text = new RegEx(new ByteChars("USER a\r\n".getBytes()));
+    assertEquals(RegExOperations.process(text.getPattern()).toString(), text.getTokens()
+        .toString());
+    RegEx.setTextBasedSupport(false);
+    RegEx binary = new RegEx(new ByteChars(new byte[] { 'a', 0, (byte)0xFF }));
+    RegEx.setTextBasedSupport(true);
+    assertEquals(RegExOperations.process(binary.getPattern()).toString(), binary.getTokens()
+        .toString());
+
+    // patterns of tokens are rendered when needed
+    List<RegExOperations.RegularExpressionInterface> tokens = text.getTokens();
+    RegEx remaining = new RegEx(tokens.subList(1, tokens.size()));
+    assertEquals("\\x0D\\x0A", remaining.getPattern());
+    assertEquals(new RegEx("\\x0D\\x0A").getId(), remaining.getId());
+    text.setTokens(tokens.subList(0, 1));
+    assertFalse(text.isLiteral());
+    assertEquals("\\QUSER a\\E", text.getPattern());
+
+    // generalizing a token does not change it, and symbols have the tokens of
+    // their patterns
+    RegExOperations.BracketedExpression word = RegExOperations.BracketedExpression
+        .generalize("ab".getBytes());
+    word.addByte((byte)'.');
+    RegEx symbol = new RegEx(Arrays
+        .<RegExOperations.RegularExpressionInterface> asList(word));
+    assertEquals("[A-Za-z\\Q.\\E]+", symbol.getPattern());
+    assertEquals("\\S+", RegExOperations.merge(word, tokens.get(0)).toString());
+    assertEquals("[A-Za-z\\Q.\\E]+", word.toString());
+    assertEquals(RegExOperations.process(symbol.getPattern()).toString(), symbol.getTokens()
+        .toString());
+    for (String bytes : new String[] { "ab", "a1", "a1_", "a-/", "12", "a b", "\r\n" }) {
+      RegExOperations.BracketedExpression generalized = RegExOperations.BracketedExpression
+          .generalize(bytes.getBytes());
+      symbol.setTokens(Arrays.<RegExOperations.RegularExpressionInterface> asList(
+          generalized, tokens.get(0)));
+      assertEquals(RegExOperations.process(symbol.getPattern()).toString(), symbol
+          .getTokens().toString());
+    }
+  }
 }
@@ -0,0 +1,81 @@
+package automata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.*;
+import org.junit.Test;
+import traces.ByteChars;
+
+public class SymbolTableTest {
+
+  private static LanguageMessageType messageType(String... regex) {
+    List<Transition<RegEx>> path = new ArrayList<Transition<RegEx>>();
+    for (String r : regex)
+      path.add(new Transition<RegEx>(new RegEx(r), new State<RegEx>()));
+    return new LanguageMessageType(path);
+  }
+
+  @Test
+  public void testRegExIds() {
+    RegEx literal = new RegEx(new ByteChars("USER".getBytes()));
+    RegEx quoted = new RegEx("\\QUSER\\E");
+    assertEquals(quoted.getId(), literal.getId());
+    assertEquals(quoted.getId(), ((RegEx)literal.clone()).getId());
+    assertTrue(new RegEx("\\w+").getId() != quoted.getId());
+
+    literal.setPattern("\\w+");
+    assertEquals(new RegEx("\\w+").getId(), literal.getId());
+    assertFalse(literal.equals(quoted));
+  }
+
+  @Test
+  public void testMessageTypeIds() {
+    LanguageMessageType user = messageType("\\QUSER\\E", " ", "\\S+");
+    LanguageMessageType copy = messageType("\\QUSER\\E", " ", "\\S+");
+    LanguageMessageType quit = messageType("\\QQUIT\\E");
+    assertEquals(user, copy);
+    assertEquals(user.hashCode(), copy.hashCode());
+    assertFalse(user.equals(quit));
+
+    List<LanguageMessageType> empty = new ArrayList<LanguageMessageType>();
+    IOLanguageMessageType io0 = new IOLanguageMessageType(Arrays.asList(user), empty);
+    IOLanguageMessageType io1 = new IOLanguageMessageType(Arrays.asList(copy), empty);
+    IOLanguageMessageType io2 = new IOLanguageMessageType(empty, Arrays.asList(user));
+    assertEquals(io0, io1);
+    assertFalse(io0.equals(io2));
+
+    // symbols generalized in place
+    ((RegEx)quit.getPathInLanguage().iterator().next().getSymbol()).setPattern("\\QUSER\\E \\S+");
+    assertFalse(user.equals(quit));
+    ((RegEx)user.getPathInLanguage().iterator().next().getSymbol()).setPattern("\\QQUIT\\E");
+    assertFalse(user.equals(copy));
+  }
+
+  @Test
+  public void testContentHashCodes() {
+    LanguageMessageType user = messageType("\\QUSER\\E", " ", "\\S+");
+    assertEquals(Arrays.asList(new RegEx("\\QUSER\\E"), new RegEx(" "), new RegEx("\\S+"))
+        .hashCode(), user.hashCode());
+
+    List<LanguageMessageType> empty = new ArrayList<LanguageMessageType>();
+    IOLanguageMessageType io = new IOLanguageMessageType(Arrays.asList(user), empty);
+    assertEquals(31 * Arrays.asList(user).hashCode() + 1, io.hashCode());
+  }
+
+  @Test
+  public void testUnreferencedIdsAreDropped() throws InterruptedException {
+    List<RegEx> symbols = new ArrayList<RegEx>();
+    for (int i = 0; i < 1000; i++) {
+      symbols.add(new RegEx("\\Qdropped" + i + "\\E"));
+      symbols.get(i).getId();
+    }
+    int size = SymbolTable.size();
+    symbols = null;
+    for (int i = 0; i < 100 && SymbolTable.size() >= size; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertTrue(SymbolTable.size() < size);
+  }
+}
@@ -0,0 +1,96 @@
+package traces;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.*;
+import org.junit.Test;
+
+public class MappedPcapFileTest {
+  private static final String TRACES = "test/traces.pcap";
+
+  private static Collection<List<Message>> getSessions(String expression, String delimiter) {
+    MappedPcapFile traces = new MappedPcapFile(TRACES, expression, "*:21", delimiter);
+    traces.open();
+    Collection<List<Message>> sessions = traces.getSessions(true);
+    traces.close();
+    return sessions;
+  }
+
+  private static Collection<List<Message>> getFramedSessions(String expression, Framing framing) {
+    MappedPcapFile traces = new MappedPcapFile(TRACES, expression, "*:21", null);
+    traces.setFraming(framing);
+    traces.open();
+    Collection<List<Message>> sessions = traces.getSessions(true);
+    traces.close();
+    return sessions;
+  }
+
+  private static int countMessages(Collection<List<Message>> sessions) {
+    int total = 0;
+    for (List<Message> session : sessions)
+      total += session.size();
+    return total;
+  }
+
+  @Test
+  public void testGetSessions() {
+    Collection<List<Message>> sessions = getSessions("port 21", null);
+    assertEquals(4, sessions.size());
+    assertEquals(100, countMessages(sessions));
+
+    List<Message> session = sessions.iterator().next();
+    assertFalse(session.get(0).isInput());
+    assertTrue(session.get(0).toString().startsWith("220 "));
+    assertTrue(session.get(1).isInput());
+    assertEquals("USER anonymous\\x0D\\x0A", session.get(1).toString());
+
+    // only input messages
+    sessions = getSessions("tcp dst port 21", null);
+    assertEquals(32, countMessages(sessions));
+    for (List<Message> s : sessions)
+      for (Message m : s)
+        assertTrue(m.isInput());
+
+    // split at the delimiter
+    assertEquals(127, countMessages(getSessions("port 21", "\r\n")));
+    Collection<List<Message>> framed = getFramedSessions("port 21", Framing.parse("crlf"));
+    assertEquals(127, countMessages(framed));
+    assertEquals(getSessions("port 21", "\r\n").toString(), framed.toString());
+    assertEquals(0, countMessages(getSessions("udp or not port 21", null)));
+  }
+
+  @Test
+  public void testSmallWindows() {
+    String expected = getSessions("port 21", null).toString();
+    int window_size = MappedPcapFile.WINDOW_SIZE;
+    try {
+      MappedPcapFile.WINDOW_SIZE = 100;
+      assertEquals(expected, getSessions("port 21", null).toString());
+    } finally {
+      MappedPcapFile.WINDOW_SIZE = window_size;
+    }
+  }
+
+  @Test
+  public void testSampledSessions() {
+    MappedPcapFile traces = new MappedPcapFile(TRACES, "port 21", "*:21", null);
+    traces.open();
+    Collection<List<Message>> sample = traces.getSessions(true, SessionSampler.reservoir(1, 0));
+    traces.close();
+    assertEquals(1, sample.size());
+
+    // The sampled messages do not keep the buffer they were read from.
+    List<Message> session = sample.iterator().next();
+    int size = 0;
+    for (Message m : session)
+      size += m.length();
+    for (Message m : session)
+      assertEquals(size, m.buf.length);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testUnsupportedFilter() {
+    getSessions("portrange 20-21", null);
+  }
+}
@@ -0,0 +1,53 @@
+package traces;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class MessageCacheTest {
+
+  private static Message message(String text) {
+    return new Message(text.getBytes(), true);
+  }
+
+  @Test
+  public void testHitsAndMisses() {
+    MessageCache<String> cache = new MessageCache<String>(64);
+    assertTrue(cache.get(message("QUIT\r\n")) == null);
+    cache.put(message("QUIT\r\n"), "QUIT");
+    cache.put(message("NOOP\r\n"), "NOOP");
+
+    // same bytes in a different buffer
+    byte[] buffer = "USER a\r\nQUIT\r\n".getBytes();
+    assertEquals("QUIT", cache.get(new Message(buffer, 8, 6, true)));
+    assertEquals("NOOP", cache.get(message("NOOP\r\n")));
+    assertTrue(cache.get(message("NOOP")) == null);
+    assertEquals(2, cache.getHits());
+    assertEquals(2, cache.getMisses());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertTrue(cache.get(message("QUIT\r\n")) == null);
+  }
+
+  @Test
+  public void testEviction() {
+    MessageCache<Integer> cache = new MessageCache<Integer>(256);
+    for (int i = 0; i < 10000; i++) {
+      cache.put(message("CMD " + i), i);
+      cache.get(message("CMD 0")); // recently used
+    }
+    assertTrue(cache.size() <= 256);
+    assertEquals(Integer.valueOf(0), cache.get(message("CMD 0")));
+    assertTrue(cache.get(message("CMD 1")) == null);
+  }
+
+  @Test
+  public void testLongHashCode() {
+    assertEquals(message("PASV\r\n").longHashCode(), message("PASV\r\n").longHashCode());
+    assertFalse(message("PASV\r\n").longHashCode() == message("PASV\n\r").longHashCode());
+    assertTrue(message("PASV").contentEquals("PASV".getBytes()));
+    assertFalse(message("PASV").contentEquals("PASS".getBytes()));
+  }
+}
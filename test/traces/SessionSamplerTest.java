@@ -0,0 +1,137 @@
+package traces;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.*;
+import org.junit.Test;
+
+public class SessionSamplerTest {
+
+  private static List<Message> session(String... messages) {
+    List<Message> session = new ArrayList<Message>();
+    for (String m : messages)
+      session.add(new Message(m.getBytes(), true));
+    return session;
+  }
+
+  private static List<List<Message>> sessions(int total) {
+    List<List<Message>> sessions = new ArrayList<List<Message>>();
+    for (int i = 0; i < total; i++)
+      sessions.add(session("USER " + i + "\r\n", "QUIT\r\n"));
+    return sessions;
+  }
+
+  @Test
+  public void testReservoir() {
+    List<List<Message>> sessions = sessions(1000);
+    Collection<List<Message>> sample = SessionSampler.sample(sessions,
+        SessionSampler.reservoir(10, 1));
+    assertEquals(10, sample.size());
+
+    // in the order of the sessions, and not only from the beginning
+    int last = -1;
+    for (List<Message> session : sample) {
+      int position = sessions.indexOf(session);
+      assertTrue(position > last);
+      last = position;
+    }
+    assertTrue(last >= 10);
+    assertEquals(5, SessionSampler.sample(sessions(5), SessionSampler.reservoir(10, 1)).size());
+  }
+
+  @Test
+  public void testStratified() {
+    List<List<Message>> sessions = sessions(1000);
+    sessions.add(500, session("LIST\r\n"));
+    sessions.add(session("STAT\r\n", "QUIT\r\n"));
+    SessionSampler sampler = SessionSampler.stratified(10, 1);
+    Collection<List<Message>> sample = SessionSampler.sample(sessions, sampler);
+    assertEquals(12, sample.size());
+    assertEquals(sessions.size(), sampler.getOffered());
+    assertTrue(sample.contains(sessions.get(500)));
+    assertTrue(sample.contains(sessions.get(sessions.size() - 1)));
+  }
+
+  @Test
+  public void testDistinct() {
+    List<List<Message>> sessions = new ArrayList<List<Message>>();
+    for (int i = 0; i < 100; i++)
+      sessions.add(session("USER " + (i % 3) + "\r\n", "QUIT\r\n"));
+    Collection<List<Message>> sample = SessionSampler.sample(sessions, SessionSampler
+        .parse("distinct", 0));
+    assertEquals(3, sample.size());
+
+    // direction of the messages matters
+    List<Message> output = session("USER 0\r\n");
+    output.add(new Message("QUIT\r\n".getBytes(), false));
+    sessions.add(output);
+    sample = SessionSampler.sample(sessions, SessionSampler.parse("distinct,reservoir:10", 0));
+    assertEquals(4, sample.size());
+
+    // only the last MAX_DISTINCT sessions are remembered
+    int max_distinct = SessionSampler.MAX_DISTINCT;
+    SessionSampler.MAX_DISTINCT = 2;
+    try {
+      sessions = Arrays.asList(session("A"), session("B"), session("B"), session("C"),
+          session("A"));
+      sample = SessionSampler.sample(sessions, SessionSampler.parse("distinct", 0));
+      assertEquals(4, sample.size());
+    } finally {
+      SessionSampler.MAX_DISTINCT = max_distinct;
+    }
+  }
+
+  @Test
+  public void testDetach() {
+    byte[] buffer = "USER a\r\nQUIT\r\n".getBytes();
+    List<Message> session = new ArrayList<Message>();
+    session.add(new Message(buffer, 0, 8, true));
+    session.add(new Message(buffer, 8, 6, true));
+
+    SessionSampler sampler = SessionSampler.parse("distinct,stratified:1", 0);
+    sampler.setDetach(true);
+    List<Message> kept = SessionSampler.sample(Arrays.asList(session, session), sampler)
+        .iterator().next();
+    assertEquals(session, kept);
+    for (Message m : kept)
+      assertTrue(m.buf != buffer && m.buf.length == 14);
+
+    // sessions are kept as they are by default
+    kept = SessionSampler.sample(Arrays.asList(session), SessionSampler.all()).iterator()
+        .next();
+    assertTrue(kept == session);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParse() {
+    SessionSampler.parse("reservoir:10,stratified:10", 0);
+  }
+
+  @Test
+  public void testGetSessions() {
+    MappedPcapFile traces = new MappedPcapFile("test/traces.pcap", "port 21", "*:21", null);
+    traces.open();
+    Collection<List<Message>> sessions = traces.getSessions(true);
+    traces.close();
+
+    // sessions finished above max_open_sessions are not split
+    traces = new MappedPcapFile("test/traces.pcap", "port 21", "*:21", null);
+    traces.setMaxOpenSessions(1);
+    traces.open();
+    Collection<List<Message>> sample = traces.getSessions(true, SessionSampler.all());
+    traces.close();
+    assertTrue(sample.size() <= sessions.size());
+    for (List<Message> session : sample) {
+      boolean is_prefix = false;
+      for (List<Message> s : sessions)
+        is_prefix |= s.size() >= session.size() && s.subList(0, session.size()).equals(session);
+      assertTrue(is_prefix);
+    }
+
+    traces = new MappedPcapFile("test/traces.pcap", "port 21", "*:21", null);
+    traces.open();
+    sample = traces.getSessions(true, SessionSampler.reservoir(2, 0));
+    traces.close();
+    assertEquals(Math.min(2, sessions.size()), sample.size());
+  }
+}
@@ -0,0 +1,99 @@
+package traces;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.*;
+import java.util.*;
+import org.junit.Test;
+
+public class SessionStoreTest {
+
+  @Test
+  public void testInterleavedSessions() {
+    int chunk_size = SessionStore.CHUNK_SIZE;
+    SessionStore.CHUNK_SIZE = 100000; // several chunks
+    try {
+      SessionStore store = new SessionStore();
+      List<List<Message>> expected = new ArrayList<List<Message>>();
+      for (int i = 0; i < 10; i++) {
+        assertEquals(i, store.newSession());
+        expected.add(new ArrayList<Message>());
+      }
+      for (int i = 0; i < 20000; i++) {
+        int session = (i * 7) % 10;
+        Message m = new Message(("USER " + i + "\r\n").getBytes(), i % 3 != 0);
+        store.add(session, m);
+        expected.get(session).add(m);
+      }
+      store.trimToSize();
+
+      assertEquals(10, store.size());
+      assertEquals(20000, store.getTotalMessages());
+      assertEquals(expected, store);
+      for (int s = 0; s < 10; s++)
+        for (int i = 0; i < expected.get(s).size(); i++)
+          assertEquals(expected.get(s).get(i).isInput(), store.get(s).get(i).isInput());
+
+      // sessions added after being read
+      store.newSession();
+      store.add(10, new Message("QUIT\r\n".getBytes(), true));
+      assertEquals(2000, store.get(0).size());
+      assertEquals("[QUIT\\x0D\\x0A]", store.get(10).toString());
+    } finally {
+      SessionStore.CHUNK_SIZE = chunk_size;
+    }
+  }
+
+  @Test
+  public void testConcurrentReads() throws InterruptedException {
+    final SessionStore store = new SessionStore();
+    final List<List<Message>> expected = new ArrayList<List<Message>>();
+    for (int i = 0; i < 100; i++) {
+      store.newSession();
+      expected.add(new ArrayList<Message>());
+    }
+    for (int i = 0; i < 10000; i++) {
+      Message m = new Message(("LIST " + i + "\r\n").getBytes(), true);
+      store.add(i % 100, m);
+      expected.get(i % 100).add(m);
+    }
+
+    // the first reads index the sessions
+    final int[] equal = new int[4];
+    Thread[] threads = new Thread[equal.length];
+    for (int i = 0; i < threads.length; i++) {
+      final int thread = i;
+      threads[i] = new Thread() {
+        public void run() {
+          for (int s = 0; s < 100; s++)
+            if (store.get(s).equals(expected.get(s)))
+              equal[thread]++;
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    for (int n : equal)
+      assertEquals(100, n);
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    SessionStore store = new SessionStore();
+    store.newSession();
+    store.add(0, new Message("USER a\r\n".getBytes(), true));
+    store.add(0, new Message("331 ok\r\n".getBytes(), false));
+    store.newSession();
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(store);
+    out.close();
+    Object loaded = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))
+        .readObject();
+    assertTrue(loaded instanceof ArrayList);
+    assertEquals(store, loaded);
+    assertTrue(((List<?>)loaded).get(0) instanceof ArrayList);
+  }
+}
@@ -0,0 +1,156 @@
+package traces;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.*;
+import org.junit.Test;
+import traces.PcapFile.Connection;
+
+public class TcpReassemblerTest {
+  private static final Connection CONNECTION = new Connection(1, 1024);
+
+  private static List<String> messages(TcpReassembler reassembler) {
+    List<String> messages = new ArrayList<String>();
+    Message m;
+    while ((m = reassembler.next()) != null) {
+      assertTrue(reassembler.getConnection() == CONNECTION);
+      messages.add(m.toString());
+    }
+    return messages;
+  }
+
+  private static void add(TcpReassembler reassembler, long seq, String data) {
+    reassembler.add(CONNECTION, seq, new Message(data.getBytes(), true));
+  }
+
+  @Test
+  public void testCrlf() {
+    TcpReassembler reassembler = new TcpReassembler(Framing.parse("crlf"));
+    // pipelined and split messages, out of order and retransmitted segments
+    add(reassembler, 100, "USER a\r\nPA");
+    assertEquals(Arrays.asList("USER a\\x0D\\x0A"), messages(reassembler));
+    add(reassembler, 115, "\nLIST\r\n");
+    add(reassembler, 110, "SS b\r");
+    add(reassembler, 110, "SS b\r");
+    add(reassembler, 100, "USER a\r\nPASS");
+    assertEquals(Arrays.asList("PASS b\\x0D\\x0A", "LIST\\x0D\\x0A"), messages(reassembler));
+
+    // sequence numbers wrap around
+    reassembler = new TcpReassembler(Framing.parse("lf"));
+    add(reassembler, 0xFFFFFFFEL, "QU");
+    add(reassembler, 0, "IT\nQ");
+    reassembler.flush();
+    assertEquals(Arrays.asList("QUIT\\x0A", "Q"), messages(reassembler));
+  }
+
+  @Test
+  public void testLengthPrefixed() {
+    // DNS over TCP: 2 bytes with the length of the rest of the message
+    TcpReassembler reassembler = new TcpReassembler(Framing.parse("length:2"));
+    add(reassembler, 1, "\0\3abc\0");
+    add(reassembler, 7, "\2de\0\1");
+    add(reassembler, 12, "f");
+    assertEquals(Arrays.asList("\\x00\\x03abc", "\\x00\\x02de", "\\x00\\x01f"),
+        messages(reassembler));
+
+    // length at offset 1, counting the whole message
+    reassembler = new TcpReassembler(Framing.parse("length:1:1:-2"));
+    add(reassembler, 1, "x\4abx\3");
+    reassembler.flush();
+    assertEquals(Arrays.asList("x\\x04ab", "x\\x03"), messages(reassembler));
+  }
+
+  @Test
+  public void testFixedAndGaps() {
+    int max_pending = TcpReassembler.MAX_PENDING;
+    TcpReassembler.MAX_PENDING = 2;
+    try {
+      TcpReassembler reassembler = new TcpReassembler(Framing.fixed(3));
+      add(reassembler, 10, "abcd");
+      add(reassembler, 20, "xyz");
+      add(reassembler, 30, "123");
+      add(reassembler, 40, "456"); // no room: bytes 14 to 19 are lost
+      assertEquals(Arrays.asList("abc", "d", "xyz"), messages(reassembler));
+      reassembler.flush();
+      assertEquals(Arrays.asList("123", "456"), messages(reassembler));
+
+      // without sequence numbers
+      reassembler.add(CONNECTION, -1, new Message("abcdefg".getBytes(), true));
+      assertEquals(Arrays.asList("abc", "def", "g"), messages(reassembler));
+    } finally {
+      TcpReassembler.MAX_PENDING = max_pending;
+    }
+  }
+
+  @Test
+  public void testEndOfStreams() {
+    TcpReassembler reassembler = new TcpReassembler(Framing.parse("crlf"));
+    // FIN before the last bytes: the stream ends once they arrive
+    add(reassembler, 100, "QUIT");
+    reassembler.end(CONNECTION, true, 108);
+    assertEquals(1, reassembler.getOpenStreams());
+    add(reassembler, 106, "ab");
+    assertEquals(0, messages(reassembler).size());
+    add(reassembler, 104, "\r\n");
+    assertEquals(Arrays.asList("QUIT\\x0D\\x0A", "ab"), messages(reassembler));
+    assertEquals(0, reassembler.getOpenStreams());
+
+    // reset: bytes still missing are lost
+    add(reassembler, 200, "USER");
+    add(reassembler, 210, "PASS");
+    reassembler.add(CONNECTION, 300, new Message("220".getBytes(), false));
+    assertEquals(2, reassembler.getOpenStreams());
+    reassembler.reset(CONNECTION);
+    assertEquals(0, reassembler.getOpenStreams());
+    assertEquals(Arrays.asList("USER", "PASS", "220"), messages(reassembler));
+
+    // least recently used streams are ended
+    int max_streams = TcpReassembler.MAX_STREAMS;
+    TcpReassembler.MAX_STREAMS = 1;
+    try {
+      add(reassembler, 400, "LIST");
+      reassembler.add(CONNECTION, 500, new Message("150".getBytes(), false));
+      assertEquals(1, reassembler.getOpenStreams());
+      assertEquals(Arrays.asList("LIST"), messages(reassembler));
+    } finally {
+      TcpReassembler.MAX_STREAMS = max_streams;
+    }
+  }
+
+  @Test
+  public void testSplitMessages() {
+    // bytes given to the framing that it did not scan before
+    final int[] scanned = { 0 };
+    final Framing crlf = Framing.parse("crlf");
+    Framing framing = new Framing() {
+      public int messageLength(byte[] data, int offset, int length) {
+        return messageLength(data, offset, length, 0);
+      }
+
+      @Override
+      public int messageLength(byte[] data, int offset, int length, int previous) {
+        scanned[0] += length - previous;
+        return crlf.messageLength(data, offset, length, previous);
+      }
+    };
+
+    // a long message in one byte segments is scanned once
+    TcpReassembler reassembler = new TcpReassembler(framing);
+    int seq = 0;
+    for (int i = 0; i < 10000; i++)
+      add(reassembler, seq++, "a");
+    add(reassembler, seq++, "\r");
+    add(reassembler, seq++, "\nb");
+    List<String> messages = messages(reassembler);
+    assertEquals(1, messages.size());
+    assertEquals(10000 + "\\x0D\\x0A".length(), messages.get(0).length());
+    assertTrue(scanned[0] < 2 * seq);
+    reassembler.flush();
+    assertEquals(Arrays.asList("b"), messages(reassembler));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testParse() {
+    Framing.parse("length:8");
+  }
+}
@@ -0,0 +1,44 @@
+package traces;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.*;
+import org.junit.Test;
+
+public class WeightedSessionsTest {
+
+  private static List<Message> session(boolean is_input, String... messages) {
+    List<Message> session = new ArrayList<Message>();
+    for (String m : messages)
+      session.add(new Message(m.getBytes(), is_input));
+    return session;
+  }
+
+  @Test
+  public void testDedup() {
+    List<List<Message>> sessions = new ArrayList<List<Message>>();
+    for (int i = 0; i < 100; i++)
+      sessions.add(session(true, "USER " + (i % 3) + "\r\n", "QUIT\r\n"));
+    // same messages in the other direction
+    sessions.add(session(false, "USER 0\r\n", "QUIT\r\n"));
+
+    WeightedSessions weighted = WeightedSessions.dedup(sessions);
+    assertEquals(4, weighted.getDistinct().size());
+    assertEquals(Arrays.asList(34, 33, 33, 1), weighted.getWeights());
+    assertEquals(sessions.get(1), weighted.getDistinct().get(1));
+    assertTrue(WeightedSessions.dedup(weighted) == weighted);
+
+    // iterated as many times as the weights
+    assertEquals(sessions.size(), weighted.size());
+    int total = 0;
+    for (List<Message> session : weighted) {
+      assertTrue(sessions.contains(session));
+      total++;
+    }
+    assertEquals(sessions.size(), total);
+
+    weighted.add(session(true, "USER 1\r\n", "QUIT\r\n"), 7);
+    assertEquals(40, (int)weighted.getWeights().get(1));
+    assertEquals(sessions.size() + 7, weighted.size());
+  }
+}